@@ -38,6 +38,7 @@ import net.sf.joost.emitter.FOPEmitter;
 import net.sf.joost.emitter.IStxEmitter;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.util.MappedFileReader;
 
 /**
  * Command line interface for Joost.
@@ -92,6 +93,9 @@ public class Main
     // debugging
     boolean dontexit = false;
 
+    // set to true if -mmap was specified on the command line
+    boolean mmap = false;
+
     // timings
     boolean measureTime = false;
     long timeStart = 0, timeEnd = 0;
@@ -161,6 +165,11 @@ public class Main
               measureTime = true;
               continue;
             }
+            if ("-mmap".equals (args[i]))
+            {
+              mmap = true;
+              continue;
+            }
             if ("-o".equals (args[i]))
             {
               // this option needs a parameter
@@ -364,6 +373,7 @@ public class Main
       }
 
       InputSource is;
+      MappedFileReader mappedReader = null;
       if (xmlFile.equals ("-"))
       {
         is = new InputSource (System.in);
@@ -371,13 +381,31 @@ public class Main
         is.setPublicId ("");
       }
       else
+      {
         is = new InputSource (xmlFile);
+        final File file = new File (xmlFile);
+        if (mmap && file.isFile ())
+        {
+          // null if the file isn't UTF-8 encoded
+          mappedReader = MappedFileReader.open (file);
+          if (mappedReader != null)
+            is.setCharacterStream (mappedReader);
+        }
+      }
 
       // Ready for take-off
       if (measureTime)
         timeStart = System.currentTimeMillis ();
 
-      processor.parse (is);
+      try
+      {
+        processor.parse (is);
+      }
+      finally
+      {
+        if (mappedReader != null)
+          mappedReader.close ();
+      }
 
       if (measureTime)
       {
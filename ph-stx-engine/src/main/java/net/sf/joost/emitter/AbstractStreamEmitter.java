@@ -26,6 +26,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.util.Properties;
@@ -40,6 +41,7 @@ import org.xml.sax.SAXException;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.trax.CTrAX;
+import net.sf.joost.util.CharSequenceUtils;
 
 /**
  * Base class for emitter classes that produce a character stream.
@@ -55,6 +57,9 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   /** Joost's HTML extension output method */
   private static final String HTML_METHOD = "{" + CSTX.JOOST_EXT_NS + "}html";
 
+  /** Joost's JSON extension output method */
+  private static final String JSON_METHOD = "{" + CSTX.JOOST_EXT_NS + "}json";
+
   /** Writer for the resulting text */
   protected Writer m_aWriter;
 
@@ -64,6 +69,9 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   /** Encoder for the chosen {@link #m_sEncoding} */
   protected CharsetEncoder m_aCharsetEncoder;
 
+  /** Reused array for writing character sequences that aren't strings */
+  private char [] m_aScratch;
+
   public AbstractStreamEmitter (final Writer writer, final String encoding)
   {
     this.m_aWriter = writer;
@@ -107,10 +115,13 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
           if (outputMethod.equals (HTML_METHOD))
             emitter = new HtmlEmitter (writer, encoding);
           else
-          {
-            final String msg = "Unsupported output method '" + outputMethod + "', use default 'xml' method instead";
-            log.warn (msg);
-          }
+            if (outputMethod.equals (JSON_METHOD))
+              emitter = new JsonEmitter (writer, encoding);
+            else
+            {
+              final String msg = "Unsupported output method '" + outputMethod + "', use default 'xml' method instead";
+              log.warn (msg);
+            }
       if (emitter != null)
       {
         final String val = outputProperties.getProperty (CTrAX.OUTPUT_KEY_SUPPORT_DISABLE_OUTPUT_ESCAPING);
@@ -206,6 +217,14 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   // Methods
   //
 
+  /**
+   * @return the output encoding of this emitter
+   */
+  public String getEncoding ()
+  {
+    return m_sEncoding;
+  }
+
   /**
    * Defines whether the XML declaration should be omitted, default is
    * <code>false</code>.
@@ -245,37 +264,127 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
    *         when there's no low surrogate
    */
   protected int encodeCharacters (final char [] chars, final int nIndex, final StringBuffer sb) throws SAXException
+  {
+    final char c = chars[nIndex];
+    if (!Character.isSurrogate (c) && m_aCharsetEncoder.canEncode (c))
+    {
+      // the common case, no need to wrap the array
+      sb.append (c);
+      return nIndex;
+    }
+    return encodeCharacters (CharBuffer.wrap (chars), nIndex, sb);
+  }
+
+  /**
+   * Encode a character from a character sequence, respect surrogate pairs
+   *
+   * @param chars
+   *        the character sequence
+   * @param nIndex
+   *        the current index
+   * @param sb
+   *        the buffer to append the encoded character
+   * @return the new index (if a pair has been consumed)
+   * @throws SAXException
+   *         when there's no low surrogate
+   */
+  protected int encodeCharacters (final CharSequence chars, final int nIndex, final StringBuffer sb) throws SAXException
   {
     // check surrogate pairs
     int index = nIndex;
-    if (chars[index] >= '\uD800' && chars[index] <= '\uDBFF')
+    final char c = chars.charAt (index);
+    if (c >= '\uD800' && c <= '\uDBFF')
     {
       // found a high surrogate
       index++;
-      if (index < chars.length && chars[index] >= '\uDC00' && chars[index] <= '\uDFFF')
+      if (index < chars.length () && chars.charAt (index) >= '\uDC00' && chars.charAt (index) <= '\uDFFF')
       {
         // found a low surrogate
         // output the calculated code value
-        sb.append ("&#").append ((chars[index - 1] - 0xD800) * 0x400 + (chars[index] - 0xDC00) + 0x10000).append (';');
+        sb.append ("&#").append ((c - 0xD800) * 0x400 + (chars.charAt (index) - 0xDC00) + 0x10000).append (';');
       }
       else
         throw new SAXException ("Surrogate pair encoding error - " +
                                 "missing low surrogate after code " +
-                                (int) chars[index - 1]);
+                                (int) c);
     }
     // else: single character
     else
-      if (m_aCharsetEncoder.canEncode (chars[index]))
+      if (m_aCharsetEncoder.canEncode (c))
       {
-        sb.append (chars[index]);
+        sb.append (c);
       }
       else
       {
-        sb.append ("&#").append ((int) chars[index]).append (';');
+        sb.append ("&#").append ((int) c).append (';');
       }
     return index;
   }
 
+  /**
+   * Writes a range of a character sequence to {@link #m_aWriter} without
+   * creating an intermediate string. Strings and array-backed buffers are
+   * passed directly to the writer, other sequences are copied in chunks into a
+   * reused array.
+   *
+   * @param chars
+   *        the character sequence
+   * @param start
+   *        the index of the first character to write
+   * @param end
+   *        the index after the last character to write
+   * @throws IOException
+   *         when writing fails
+   */
+  protected void write (final CharSequence chars, final int start, final int end) throws IOException
+  {
+    if (start >= end)
+      return;
+    if (chars instanceof String)
+      m_aWriter.write ((String) chars, start, end - start);
+    else
+      if (chars instanceof CharBuffer && ((CharBuffer) chars).hasArray ())
+      {
+        final CharBuffer cb = (CharBuffer) chars;
+        m_aWriter.write (cb.array (), cb.arrayOffset () + cb.position () + start, end - start);
+      }
+      else
+      {
+        if (m_aScratch == null)
+          m_aScratch = new char [1024];
+        for (int i = start; i < end; i += m_aScratch.length)
+        {
+          final int chunkEnd = Math.min (end, i + m_aScratch.length);
+          CharSequenceUtils.getChars (chars, i, chunkEnd, m_aScratch, 0);
+          m_aWriter.write (m_aScratch, 0, chunkEnd - i);
+        }
+      }
+  }
+
+  /**
+   * Checks that all characters of a sequence can be represented in the
+   * current encoding.
+   *
+   * @param chars
+   *        the characters to check
+   * @param context
+   *        additional information for the error message, may be empty
+   * @throws SAXException
+   *         for the first character that cannot be encoded
+   */
+  protected void checkEncodable (final CharSequence chars, final String context) throws SAXException
+  {
+    final int length = chars.length ();
+    for (int i = 0; i < length; i++)
+      if (!m_aCharsetEncoder.canEncode (chars.charAt (i)))
+        throw new SAXException ("Cannot output character with code " +
+                                (int) chars.charAt (i) +
+                                " in the encoding '" +
+                                m_sEncoding +
+                                "'" +
+                                context);
+  }
+
   //
   // Empty implementations for methods specified by {@link StxEmitter}
   //
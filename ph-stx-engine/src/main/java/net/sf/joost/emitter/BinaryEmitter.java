@@ -0,0 +1,373 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.util.NamePool;
+
+/**
+ * Writes a SAX event stream in a compact binary format, which can be read
+ * again by {@link net.sf.joost.stx.BinaryEventReader} without an XML parser.
+ * The format starts with the bytes of {@link #MAGIC} followed by the
+ * {@link #VERSION} byte. Then each event is written as an opcode byte (one of
+ * the <code>OP_XXX</code> constants) followed by its operands:
+ * <ul>
+ * <li><code>OP_START_ELEMENT uri lName qName attCount (uri lName qName type
+ * value)*</code></li>
+ * <li><code>OP_END_ELEMENT</code> (the reader knows the name)</li>
+ * <li><code>OP_TEXT|OP_CDATA|OP_COMMENT text</code></li>
+ * <li><code>OP_PI target data</code></li>
+ * <li><code>OP_START_MAPPING prefix uri</code></li>
+ * <li><code>OP_END_MAPPING prefix</code></li>
+ * <li><code>OP_DOCTYPE name publicId systemId</code></li>
+ * <li><code>OP_END_DOCUMENT</code></li>
+ * </ul>
+ * Numbers are written as unsigned variable length integers (7 bits per byte,
+ * least significant group first). A text is its length in characters followed
+ * by the UTF-16 code units, two bytes each in big-endian order, so reading it
+ * requires no character decoding. A name (names, namespace URIs, prefixes, PI
+ * targets, type and identifier strings) is a reference into a pool that both
+ * sides build in the same order: <code>0</code> stands for <code>null</code>,
+ * <code>n</code> for the name with the pool code <code>n-1</code>, and the
+ * number one past the pool size introduces a new name, whose text follows.
+ *
+ * @author Philip Helger
+ */
+public class BinaryEmitter extends AbstractStxEmitterBase
+{
+  /** The first bytes of a binary event stream */
+  public static final byte [] MAGIC = { 'J', 'S', 'T', 'X', 'B' };
+
+  /** The version of the format, follows {@link #MAGIC} */
+  public static final byte VERSION = 1;
+
+  public static final byte OP_END_DOCUMENT = 0;
+  public static final byte OP_START_ELEMENT = 1;
+  public static final byte OP_END_ELEMENT = 2;
+  public static final byte OP_TEXT = 3;
+  public static final byte OP_CDATA = 4;
+  public static final byte OP_COMMENT = 5;
+  public static final byte OP_PI = 6;
+  public static final byte OP_START_MAPPING = 7;
+  public static final byte OP_END_MAPPING = 8;
+  public static final byte OP_DOCTYPE = 9;
+
+  private static final int BUFFER_SIZE = 0x10000;
+
+  private final OutputStream m_aOS;
+  private final boolean m_bCloseStream;
+  private final byte [] m_aBuf = new byte [BUFFER_SIZE];
+  private int m_nPos = 0;
+  /** the names written in the current document, reset for every document */
+  private NamePool m_aNamePool = new NamePool ();
+
+  /** contents of the current CDATA section, <code>null</code> outside */
+  private StringBuilder m_aCDATA;
+  private boolean m_bInsideDTD = false;
+
+  /**
+   * @param aOS
+   *        the stream receiving the events; it will be flushed at the end of
+   *        the document, but not closed
+   */
+  public BinaryEmitter (@Nonnull final OutputStream aOS)
+  {
+    this (aOS, false);
+  }
+
+  /**
+   * @param aOS
+   *        the stream receiving the events
+   * @param bCloseStream
+   *        whether the stream should be closed at the end of the document
+   */
+  public BinaryEmitter (@Nonnull final OutputStream aOS, final boolean bCloseStream)
+  {
+    m_aOS = aOS;
+    m_bCloseStream = bCloseStream;
+  }
+
+  private void _flushBuffer () throws SAXException
+  {
+    try
+    {
+      m_aOS.write (m_aBuf, 0, m_nPos);
+      m_nPos = 0;
+    }
+    catch (final IOException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  private void _ensure (final int nBytes) throws SAXException
+  {
+    if (m_nPos + nBytes > BUFFER_SIZE)
+      _flushBuffer ();
+  }
+
+  private void _writeOpcode (final byte nOpcode) throws SAXException
+  {
+    _ensure (1);
+    m_aBuf[m_nPos++] = nOpcode;
+  }
+
+  private void _writeNumber (final int nValue) throws SAXException
+  {
+    _ensure (5);
+    int n = nValue;
+    while ((n & ~0x7f) != 0)
+    {
+      m_aBuf[m_nPos++] = (byte) ((n & 0x7f) | 0x80);
+      n >>>= 7;
+    }
+    m_aBuf[m_nPos++] = (byte) n;
+  }
+
+  private void _writeChars (final CharSequence s) throws SAXException
+  {
+    final int nLength = s.length ();
+    _writeNumber (nLength);
+    int i = 0;
+    while (i < nLength)
+    {
+      if (m_nPos + 2 > BUFFER_SIZE)
+        _flushBuffer ();
+      final int nEnd = Math.min (nLength, i + ((BUFFER_SIZE - m_nPos) >> 1));
+      for (; i < nEnd; i++)
+      {
+        final char c = s.charAt (i);
+        m_aBuf[m_nPos++] = (byte) (c >> 8);
+        m_aBuf[m_nPos++] = (byte) c;
+      }
+    }
+  }
+
+  private void _writeChars (final char [] ch, final int start, final int length) throws SAXException
+  {
+    _writeNumber (length);
+    int i = start;
+    final int nEnd = start + length;
+    while (i < nEnd)
+    {
+      if (m_nPos + 2 > BUFFER_SIZE)
+        _flushBuffer ();
+      final int nChunkEnd = Math.min (nEnd, i + ((BUFFER_SIZE - m_nPos) >> 1));
+      for (; i < nChunkEnd; i++)
+      {
+        final char c = ch[i];
+        m_aBuf[m_nPos++] = (byte) (c >> 8);
+        m_aBuf[m_nPos++] = (byte) c;
+      }
+    }
+  }
+
+  private void _writeName (final String sName) throws SAXException
+  {
+    if (sName == null)
+    {
+      _writeNumber (0);
+      return;
+    }
+    final int nSize = m_aNamePool.size ();
+    final int nCode = m_aNamePool.allocate (sName);
+    _writeNumber (nCode + 1);
+    if (nCode == nSize)
+      _writeChars (sName);
+  }
+
+  //
+  // SAX ContentHandler interface
+  //
+
+  public void setDocumentLocator (final Locator locator)
+  {}
+
+  public void startDocument () throws SAXException
+  {
+    // the reader builds its name table per stream, so every document has to
+    // define its names again
+    m_aNamePool = new NamePool ();
+    m_aCDATA = null;
+    m_bInsideDTD = false;
+    _ensure (MAGIC.length + 1);
+    System.arraycopy (MAGIC, 0, m_aBuf, m_nPos, MAGIC.length);
+    m_nPos += MAGIC.length;
+    m_aBuf[m_nPos++] = VERSION;
+  }
+
+  public void endDocument () throws SAXException
+  {
+    _writeOpcode (OP_END_DOCUMENT);
+    _flushBuffer ();
+    try
+    {
+      if (m_bCloseStream)
+        m_aOS.close ();
+      else
+        m_aOS.flush ();
+    }
+    catch (final IOException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    _writeOpcode (OP_START_MAPPING);
+    _writeName (prefix);
+    _writeName (uri);
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    _writeOpcode (OP_END_MAPPING);
+    _writeName (prefix);
+  }
+
+  public void startElement (final String uri,
+                            final String localName,
+                            final String qName,
+                            final Attributes atts) throws SAXException
+  {
+    _writeOpcode (OP_START_ELEMENT);
+    _writeName (uri);
+    _writeName (localName);
+    _writeName (qName);
+    final int nAttCount = atts == null ? 0 : atts.getLength ();
+    _writeNumber (nAttCount);
+    for (int i = 0; i < nAttCount; i++)
+    {
+      _writeName (atts.getURI (i));
+      _writeName (atts.getLocalName (i));
+      _writeName (atts.getQName (i));
+      _writeName (atts.getType (i));
+      _writeChars (atts.getValue (i));
+    }
+  }
+
+  public void endElement (final String uri, final String localName, final String qName) throws SAXException
+  {
+    _writeOpcode (OP_END_ELEMENT);
+  }
+
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_aCDATA != null)
+      m_aCDATA.append (ch, start, length);
+    else
+      if (length > 0)
+      {
+        _writeOpcode (OP_TEXT);
+        _writeChars (ch, start, length);
+      }
+  }
+
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    if (m_aCDATA != null)
+      m_aCDATA.append (chars);
+    else
+      if (chars.length () > 0)
+      {
+        _writeOpcode (OP_TEXT);
+        _writeChars (chars);
+      }
+  }
+
+  public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+  {
+    characters (ch, start, length);
+  }
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    _writeOpcode (OP_PI);
+    _writeName (target);
+    _writeChars (data == null ? "" : data);
+  }
+
+  public void skippedEntity (final String name)
+  {}
+
+  //
+  // SAX LexicalHandler interface
+  //
+
+  public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+  {
+    m_bInsideDTD = true;
+    _writeOpcode (OP_DOCTYPE);
+    _writeName (name);
+    _writeName (publicId);
+    _writeName (systemId);
+  }
+
+  public void endDTD ()
+  {
+    m_bInsideDTD = false;
+  }
+
+  public void startEntity (final String name)
+  {}
+
+  public void endEntity (final String name)
+  {}
+
+  public void startCDATA ()
+  {
+    m_aCDATA = new StringBuilder ();
+  }
+
+  public void endCDATA () throws SAXException
+  {
+    // one event for the whole section
+    _writeOpcode (OP_CDATA);
+    _writeChars (m_aCDATA);
+    m_aCDATA = null;
+  }
+
+  public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_bInsideDTD)
+      return;
+    _writeOpcode (OP_COMMENT);
+    _writeChars (ch, start, length);
+  }
+
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {
+    if (m_bInsideDTD)
+      return;
+    _writeOpcode (OP_COMMENT);
+    _writeChars (chars);
+  }
+}
@@ -30,7 +30,10 @@ import org.xml.sax.SAXException;
 import net.sf.joost.stx.SAXEvent;
 
 /**
- * This class implements a buffer for storing SAX events.
+ * This class implements a buffer for storing SAX events. Small buffers store
+ * one {@link SAXEvent} object per event. As soon as a buffer contains more
+ * than {@link #getCompactThreshold()} events it switches to the compact
+ * representation of {@link CompactEventBuffer}.
  *
  * @version $Revision: 1.5 $ $Date: 2005/11/06 21:22:21 $
  * @author Oliver Becker
@@ -38,6 +41,12 @@ import net.sf.joost.stx.SAXEvent;
 
 public class BufferEmitter extends AbstractStxEmitterBase
 {
+  /**
+   * Default number of events after which a buffer switches to the compact
+   * representation
+   */
+  public static final int DEFAULT_COMPACT_THRESHOLD = 4096;
+
   /** the event buffer */
   private final List <SAXEvent> buffer = new Vector<> ();
 
@@ -47,32 +56,109 @@ public class BufferEmitter extends AbstractStxEmitterBase
    */
   private SAXEvent [] eventArray = new SAXEvent [0]; // initial: empty
 
+  /** number of events that cause the switch to {@link #compactBuffer} */
+  private final int compactThreshold;
+
+  /** the compact event buffer, <code>null</code> for small buffers */
+  private CompactEventBuffer compactBuffer;
+
+  /**
+   * the compact counterpart of {@link #eventArray}, <code>null</code> if the
+   * buffer was filled in the {@link SAXEvent} representation
+   */
+  private CompactEventBuffer.Snapshot compactEvents;
+
   /** CDATA flag */
   private boolean insideCDATA = false;
 
   /** characters flag, needed for detecting empty CDATA sections */
   private boolean charsEmitted = false;
 
-  /** @return an array of the events stored in this buffer */
+  /** Constructs a buffer with the {@link #DEFAULT_COMPACT_THRESHOLD} */
+  public BufferEmitter ()
+  {
+    this (DEFAULT_COMPACT_THRESHOLD);
+  }
+
+  /**
+   * Constructs a buffer.
+   *
+   * @param compactThreshold
+   *        the number of events after which the compact representation will
+   *        be used, <code>0</code> means always compact
+   */
+  public BufferEmitter (final int compactThreshold)
+  {
+    this.compactThreshold = compactThreshold;
+  }
+
+  /** @return the number of events after which the buffer becomes compact */
+  public int getCompactThreshold ()
+  {
+    return compactThreshold;
+  }
+
+  /**
+   * @return an array of the events stored in this buffer, <code>null</code> if
+   *         the buffer contents is only available via
+   *         {@link #getCompactEvents()}
+   */
   public SAXEvent [] getEvents ()
   {
     return eventArray;
   }
 
+  /**
+   * @return the compact representation of the events stored in this buffer,
+   *         <code>null</code> if the contents is available via
+   *         {@link #getEvents()}
+   */
+  public CompactEventBuffer.Snapshot getCompactEvents ()
+  {
+    return compactEvents;
+  }
+
   /** Clears the event buffer */
   public void clear ()
   {
     buffer.clear ();
+    // the compact buffer will be recreated when the threshold is exceeded
+    compactBuffer = null;
   }
 
   /**
    * Signals that the buffer is completely filled; makes its contents available
-   * to {@link #getEvents}
+   * to {@link #getEvents} or {@link #getCompactEvents} resp.
    */
   public void filled ()
   {
-    eventArray = new SAXEvent [buffer.size ()];
-    buffer.toArray (eventArray);
+    if (compactBuffer != null)
+    {
+      compactEvents = compactBuffer.snapshot ();
+      eventArray = null;
+    }
+    else
+    {
+      eventArray = new SAXEvent [buffer.size ()];
+      buffer.toArray (eventArray);
+      compactEvents = null;
+    }
+  }
+
+  /**
+   * @return the compact buffer if it is used or should be used from now on,
+   *         <code>null</code> otherwise
+   */
+  private CompactEventBuffer getCompactBuffer ()
+  {
+    if (compactBuffer == null && buffer.size () >= compactThreshold)
+    {
+      compactBuffer = new CompactEventBuffer ();
+      for (final SAXEvent ev : buffer)
+        compactBuffer.add (ev);
+      buffer.clear ();
+    }
+    return compactBuffer;
   }
 
   //
@@ -93,12 +179,20 @@ public class BufferEmitter extends AbstractStxEmitterBase
 
   public void startPrefixMapping (final String prefix, final String uri) throws SAXException
   {
-    buffer.add (SAXEvent.newMapping (prefix, uri));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.startPrefixMapping (prefix, uri);
+    else
+      buffer.add (SAXEvent.newMapping (prefix, uri));
   }
 
   public void endPrefixMapping (final String prefix) throws SAXException
   {
-    buffer.add (SAXEvent.newMapping (prefix, null));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.endPrefixMapping (prefix);
+    else
+      buffer.add (SAXEvent.newMapping (prefix, null));
   }
 
   public void startElement (final String namespaceURI,
@@ -106,23 +200,57 @@ public class BufferEmitter extends AbstractStxEmitterBase
                             final String qName,
                             final Attributes atts) throws SAXException
   {
-    buffer.add (SAXEvent.newElement (namespaceURI, localName, qName, atts, true, null));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.startElement (namespaceURI, localName, qName, atts);
+    else
+      buffer.add (SAXEvent.newElement (namespaceURI, localName, qName, atts, true, null));
   }
 
   public void endElement (final String namespaceURI, final String localName, final String qName) throws SAXException
   {
-    buffer.add (SAXEvent.newElement (namespaceURI, localName, qName, null, true, null));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.endElement (namespaceURI, localName, qName);
+    else
+      buffer.add (SAXEvent.newElement (namespaceURI, localName, qName, null, true, null));
   }
 
   public void characters (final char [] ch, final int start, final int length) throws SAXException
   {
+    final CompactEventBuffer cb = getCompactBuffer ();
     if (insideCDATA)
     {
-      buffer.add (SAXEvent.newCDATA (new String (ch, start, length)));
+      if (cb != null)
+        cb.characters (SAXEvent.CDATA, ch, start, length);
+      else
+        buffer.add (SAXEvent.newCDATA (new String (ch, start, length)));
       charsEmitted = true;
     }
     else
-      buffer.add (SAXEvent.newText (new String (ch, start, length)));
+      if (cb != null)
+        cb.characters (SAXEvent.TEXT, ch, start, length);
+      else
+        buffer.add (SAXEvent.newText (new String (ch, start, length)));
+  }
+
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (insideCDATA)
+    {
+      if (cb != null)
+        cb.characters (SAXEvent.CDATA, chars);
+      else
+        buffer.add (SAXEvent.newCDATA (chars.toString ()));
+      charsEmitted = true;
+    }
+    else
+      if (cb != null)
+        cb.characters (SAXEvent.TEXT, chars);
+      else
+        buffer.add (SAXEvent.newText (chars.toString ()));
   }
 
   /** not used */
@@ -133,7 +261,11 @@ public class BufferEmitter extends AbstractStxEmitterBase
 
   public void processingInstruction (final String target, final String data) throws SAXException
   {
-    buffer.add (SAXEvent.newPI (target, data));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.processingInstruction (target, data);
+    else
+      buffer.add (SAXEvent.newPI (target, data));
   }
 
   /** not used */
@@ -170,11 +302,31 @@ public class BufferEmitter extends AbstractStxEmitterBase
   {
     insideCDATA = false;
     if (!charsEmitted) // no characters event: empty CDATA section
-      buffer.add (SAXEvent.newCDATA (""));
+    {
+      final CompactEventBuffer cb = getCompactBuffer ();
+      if (cb != null)
+        cb.add (SAXEvent.newCDATA (""));
+      else
+        buffer.add (SAXEvent.newCDATA (""));
+    }
   }
 
   public void comment (final char [] ch, final int start, final int length) throws SAXException
   {
-    buffer.add (SAXEvent.newComment (new String (ch, start, length)));
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.characters (SAXEvent.COMMENT, ch, start, length);
+    else
+      buffer.add (SAXEvent.newComment (new String (ch, start, length)));
+  }
+
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {
+    final CompactEventBuffer cb = getCompactBuffer ();
+    if (cb != null)
+      cb.characters (SAXEvent.COMMENT, chars);
+    else
+      buffer.add (SAXEvent.newComment (chars.toString ()));
   }
 }
@@ -0,0 +1,385 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.util.CharSequenceUtils;
+import net.sf.joost.util.NamePool;
+
+/**
+ * Compact in-memory representation of a SAX event stream, used by
+ * {@link BufferEmitter} for large buffers. Instead of one {@link SAXEvent}
+ * object per event, all events are encoded into a single <code>int</code>
+ * array: the event type (one of the {@link SAXEvent} type constants) followed
+ * by its operands. Names, namespace URIs and prefixes are stored as
+ * {@link NamePool} codes, character data (text, comments, attribute values and
+ * PI data) is appended to one shared <code>char</code> array and referenced by
+ * offset and length.
+ * <p>
+ * Layout of the records:
+ * <ul>
+ * <li><code>ELEMENT uri lName qName attCount (uri lName qName type offset
+ * length)*</code></li>
+ * <li><code>ELEMENT_END uri lName qName</code></li>
+ * <li><code>TEXT|CDATA|COMMENT offset length</code></li>
+ * <li><code>PI target offset length</code></li>
+ * <li><code>MAPPING prefix uri</code></li>
+ * <li><code>MAPPING_END prefix</code></li>
+ * </ul>
+ * The buffer is append-only; {@link #snapshot()} returns an immutable view of
+ * the events added so far that remains valid while further events are added.
+ * {@link #clear()} starts with fresh arrays for the same reason.
+ *
+ * @author Philip Helger
+ */
+public final class CompactEventBuffer
+{
+  private NamePool m_aNamePool;
+  private int [] m_aData;
+  private int m_nDataLength;
+  private char [] m_aText;
+  private int m_nTextLength;
+  private int m_nEventCount;
+
+  public CompactEventBuffer ()
+  {
+    clear ();
+  }
+
+  /** Removes all events, previously created snapshots stay untouched */
+  public void clear ()
+  {
+    m_aNamePool = new NamePool ();
+    m_aData = new int [256];
+    m_nDataLength = 0;
+    m_aText = new char [1024];
+    m_nTextLength = 0;
+    m_nEventCount = 0;
+  }
+
+  /** @return the number of events stored in this buffer */
+  @Nonnegative
+  public int getEventCount ()
+  {
+    return m_nEventCount;
+  }
+
+  private void _ensureData (final int nAdditional)
+  {
+    final int nRequired = m_nDataLength + nAdditional;
+    if (nRequired > m_aData.length)
+    {
+      final int [] tmp = new int [Math.max (m_aData.length << 1, nRequired)];
+      System.arraycopy (m_aData, 0, tmp, 0, m_nDataLength);
+      m_aData = tmp;
+    }
+  }
+
+  private int _appendText (final char [] ch, final int start, final int length)
+  {
+    final int nRequired = m_nTextLength + length;
+    if (nRequired < 0)
+      throw new IllegalStateException ("Buffer exceeds the maximum size for character data");
+    if (nRequired > m_aText.length)
+    {
+      // grow by 50% to limit the overhead for very large buffers
+      int nNewLength = m_aText.length + (m_aText.length >> 1);
+      if (nNewLength < nRequired || nNewLength < 0)
+        nNewLength = nRequired;
+      final char [] tmp = new char [nNewLength];
+      System.arraycopy (m_aText, 0, tmp, 0, m_nTextLength);
+      m_aText = tmp;
+    }
+    System.arraycopy (ch, start, m_aText, m_nTextLength, length);
+    final int nOffset = m_nTextLength;
+    m_nTextLength = nRequired;
+    return nOffset;
+  }
+
+  private void _appendText (final CharSequence s)
+  {
+    final int nLength = s.length ();
+    final int nRequired = m_nTextLength + nLength;
+    if (nRequired > m_aText.length || nRequired < 0)
+      // let the char[] variant handle growing
+      _appendText (CharSequenceUtils.toCharArray (s), 0, nLength);
+    else
+    {
+      CharSequenceUtils.getChars (s, 0, nLength, m_aText, m_nTextLength);
+      m_nTextLength = nRequired;
+    }
+    m_aData[m_nDataLength++] = m_nTextLength - nLength;
+    m_aData[m_nDataLength++] = nLength;
+  }
+
+  public void startElement (final String uri, final String lName, final String qName, final Attributes atts)
+  {
+    final int nAttCount = atts == null ? 0 : atts.getLength ();
+    _ensureData (5 + 6 * nAttCount);
+    m_aData[m_nDataLength++] = SAXEvent.ELEMENT;
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (uri);
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (lName);
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (qName);
+    m_aData[m_nDataLength++] = nAttCount;
+    for (int i = 0; i < nAttCount; i++)
+    {
+      m_aData[m_nDataLength++] = m_aNamePool.allocate (atts.getURI (i));
+      m_aData[m_nDataLength++] = m_aNamePool.allocate (atts.getLocalName (i));
+      m_aData[m_nDataLength++] = m_aNamePool.allocate (atts.getQName (i));
+      m_aData[m_nDataLength++] = m_aNamePool.allocate (atts.getType (i));
+      _appendText (atts.getValue (i));
+    }
+    m_nEventCount++;
+  }
+
+  public void endElement (final String uri, final String lName, final String qName)
+  {
+    _ensureData (4);
+    m_aData[m_nDataLength++] = SAXEvent.ELEMENT_END;
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (uri);
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (lName);
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (qName);
+    m_nEventCount++;
+  }
+
+  /**
+   * Adds a character based event
+   *
+   * @param nType
+   *        one of {@link SAXEvent#TEXT}, {@link SAXEvent#CDATA} and
+   *        {@link SAXEvent#COMMENT}
+   */
+  public void characters (final int nType, final char [] ch, final int start, final int length)
+  {
+    _ensureData (3);
+    m_aData[m_nDataLength++] = nType;
+    m_aData[m_nDataLength++] = _appendText (ch, start, length);
+    m_aData[m_nDataLength++] = length;
+    m_nEventCount++;
+  }
+
+  public void characters (final int nType, final CharSequence s)
+  {
+    _ensureData (3);
+    m_aData[m_nDataLength++] = nType;
+    _appendText (s);
+    m_nEventCount++;
+  }
+
+  public void processingInstruction (final String target, final String data)
+  {
+    _ensureData (4);
+    m_aData[m_nDataLength++] = SAXEvent.PI;
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (target);
+    _appendText (data);
+    m_nEventCount++;
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri)
+  {
+    _ensureData (3);
+    m_aData[m_nDataLength++] = SAXEvent.MAPPING;
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (prefix);
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (uri);
+    m_nEventCount++;
+  }
+
+  public void endPrefixMapping (final String prefix)
+  {
+    _ensureData (2);
+    m_aData[m_nDataLength++] = SAXEvent.MAPPING_END;
+    m_aData[m_nDataLength++] = m_aNamePool.allocate (prefix);
+    m_nEventCount++;
+  }
+
+  /**
+   * Adds an event that has been stored as {@link SAXEvent} object
+   *
+   * @param ev
+   *        the event as created by {@link BufferEmitter}
+   */
+  public void add (@Nonnull final SAXEvent ev)
+  {
+    switch (ev.m_nType)
+    {
+      case SAXEvent.ELEMENT:
+        startElement (ev.m_sURI, ev.m_sLocalName, ev.m_sQName, ev.m_aAttrs);
+        break;
+      case SAXEvent.ELEMENT_END:
+        endElement (ev.m_sURI, ev.m_sLocalName, ev.m_sQName);
+        break;
+      case SAXEvent.TEXT:
+      case SAXEvent.CDATA:
+      case SAXEvent.COMMENT:
+        characters (ev.m_nType, ev.m_sValue);
+        break;
+      case SAXEvent.PI:
+        processingInstruction (ev.m_sQName, ev.m_sValue);
+        break;
+      case SAXEvent.MAPPING:
+        startPrefixMapping (ev.m_sQName, ev.m_sValue);
+        break;
+      case SAXEvent.MAPPING_END:
+        endPrefixMapping (ev.m_sQName);
+        break;
+      default:
+        throw new IllegalArgumentException ("Unexpected event in buffer: " + ev);
+    }
+  }
+
+  /**
+   * @return an immutable view of the events stored so far
+   */
+  @Nonnull
+  public Snapshot snapshot ()
+  {
+    return new Snapshot (m_aData, m_nDataLength, m_aText, m_aNamePool.getNames (), m_nEventCount);
+  }
+
+  // *******************************************************************
+
+  /**
+   * Immutable view of the contents of a {@link CompactEventBuffer}.
+   */
+  public static final class Snapshot
+  {
+    private final int [] m_aData;
+    private final int m_nDataLength;
+    private final char [] m_aText;
+    private final String [] m_aNames;
+    private final int m_nEventCount;
+
+    Snapshot (final int [] aData,
+              final int nDataLength,
+              final char [] aText,
+              final String [] aNames,
+              final int nEventCount)
+    {
+      m_aData = aData;
+      m_nDataLength = nDataLength;
+      m_aText = aText;
+      m_aNames = aNames;
+      m_nEventCount = nEventCount;
+    }
+
+    /** @return the number of events in this snapshot */
+    @Nonnegative
+    public int getEventCount ()
+    {
+      return m_nEventCount;
+    }
+
+    private String _name (final int nCode)
+    {
+      return nCode == NamePool.NULL_CODE ? null : m_aNames[nCode];
+    }
+
+    /**
+     * Emits all events of this snapshot to the passed handlers. Character data
+     * is passed directly from the shared array. Elements without attributes
+     * share one empty {@link Attributes} object, since handlers (e.g.
+     * {@link XmlEmitter}) may keep a reference until the next event.
+     *
+     * @param contH
+     *        the content handler
+     * @param lexH
+     *        the lexical handler, may be <code>null</code>
+     */
+    public void replay (@Nonnull final ContentHandler contH, final LexicalHandler lexH) throws SAXException
+    {
+      final AttributesImpl noAttrs = new AttributesImpl ();
+      final int [] data = m_aData;
+      int i = 0;
+      while (i < m_nDataLength)
+      {
+        switch (data[i++])
+        {
+          case SAXEvent.ELEMENT:
+          {
+            final String uri = _name (data[i++]);
+            final String lName = _name (data[i++]);
+            final String qName = _name (data[i++]);
+            final int nAttCount = data[i++];
+            final AttributesImpl attrs = nAttCount == 0 ? noAttrs : new AttributesImpl ();
+            for (int j = 0; j < nAttCount; j++)
+            {
+              attrs.addAttribute (_name (data[i]),
+                                  _name (data[i + 1]),
+                                  _name (data[i + 2]),
+                                  _name (data[i + 3]),
+                                  new String (m_aText, data[i + 4], data[i + 5]));
+              i += 6;
+            }
+            contH.startElement (uri, lName, qName, attrs);
+            break;
+          }
+          case SAXEvent.ELEMENT_END:
+            contH.endElement (_name (data[i]), _name (data[i + 1]), _name (data[i + 2]));
+            i += 3;
+            break;
+          case SAXEvent.TEXT:
+            contH.characters (m_aText, data[i], data[i + 1]);
+            i += 2;
+            break;
+          case SAXEvent.CDATA:
+            if (lexH != null)
+            {
+              lexH.startCDATA ();
+              contH.characters (m_aText, data[i], data[i + 1]);
+              lexH.endCDATA ();
+            }
+            else
+              contH.characters (m_aText, data[i], data[i + 1]);
+            i += 2;
+            break;
+          case SAXEvent.COMMENT:
+            if (lexH != null)
+              lexH.comment (m_aText, data[i], data[i + 1]);
+            i += 2;
+            break;
+          case SAXEvent.PI:
+            contH.processingInstruction (_name (data[i]), new String (m_aText, data[i + 1], data[i + 2]));
+            i += 3;
+            break;
+          case SAXEvent.MAPPING:
+            contH.startPrefixMapping (_name (data[i]), _name (data[i + 1]));
+            i += 2;
+            break;
+          case SAXEvent.MAPPING_END:
+            contH.endPrefixMapping (_name (data[i]));
+            i++;
+            break;
+          default:
+            // Mustn't happen
+            throw new SAXException ("Corrupt buffer contents at position " + (i - 1));
+        }
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ package net.sf.joost.emitter;
 
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.XMLConstants;
 
@@ -56,6 +57,17 @@ public class EmitterAdapter implements ContentHandler, LexicalHandler
     m_aInstruction = instruction;
   }
 
+  /**
+   * Reserves the current position in the result stream for events that will
+   * be available later.
+   *
+   * @see Emitter#insertDeferred(CompletableFuture, AbstractNodeBase)
+   */
+  public void insertDeferred (final CompletableFuture <? extends Emitter.IDeferredEvents> aEvents) throws SAXException
+  {
+    m_aEmitter.insertDeferred (aEvents, m_aInstruction);
+  }
+
   //
   // from interface ContentHandler
   //
@@ -20,8 +20,11 @@
 package net.sf.joost.emitter;
 
 import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 import org.xml.sax.ext.LexicalHandler;
 
+import net.sf.joost.util.CharSequenceUtils;
+
 /**
  * Common interface - All emitter implementations have to implement this
  * interface.
@@ -47,4 +50,40 @@ public interface IStxEmitter extends ContentHandler, LexicalHandler
    *         {@link #setSystemId(String)} was not called.
    */
   String getSystemId ();
+
+  /**
+   * Receives character data given as a {@link CharSequence}. This is the
+   * counterpart of {@link #characters(char[], int, int)} that allows
+   * implementations to process the characters without copying them into an
+   * intermediate array first. The passed sequence is only valid during this
+   * call; implementations must not keep a reference to it.
+   * <p>
+   * The default implementation copies the characters into a new array and
+   * calls {@link #characters(char[], int, int)}.
+   *
+   * @param chars
+   *        the characters, never <code>null</code>
+   * @throws SAXException
+   *         in case of an error
+   */
+  default void characters (final CharSequence chars) throws SAXException
+  {
+    final char [] ch = CharSequenceUtils.toCharArray (chars);
+    characters (ch, 0, ch.length);
+  }
+
+  /**
+   * Receives the contents of a comment given as a {@link CharSequence}. The
+   * same rules as for {@link #characters(CharSequence)} apply.
+   *
+   * @param chars
+   *        the comment text, never <code>null</code>
+   * @throws SAXException
+   *         in case of an error
+   */
+  default void comment (final CharSequence chars) throws SAXException
+  {
+    final char [] ch = CharSequenceUtils.toCharArray (chars);
+    comment (ch, 0, ch.length);
+  }
 }
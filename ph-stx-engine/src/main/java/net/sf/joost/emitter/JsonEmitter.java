@@ -0,0 +1,453 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.CSTX;
+
+/**
+ * This class implements an emitter for the Joost specific output method
+ * <code>joost:json</code>, that writes the result as JSON. Every element of
+ * the result becomes one JSON value, the JSON text is written while the
+ * events arrive, without building a tree. The mapping is as follows:
+ * <ul>
+ * <li>An element contained in an object becomes a member, whose name is the
+ * local name of the element, or the value of the attribute
+ * <code>joost:name</code> if present. The names of the elements contained in
+ * an array and of top level elements are ignored.</li>
+ * <li>The attribute <code>joost:type</code> determines the type of the value:
+ * <code>object</code>, <code>array</code>, <code>string</code>,
+ * <code>number</code>, <code>boolean</code> or <code>null</code>. The value
+ * of a string, number or boolean is the string value of the element, i.e.
+ * text in descendant elements is included; a number or boolean must be a
+ * valid JSON literal (surrounding whitespace is ignored), and the value of
+ * <code>null</code> must be empty.</li>
+ * <li>Without <code>joost:type</code> an element with other attributes or
+ * child elements is an object, and the other attributes become members with
+ * string values (the prefix of attribute names is dropped). Each other
+ * element is a string.</li>
+ * <li>Text that is not whitespace is an error within objects and arrays and
+ * outside of the top level elements.</li>
+ * <li>Each top level element is written as a separate JSON text on its own
+ * line, so several top level elements produce JSON Lines.</li>
+ * <li>Comments and processing instructions are ignored.</li>
+ * </ul>
+ * Characters that cannot be represented in the output encoding are written
+ * as <code>&#92;u</code> escapes. The memory used doesn't depend on the length
+ * of arrays, but only on the nesting depth (and on the length of number and
+ * boolean values).
+ *
+ * @author Philip Helger
+ */
+public class JsonEmitter extends AbstractStreamEmitter
+{
+  // Logger initialization
+  private static final Logger log = LoggerFactory.getLogger (JsonEmitter.class);
+
+  /** The type of an element whose content hasn't been seen yet */
+  private static final byte TYPE_UNKNOWN = 0;
+  private static final byte TYPE_OBJECT = 1;
+  private static final byte TYPE_ARRAY = 2;
+  private static final byte TYPE_STRING = 3;
+  private static final byte TYPE_NUMBER = 4;
+  private static final byte TYPE_BOOLEAN = 5;
+  private static final byte TYPE_NULL = 6;
+
+  private static final String [] TYPE_NAMES = { null, "object", "array", "string", "number", "boolean", "null" };
+
+  private static final Pattern NUMBER = Pattern.compile ("-?(?:0|[1-9][0-9]*)(?:\\.[0-9]+)?(?:[eE][+-]?[0-9]+)?");
+
+  private static final char [] HEX = "0123456789abcdef".toCharArray ();
+
+  /** Whether all characters can be written without escapes */
+  private final boolean m_bUnicode;
+
+  /** The types of the open elements */
+  private byte [] m_aTypes = new byte [16];
+  /** Whether an object or array of the open elements is still empty */
+  private boolean [] m_aEmpty = new boolean [16];
+  private int m_nDepth;
+  /**
+   * The depth of the element whose string value is written, <code>-1</code>
+   * if there is none
+   */
+  private int m_nValueDepth = -1;
+  /**
+   * Whitespace of an element of unknown type resp. the value of a number or
+   * boolean
+   */
+  private final StringBuilder m_aText = new StringBuilder ();
+  private boolean m_bTopLevelWritten;
+
+  /** Constructor */
+  public JsonEmitter (final Writer writer, final String encoding)
+  {
+    super (writer, encoding);
+    m_bUnicode = encoding.toUpperCase (Locale.ROOT).startsWith ("UTF");
+  }
+
+  private static boolean _isWhitespace (final CharSequence chars)
+  {
+    for (int i = 0; i < chars.length (); i++)
+    {
+      final char c = chars.charAt (i);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes characters as contents of a JSON string, i.e. with escapes. Runs
+   * of characters that need no escape are written at once.
+   */
+  private void _writeEscaped (final CharSequence chars) throws IOException
+  {
+    final int length = chars.length ();
+    int start = 0;
+    for (int i = 0; i < length; i++)
+    {
+      final char c = chars.charAt (i);
+      if (c >= 0x20 && c != '"' && c != '\\' && (c < 0x80 || m_bUnicode || m_aCharsetEncoder.canEncode (c)))
+        continue;
+
+      write (chars, start, i);
+      start = i + 1;
+      switch (c)
+      {
+        case '"':
+          m_aWriter.write ("\\\"");
+          break;
+        case '\\':
+          m_aWriter.write ("\\\\");
+          break;
+        case '\n':
+          m_aWriter.write ("\\n");
+          break;
+        case '\r':
+          m_aWriter.write ("\\r");
+          break;
+        case '\t':
+          m_aWriter.write ("\\t");
+          break;
+        default:
+          m_aWriter.write ("\\u");
+          m_aWriter.write (HEX[(c >> 12) & 0xf]);
+          m_aWriter.write (HEX[(c >> 8) & 0xf]);
+          m_aWriter.write (HEX[(c >> 4) & 0xf]);
+          m_aWriter.write (HEX[c & 0xf]);
+      }
+    }
+    write (chars, start, length);
+  }
+
+  private void _writeString (final CharSequence chars) throws IOException
+  {
+    m_aWriter.write ('"');
+    _writeEscaped (chars);
+    m_aWriter.write ('"');
+  }
+
+  private static byte _getType (final String sType) throws SAXException
+  {
+    for (byte i = TYPE_OBJECT; i < TYPE_NAMES.length; i++)
+      if (TYPE_NAMES[i].equals (sType))
+        return i;
+    throw new SAXException ("Unknown JSON type '" + sType + "'");
+  }
+
+  /**
+   * Writes the separator and the member name for a new value in the current
+   * element
+   */
+  private void _startValue (final String sName) throws IOException
+  {
+    if (m_nDepth == 0)
+    {
+      if (m_bTopLevelWritten)
+        m_aWriter.write ('\n');
+      m_bTopLevelWritten = true;
+      return;
+    }
+
+    final int parent = m_nDepth - 1;
+    if (m_aTypes[parent] == TYPE_UNKNOWN)
+    {
+      // the first child element: the parent is an object
+      m_aWriter.write ('{');
+      m_aTypes[parent] = TYPE_OBJECT;
+      m_aText.setLength (0);
+    }
+    if (!m_aEmpty[parent])
+      m_aWriter.write (',');
+    m_aEmpty[parent] = false;
+    if (m_aTypes[parent] == TYPE_OBJECT)
+    {
+      _writeString (sName);
+      m_aWriter.write (':');
+    }
+  }
+
+  /**
+   * Resets the state of this emitter
+   */
+  public void startDocument ()
+  {
+    m_nDepth = 0;
+    m_nValueDepth = -1;
+    m_aText.setLength (0);
+    m_bTopLevelWritten = false;
+  }
+
+  /**
+   * Ends the last JSON text and flushes the output writer
+   */
+  public void endDocument () throws SAXException
+  {
+    try
+    {
+      if (m_bTopLevelWritten)
+        m_aWriter.write ('\n');
+      m_aWriter.flush ();
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * Starts a JSON value.
+   */
+  public void startElement (final String uri,
+                            final String lName,
+                            final String qName,
+                            final Attributes attrs) throws SAXException
+  {
+    if (m_nValueDepth >= 0)
+    {
+      // part of the string value
+      m_nDepth++;
+      return;
+    }
+
+    String name = lName;
+    byte type = TYPE_UNKNOWN;
+    boolean hasMembers = false;
+    final int attrCount = attrs.getLength ();
+    for (int i = 0; i < attrCount; i++)
+      if (CSTX.JOOST_EXT_NS.equals (attrs.getURI (i)))
+      {
+        if ("name".equals (attrs.getLocalName (i)))
+          name = attrs.getValue (i);
+        else
+          if ("type".equals (attrs.getLocalName (i)))
+            type = _getType (attrs.getValue (i));
+      }
+      else
+        hasMembers = true;
+    if (type == TYPE_UNKNOWN && hasMembers)
+      type = TYPE_OBJECT;
+    if (hasMembers && type != TYPE_OBJECT)
+      throw new SAXException ("Attributes aren't allowed for a JSON " + TYPE_NAMES[type] + " ('" + qName + "')");
+
+    try
+    {
+      _startValue (name);
+
+      if (m_nDepth == m_aTypes.length)
+      {
+        m_aTypes = Arrays.copyOf (m_aTypes, m_nDepth * 2);
+        m_aEmpty = Arrays.copyOf (m_aEmpty, m_nDepth * 2);
+      }
+      m_aTypes[m_nDepth] = type;
+      m_aEmpty[m_nDepth] = true;
+      switch (type)
+      {
+        case TYPE_OBJECT:
+          m_aWriter.write ('{');
+          for (int i = 0; i < attrCount; i++)
+            if (!CSTX.JOOST_EXT_NS.equals (attrs.getURI (i)))
+            {
+              if (!m_aEmpty[m_nDepth])
+                m_aWriter.write (',');
+              m_aEmpty[m_nDepth] = false;
+              final String sAttrName = attrs.getLocalName (i);
+              _writeString (sAttrName == null || sAttrName.isEmpty () ? attrs.getQName (i) : sAttrName);
+              m_aWriter.write (':');
+              _writeString (attrs.getValue (i));
+            }
+          break;
+        case TYPE_ARRAY:
+          m_aWriter.write ('[');
+          break;
+        case TYPE_STRING:
+          m_aWriter.write ('"');
+          m_nValueDepth = m_nDepth;
+          break;
+        case TYPE_NUMBER:
+        case TYPE_BOOLEAN:
+        case TYPE_NULL:
+          m_aText.setLength (0);
+          m_nValueDepth = m_nDepth;
+          break;
+        default:
+          // whitespace will be kept until the type is known
+          m_aText.setLength (0);
+      }
+      m_nDepth++;
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * Ends a JSON value.
+   */
+  public void endElement (final String uri, final String lName, final String qName) throws SAXException
+  {
+    m_nDepth--;
+    if (m_nValueDepth >= 0 && m_nDepth > m_nValueDepth)
+      return;
+    m_nValueDepth = -1;
+
+    try
+    {
+      switch (m_aTypes[m_nDepth])
+      {
+        case TYPE_OBJECT:
+          m_aWriter.write ('}');
+          break;
+        case TYPE_ARRAY:
+          m_aWriter.write (']');
+          break;
+        case TYPE_STRING:
+          m_aWriter.write ('"');
+          break;
+        case TYPE_NUMBER:
+        {
+          final String value = m_aText.toString ().trim ();
+          if (!NUMBER.matcher (value).matches ())
+            throw new SAXException ("Invalid JSON number '" + value + "' ('" + qName + "')");
+          m_aWriter.write (value);
+          break;
+        }
+        case TYPE_BOOLEAN:
+        {
+          final String value = m_aText.toString ().trim ();
+          if (!value.equals ("true") && !value.equals ("false"))
+            throw new SAXException ("Invalid JSON boolean '" + value + "' ('" + qName + "')");
+          m_aWriter.write (value);
+          break;
+        }
+        case TYPE_NULL:
+          if (!_isWhitespace (m_aText))
+            throw new SAXException ("A JSON null must be empty ('" + qName + "')");
+          m_aWriter.write ("null");
+          break;
+        default:
+          // only whitespace (or nothing) has been seen: a string
+          _writeString (m_aText);
+      }
+      m_aText.setLength (0);
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * Outputs characters.
+   */
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    characters (CharBuffer.wrap (ch, start, length));
+  }
+
+  /**
+   * Outputs characters given as a {@link CharSequence}.
+   */
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    try
+    {
+      if (m_nValueDepth >= 0)
+      {
+        if (m_aTypes[m_nValueDepth] == TYPE_STRING)
+          _writeEscaped (chars);
+        else
+          m_aText.append (chars);
+      }
+      else
+        if (_isWhitespace (chars))
+        {
+          if (m_nDepth > 0 && m_aTypes[m_nDepth - 1] == TYPE_UNKNOWN)
+            m_aText.append (chars);
+        }
+        else
+          if (m_nDepth > 0 && m_aTypes[m_nDepth - 1] == TYPE_UNKNOWN)
+          {
+            // the first text: the element is a string
+            m_aTypes[m_nDepth - 1] = TYPE_STRING;
+            m_nValueDepth = m_nDepth - 1;
+            m_aWriter.write ('"');
+            _writeEscaped (m_aText);
+            m_aText.setLength (0);
+            _writeEscaped (chars);
+          }
+          else
+            throw new SAXException ("Text isn't allowed " +
+                                    (m_nDepth == 0 ? "outside of elements"
+                                                   : "in a JSON " + TYPE_NAMES[m_aTypes[m_nDepth - 1]]));
+      if (CSTX.DEBUG)
+        log.debug ("'" + chars + "'");
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * Does nothing
+   */
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {}
+}
@@ -0,0 +1,372 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Turns the elements of the transformation result that are described by a
+ * {@link RecordMapping} into Java objects, without serializing the result.
+ * The records are either put into a {@link BlockingQueue} or passed to a
+ * {@link Consumer} that runs on a separate thread. In both cases the
+ * transformation blocks as long as the queue is full, so a slow consumer
+ * limits the memory used for pending records.
+ * <p>
+ * The emitter may be used as handler of a
+ * {@link javax.xml.transform.sax.SAXResult} or, preferably, of a
+ * {@link net.sf.joost.trax.RecordResult}, which stops the consumer thread if
+ * the transformation fails.
+ *
+ * @param <T>
+ *        the type of the records
+ * @author Philip Helger
+ */
+public class RecordEmitter <T> extends AbstractStxEmitterBase
+{
+  /** Marks the end of the records for the consumer thread */
+  private static final Object END_OF_RECORDS = new Object ();
+
+  private final RecordMapping <T> m_aMapping;
+
+  /** The target queue, <code>null</code> if a consumer has been passed */
+  private final BlockingQueue <? super T> m_aQueue;
+  private final T m_aEndOfRecords;
+
+  /** The consumer, <code>null</code> if a queue has been passed */
+  private final Consumer <? super T> m_aConsumer;
+  private final int m_nCapacity;
+  private BlockingQueue <Object> m_aBuffer;
+  private Thread m_aConsumerThread;
+  private volatile Throwable m_aConsumerError;
+
+  /** The converter of the current record, <code>null</code> outside */
+  private Function <? super Map <String, String>, ? extends T> m_aConverter;
+  private Map <String, String> m_aFields;
+  /** The depth of the current element below the record element */
+  private int m_nDepth;
+  private String m_sField;
+  private final StringBuilder m_aText = new StringBuilder ();
+  private long m_nRecordCount;
+
+  /**
+   * Creates an emitter that puts the records into a queue. The caller is
+   * responsible for taking them from the queue, usually on another thread.
+   *
+   * @param aMapping
+   *        the description of the record elements
+   * @param aQueue
+   *        the queue receiving the records
+   * @param aEndOfRecords
+   *        an object that will be put into the queue at the end of each
+   *        result document, may be <code>null</code>
+   */
+  public RecordEmitter (@Nonnull final RecordMapping <T> aMapping,
+                        @Nonnull final BlockingQueue <? super T> aQueue,
+                        @Nullable final T aEndOfRecords)
+  {
+    m_aMapping = aMapping;
+    m_aQueue = aQueue;
+    m_aEndOfRecords = aEndOfRecords;
+    m_aConsumer = null;
+    m_nCapacity = 0;
+  }
+
+  /**
+   * Creates an emitter that passes the records to a consumer on a separate
+   * thread. The thread is started for each result document and has finished
+   * when {@link #endDocument()} returns. If the consumer throws an exception,
+   * no more records will be passed to it and the transformation fails.
+   *
+   * @param aMapping
+   *        the description of the record elements
+   * @param aConsumer
+   *        the consumer of the records
+   * @param nCapacity
+   *        the maximum number of records that may wait for the consumer
+   */
+  public RecordEmitter (@Nonnull final RecordMapping <T> aMapping,
+                        @Nonnull final Consumer <? super T> aConsumer,
+                        @Nonnegative final int nCapacity)
+  {
+    if (nCapacity < 1)
+      throw new IllegalArgumentException ("Illegal capacity " + nCapacity);
+    m_aMapping = aMapping;
+    m_aQueue = null;
+    m_aEndOfRecords = null;
+    m_aConsumer = aConsumer;
+    m_nCapacity = nCapacity;
+  }
+
+  /**
+   * @return the number of records delivered so far
+   */
+  public long getRecordCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  private void _put (final BlockingQueue <? super T> aQueue, final T aRecord) throws SAXException
+  {
+    try
+    {
+      aQueue.put (aRecord);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SAXException ("Interrupted while delivering a record", ex);
+    }
+  }
+
+  private void _checkConsumer () throws SAXException
+  {
+    final Throwable t = m_aConsumerError;
+    if (t != null)
+      throw new SAXException ("The record consumer failed: " + t.getMessage (),
+                              t instanceof Exception ? (Exception) t : new RuntimeException (t));
+  }
+
+  private void _deliver (final T aRecord) throws SAXException
+  {
+    if (aRecord == null)
+      return;
+    m_nRecordCount++;
+    if (m_aQueue != null)
+      _put (m_aQueue, aRecord);
+    else
+    {
+      _checkConsumer ();
+      _put (m_aBuffer, aRecord);
+    }
+  }
+
+  @SuppressWarnings ("unchecked")
+  private void _consume (final BlockingQueue <Object> aBuffer)
+  {
+    try
+    {
+      while (true)
+      {
+        final Object aRecord = aBuffer.take ();
+        if (aRecord == END_OF_RECORDS)
+          return;
+        // after a failure the records are dropped, so the emitter won't block
+        if (m_aConsumerError == null)
+          try
+          {
+            m_aConsumer.accept ((T) aRecord);
+          }
+          catch (final Throwable t)
+          {
+            m_aConsumerError = t;
+          }
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      // stopped by close()
+    }
+  }
+
+  /**
+   * Stops the consumer thread if it is still running, without waiting for
+   * the pending records. This is necessary only if a transformation didn't
+   * end regularly.
+   */
+  public void close ()
+  {
+    if (m_aConsumerThread != null)
+    {
+      m_aConsumerThread.interrupt ();
+      m_aConsumerThread = null;
+      m_aBuffer = null;
+    }
+  }
+
+  public void startDocument () throws SAXException
+  {
+    m_aConverter = null;
+    m_aFields = null;
+    m_nRecordCount = 0;
+    if (m_aConsumer != null)
+    {
+      close ();
+      m_aConsumerError = null;
+      final BlockingQueue <Object> aBuffer = new ArrayBlockingQueue<> (m_nCapacity);
+      m_aBuffer = aBuffer;
+      m_aConsumerThread = new Thread ( () -> _consume (aBuffer), "Joost record consumer");
+      m_aConsumerThread.setDaemon (true);
+      m_aConsumerThread.start ();
+    }
+  }
+
+  public void endDocument () throws SAXException
+  {
+    if (m_aQueue != null)
+    {
+      if (m_aEndOfRecords != null)
+        _put (m_aQueue, m_aEndOfRecords);
+    }
+    else
+      if (m_aConsumerThread != null)
+      {
+        try
+        {
+          m_aBuffer.put (END_OF_RECORDS);
+          m_aConsumerThread.join ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          close ();
+          throw new SAXException ("Interrupted while waiting for the record consumer", ex);
+        }
+        m_aConsumerThread = null;
+        m_aBuffer = null;
+        _checkConsumer ();
+      }
+  }
+
+  public void startElement (final String uri,
+                            final String local,
+                            final String raw,
+                            final Attributes attrs) throws SAXException
+  {
+    if (m_aConverter == null)
+    {
+      m_aConverter = m_aMapping.getConverter (uri, local);
+      if (m_aConverter != null)
+      {
+        m_aFields = new LinkedHashMap<> ();
+        m_nDepth = 0;
+        for (int i = 0; i < attrs.getLength (); i++)
+        {
+          final String sName = attrs.getLocalName (i);
+          m_aFields.put ("@" + (sName == null || sName.isEmpty () ? attrs.getQName (i) : sName), attrs.getValue (i));
+        }
+      }
+    }
+    else
+      if (++m_nDepth == 1)
+      {
+        m_sField = local;
+        m_aText.setLength (0);
+      }
+  }
+
+  public void endElement (final String uri, final String local, final String raw) throws SAXException
+  {
+    if (m_aConverter == null)
+      return;
+
+    if (m_nDepth == 0)
+    {
+      final Map <String, String> aFields = m_aFields;
+      final Function <? super Map <String, String>, ? extends T> aConverter = m_aConverter;
+      m_aConverter = null;
+      m_aFields = null;
+      final T aRecord;
+      try
+      {
+        aRecord = aConverter.apply (aFields);
+      }
+      catch (final RuntimeException ex)
+      {
+        throw new SAXException ("Couldn't convert the record '" + raw + "': " + ex.getMessage (), ex);
+      }
+      _deliver (aRecord);
+    }
+    else
+    {
+      if (m_nDepth == 1)
+        m_aFields.put (m_sField, m_aText.toString ());
+      m_nDepth--;
+    }
+  }
+
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_aConverter != null && m_nDepth > 0)
+      m_aText.append (ch, start, length);
+  }
+
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    if (m_aConverter != null && m_nDepth > 0)
+      m_aText.append (chars);
+  }
+
+  public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+  {}
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {}
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {}
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {}
+
+  public void skippedEntity (final String name) throws SAXException
+  {}
+
+  public void setDocumentLocator (final Locator locator)
+  {}
+
+  public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+  {}
+
+  public void endDTD () throws SAXException
+  {}
+
+  public void startEntity (final String name) throws SAXException
+  {}
+
+  public void endEntity (final String name) throws SAXException
+  {}
+
+  public void startCDATA () throws SAXException
+  {}
+
+  public void endCDATA () throws SAXException
+  {}
+
+  public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {}
+
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {}
+}
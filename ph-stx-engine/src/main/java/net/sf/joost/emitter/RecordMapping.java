@@ -0,0 +1,106 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Describes which elements of a transformation result a
+ * {@link RecordEmitter} turns into records. A record element has a flat
+ * shape: its fields are
+ * <ul>
+ * <li>its attributes, stored with the key <code>@</code><i>local-name</i>,
+ * and</li>
+ * <li>its child elements, stored with their local name as key and their
+ * string value (the concatenation of all descendant text) as value.</li>
+ * </ul>
+ * The fields are collected in a {@link Map} in document order. A field that
+ * occurs more than once keeps its last value; text that is directly contained
+ * in the record element is ignored, as are elements outside of records. The
+ * map is then passed to the converter registered for the record element,
+ * which creates the record object (and may just return the map).
+ *
+ * @param <T>
+ *        the type of the records
+ * @author Philip Helger
+ */
+public class RecordMapping <T>
+{
+  /** The converters by namespace URI and local name */
+  private final Map <String, Map <String, Function <? super Map <String, String>, ? extends T>>> m_aConverters = new HashMap<> ();
+
+  /**
+   * Registers a record element.
+   *
+   * @param sURI
+   *        the namespace URI of the element, <code>null</code> or empty for
+   *        no namespace
+   * @param sLocalName
+   *        the local name of the element
+   * @param aConverter
+   *        the function that creates the record from the collected fields; it
+   *        may return <code>null</code> for skipping a record
+   * @return this
+   */
+  @Nonnull
+  public RecordMapping <T> addRecord (@Nullable final String sURI,
+                                      @Nonnull final String sLocalName,
+                                      @Nonnull final Function <? super Map <String, String>, ? extends T> aConverter)
+  {
+    m_aConverters.computeIfAbsent (sURI == null ? "" : sURI, k -> new HashMap<> ()).put (sLocalName, aConverter);
+    return this;
+  }
+
+  /**
+   * @return the converter for the given element, <code>null</code> if it is
+   *         not a record element
+   */
+  @Nullable
+  public Function <? super Map <String, String>, ? extends T> getConverter (@Nullable final String sURI,
+                                                                           @Nonnull final String sLocalName)
+  {
+    final Map <String, Function <? super Map <String, String>, ? extends T>> aLocal;
+    aLocal = m_aConverters.get (sURI == null ? "" : sURI);
+    return aLocal == null ? null : aLocal.get (sLocalName);
+  }
+
+  /**
+   * Creates a mapping that delivers the fields of the given record element as
+   * they are.
+   *
+   * @param sURI
+   *        the namespace URI of the record element, <code>null</code> or
+   *        empty for no namespace
+   * @param sLocalName
+   *        the local name of the record element
+   * @return the new mapping
+   */
+  @Nonnull
+  public static RecordMapping <Map <String, String>> forMaps (@Nullable final String sURI,
+                                                             @Nonnull final String sLocalName)
+  {
+    return new RecordMapping <Map <String, String>> ().addRecord (sURI, sLocalName, Function.identity ());
+  }
+}
@@ -28,6 +28,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.ext.LexicalHandler;
 
 import net.sf.joost.CSTX;
+import net.sf.joost.util.CharSequenceUtils;
 
 /**
  * This class implements the common interface <code>StxEmitter</code>. Is is
@@ -56,6 +57,12 @@ public class SAXEmitter extends AbstractStxEmitterBase
    */
   private LexicalHandler saxLexicalHandler = null;
 
+  /**
+   * Reused array for passing character sequences to the handlers, which only
+   * accept character arrays.
+   */
+  private char [] m_aScratch;
+
   /**
    * Constructor
    *
@@ -132,6 +139,22 @@ public class SAXEmitter extends AbstractStxEmitterBase
 
   }
 
+  /**
+   * Propagates the characters to the registered output target using a reused
+   * character array
+   */
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    if (saxContentHandler instanceof IStxEmitter)
+      ((IStxEmitter) saxContentHandler).characters (chars);
+    else
+    {
+      m_aScratch = CharSequenceUtils.toCharArray (chars, m_aScratch);
+      saxContentHandler.characters (m_aScratch, 0, chars.length ());
+    }
+  }
+
   /**
    * SAX2-Callback - Simply propagates the Call to the registered output target
    * - here the {@link #saxContentHandler}
@@ -281,4 +304,21 @@ public class SAXEmitter extends AbstractStxEmitterBase
       saxLexicalHandler.comment (ch, start, length);
 
   }
+
+  /**
+   * Propagates the comment to the registered lexical handler (if present)
+   * using a reused character array
+   */
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {
+    if (saxLexicalHandler instanceof IStxEmitter)
+      ((IStxEmitter) saxLexicalHandler).comment (chars);
+    else
+      if (saxLexicalHandler != null)
+      {
+        m_aScratch = CharSequenceUtils.toCharArray (chars, m_aScratch);
+        saxLexicalHandler.comment (m_aScratch, 0, chars.length ());
+      }
+  }
 }
@@ -100,6 +100,13 @@ public final class StringEmitter extends AbstractStxEmitterBase
     m_aBuffer.append (ch, start, length);
   }
 
+  /** Add the characters to the internal buffer */
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    m_aBuffer.append (chars);
+  }
+
   /** not used */
   public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
   {
@@ -157,4 +164,12 @@ public final class StringEmitter extends AbstractStxEmitterBase
     if (m_sErrorInfo != null)
       throw new SAXException ("Can't create comment here " + m_sErrorInfo);
   }
+
+  /** not allowed */
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
+  {
+    if (m_sErrorInfo != null)
+      throw new SAXException ("Can't create comment here " + m_sErrorInfo);
+  }
 }
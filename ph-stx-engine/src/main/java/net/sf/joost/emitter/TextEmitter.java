@@ -107,4 +107,25 @@ public class TextEmitter extends AbstractStreamEmitter
       throw new SAXException (ex);
     }
   }
+
+  /**
+   * Outputs characters given as a {@link CharSequence}.
+   */
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    checkEncodable (chars, "");
+
+    try
+    {
+      write (chars, 0, chars.length ());
+      if (CSTX.DEBUG)
+        log.debug ("'" + chars + "'");
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+  }
 }
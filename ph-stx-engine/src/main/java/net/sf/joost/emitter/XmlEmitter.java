@@ -21,6 +21,7 @@ package net.sf.joost.emitter;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Properties;
 
 import javax.xml.transform.OutputKeys;
@@ -205,6 +206,48 @@ public class XmlEmitter extends AbstractStreamEmitter
     return false;
   }
 
+  /**
+   * @return whether {@link #writeSerialized(CharSequence)} is possible, i.e.
+   *         the emitter is neither within a CDATA section nor has output
+   *         escaping been disabled
+   */
+  public boolean canWriteSerialized ()
+  {
+    return !insideCDATA && !disabledOutputEscaping;
+  }
+
+  /**
+   * Writes already serialized markup, for example a pre-serialized fragment of
+   * literal result elements. A pending start tag will be closed first.
+   *
+   * @param markup
+   *        the serialized markup, created by an emitter for the same encoding
+   * @return <code>false</code> if nothing has been written, because the
+   *         emitter is within a CDATA section or output escaping has been
+   *         disabled, otherwise <code>true</code>
+   * @throws SAXException
+   *         when writing fails
+   */
+  public boolean writeSerialized (final CharSequence markup) throws SAXException
+  {
+    if (!canWriteSerialized ())
+      return false;
+
+    processLastElement (false);
+    try
+    {
+      write (markup, 0, markup.length ());
+      if (CSTX.DEBUG)
+        log.debug (markup.toString ());
+    }
+    catch (final IOException ex)
+    {
+      log.error ("Exception", ex);
+      throw new SAXException (ex);
+    }
+    return true;
+  }
+
   /**
    * SAX2-Callback - Outputs XML-Deklaration with encoding.
    */
@@ -289,47 +332,69 @@ public class XmlEmitter extends AbstractStreamEmitter
    * SAX2-Callback - Constructs characters.
    */
   public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    characters (CharBuffer.wrap (ch, start, length));
+  }
+
+  /**
+   * Outputs characters given as a {@link CharSequence}. Escaping is performed
+   * straight from the sequence: runs of characters that don't need escaping
+   * are written directly to the writer.
+   */
+  @Override
+  public void characters (final CharSequence chars) throws SAXException
   {
     processLastElement (false);
 
+    final int length = chars.length ();
     try
     {
       if (insideCDATA || disabledOutputEscaping)
       {
         // check that the characters can be represented in the current
         // encoding (escaping not possible within CDATA)
-        for (int i = 0; i < length; i++)
-          if (!m_aCharsetEncoder.canEncode (ch[start + i]))
-            throw new SAXException ("Cannot output character with code " +
-                                    (int) ch[start + i] +
-                                    " in the encoding '" +
-                                    m_sEncoding +
-                                    "' within a CDATA section");
-        m_aWriter.write (ch, start, length);
+        checkEncodable (chars, " within a CDATA section");
+        write (chars, 0, length);
       }
       else
       {
-        final StringBuffer out = new StringBuffer (length);
         // output escaping
+        int runStart = 0;
         for (int i = 0; i < length; i++)
-          switch (ch[start + i])
+        {
+          final char c = chars.charAt (i);
+          String replacement;
+          switch (c)
           {
             case '&':
-              out.append ("&amp;");
+              replacement = "&amp;";
               break;
             case '<':
-              out.append ("&lt;");
+              replacement = "&lt;";
               break;
             case '>':
-              out.append ("&gt;");
+              replacement = "&gt;";
               break;
             default:
-              i = encodeCharacters (ch, start + i, out) - start;
+              if (m_aCharsetEncoder.canEncode (c))
+                continue;
+              // surrogate pairs and characters not representable in the
+              // current encoding become character references
+              write (chars, runStart, i);
+              final StringBuffer sb = new StringBuffer ();
+              i = encodeCharacters (chars, i, sb);
+              m_aWriter.write (sb.toString ());
+              runStart = i + 1;
+              continue;
           }
-        m_aWriter.write (out.toString ());
+          write (chars, runStart, i);
+          m_aWriter.write (replacement);
+          runStart = i + 1;
+        }
+        write (chars, runStart, length);
       }
       if (CSTX.DEBUG)
-        log.debug ("'" + new String (ch, start, length) + "'");
+        log.debug ("'" + chars + "'");
     }
     catch (final IOException ex)
     {
@@ -440,13 +505,22 @@ public class XmlEmitter extends AbstractStreamEmitter
    */
   @Override
   public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {
+    comment (CharBuffer.wrap (ch, start, length));
+  }
+
+  /**
+   * Outputs a comment given as a {@link CharSequence}
+   */
+  @Override
+  public void comment (final CharSequence chars) throws SAXException
   {
     processLastElement (false);
 
     try
     {
       m_aWriter.write ("<!--");
-      m_aWriter.write (ch, start, length);
+      write (chars, 0, chars.length ());
       m_aWriter.write ("-->");
     }
     catch (final IOException ex)
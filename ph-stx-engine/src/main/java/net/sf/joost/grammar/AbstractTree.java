@@ -26,6 +26,7 @@ import org.xml.sax.SAXException;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.AbstractNodeBase;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
 /**
@@ -220,6 +221,106 @@ public abstract class AbstractTree implements Cloneable
     return (m_aRight == null || m_aRight.isConstant ()) && (m_aLeft == null || m_aLeft.isConstant ());
   }
 
+  /**
+   * Determines the position counters that will be read if the pattern
+   * represented by this tree is matched with setting the context position.
+   *
+   * @return a combination of the <code>COUNT_XXX</code> constants of
+   *         {@link SAXEvent}
+   */
+  public int getPositionCounters ()
+  {
+    switch (m_nType)
+    {
+      case CHILD:
+      case DESC:
+        // only the last step sets the position
+        return m_aRight.getPositionCounters ();
+      case PREDICATE:
+        return m_aLeft.getPositionCounters ();
+      case NAME_TEST:
+        return SAXEvent.COUNT_ELEMENT_NAME;
+      case WILDCARD:
+        return SAXEvent.COUNT_ELEMENT;
+      case URI_WILDCARD:
+        return SAXEvent.COUNT_ELEMENT_LOCAL_NAME;
+      case LOCAL_WILDCARD:
+        return SAXEvent.COUNT_ELEMENT_URI;
+      case NODE_TEST:
+        return SAXEvent.COUNT_NODE;
+      case TEXT_TEST:
+        return SAXEvent.COUNT_TEXT;
+      case CDATA_TEST:
+        return SAXEvent.COUNT_CDATA;
+      case COMMENT_TEST:
+        return SAXEvent.COUNT_COMMENT;
+      case PI_TEST:
+        return SAXEvent.COUNT_PI;
+      default:
+        // unions don't set the position, the position of attributes and the
+        // root node is always 1
+        return 0;
+    }
+  }
+
+  /**
+   * Determines the position counters that will be read by the predicates
+   * contained in this tree, regardless whether the context position will be
+   * set.
+   *
+   * @return a combination of the <code>COUNT_XXX</code> constants of
+   *         {@link SAXEvent}
+   */
+  public int getPredicateCounters ()
+  {
+    int ret = m_nType == PREDICATE ? m_aLeft.getPositionCounters () : 0;
+    if (m_aLeft != null)
+      ret |= m_aLeft.getPredicateCounters ();
+    if (m_aRight != null)
+      ret |= m_aRight.getPredicateCounters ();
+    return ret;
+  }
+
+  /**
+   * @param sURI
+   *        the namespace URI of the function
+   * @param sLocalName
+   *        the local name of the function
+   * @return whether this tree contains a call of the specified function
+   */
+  public boolean callsFunction (final String sURI, final String sLocalName)
+  {
+    if (m_nType == FUNCTION && sURI.equals (m_sURI) && sLocalName.equals (m_sLocalName))
+      return true;
+    return (m_aLeft != null && m_aLeft.callsFunction (sURI, sLocalName)) ||
+           (m_aRight != null && m_aRight.callsFunction (sURI, sLocalName));
+  }
+
+  /**
+   * Determines whether this tree and the passed tree represent the same
+   * expression, i.e. whether both trees consist of nodes of the same classes
+   * with equal values and names.
+   *
+   * @param other
+   *        the tree to compare with, may be <code>null</code>
+   * @return <code>true</code> if both trees represent the same expression
+   */
+  public boolean isSameExpression (final AbstractTree other)
+  {
+    if (other == this)
+      return true;
+    if (other == null || other.getClass () != getClass () || other.m_nType != m_nType)
+      return false;
+    if (m_aValue == null ? other.m_aValue != null : !m_aValue.equals (other.m_aValue))
+      return false;
+    if (m_sURI == null ? other.m_sURI != null : !m_sURI.equals (other.m_sURI))
+      return false;
+    if (m_sLocalName == null ? other.m_sLocalName != null : !m_sLocalName.equals (other.m_sLocalName))
+      return false;
+    return (m_aLeft == null ? other.m_aLeft == null : m_aLeft.isSameExpression (other.m_aLeft)) &&
+           (m_aRight == null ? other.m_aRight == null : m_aRight.isSameExpression (other.m_aRight));
+  }
+
   /**
    * Creates a deep copy of this Tree
    *
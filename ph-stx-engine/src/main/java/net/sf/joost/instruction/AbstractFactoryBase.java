@@ -269,6 +269,7 @@ public abstract class AbstractFactoryBase
       }
       throw new SAXParseException (e.getMessage () + "Found '" + lexer.last.value + "'.", context.locator);
     }
+    context.analyzePattern (pattern);
     return pattern;
   }
 
@@ -337,6 +338,7 @@ public abstract class AbstractFactoryBase
       }
       throw new SAXParseException (e.getMessage () + "Found '" + lexer.last.value + "'.", context.locator);
     }
+    context.analyzeExpression (expr);
     return expr;
   }
 
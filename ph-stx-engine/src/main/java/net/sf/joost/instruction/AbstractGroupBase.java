@@ -93,6 +93,15 @@ public abstract class AbstractGroupBase extends AbstractNodeBase
   /** The templates from {@link #m_aContainedGroupTemplates} as array */
   public TemplateFactory.Instance [] m_aGroupTemplates;
 
+  /**
+   * Flags for {@link #m_aVisibleTemplates}: whether a template may be in
+   * conflict with one of its successors having the same priority
+   */
+  public boolean [] m_aVisibleAmbiguities;
+
+  /** Flags for {@link #m_aGroupTemplates}, see {@link #m_aVisibleAmbiguities} */
+  public boolean [] m_aGroupAmbiguities;
+
   /**
    * Table of all contained public and global procedures in this group Used only
    * temporarily during compiling the transformation sheet.
@@ -168,6 +177,45 @@ public abstract class AbstractGroupBase extends AbstractNodeBase
     m_aChildren.addElement (node);
   }
 
+  /**
+   * Reports a warning for visible templates with identical match patterns and
+   * the same priority, since they will always result in an ambiguous template
+   * rule. Pairs of public templates from the same sub-group have already been
+   * reported by that group.
+   */
+  private void _warnIdenticalTemplates (final ParseContext context) throws SAXException
+  {
+    for (int i = 0; i < m_aVisibleTemplates.length; i++)
+    {
+      final TemplateFactory.Instance t1 = m_aVisibleTemplates[i];
+      if (!m_aVisibleAmbiguities[i])
+        continue;
+      for (int j = i + 1; j < m_aVisibleTemplates.length; j++)
+      {
+        final TemplateFactory.Instance t2 = m_aVisibleTemplates[j];
+        if (t1.getPriority () != t2.getPriority ())
+          break;
+        if ((t1.m_aParentGroup != t2.m_aParentGroup || t1.m_aParentGroup == this) &&
+            t1.getMatchPattern ().isSameExpression (t2.getMatchPattern ()))
+        {
+          final String sOtherLocation = t1.m_sSystemID != null && t1.m_sSystemID.equals (t2.m_sSystemID) ? ""
+                                                                                                         : " of " +
+                                                                                                           t1.m_sSystemID;
+          context.getErrorHandler ().warning (new SAXParseException ("Ambiguous template rule with priority " +
+                                                                     t2.getPriority () +
+                                                                     ", template rule in line " +
+                                                                     t1.lineNo +
+                                                                     sOtherLocation +
+                                                                     " has the same match pattern",
+                                                                     t2.m_sPublicID,
+                                                                     t2.m_sSystemID,
+                                                                     t2.lineNo,
+                                                                     t2.colNo));
+        }
+      }
+    }
+  }
+
   /**
    * Determines the visible templates for this group in pass 0 and the array of
    * group templates in pass 1.
@@ -186,6 +234,12 @@ public abstract class AbstractGroupBase extends AbstractNodeBase
       // Issue #1 - don't use TimSort
       QuickSort.sort (m_aGroupTemplates);
       m_aContainedGroupTemplates = null; // for garbage collection
+
+      // determine the templates that need a check for ambiguous template
+      // rules at runtime
+      m_aVisibleAmbiguities = TemplateFactory.getAmbiguityChecks (m_aVisibleTemplates);
+      m_aGroupAmbiguities = TemplateFactory.getAmbiguityChecks (m_aGroupTemplates);
+      _warnIdenticalTemplates (context);
       return false; // done
     }
 
@@ -476,6 +530,12 @@ public abstract class AbstractGroupBase extends AbstractNodeBase
     throw new SAXParseException ("process called for " + m_sQName, m_sPublicID, m_sSystemID, lineNo, colNo);
   }
 
+  /** returns the value of {@link #m_aContainedGroups} */
+  public AbstractGroupBase [] getContainedGroups ()
+  {
+    return m_aContainedGroups;
+  }
+
   /** returns the value of {@link #m_aVisibleTemplates} */
   public TemplateFactory.Instance [] getVisibleTemplates ()
   {
@@ -67,7 +67,13 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
     @Override
     public short process (final Context ctx)
     {
-      ctx.m_aPassedParameters = m_aNode.m_aParamStack.pop ();
+      if (m_aNode.isReentrant ())
+        ctx.m_aPassedParameters = m_aNode.m_aParamStack.pop ();
+      else
+      {
+        ctx.m_aPassedParameters = m_aNode.m_aCallerParameters;
+        m_aNode.m_aCallerParameters = null;
+      }
       return CSTX.PR_CONTINUE;
     }
 
@@ -83,6 +89,18 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
   // stack for parameters, used in the subclasses
   private Stack <Hashtable <String, Value>> m_aParamStack = new Stack<> ();
 
+  /**
+   * The parameters of the caller if this instruction isn't reentrant, see
+   * {@link #isReentrant()}
+   */
+  private Hashtable <String, Value> m_aCallerParameters;
+
+  /**
+   * <code>true</code> if the stx:with-param children contain a process-xxx
+   * instruction
+   */
+  boolean m_bProcessingInParameters = false;
+
   protected Vector <AbstractInstruction> m_aChildren = new Vector<> ();
 
   // names of the "group" attribute (if present)
@@ -120,6 +138,8 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
     // Evaluate filter-method and filter-src attributes
     if (method != null)
       m_aFilter = AbstractFactoryBase.parseAVT (method, context);
+    if (method != null || sSrc != null)
+      context.preventProjection ();
     String src = sSrc;
     if (src != null)
     {
@@ -147,6 +167,20 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
                                        context.locator);
     }
 
+    // a procedure that contains process-xxx instructions must not be inlined
+    for (AbstractNodeBase ancestor = parent; ancestor != null; ancestor = ancestor.m_aParent)
+      if (ancestor instanceof ProcedureFactory.Instance)
+      {
+        ((ProcedureFactory.Instance) ancestor).m_bContainsProcessing = true;
+        break;
+      }
+
+    // all enclosing process-xxx instructions may be entered again while
+    // evaluating their parameters
+    for (AbstractNodeBase ancestor = parent; ancestor != null; ancestor = ancestor.m_aParent)
+      if (ancestor instanceof AbstractProcessBase)
+        ((AbstractProcessBase) ancestor).m_bProcessingInParameters = true;
+
     if (this instanceof PDocumentFactory.Instance || this instanceof PBufferFactory.Instance)
       return;
 
@@ -255,11 +289,24 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
   {
     context.targetGroup = m_aTargetGroup;
 
-    m_aParamStack.push (context.m_aPassedParameters);
+    if (isReentrant ())
+      m_aParamStack.push (context.m_aPassedParameters);
+    else
+      m_aCallerParameters = context.m_aPassedParameters;
     context.m_aPassedParameters = new Hashtable<> ();
     return CSTX.PR_CONTINUE;
   }
 
+  /**
+   * @return <code>true</code> if this instruction may be entered again before
+   *         its processing has been finished, i.e. if the parameters of the
+   *         caller must be kept on a stack
+   */
+  protected boolean isReentrant ()
+  {
+    return true;
+  }
+
   /**
    * Returns a handler that performs a transformation according to the specified
    * {@link #m_aFilter} value.
@@ -348,6 +395,7 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
     super.onDeepCopy (copy, copies);
     final AbstractProcessBase theCopy = (AbstractProcessBase) copy;
     theCopy.m_aParamStack = new Stack<> ();
+    theCopy.m_aCallerParameters = null;
     if (m_aBufGroupScope != null)
       theCopy.m_aBufGroupScope = (AbstractGroupBase) m_aBufGroupScope.deepCopy (copies);
     if (m_aTargetGroup != null)
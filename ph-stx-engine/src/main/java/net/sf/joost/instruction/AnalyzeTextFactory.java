@@ -24,7 +24,6 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
-import java.util.regex.Matcher;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -35,7 +34,9 @@ import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.stx.Value;
+import net.sf.joost.util.LargeText;
+import net.sf.joost.util.regex.RegexAlternation;
 
 /**
  * Factory for <code>analyze-text</code> elements, which are represented by the
@@ -208,6 +209,19 @@ public final class AnalyzeTextFactory extends AbstractFactoryBase
      */
     protected String [] capSubstr, noMatchStr;
 
+    /**
+     * The regular expressions of the most recent invocation, reused as long as
+     * the <code>regex</code> and <code>flags</code> attributes evaluate to the
+     * same values
+     */
+    private volatile RegexAlternation m_aAlternation;
+
+    /**
+     * The minimum number of characters between the start positions of two
+     * search windows in a large text
+     */
+    private static final int MIN_WINDOW_STEP = 1 << 16;
+
     /**
      * Evaluate the expression given in the <code>select</code> attribute; find
      * and process the child with the matching regular expression
@@ -215,114 +229,123 @@ public final class AnalyzeTextFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      String text;
+      CharSequence text;
       int lastIndex;
-      Matcher [] matchers;
+      RegexAlternation.Scanner scanner;
 
       if (continued)
       {
         // restore previous values
-        text = (String) m_aLocalFieldStack.pop ();
+        text = (CharSequence) m_aLocalFieldStack.pop ();
         lastIndex = ((Integer) m_aLocalFieldStack.pop ()).intValue ();
-        matchers = (Matcher []) m_aLocalFieldStack.pop ();
+        scanner = (RegexAlternation.Scanner) m_aLocalFieldStack.pop ();
         continued = false; // in case there will be an stx:process-xxx
       }
       else
       { // this is a new invocation
-        text = m_aSelect.evaluate (context, this).getStringValue ();
+        final Value v = m_aSelect.evaluate (context, this);
+        // don't create the string value of a large text node
+        if (v.type == Value.NODE && v.next == null)
+          text = v.getNode ().getValueSequence ();
+        else
+          text = v.getStringValue ();
         lastIndex = 0;
         // create a pseudo variable for regex-group()
         if (context.localRegExGroup == null)
           context.localRegExGroup = new Stack<> ();
-        matchers = new Matcher [matchChildren.length];
+        final String [] regexes = new String [matchChildren.length];
+        final String [] flags = new String [matchChildren.length];
         for (int i = 0; i < matchChildren.length; i++)
         {
-          final String re = matchChildren[i].m_aRegex.evaluate (context, matchChildren[i]).getString ();
-
-          final String flags = matchChildren[i].m_aFlags != null ? matchChildren[i].m_aFlags.evaluate (context,
-                                                                                                       matchChildren[i])
-                                                                                            .getString ()
-                                                                 : "";
+          regexes[i] = matchChildren[i].m_aRegex.evaluate (context, matchChildren[i]).getString ();
+          flags[i] = matchChildren[i].m_aFlags != null ? matchChildren[i].m_aFlags.evaluate (context,
+                                                                                             matchChildren[i])
+                                                                                  .getString ()
+                                                       : "";
+        }
+        // reuse the compiled expressions if they didn't change
+        RegexAlternation alternation = m_aAlternation;
+        if (alternation == null || !alternation.isFor (regexes, flags))
+        {
           try
           {
-            matchers[i] = new JRegularExpression (re, true, flags).matcher (text);
+            alternation = new RegexAlternation (regexes, flags);
           }
           catch (final EvalException e)
           {
             context.m_aErrorHandler.fatalError (e.getMessage (), m_sPublicID, m_sSystemID, lineNo, colNo, e);
             return CSTX.PR_ERROR;
           }
+          m_aAlternation = alternation;
         }
+        scanner = alternation.scanner (text);
       }
 
-      if (text.length () != lastIndex)
+      final int textLength = text.length ();
+      if (textLength != lastIndex)
       {
-        int newIndex = text.length ();
-        int maxSubstringLength = 0;
-        int matchIndex = -1;
-
-        for (int i = 0; i < matchers.length; i++)
+        // a large text will be searched in windows: only matches that start
+        // before matchLimit are accepted, they may extend up to windowEnd
+        int matchLimit = textLength;
+        int windowEnd = textLength;
+        if (text instanceof LargeText)
         {
-          int start = -1;
-          if (matchers[i].find (lastIndex))
+          final int maxMatchLength = context.m_nMaxMatchLength;
+          final int step = Math.max (maxMatchLength, MIN_WINDOW_STEP);
+          if (textLength - lastIndex > step + maxMatchLength)
           {
-            if (matchers[i].start () == matchers[i].end ())
-            {
-              while (matchers[i].find ())
-              {
-                if (matchers[i].start () != matchers[i].end ())
-                {
-                  start = matchers[i].start ();
-                  break;
-                }
-              }
-            }
-            else
-              start = matchers[i].start ();
-          }
-          if (start > -1 && start <= newIndex)
-          {
-            final int length = matchers[i].end () - start;
-            if (start < newIndex || length > maxSubstringLength)
-            {
-              newIndex = matchers[i].start ();
-              maxSubstringLength = length;
-              matchIndex = i;
-            }
+            matchLimit = lastIndex + step;
+            windowEnd = matchLimit + maxMatchLength;
           }
         }
 
         noMatchStr = new String [1];
-        if (matchIndex != -1)
+        if (scanner.find (lastIndex, windowEnd) && scanner.getStart () < matchLimit)
         { // found an stx:match
-          capSubstr = new String [matchers[matchIndex].groupCount () + 1];
-          for (int i = 0; i < capSubstr.length; i++)
-            capSubstr[i] = matchers[matchIndex].group (i);
-          noMatchStr[0] = text.substring (lastIndex, newIndex);
-          m_aLocalFieldStack.push (matchers);
-          m_aLocalFieldStack.push (new Integer (newIndex + maxSubstringLength));
+          final int newIndex = scanner.getStart ();
+          capSubstr = scanner.getGroups ();
+          noMatchStr[0] = text.subSequence (lastIndex, newIndex).toString ();
+          m_aLocalFieldStack.push (scanner);
+          m_aLocalFieldStack.push (Integer.valueOf (scanner.getEnd ()));
           m_aLocalFieldStack.push (text);
+          final MatchFactory.Instance matchChild = matchChildren[scanner.getBranch ()];
           if (noMatchChild != null && newIndex != lastIndex)
           {
             // invoke stx:no-match before stx:match
             next = noMatchChild;
-            noMatchChild.m_aNodeEnd.next = matchChildren[matchIndex];
+            noMatchChild.m_aNodeEnd.next = matchChild;
           }
           else
-            next = matchChildren[matchIndex];
+            next = matchChild;
         }
         else
-        { // no matching regex found
-          if (noMatchChild != null)
-          {
-            noMatchStr[0] = text.substring (lastIndex);
-            next = noMatchChild;
-            // leave stx:analyze-text after stx:no-match
-            noMatchChild.m_aNodeEnd.next = successor;
+          if (windowEnd != textLength)
+          { // no match in this window, continue with the next one
+            if (noMatchChild != null)
+            {
+              noMatchStr[0] = text.subSequence (lastIndex, matchLimit).toString ();
+              next = noMatchChild;
+              // come back to stx:analyze-text after stx:no-match
+              noMatchChild.m_aNodeEnd.next = m_aNodeEnd;
+            }
+            else
+              next = m_aNodeEnd;
+            m_aLocalFieldStack.push (scanner);
+            m_aLocalFieldStack.push (Integer.valueOf (matchLimit));
+            m_aLocalFieldStack.push (text);
           }
           else
-            next = successor; // leave stx:analyze-text instantly
-        }
+          { // no matching regex found
+            if (noMatchChild != null)
+            {
+              noMatchStr[0] = text.subSequence (lastIndex, textLength).toString ();
+              next = noMatchChild;
+              // leave stx:analyze-text after stx:no-match
+              noMatchChild.m_aNodeEnd.next = successor;
+            }
+            else
+              next = successor; // leave stx:analyze-text instantly
+          }
       }
       else // text.length() == lastIndex, we're done
         next = successor;
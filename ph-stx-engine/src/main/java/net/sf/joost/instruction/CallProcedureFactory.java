@@ -78,9 +78,18 @@ public class CallProcedureFactory extends AbstractFactoryBase
   /** The inner Instance class */
   public static final class Instance extends AbstractProcessBase
   {
+    /**
+     * The maximal number of instructions of a procedure that will be inlined
+     * at the call site
+     */
+    private static final int MAX_INLINE_INSTRUCTIONS = 64;
+
     final String m_sProcQName, m_sProcExpName;
     ProcedureFactory.Instance m_aProcedure;
 
+    /** Whether the procedure has been inlined at this call site */
+    private boolean m_bInlined = false;
+
     // Constructor
     public Instance (final String qName,
                      final AbstractNodeBase parent,
@@ -96,7 +105,9 @@ public class CallProcedureFactory extends AbstractFactoryBase
     }
 
     /**
-     * Determine statically the target procedure.
+     * Determine statically the target procedure. Small procedures that don't
+     * contain processing instructions will be inlined in the last pass (after
+     * the procedure body has been compiled completely).
      */
     @Override
     public boolean compile (final int pass, final ParseContext context) throws SAXException
@@ -104,6 +115,19 @@ public class CallProcedureFactory extends AbstractFactoryBase
       if (pass == 0)
         return true; // groups not parsed completely
 
+      if (pass > 1)
+      {
+        final ProcedureFactory.Instance inlined = m_aProcedure.createInlineCopy (m_aNodeEnd,
+                                                                                MAX_INLINE_INSTRUCTIONS);
+        if (inlined != null)
+        {
+          m_aProcedure = inlined;
+          m_aLastChild.next = inlined;
+          m_bInlined = true;
+        }
+        return false; // done
+      }
+
       // determine procedure object
       // targetGroup stems from compile() in ProcessBase
       super.compile (pass, context);
@@ -133,29 +157,45 @@ public class CallProcedureFactory extends AbstractFactoryBase
       }
       m_aLastChild.next = m_aProcedure;
 
-      return false; // done
+      return true; // try to inline the procedure in the next pass
     }
 
     /**
-     * Adjust the return address of the procedure.
+     * Adjust the return address of the procedure (not necessary for an
+     * inlined procedure).
      */
     @Override
     public short process (final Context context) throws SAXException
     {
       super.process (context);
 
-      m_aLocalFieldStack.push (m_aProcedure.m_aNodeEnd.next);
-      m_aProcedure.m_aNodeEnd.next = m_aNodeEnd;
+      if (!m_bInlined)
+      {
+        m_aLocalFieldStack.push (m_aProcedure.m_aNodeEnd.next);
+        m_aProcedure.m_aNodeEnd.next = m_aNodeEnd;
+      }
       return CSTX.PR_CONTINUE;
     }
 
     @Override
     public short processEnd (final Context context) throws SAXException
     {
-      m_aProcedure.m_aNodeEnd.next = (AbstractInstruction) m_aLocalFieldStack.pop ();
+      if (!m_bInlined)
+        m_aProcedure.m_aNodeEnd.next = (AbstractInstruction) m_aLocalFieldStack.pop ();
       return super.processEnd (context);
     }
 
+    /**
+     * An inlined procedure can't call this instruction recursively. It may be
+     * entered again only from a process-xxx instruction in its stx:with-param
+     * children.
+     */
+    @Override
+    protected boolean isReentrant ()
+    {
+      return !m_bInlined || m_bProcessingInParameters;
+    }
+
     @Override
     protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
     {
@@ -106,7 +106,7 @@ public final class CdataFactory extends AbstractFactoryBase
       context.popEmitter ();
       final Emitter emitter = context.m_aEmitter;
       emitter.startCDATA (this);
-      emitter.characters (buffer.toString ().toCharArray (), 0, buffer.length (), this);
+      emitter.characters (buffer, this);
       emitter.endCDATA ();
       return super.processEnd (context);
     }
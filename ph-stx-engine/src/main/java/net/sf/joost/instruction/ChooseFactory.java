@@ -19,10 +19,20 @@
  */
 package net.sf.joost.instruction;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import net.sf.joost.CSTX;
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Value;
 
 /**
  * Factory for <code>choose</code> elements, which are represented by the inner
@@ -51,11 +61,44 @@ public final class ChooseFactory extends AbstractFactoryBase
     return new Instance (qName, parent, context);
   }
 
-  /** Represents an instance of the <code>choose</code> element. */
+  /**
+   * Represents an instance of the <code>choose</code> element. If all
+   * <code>stx:when</code> children compare the same expression with
+   * constants, like in <code>name()='x'</code> or <code>@type='y'</code>, the
+   * expression will be evaluated only once and the matching branch will be
+   * looked up in a hash table.
+   */
   public static final class Instance extends AbstractNodeBase
   {
+    /** The minimal number of stx:when children for the hashed dispatch */
+    private static final int MIN_DISPATCH_BRANCHES = 3;
+
+    /** Branch index if no stx:when matches */
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /** Branch index if the stx:when tests must be evaluated one by one */
+    private static final int EVALUATE_TESTS = -1;
+
     private boolean otherwisePresent;
 
+    /** The stx:when children, needed only during compilation */
+    private List <WhenFactory.Instance> m_aWhenChildren = new ArrayList<> ();
+
+    /** The expression all stx:when children compare with constants */
+    private AbstractTree m_aSelector;
+
+    /** Maps the constants to the index of the first matching stx:when */
+    private Map <Object, Integer> m_aBranches;
+
+    /** Whether the constants are numbers (otherwise strings) */
+    private boolean m_bNumberKeys;
+
+    /** The stx:when children for the hashed dispatch */
+    private WhenFactory.Instance [] m_aWhens;
+
+    /** The instruction that follows if no stx:when matches */
+    private AbstractInstruction m_aNoMatchNext;
+
     protected Instance (final String qName, final AbstractNodeBase parent, final ParseContext context)
     {
       super (qName, parent, context, true);
@@ -119,6 +162,8 @@ public final class ChooseFactory extends AbstractFactoryBase
         }
         otherwisePresent = true;
       }
+      else
+        m_aWhenChildren.add ((WhenFactory.Instance) node);
 
       super.insert (node);
     }
@@ -129,20 +174,208 @@ public final class ChooseFactory extends AbstractFactoryBase
     @Override
     public boolean compile (final int pass, final ParseContext context) throws SAXParseException
     {
-      if (m_aLastChild == this)
-        throw new SAXParseException ("'" +
-                                     m_sQName +
-                                     "' must have at least one stx:when child",
-                                     m_sPublicID,
-                                     m_sSystemID,
-                                     lineNo,
-                                     colNo);
+      if (pass == 0)
+      {
+        if (m_aLastChild == this)
+          throw new SAXParseException ("'" +
+                                       m_sQName +
+                                       "' must have at least one stx:when child",
+                                       m_sPublicID,
+                                       m_sSystemID,
+                                       lineNo,
+                                       colNo);
+
+        mayDropEnd ();
+        if (m_aWhenChildren.size () >= MIN_DISPATCH_BRANCHES)
+          return true; // the stx:when children are compiled in pass 1
+        m_aWhenChildren = null; // for garbage collection
+        return false;
+      }
 
-      mayDropEnd ();
+      createDispatch ();
+      m_aWhenChildren = null; // for garbage collection
       return false;
     }
 
-    // No specific process and processEnd methods necessary.
-    // The magic of stx:choose is completely in WhenFactory.Instance.compile
+    /**
+     * Creates the hash table for the dispatch if all stx:when tests compare the
+     * same expression with constants of the same type.
+     */
+    private void createDispatch ()
+    {
+      final int size = m_aWhenChildren.size ();
+      final Map <Object, Integer> branches = new HashMap<> ();
+      AbstractTree selector = null;
+      int constantType = 0;
+      for (int i = 0; i < size; i++)
+      {
+        final List <AbstractTree> constants = new ArrayList<> ();
+        final AbstractTree whenSelector = getSelector (m_aWhenChildren.get (i).getTest (), constants);
+        if (whenSelector == null || (selector != null && !selector.isSameExpression (whenSelector)))
+          return;
+        selector = whenSelector;
+        for (final AbstractTree constant : constants)
+        {
+          if (constantType == 0)
+            constantType = constant.getType ();
+          else
+            if (constantType != constant.getType ())
+              return;
+          final Object key = constantType == AbstractTree.NUMBER ? getNumberKey (((Double) constant.m_aValue).doubleValue ())
+                                                                 : constant.m_aValue;
+          // only the first stx:when with this constant can be selected
+          if (!branches.containsKey (key))
+            branches.put (key, Integer.valueOf (i));
+        }
+      }
+
+      m_aSelector = selector;
+      m_aBranches = branches;
+      m_bNumberKeys = constantType == AbstractTree.NUMBER;
+      m_aWhens = m_aWhenChildren.toArray (new WhenFactory.Instance [size]);
+      m_aNoMatchNext = m_aWhens[size - 1].getFalseNext ();
+    }
+
+    /**
+     * Determines the expression that will be compared with constants in the
+     * passed test expression, which must be either a comparison
+     * <code>expr = constant</code> (or <code>constant = expr</code>), or a
+     * disjunction of such comparisons with the same <code>expr</code>.
+     *
+     * @param test
+     *        the test expression
+     * @param constants
+     *        a list that receives the constants
+     * @return the compared expression, or <code>null</code> if the test
+     *         expression doesn't have the required form
+     */
+    private static AbstractTree getSelector (final AbstractTree test, final List <AbstractTree> constants)
+    {
+      if (test.getType () == AbstractTree.OR)
+      {
+        final AbstractTree left = getSelector (test.m_aLeft, constants);
+        if (left == null)
+          return null;
+        return left.isSameExpression (getSelector (test.m_aRight, constants)) ? left : null;
+      }
+      if (test.getType () != AbstractTree.EQ)
+        return null;
+      if (isConstantKey (test.m_aRight) && isSelector (test.m_aLeft))
+      {
+        constants.add (test.m_aRight);
+        return test.m_aLeft;
+      }
+      if (isConstantKey (test.m_aLeft) && isSelector (test.m_aRight))
+      {
+        constants.add (test.m_aLeft);
+        return test.m_aRight;
+      }
+      return null;
+    }
+
+    private static boolean isConstantKey (final AbstractTree tree)
+    {
+      return tree.getType () == AbstractTree.STRING || tree.getType () == AbstractTree.NUMBER;
+    }
+
+    /**
+     * @return <code>true</code> if the passed expression may be evaluated once
+     *         instead of once per stx:when, i.e. if it is not constant and
+     *         doesn't call extension functions
+     */
+    private static boolean isSelector (final AbstractTree tree)
+    {
+      return !tree.isConstant () && callsOnlyCoreFunctions (tree);
+    }
+
+    private static boolean callsOnlyCoreFunctions (final AbstractTree tree)
+    {
+      if (tree == null)
+        return true;
+      if (tree.getType () == AbstractTree.FUNCTION && !CSTX.FUNC_NS.equals (tree.m_sURI))
+        return false;
+      return callsOnlyCoreFunctions (tree.m_aLeft) && callsOnlyCoreFunctions (tree.m_aRight);
+    }
+
+    /** @return the hash key for a number, 0 and -0 are the same key */
+    private static Double getNumberKey (final double number)
+    {
+      return Double.valueOf (number == 0 ? 0 : number);
+    }
+
+    /**
+     * Evaluates the selector expression and jumps directly to the matching
+     * stx:when child (if a hashed dispatch has been created).
+     */
+    @Override
+    public short process (final Context context) throws SAXException
+    {
+      super.process (context);
+      if (m_aBranches != null)
+      {
+        final int branch = findBranch (m_aSelector.evaluate (context, this));
+        if (branch == EVALUATE_TESTS)
+          next = m_aWhens[0];
+        else
+          if (branch == NO_MATCH)
+            next = m_aNoMatchNext;
+          else
+          {
+            m_aWhens[branch].m_bSelected = true;
+            next = m_aWhens[branch];
+          }
+      }
+      return CSTX.PR_CONTINUE;
+    }
+
+    /**
+     * @return the index of the first stx:when that matches the value of the
+     *         selector, {@link #NO_MATCH} if there's no such stx:when, or
+     *         {@link #EVALUATE_TESTS} if the value requires a different kind of
+     *         comparison (for example a boolean comparison)
+     */
+    private int findBranch (final Value value)
+    {
+      if (value.type == Value.EMPTY)
+        return NO_MATCH;
+
+      // sequences: the first stx:when that matches any of the items
+      int ret = NO_MATCH;
+      for (Value vi = value; vi != null; vi = vi.next)
+      {
+        final Object key;
+        if (vi.type == Value.BOOLEAN)
+          return EVALUATE_TESTS;
+        if (m_bNumberKeys)
+          key = getNumberKey (vi.getNumberValue ());
+        else
+        {
+          if (vi.type == Value.NUMBER)
+            return EVALUATE_TESTS;
+          key = vi.getStringValue ();
+        }
+        final Integer branch = m_aBranches.get (key);
+        if (branch != null && branch.intValue () < ret)
+          ret = branch.intValue ();
+      }
+      return ret;
+    }
+
+    @Override
+    protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
+    {
+      super.onDeepCopy (copy, copies);
+      final Instance theCopy = (Instance) copy;
+      if (m_aSelector != null)
+        theCopy.m_aSelector = m_aSelector.deepCopy (copies);
+      if (m_aWhens != null)
+      {
+        theCopy.m_aWhens = new WhenFactory.Instance [m_aWhens.length];
+        for (int i = 0; i < m_aWhens.length; i++)
+          theCopy.m_aWhens[i] = (WhenFactory.Instance) m_aWhens[i].deepCopy (copies);
+      }
+      if (m_aNoMatchNext != null)
+        theCopy.m_aNoMatchNext = m_aNoMatchNext.deepCopy (copies);
+    }
   }
 }
@@ -129,7 +129,7 @@ public class CommentFactory extends AbstractFactoryBase
         else
         {
           // produce the comment immediately
-          context.m_aEmitter.comment (comment.toCharArray (), 0, comment.length (), this);
+          context.m_aEmitter.comment (comment, this);
         }
       }
 
@@ -187,7 +187,7 @@ public class CommentFactory extends AbstractFactoryBase
           comment.append (' ');
       }
 
-      context.m_aEmitter.comment (comment.toString ().toCharArray (), 0, comment.length (), this);
+      context.m_aEmitter.comment (comment, this);
     }
 
     @Override
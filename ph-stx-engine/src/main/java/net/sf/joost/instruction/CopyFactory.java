@@ -172,12 +172,12 @@ public final class CopyFactory extends AbstractFactoryBase
           break;
         }
         case SAXEvent.TEXT:
-          context.m_aEmitter.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), this);
+          context.m_aEmitter.characters (event.getValueSequence (), this);
           next = successor;
           break;
         case SAXEvent.CDATA:
           context.m_aEmitter.startCDATA (this);
-          context.m_aEmitter.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), this);
+          context.m_aEmitter.characters (event.getValueSequence (), this);
           context.m_aEmitter.endCDATA ();
           next = successor;
           break;
@@ -186,7 +186,7 @@ public final class CopyFactory extends AbstractFactoryBase
           next = successor;
           break;
         case SAXEvent.COMMENT:
-          context.m_aEmitter.comment (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), this);
+          context.m_aEmitter.comment (event.m_sValue, this);
           next = successor;
           break;
         case SAXEvent.ATTRIBUTE:
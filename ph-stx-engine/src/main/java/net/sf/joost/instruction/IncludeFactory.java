@@ -87,7 +87,8 @@ public final class IncludeFactory extends AbstractFactoryBase
 
     checkAttributes (qName, attrs, attrNames, pContext);
 
-    final Parser stxParser = new Parser (new ParseContext (pContext));
+    final ParseContext includeContext = new ParseContext (pContext);
+    final Parser stxParser = new Parser (includeContext);
     stxParser.includingGroup = (AbstractGroupBase) parent;
 
     XMLReader reader = null;
@@ -138,6 +139,8 @@ public final class IncludeFactory extends AbstractFactoryBase
     final TransformFactory.Instance tfi = stxParser.getTransformNode ();
     // transfer compilable nodes to the calling Parser object
     tfi.m_aCompilableNodes = stxParser.compilableNodes;
+    // the position counters are maintained for the whole transformation
+    pContext.addPositionUsage (includeContext);
     tfi.m_sQName = qName; // replace name for error reporting
     return tfi;
   }
@@ -33,6 +33,7 @@ import org.xml.sax.helpers.NamespaceSupport;
 import net.sf.joost.CSTX;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.LiteralFragment;
 import net.sf.joost.stx.ParseContext;
 
 /**
@@ -88,6 +89,15 @@ public final class LitElementFactory
     private Hashtable <String, String> m_aNamespaces;
     private final Map <String, String> m_aNamespaceAliases;
 
+    /**
+     * the serialized form of this element and its contents, if this subtree is
+     * completely static
+     */
+    private LiteralFragment m_aFragment;
+
+    /** the first child instruction */
+    private AbstractInstruction m_aContentNext;
+
     protected Instance (final String uri,
                         final String lName,
                         final String qName,
@@ -129,8 +139,9 @@ public final class LitElementFactory
     }
 
     /**
-     * Determine constant attribute values and apply all declared namespaces
-     * aliases (<code>stx:namespace-alias</code>)
+     * Determine constant attribute values, apply all declared namespaces
+     * aliases (<code>stx:namespace-alias</code>) and collect the contents of a
+     * completely static subtree in a {@link LiteralFragment}
      */
     @Override
     public boolean compile (final int pass, final ParseContext context) throws SAXException
@@ -157,10 +168,20 @@ public final class LitElementFactory
         return true;
       }
 
-      if (m_aNamespaceAliases.size () == 0)
-                                        // no aliases declared
-                                        return false;
+      m_aContentNext = next;
+      if (m_aNamespaceAliases.size () != 0)
+        applyNamespaceAliases ();
 
+      // children have been compiled before their parents
+      m_aFragment = createFragment ();
+      return false;
+    }
+
+    /**
+     * Apply all declared namespaces aliases
+     */
+    private void applyNamespaceAliases ()
+    {
       // Change namespace URI of this element
       String toNS = m_aNamespaceAliases.get (m_sUri);
       if (toNS != null)
@@ -225,8 +246,58 @@ public final class LitElementFactory
               m_aNamespaces.put (key, alias);
         }
       }
+    }
 
-      return false;
+    /**
+     * @return a fragment containing the events of this element and its
+     *         contents, or <code>null</code> if the contents isn't static
+     */
+    private LiteralFragment createFragment ()
+    {
+      if (m_aAvtList.length != 0 || m_aScopedVariables != null)
+        return null;
+
+      final LiteralFragment fragment = new LiteralFragment ();
+      fragment.startElement (m_sUri, m_sLocalName, m_sQName, m_aAttrs, m_aNamespaces);
+      AbstractInstruction inst = m_aContentNext;
+      while (inst != m_aNodeEnd)
+      {
+        if (inst instanceof Instance)
+        {
+          final Instance child = (Instance) inst;
+          if (child.m_aAvtList.length != 0)
+            return null;
+          fragment.startElement (child.m_sUri, child.m_sLocalName, child.m_sQName, child.m_aAttrs, child.m_aNamespaces);
+          inst = child.m_aContentNext;
+        }
+        else
+        {
+          if (inst instanceof TextNode)
+            fragment.characters (((TextNode) inst).getContents ());
+          else
+            if (inst instanceof TextFactory.Instance && ((TextFactory.Instance) inst).getConstantText () != null)
+            {
+              fragment.characters (((TextFactory.Instance) inst).getConstantText ());
+              inst = ((TextFactory.Instance) inst).m_aNodeEnd;
+            }
+            else
+              if (inst instanceof AbstractNodeBase.End && inst.getNode () instanceof Instance)
+              {
+                final Instance child = (Instance) inst.getNode ();
+                fragment.endElement (child.m_sUri, child.m_sLocalName, child.m_sQName);
+              }
+              else
+                return null;
+          inst = inst.next;
+        }
+      }
+      fragment.endElement (m_sUri, m_sLocalName, m_sQName);
+
+      // the fragments of the children are no longer needed
+      for (inst = m_aContentNext; inst != m_aNodeEnd; inst = inst.next)
+        if (inst instanceof Instance)
+          ((Instance) inst).m_aFragment = null;
+      return fragment;
     }
 
     /**
@@ -236,6 +307,14 @@ public final class LitElementFactory
     public short process (final Context context) throws SAXException
     {
       super.process (context);
+      if (m_aFragment != null && context.m_aEmitter.literalFragment (m_aFragment, this))
+      {
+        // skip the contents and the end of this element
+        next = m_aNodeEnd.next;
+        return CSTX.PR_CONTINUE;
+      }
+      next = m_aContentNext;
+
       // attrs is not cloned at the moment (see onDeepCopy(..)), so a
       // synchronization is necessary
       synchronized (m_aAttrs)
@@ -276,6 +355,8 @@ public final class LitElementFactory
       for (int i = 0; i < m_aAvtList.length; i++)
         if (m_aAvtList[i] != null)
           theCopy.m_aAvtList[i] = m_aAvtList[i].deepCopy (copies);
+      if (m_aContentNext != null)
+        theCopy.m_aContentNext = m_aContentNext.deepCopy (copies);
     }
 
     //
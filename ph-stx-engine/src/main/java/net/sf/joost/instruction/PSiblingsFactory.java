@@ -141,6 +141,25 @@ public class PSiblingsFactory extends AbstractFactoryBase
              (m_aUntilPattern == null || !m_aUntilPattern.matches (context, context.ancestorStack.size (), false));
     }
 
+    /**
+     * @return <code>false</code> if this instruction has neither a
+     *         <code>while</code> nor an <code>until</code> attribute, i.e. if
+     *         {@link #matches(Context)} is always <code>true</code>
+     */
+    public boolean hasConditions ()
+    {
+      return m_aWhilePattern != null || m_aUntilPattern != null;
+    }
+
+    /**
+     * @return the group that contains this instruction, which is the current
+     *         group while evaluating the conditions
+     */
+    public AbstractGroupBase getParentGroup ()
+    {
+      return parentGroup;
+    }
+
     @Override
     protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
     {
@@ -19,6 +19,7 @@
  */
 package net.sf.joost.instruction;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
@@ -111,6 +112,25 @@ public final class ProcedureFactory extends AbstractFactoryBase
     /** The qualified name of this procedure */
     final String m_sProcName;
 
+    /**
+     * Whether this procedure contains process-xxx or call-procedure
+     * instructions, set while parsing
+     */
+    boolean m_bContainsProcessing = false;
+
+    /**
+     * The table for the local variables if this is a private copy of the
+     * procedure, inlined at a call site, <code>null</code> otherwise
+     */
+    private Hashtable <String, Value> m_aInlineVars;
+
+    /**
+     * The current group and the local variables of the caller of an inlined
+     * copy, saved while its body is processed
+     */
+    private AbstractGroupBase m_aCallerGroup;
+    private Hashtable <String, Value> m_aCallerVars;
+
     // Constructor
     protected Instance (final String qName,
                         final AbstractGroupBase parent,
@@ -135,10 +155,22 @@ public final class ProcedureFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      m_aLocalFieldStack.push (context.currentGroup);
-      // save and reset local variables
-      m_aLocalFieldStack.push (context.localVars.clone ());
-      context.localVars.clear ();
+      if (m_aInlineVars != null)
+      {
+        // an inlined body can't be interrupted by processing, so it won't be
+        // entered again before it has been left: neither a stack frame nor a
+        // copy of the local variables is needed
+        m_aCallerGroup = context.currentGroup;
+        m_aCallerVars = context.localVars;
+        context.localVars = m_aInlineVars;
+      }
+      else
+      {
+        m_aLocalFieldStack.push (context.currentGroup);
+        // save and reset local variables
+        m_aLocalFieldStack.push (context.localVars.clone ());
+        context.localVars.clear ();
+      }
       return super.process (context);
     }
 
@@ -146,12 +178,73 @@ public final class ProcedureFactory extends AbstractFactoryBase
     public short processEnd (final Context context) throws SAXException
     {
       super.processEnd (context);
-      // restore local variables
-      context.localVars = (Hashtable <String, Value>) m_aLocalFieldStack.pop ();
-      context.currentGroup = (AbstractGroupBase) m_aLocalFieldStack.pop ();
+      if (m_aInlineVars != null)
+      {
+        m_aInlineVars.clear ();
+        context.localVars = m_aCallerVars;
+        context.currentGroup = m_aCallerGroup;
+        m_aCallerVars = null;
+        m_aCallerGroup = null;
+      }
+      else
+      {
+        // restore local variables
+        context.localVars = (Hashtable <String, Value>) m_aLocalFieldStack.pop ();
+        context.currentGroup = (AbstractGroupBase) m_aLocalFieldStack.pop ();
+      }
       return CSTX.PR_CONTINUE;
     }
 
+    /**
+     * Creates a private copy of this procedure for a call site. The copy
+     * returns directly to <code>returnTo</code>, and its body is processed
+     * without copying the local variables of the caller.
+     *
+     * @param returnTo
+     *        the instruction that follows the copy
+     * @param maxInstructions
+     *        the maximal number of instructions of the copy
+     * @return the copy, or <code>null</code> if this procedure contains
+     *         processing instructions or is too large
+     */
+    Instance createInlineCopy (final AbstractInstruction returnTo, final int maxInstructions)
+    {
+      if (m_bContainsProcessing)
+        return null;
+
+      final HashMap <Object, Object> copies = new HashMap<> ();
+      // the enclosing groups and the instructions after this procedure are
+      // shared with the original
+      for (AbstractNodeBase ancestor = m_aParent; ancestor != null; ancestor = ancestor.m_aParent)
+        copies.put (ancestor, ancestor);
+      if (m_aNodeEnd.next != null)
+        copies.put (m_aNodeEnd.next, m_aNodeEnd.next);
+      final int nShared = copies.size ();
+
+      final Instance theCopy = (Instance) deepCopy (copies);
+      int nInstructions = 0;
+      for (final Object o : copies.keySet ())
+        if (o instanceof AbstractInstruction)
+          nInstructions++;
+      if (nInstructions - nShared > maxInstructions)
+        return null;
+
+      theCopy.m_aNodeEnd.next = returnTo;
+      theCopy.m_aInlineVars = new Hashtable<> ();
+      return theCopy;
+    }
+
+    @Override
+    protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
+    {
+      super.onDeepCopy (copy, copies);
+      final Instance theCopy = (Instance) copy;
+      if (m_aInlineVars != null)
+        theCopy.m_aInlineVars = new Hashtable<> ();
+      theCopy.m_aCallerGroup = null;
+      theCopy.m_aCallerVars = null;
+    }
+
     // for debugging
     @Override
     public String toString ()
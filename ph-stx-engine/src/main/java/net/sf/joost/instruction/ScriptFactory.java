@@ -26,12 +26,15 @@ import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.script.ScriptException;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.function.ScriptModule;
 
 /**
  * Factory for <code>script</code> elements, which are represented by the inner
@@ -91,16 +94,15 @@ public final class ScriptFactory extends AbstractFactoryBase
     final String scriptUri = context.nsSet.get (prefixAtt);
 
     // check if the prefix has been already defined
-    // TODO
-    // if (context.getFunctionFactory ().isScriptPrefix (prefixAtt))
-    // {
-    // throw new SAXParseException ("Prefix '" +
-    // prefixAtt +
-    // "' of '" +
-    // qName +
-    // "' has been already defined by another script element",
-    // context.locator);
-    // }
+    if (context.getFunctionFactory ().isScriptUri (scriptUri))
+    {
+      throw new SAXParseException ("Prefix '" +
+                                   prefixAtt +
+                                   "' of '" +
+                                   qName +
+                                   "' has been already defined by another script element",
+                                   context.locator);
+    }
 
     final String srcAtt = attrs.getValue ("src");
 
@@ -196,7 +198,6 @@ public final class ScriptFactory extends AbstractFactoryBase
     public boolean compile (final int pass, final ParseContext context) throws SAXException
     {
       // read script's content
-      @SuppressWarnings ("unused")
       String data = null;
       if (m_sSrc == null)
       {
@@ -229,9 +230,23 @@ public final class ScriptFactory extends AbstractFactoryBase
         }
       }
 
-      // add the script element
-      // TODO
-      // context.getFunctionFactory ().addScript (this, data);
+      // compile the script and add its functions
+      try
+      {
+        context.getFunctionFactory ().addScript (m_sScriptUri, new ScriptModule (m_sLang, data));
+      }
+      catch (final ScriptException e)
+      {
+        throw new SAXParseException ("Exception while compiling the " +
+                                     m_sLang +
+                                     " script: " +
+                                     e.getMessage (),
+                                     m_sPublicID,
+                                     m_sSystemID,
+                                     lineNo,
+                                     colNo,
+                                     e);
+      }
 
       // done
       return false;
@@ -0,0 +1,78 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXParseException;
+
+import net.sf.joost.CSTX;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+
+/**
+ * Factory for <code>stop</code> elements, which are represented by the inner
+ * Instance class. <code>stop</code> is an extension element that belongs to
+ * the Joost namespace {@link net.sf.joost.CSTX#JOOST_EXT_NS}. It declares
+ * that the rest of the input isn't needed: after the current event all
+ * remaining input is ignored, the templates that wait in an
+ * <code>stx:process-children</code> instruction are completed as if the
+ * document ended here, and the parsing is aborted.
+ *
+ * @author Philip Helger
+ */
+public final class StopFactory extends AbstractFactoryBase
+{
+  /** @return <code>"stop"</code> */
+  @Override
+  public String getName ()
+  {
+    return "stop";
+  }
+
+  @Override
+  public AbstractNodeBase createNode (final AbstractNodeBase parent,
+                                      final String qName,
+                                      final Attributes attrs,
+                                      final ParseContext context) throws SAXParseException
+  {
+    checkAttributes (qName, attrs, null, context);
+    return new Instance (qName, parent, context);
+  }
+
+  /** Represents an instance of the <code>stop</code> element. */
+  public static final class Instance extends AbstractNodeBase
+  {
+    protected Instance (final String qName, final AbstractNodeBase parent, final ParseContext context)
+    {
+      super (qName, parent, context, false);
+    }
+
+    /**
+     * Requests the end of the transformation, see
+     * {@link net.sf.joost.stx.Processor}
+     */
+    @Override
+    public short process (final Context context)
+    {
+      context.m_bStopRequested = true;
+      return CSTX.PR_CONTINUE;
+    }
+  }
+}
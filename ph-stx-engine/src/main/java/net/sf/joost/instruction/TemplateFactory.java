@@ -121,6 +121,117 @@ public final class TemplateFactory extends AbstractFactoryBase
                          newScope);
   }
 
+  /**
+   * Determines for each template of an array sorted in descending priority
+   * order whether one of the following templates with the same priority may
+   * match the same node. Only for these templates the processor needs to check
+   * for an ambiguous template rule after the template matched.
+   *
+   * @param templates
+   *        the sorted templates
+   * @return an array with the same length as <code>templates</code>
+   */
+  public static boolean [] getAmbiguityChecks (final Instance [] templates)
+  {
+    final boolean [] ret = new boolean [templates.length];
+    for (int i = 0; i < templates.length; i++)
+    {
+      final double priority = templates[i].m_dPriority;
+      for (int j = i + 1; j < templates.length && priority == templates[j].m_dPriority; j++)
+        if (templates[i].mayMatchSameNode (templates[j]))
+        {
+          ret[i] = true;
+          break;
+        }
+    }
+    return ret;
+  }
+
+  /**
+   * @return the tree of the node test that must be fulfilled by a node that
+   *         matches the passed pattern
+   */
+  private static AbstractTree _getLastStep (final AbstractTree pattern)
+  {
+    AbstractTree step = pattern;
+    while (step != null)
+      switch (step.getType ())
+      {
+        case AbstractTree.CHILD:
+        case AbstractTree.DESC:
+          step = step.m_aRight;
+          break;
+        case AbstractTree.PREDICATE:
+          step = step.m_aLeft;
+          break;
+        default:
+          return step;
+      }
+    return null;
+  }
+
+  private static boolean _isElementTest (final int type)
+  {
+    return type == AbstractTree.NAME_TEST ||
+           type == AbstractTree.WILDCARD ||
+           type == AbstractTree.URI_WILDCARD ||
+           type == AbstractTree.LOCAL_WILDCARD;
+  }
+
+  private static boolean _isOtherNodeTest (final int type)
+  {
+    return type == AbstractTree.ROOT ||
+           type == AbstractTree.TEXT_TEST ||
+           type == AbstractTree.CDATA_TEST ||
+           type == AbstractTree.COMMENT_TEST ||
+           type == AbstractTree.PI_TEST;
+  }
+
+  private static boolean _differs (final String s1, final String s2)
+  {
+    return s1 != null && s2 != null && !s1.equals (s2);
+  }
+
+  /**
+   * @return <code>false</code> if the two node tests cannot match the same
+   *         node, <code>true</code> if they may
+   */
+  private static boolean _mayMatchSameNode (final AbstractTree step1, final AbstractTree step2)
+  {
+    if (step1 == null || step2 == null)
+      return true;
+    final int type1 = step1.getType ();
+    final int type2 = step2.getType ();
+
+    if (_isElementTest (type1) && _isElementTest (type2))
+    {
+      // the namespace URI is known for NAME_TEST and LOCAL_WILDCARD,
+      // the local name for NAME_TEST and URI_WILDCARD
+      final boolean uri1 = type1 == AbstractTree.NAME_TEST || type1 == AbstractTree.LOCAL_WILDCARD;
+      final boolean uri2 = type2 == AbstractTree.NAME_TEST || type2 == AbstractTree.LOCAL_WILDCARD;
+      final boolean lname1 = type1 == AbstractTree.NAME_TEST || type1 == AbstractTree.URI_WILDCARD;
+      final boolean lname2 = type2 == AbstractTree.NAME_TEST || type2 == AbstractTree.URI_WILDCARD;
+      return !(uri1 && uri2 && _differs (step1.m_sURI, step2.m_sURI)) &&
+             !(lname1 && lname2 && _differs (step1.m_sLocalName, step2.m_sLocalName));
+    }
+
+    if (_isOtherNodeTest (type1) && _isOtherNodeTest (type2))
+    {
+      if (type1 == type2)
+        return type1 != AbstractTree.PI_TEST ||
+               !(step1.m_aValue != null && step2.m_aValue != null && !step1.m_aValue.equals (step2.m_aValue));
+      // text() matches CDATA nodes too
+      return (type1 == AbstractTree.TEXT_TEST && type2 == AbstractTree.CDATA_TEST) ||
+             (type1 == AbstractTree.CDATA_TEST && type2 == AbstractTree.TEXT_TEST);
+    }
+
+    if ((_isElementTest (type1) && _isOtherNodeTest (type2)) || (_isOtherNodeTest (type1) && _isElementTest (type2)))
+      return false;
+
+    // node() or something unexpected
+    return true;
+  }
+
   // -----------------------------------------------------------------------
 
   /** The inner Instance class */
@@ -214,6 +325,18 @@ public final class TemplateFactory extends AbstractFactoryBase
       return m_aMatch;
     }
 
+    /**
+     * @param other
+     *        another template
+     * @return <code>false</code> if it can be determined statically that the
+     *         match patterns of this template and of <code>other</code> never
+     *         match the same node, <code>true</code> otherwise
+     */
+    public boolean mayMatchSameNode (final Instance other)
+    {
+      return _mayMatchSameNode (_getLastStep (m_aMatch), _getLastStep (other.m_aMatch));
+    }
+
     /**
      * Compares two templates according to their inverse priorities. This
      * results in a descending natural order with java.util.Arrays.sort()
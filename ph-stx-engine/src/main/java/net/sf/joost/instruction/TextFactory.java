@@ -94,6 +94,12 @@ public class TextFactory extends AbstractFactoryBase
 
     private final int m_nMarkup;
 
+    /**
+     * the text of this instruction if it has only text node children,
+     * <code>null</code> otherwise
+     */
+    private String m_sConstantText;
+
     public Instance (final String qName, final AbstractNodeBase parent, final ParseContext context, final int markup)
     {
       super (qName, parent, context, true);
@@ -126,10 +132,49 @@ public class TextFactory extends AbstractFactoryBase
       m_nRecursionLevel = 0;
     }
 
+    /**
+     * Determine whether the contents of this element is constant. In this case
+     * the text node children will be removed from the execution chain.
+     */
+    @Override
+    public boolean compile (final int pass, final ParseContext context) throws SAXException
+    {
+      final StringBuilder sb = new StringBuilder ();
+      for (AbstractInstruction inst = next; inst != m_aNodeEnd; inst = inst.next)
+      {
+        if (!(inst instanceof TextNode))
+          return false;
+        sb.append (((TextNode) inst).getContents ());
+      }
+      if (m_nMarkup == SERIALIZE_MARKUP)
+      {
+        // serialize the constant text only once
+        m_aBuffer.setLength (0);
+        m_aSTXxEmitter.characters (sb.toString ().toCharArray (), 0, sb.length ());
+        m_sConstantText = m_aBuffer.toString ();
+        m_aBuffer.setLength (0);
+      }
+      else
+        m_sConstantText = sb.toString ();
+      next = m_aNodeEnd;
+      return false;
+    }
+
+    /**
+     * @return the constant text of this instruction, <code>null</code> if the
+     *         text will be computed at runtime
+     */
+    String getConstantText ()
+    {
+      return m_sConstantText;
+    }
+
     @Override
     public short process (final Context context) throws SAXException
     {
       super.process (context);
+      if (m_sConstantText != null)
+        return CSTX.PR_CONTINUE;
       if (m_nRecursionLevel++ == 0)
       { // outermost invocation
         m_aBuffer.setLength (0);
@@ -141,11 +186,14 @@ public class TextFactory extends AbstractFactoryBase
     @Override
     public short processEnd (final Context context) throws SAXException
     {
-      if (--m_nRecursionLevel == 0)
-      { // outermost invocation
-        context.popEmitter ();
-        context.m_aEmitter.characters (m_aBuffer.toString ().toCharArray (), 0, m_aBuffer.length (), this);
-      }
+      if (m_sConstantText != null)
+        context.m_aEmitter.characters (m_sConstantText, this);
+      else
+        if (--m_nRecursionLevel == 0)
+        { // outermost invocation
+          context.popEmitter ();
+          context.m_aEmitter.characters (m_aBuffer, this);
+        }
       return super.processEnd (context);
     }
 
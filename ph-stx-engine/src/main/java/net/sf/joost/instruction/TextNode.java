@@ -49,7 +49,7 @@ public class TextNode extends AbstractNodeBase
   @Override
   public short process (final Context context) throws SAXException
   {
-    context.m_aEmitter.characters (string.toCharArray (), 0, string.length (), this);
+    context.m_aEmitter.characters (string, this);
     return CSTX.PR_CONTINUE;
   }
 
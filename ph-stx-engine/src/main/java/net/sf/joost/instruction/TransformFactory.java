@@ -32,6 +32,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.CSTX;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.SAXEvent;
 
 /**
  * Factory for <code>transform</code> elements, which are represented by the
@@ -207,6 +208,19 @@ public class TransformFactory extends AbstractFactoryBase
     // STX sheet to the calling Parser object
     public List <AbstractNodeBase> m_aCompilableNodes;
 
+    // position counters (see SAXEvent) that must be maintained during the
+    // transformation, and whether matching templates sets the context position;
+    // determined by the Parser from all patterns and expressions
+    public int m_nPositionCounters = SAXEvent.COUNT_ALL;
+    public boolean m_bSetPosition = true;
+
+    // whether the processor checks for ambiguous template rules at runtime
+    public boolean m_bCheckAmbiguousTemplates = true;
+
+    // whether the sheet prevents a document projection (see Projection);
+    // determined by the Parser from all expressions and instructions
+    public boolean m_bProjectionPrevented = true;
+
     // Constructor
     public Instance (final AbstractNodeBase aParent,
                      final String qName,
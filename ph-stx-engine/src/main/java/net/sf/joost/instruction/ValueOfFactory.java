@@ -99,9 +99,15 @@ public final class ValueOfFactory extends AbstractFactoryBase
     public short process (final Context context) throws SAXException
     {
       Value v = m_aSelect.evaluate (context, this);
-      String s;
+      CharSequence s;
       if (v.next == null)
-        s = v.getStringValue ();
+      {
+        // pass a large text node (e.g. select=".") without creating its string
+        if (v.type == Value.NODE && v.getNode ().m_aLargeText != null)
+          s = v.getNode ().m_aLargeText;
+        else
+          s = v.getStringValue ();
+      }
       else
       {
         // create a string from a sequence
@@ -123,7 +129,7 @@ public final class ValueOfFactory extends AbstractFactoryBase
         }
         s = sb.toString ();
       }
-      context.m_aEmitter.characters (s.toCharArray (), 0, s.length (), this);
+      context.m_aEmitter.characters (s, this);
       return CSTX.PR_CONTINUE;
     }
 
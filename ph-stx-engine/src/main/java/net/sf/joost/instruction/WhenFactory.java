@@ -78,6 +78,12 @@ public final class WhenFactory extends AbstractFactoryBase
     private AbstractTree m_aTest;
     private AbstractInstruction m_aTrueNext, m_aFalseNext;
 
+    /**
+     * Set by the parent stx:choose if it already determined that the test of
+     * this instruction is true
+     */
+    boolean m_bSelected = false;
+
     protected Instance (final String qName,
                         final AbstractNodeBase parent,
                         final ParseContext context,
@@ -109,8 +115,9 @@ public final class WhenFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      if (m_aTest.evaluate (context, this).getBooleanValue ())
+      if (m_bSelected || m_aTest.evaluate (context, this).getBooleanValue ())
       {
+        m_bSelected = false;
         super.process (context);
         next = m_aTrueNext;
       }
@@ -119,6 +126,20 @@ public final class WhenFactory extends AbstractFactoryBase
       return CSTX.PR_CONTINUE;
     }
 
+    /** @return the expression of the <code>test</code> attribute */
+    AbstractTree getTest ()
+    {
+      return m_aTest;
+    }
+
+    /**
+     * @return the instruction that follows if the test is <code>false</code>
+     */
+    AbstractInstruction getFalseNext ()
+    {
+      return m_aFalseNext;
+    }
+
     @Override
     protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
     {
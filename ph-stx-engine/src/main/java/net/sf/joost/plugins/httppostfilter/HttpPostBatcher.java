@@ -0,0 +1,303 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.httppostfilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.Nonnull;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.stx.Emitter;
+import net.sf.joost.stx.Processor;
+
+/**
+ * Collects XML fragments for the same target URL and sends them in a single
+ * request. The request body is a <code>batch</code> element containing the
+ * fragments in their order of arrival; the response must be an element whose
+ * children are the results for these fragments in the same order.
+ * <p>
+ * A batch is sent as soon as it is full or as soon as the result of one of its
+ * fragments is needed.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Philip Helger
+ */
+final class HttpPostBatcher
+{
+  private final HttpPostClient m_aClient;
+
+  /** the batches that are still collecting fragments, by target URL */
+  private final Map <String, Batch> m_aOpenBatches = new HashMap<> ();
+
+  HttpPostBatcher (@Nonnull final HttpPostClient aClient)
+  {
+    m_aClient = aClient;
+  }
+
+  @Nonnull
+  HttpPostClient getClient ()
+  {
+    return m_aClient;
+  }
+
+  /**
+   * Adds a fragment to the open batch for the target URL.
+   *
+   * @param sFragment
+   *        the serialized fragment without XML declaration
+   * @return the future result for this fragment
+   */
+  @Nonnull
+  CompletableFuture <Emitter.IDeferredEvents> add (@Nonnull final String sTargetURL,
+                                                   final int nBatchSize,
+                                                   @Nonnull final String sFragment)
+  {
+    Batch full = null;
+    final Part ret;
+    synchronized (this)
+    {
+      Batch batch = m_aOpenBatches.get (sTargetURL);
+      if (batch == null)
+      {
+        batch = new Batch (sTargetURL);
+        m_aOpenBatches.put (sTargetURL, batch);
+      }
+      ret = new Part (batch);
+      batch.m_aFragments.add (sFragment);
+      batch.m_aParts.add (ret);
+      if (batch.m_aParts.size () >= nBatchSize)
+        full = _close (batch) ? batch : null;
+    }
+    if (full != null)
+      full.send ();
+    return ret;
+  }
+
+  /**
+   * Removes a batch from the open batches
+   *
+   * @return <code>true</code> if the batch was open, i.e. the caller must send
+   *         it
+   */
+  private synchronized boolean _close (final Batch aBatch)
+  {
+    if (aBatch.m_bClosed)
+      return false;
+    aBatch.m_bClosed = true;
+    if (m_aOpenBatches.get (aBatch.m_sTargetURL) == aBatch)
+      m_aOpenBatches.remove (aBatch.m_sTargetURL);
+    return true;
+  }
+
+  /** A collection of fragments that will be sent together */
+  private final class Batch
+  {
+    final String m_sTargetURL;
+    final List <String> m_aFragments = new ArrayList<> ();
+    final List <Part> m_aParts = new ArrayList<> ();
+    boolean m_bClosed = false;
+
+    Batch (final String sTargetURL)
+    {
+      m_sTargetURL = sTargetURL;
+    }
+
+    /** Sends this closed batch and completes its parts asynchronously */
+    void send ()
+    {
+      final StringBuilder body = new StringBuilder ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batch>");
+      for (final String fragment : m_aFragments)
+        body.append (fragment);
+      body.append ("</batch>\n");
+
+      m_aClient.postAsync (m_sTargetURL, HttpPostHandler.CONTENT_TYPE, body.toString ().getBytes (StandardCharsets.UTF_8))
+               .thenApply (this::_split)
+               .whenComplete ( (results, ex) -> {
+                 for (int i = 0; i < m_aParts.size (); i++)
+                   if (ex != null)
+                     m_aParts.get (i).completeExceptionally (ex);
+                   else
+                     m_aParts.get (i).complete (results.get (i));
+               });
+    }
+
+    /** Splits the response into the results of the single fragments */
+    private List <Emitter.IDeferredEvents> _split (final byte [] aResponse)
+    {
+      final Splitter splitter = new Splitter ();
+      try
+      {
+        final XMLReader parser = Processor.createXMLReader ();
+        parser.setContentHandler (splitter);
+        parser.setProperty ("http://xml.org/sax/properties/lexical-handler", splitter);
+        parser.parse (new InputSource (new ByteArrayInputStream (aResponse)));
+      }
+      catch (final SAXException | IOException ex)
+      {
+        throw new CompletionException (ex);
+      }
+      if (splitter.m_aResults.size () != m_aParts.size ())
+        throw new CompletionException (new SAXException ("The response from " +
+                                                         m_sTargetURL +
+                                                         " contains " +
+                                                         splitter.m_aResults.size () +
+                                                         " results for " +
+                                                         m_aParts.size () +
+                                                         " fragments"));
+      return splitter.m_aResults;
+    }
+  }
+
+  /**
+   * The result of a single fragment. Waiting for it sends its batch if that
+   * hasn't happened yet.
+   */
+  private final class Part extends CompletableFuture <Emitter.IDeferredEvents>
+  {
+    private final Batch m_aBatch;
+
+    Part (final Batch aBatch)
+    {
+      m_aBatch = aBatch;
+    }
+
+    @Override
+    public Emitter.IDeferredEvents join ()
+    {
+      if (_close (m_aBatch))
+        m_aBatch.send ();
+      return super.join ();
+    }
+  }
+
+  /**
+   * Buffers the children of the response element separately. Namespaces
+   * declared on the response element are declared again on every child.
+   */
+  private static final class Splitter extends DefaultHandler2
+  {
+    final List <Emitter.IDeferredEvents> m_aResults = new ArrayList<> ();
+    private final List <String []> m_aOuterMappings = new ArrayList<> ();
+    private BufferEmitter m_aCurrent;
+    private int m_nDepth = 0;
+
+    @Override
+    public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+    {
+      if (m_nDepth == 0)
+        m_aOuterMappings.add (new String [] { prefix, uri });
+      else
+        if (m_aCurrent != null)
+          m_aCurrent.startPrefixMapping (prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping (final String prefix) throws SAXException
+    {
+      if (m_aCurrent != null)
+        m_aCurrent.endPrefixMapping (prefix);
+    }
+
+    @Override
+    public void startElement (final String uri,
+                              final String lName,
+                              final String qName,
+                              final Attributes attrs) throws SAXException
+    {
+      if (m_nDepth == 1)
+      {
+        m_aCurrent = new BufferEmitter (0);
+        for (final String [] mapping : m_aOuterMappings)
+          m_aCurrent.startPrefixMapping (mapping[0], mapping[1]);
+      }
+      if (m_aCurrent != null)
+        m_aCurrent.startElement (uri, lName, qName, attrs);
+      m_nDepth++;
+    }
+
+    @Override
+    public void endElement (final String uri, final String lName, final String qName) throws SAXException
+    {
+      m_nDepth--;
+      if (m_aCurrent != null)
+      {
+        m_aCurrent.endElement (uri, lName, qName);
+        if (m_nDepth == 1)
+        {
+          for (final String [] mapping : m_aOuterMappings)
+            m_aCurrent.endPrefixMapping (mapping[0]);
+          m_aResults.add (HttpPostHandler.toDeferredEvents (m_aCurrent));
+          m_aCurrent = null;
+        }
+      }
+    }
+
+    @Override
+    public void characters (final char [] ch, final int start, final int length) throws SAXException
+    {
+      // text between the children is ignored
+      if (m_aCurrent != null)
+        m_aCurrent.characters (ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction (final String target, final String data) throws SAXException
+    {
+      if (m_aCurrent != null)
+        m_aCurrent.processingInstruction (target, data);
+    }
+
+    @Override
+    public void startCDATA () throws SAXException
+    {
+      if (m_aCurrent != null)
+        m_aCurrent.startCDATA ();
+    }
+
+    @Override
+    public void endCDATA () throws SAXException
+    {
+      if (m_aCurrent != null)
+        m_aCurrent.endCDATA ();
+    }
+
+    @Override
+    public void comment (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aCurrent != null)
+        m_aCurrent.comment (ch, start, length);
+    }
+  }
+}
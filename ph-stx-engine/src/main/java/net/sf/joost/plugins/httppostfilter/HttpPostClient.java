@@ -0,0 +1,283 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.httppostfilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Sends HTTP POST requests for the {@link HttpPostHandler}. Connections to the
+ * same server are kept alive and reused between requests: every response is
+ * read completely and the connection is never explicitly disconnected, so the
+ * JDK's connection cache can hand it to the next request.
+ * <p>
+ * Asynchronous requests are executed by a pool of daemon threads; the number
+ * of requests in flight is bounded, further requests block the caller until a
+ * request has completed. Requests that could not be delivered (no connection,
+ * or one of the status codes 429 and 503) are retried with an exponentially
+ * growing delay. The status codes 502 and 504 aren't retried, because a
+ * gateway might have passed the request on to the server already.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Philip Helger
+ */
+public class HttpPostClient
+{
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+  public static final int DEFAULT_MAX_RETRIES = 2;
+  public static final long DEFAULT_RETRY_DELAY_MILLIS = 100;
+
+  /** seconds after which idle pool threads terminate */
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final AtomicInteger s_aThreadCounter = new AtomicInteger ();
+
+  private final int m_nMaxRetries;
+  private final long m_nRetryDelayMillis;
+  private final Semaphore m_aInFlight;
+  private final ThreadPoolExecutor m_aExecutor;
+  private final HttpPostStatistics m_aStatistics = new HttpPostStatistics ();
+
+  public HttpPostClient ()
+  {
+    this (DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY_MILLIS);
+  }
+
+  /**
+   * @param nMaxInFlight
+   *        the maximum number of asynchronous requests in flight
+   * @param nMaxRetries
+   *        the number of times a request is repeated if it couldn't be
+   *        delivered
+   * @param nRetryDelayMillis
+   *        the delay before the first retry, doubled for every further retry
+   */
+  public HttpPostClient (@Nonnegative final int nMaxInFlight,
+                         @Nonnegative final int nMaxRetries,
+                         @Nonnegative final long nRetryDelayMillis)
+  {
+    if (nMaxInFlight < 1)
+      throw new IllegalArgumentException ("The number of requests in flight must be positive");
+    if (nMaxRetries < 0 || nRetryDelayMillis < 0)
+      throw new IllegalArgumentException ("The retry parameters must not be negative");
+    m_nMaxRetries = nMaxRetries;
+    m_nRetryDelayMillis = nRetryDelayMillis;
+    m_aInFlight = new Semaphore (nMaxInFlight);
+    m_aExecutor = new ThreadPoolExecutor (nMaxInFlight,
+                                          nMaxInFlight,
+                                          KEEP_ALIVE_SECONDS,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue <Runnable> (),
+                                          r -> {
+                                            final Thread t = new Thread (r,
+                                                                         "Joost HTTP post " +
+                                                                            s_aThreadCounter.incrementAndGet ());
+                                            t.setDaemon (true);
+                                            return t;
+                                          });
+    m_aExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  /** @return the statistics of all requests sent by this client */
+  @Nonnull
+  public HttpPostStatistics getStatistics ()
+  {
+    return m_aStatistics;
+  }
+
+  /**
+   * Sends a POST request in the calling thread.
+   *
+   * @return the response body
+   * @throws IOException
+   *         if the request failed or the response status is not 2xx
+   */
+  @Nonnull
+  public byte [] post (@Nonnull final String sURL,
+                       @Nonnull final String sContentType,
+                       @Nonnull final byte [] aBody) throws IOException
+  {
+    long delay = m_nRetryDelayMillis;
+    for (int attempt = 0;; attempt++)
+    {
+      try
+      {
+        return _send (sURL, sContentType, aBody);
+      }
+      catch (final RetryableException ex)
+      {
+        if (attempt == m_nMaxRetries)
+        {
+          m_aStatistics.recordFailure ();
+          throw ex.getIOException ();
+        }
+      }
+      catch (final IOException ex)
+      {
+        m_aStatistics.recordFailure ();
+        throw ex;
+      }
+
+      m_aStatistics.recordRetry ();
+      try
+      {
+        Thread.sleep (delay);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        m_aStatistics.recordFailure ();
+        throw new IOException ("Interrupted while waiting to repeat the request to " + sURL);
+      }
+      delay <<= 1;
+    }
+  }
+
+  /**
+   * Sends a POST request asynchronously. This method blocks while the maximum
+   * number of requests is in flight.
+   *
+   * @return the future response body; it completes exceptionally with an
+   *         {@link IOException} if the request failed
+   */
+  @Nonnull
+  public CompletableFuture <byte []> postAsync (@Nonnull final String sURL,
+                                                @Nonnull final String sContentType,
+                                                @Nonnull final byte [] aBody)
+  {
+    final CompletableFuture <byte []> ret = new CompletableFuture<> ();
+    try
+    {
+      m_aInFlight.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      ret.completeExceptionally (new IOException ("Interrupted while waiting to send a request to " + sURL));
+      return ret;
+    }
+
+    m_aExecutor.execute ( () -> {
+      try
+      {
+        ret.complete (post (sURL, sContentType, aBody));
+      }
+      catch (final Throwable t)
+      {
+        ret.completeExceptionally (t);
+      }
+      finally
+      {
+        m_aInFlight.release ();
+      }
+    });
+    return ret;
+  }
+
+  /** Sends a single request */
+  private byte [] _send (final String sURL, final String sContentType, final byte [] aBody) throws IOException
+  {
+    final HttpURLConnection conn = (HttpURLConnection) new URL (sURL).openConnection ();
+    conn.setRequestMethod ("POST");
+    conn.setDoOutput (true);
+    conn.setFixedLengthStreamingMode (aBody.length);
+    conn.setRequestProperty ("Content-Type", sContentType);
+
+    final long start = System.nanoTime ();
+    int status;
+    try
+    {
+      try (final OutputStream os = conn.getOutputStream ())
+      {
+        os.write (aBody);
+      }
+      status = conn.getResponseCode ();
+    }
+    catch (final ConnectException ex)
+    {
+      throw new RetryableException (ex);
+    }
+
+    // read the response completely, otherwise the connection can't be reused
+    final boolean ok = status >= 200 && status < 300;
+    final InputStream is = ok ? conn.getInputStream () : conn.getErrorStream ();
+    final byte [] response = is == null ? new byte [0] : _readFully (is);
+    m_aStatistics.recordRequest (System.nanoTime () - start, aBody.length, response.length);
+    if (ok)
+      return response;
+
+    final IOException ex = new IOException ("HTTP status " +
+                                            status +
+                                            " from " +
+                                            sURL +
+                                            (response.length > 0 ? ": " +
+                                                                   new String (response, StandardCharsets.UTF_8)
+                                                                 : ""));
+    // the server hasn't processed the request
+    if (status == 429 || status == 503)
+      throw new RetryableException (ex);
+    throw ex;
+  }
+
+  private static byte [] _readFully (final InputStream is) throws IOException
+  {
+    try (final InputStream in = is)
+    {
+      final ByteArrayOutputStream ret = new ByteArrayOutputStream ();
+      final byte [] buf = new byte [8192];
+      int n;
+      while ((n = in.read (buf)) != -1)
+        ret.write (buf, 0, n);
+      return ret.toByteArray ();
+    }
+  }
+
+  /** Marks a failure that justifies repeating the request */
+  private static final class RetryableException extends IOException
+  {
+    private static final long serialVersionUID = 1L;
+
+    RetryableException (final IOException cause)
+    {
+      super (cause);
+    }
+
+    IOException getIOException ()
+    {
+      return (IOException) getCause ();
+    }
+  }
+}
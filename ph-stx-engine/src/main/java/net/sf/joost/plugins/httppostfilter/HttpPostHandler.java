@@ -19,31 +19,39 @@
  */
 package net.sf.joost.plugins.httppostfilter;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.io.StringWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import javax.annotation.Nonnull;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
 
 import net.sf.joost.CSTX;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.CompactEventBuffer;
+import net.sf.joost.emitter.EmitterAdapter;
 import net.sf.joost.emitter.XmlEmitter;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.Processor;
 
 /**
  * Implements an HTTP POST connection with a {@link TransformerHandler}
- * interface.
+ * interface. The requests are sent with a {@link HttpPostClient}. In
+ * asynchronous mode the transformation continues while the request is in
+ * flight; the response takes its place in the result stream as soon as it is
+ * available.
  *
  * @version $Revision: 1.2 $ $Date: 2008/06/15 08:11:23 $
  * @author Oliver Becker
@@ -51,6 +59,9 @@ import net.sf.joost.stx.Processor;
 
 public class HttpPostHandler extends XmlEmitter implements TransformerHandler
 {
+  /** the content type of the requests */
+  static final String CONTENT_TYPE = "text/xml; charset=UTF-8";
+
   /** event sink for this transformer */
   private SAXResult m_aSAXResult;
 
@@ -60,12 +71,54 @@ public class HttpPostHandler extends XmlEmitter implements TransformerHandler
   /** the target URL for the POST request */
   private final String m_sTargetURL;
 
+  /** the client that sends the request */
+  private final HttpPostClient m_aClient;
+
+  /** whether the request should be sent asynchronously */
+  private final boolean m_bAsync;
+
+  /** collects the fragment for a batch request, <code>null</code> if unused */
+  private final HttpPostBatcher m_aBatcher;
+  private final int m_nBatchSize;
+
   public HttpPostHandler (final String targetURL)
+  {
+    this (targetURL, new HttpPostClient (), false);
+  }
+
+  /**
+   * @param aClient
+   *        the client that sends the request
+   * @param bAsync
+   *        <code>true</code> if the transformation shouldn't wait for the
+   *        response
+   */
+  public HttpPostHandler (final String targetURL, @Nonnull final HttpPostClient aClient, final boolean bAsync)
+  {
+    this (targetURL, aClient, bAsync, null, 0);
+  }
+
+  /** Creates a handler that sends its fragment as part of a batch */
+  HttpPostHandler (final String targetURL, @Nonnull final HttpPostBatcher aBatcher, final int nBatchSize)
+  {
+    this (targetURL, aBatcher.getClient (), true, aBatcher, nBatchSize);
+    setOmitXmlDeclaration (true);
+  }
+
+  private HttpPostHandler (final String targetURL,
+                           final HttpPostClient aClient,
+                           final boolean bAsync,
+                           final HttpPostBatcher aBatcher,
+                           final int nBatchSize)
   {
     super (null, CSTX.DEFAULT_ENCODING, null); // postpone writer initialization
     m_aWriter = new StringWriter (); // catch up here
     m_aBuffer = ((StringWriter) m_aWriter).getBuffer ();
     this.m_sTargetURL = targetURL;
+    m_aClient = aClient;
+    m_bAsync = bAsync;
+    m_aBatcher = aBatcher;
+    m_nBatchSize = nBatchSize;
   }
 
   // ---------------------------------------------------------------------
@@ -101,66 +154,75 @@ public class HttpPostHandler extends XmlEmitter implements TransformerHandler
     if (m_aSAXResult == null) // Shouldn't happen
       throw new SAXException ("No result set");
 
-    HttpURLConnection conn = null;
-    try
+    final ContentHandler handler = m_aSAXResult.getHandler ();
+    if (m_bAsync && handler instanceof EmitterAdapter)
     {
-      // create HTTP connection
-      final URL url = new URL (m_sTargetURL);
-      // HttpURLConnection
-      conn = (HttpURLConnection) url.openConnection ();
-      conn.setRequestMethod ("POST");
-      conn.setDoInput (true);
-      conn.setDoOutput (true);
-      conn.setRequestProperty ("Content-Type", "text/xml");
-      conn.connect ();
-
-      try (final PrintStream ps = new PrintStream (conn.getOutputStream (), false, "UTF-8"))
-      {
-        ps.print (m_aBuffer.toString ());
-      }
-
-      final XMLReader parser = Processor.createXMLReader ();
-      parser.setContentHandler (m_aSAXResult.getHandler ());
-      try
-      {
-        parser.setProperty ("http://xml.org/sax/properties/lexical-handler", m_aSAXResult.getLexicalHandler ());
-      }
-      catch (final SAXException ex)
-      {}
+      CompletableFuture <? extends Emitter.IDeferredEvents> events;
+      if (m_aBatcher != null)
+        events = m_aBatcher.add (m_sTargetURL, m_nBatchSize, m_aBuffer.toString ());
+      else
+        events = m_aClient.postAsync (m_sTargetURL, CONTENT_TYPE, _getBody ()).thenApply (response -> {
+          try
+          {
+            final BufferEmitter buffer = new BufferEmitter (0);
+            _parse (response, buffer, buffer);
+            return toDeferredEvents (buffer);
+          }
+          catch (final SAXException | IOException ex)
+          {
+            throw new CompletionException (ex);
+          }
+        });
+      ((EmitterAdapter) handler).insertDeferred (events);
+      return;
+    }
 
-      parser.parse (new InputSource (conn.getInputStream ()));
+    // send the fragment on its own, the fragment of a batch lacks the XML
+    // declaration
+    final String body = m_aBatcher != null ? "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + m_aBuffer : null;
+    try
+    {
+      final byte [] response = m_aClient.post (m_sTargetURL,
+                                               CONTENT_TYPE,
+                                               body != null ? body.getBytes (StandardCharsets.UTF_8) : _getBody ());
+      _parse (response, handler, m_aSAXResult.getLexicalHandler ());
     }
     catch (final IOException ex)
     {
-      System.err.println (ex);
-      final InputStream is = conn.getErrorStream ();
-      final BufferedReader br = new BufferedReader (new InputStreamReader (is));
+      throw new SAXException (ex);
+    }
+  }
+
+  private byte [] _getBody ()
+  {
+    return m_aBuffer.toString ().getBytes (StandardCharsets.UTF_8);
+  }
+
+  /** Parses a response and passes its events to the handlers */
+  private static void _parse (final byte [] aResponse,
+                              final ContentHandler aContH,
+                              final LexicalHandler aLexH) throws SAXException, IOException
+  {
+    final XMLReader parser = Processor.createXMLReader ();
+    parser.setContentHandler (aContH);
+    if (aLexH != null)
       try
       {
-        String line = br.readLine ();
-        while (line != null)
-        {
-          System.err.println (line);
-          line = br.readLine ();
-        }
+        parser.setProperty ("http://xml.org/sax/properties/lexical-handler", aLexH);
       }
-      catch (final IOException ex2)
+      catch (final SAXException ex)
       {}
+    parser.parse (new InputSource (new ByteArrayInputStream (aResponse)));
+  }
 
-      // try {
-      // InputStreamReader err = new InputStreamReader(conn.getInputStream());
-      // OutputStreamWriter o = new OutputStreamWriter(System.err);
-      // int c;
-      // System.err.println(">>>");
-      // while ((c = err.read()) != -1)
-      // o.write(c);
-      // err.close();
-      // o.close();
-      // System.err.println("<<<");
-      // }
-      // catch (IOException ex2) { }
-      throw new SAXException (ex.toString ());
-    }
+  /** @return the deferred events for the contents of a filled buffer */
+  static Emitter.IDeferredEvents toDeferredEvents (final BufferEmitter aBuffer)
+  {
+    aBuffer.filled ();
+    final CompactEventBuffer.Snapshot events = aBuffer.getCompactEvents ();
+    if (events == null) // empty
+      return (aContH, aLexH) -> {};
+    return events::replay;
   }
 
   // ---------------------------------------------------------------------
@@ -0,0 +1,165 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.httppostfilter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects counters and latencies of the requests sent by a
+ * {@link HttpPostClient}. Latencies are kept in a histogram with power-of-two
+ * buckets, so percentiles are reported as the upper bound of their bucket.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Philip Helger
+ */
+public final class HttpPostStatistics
+{
+  private final LongAdder m_aRequests = new LongAdder ();
+  private final LongAdder m_aRetries = new LongAdder ();
+  private final LongAdder m_aFailures = new LongAdder ();
+  private final LongAdder m_aBytesSent = new LongAdder ();
+  private final LongAdder m_aBytesReceived = new LongAdder ();
+  private final LongAdder m_aTotalLatency = new LongAdder ();
+  private final AtomicLong m_aMaxLatency = new AtomicLong ();
+
+  /** bucket i counts latencies (in nanoseconds) below 2^i */
+  private final AtomicLongArray m_aHistogram = new AtomicLongArray (64);
+
+  /**
+   * Records a completed HTTP request (regardless of its status code)
+   *
+   * @param nLatencyNanos
+   *        the time between sending the request and receiving the complete
+   *        response
+   */
+  void recordRequest (final long nLatencyNanos, final long nBytesSent, final long nBytesReceived)
+  {
+    m_aRequests.increment ();
+    m_aBytesSent.add (nBytesSent);
+    m_aBytesReceived.add (nBytesReceived);
+    m_aTotalLatency.add (nLatencyNanos);
+    m_aMaxLatency.accumulateAndGet (nLatencyNanos, Math::max);
+    m_aHistogram.incrementAndGet (Math.min (64 - Long.numberOfLeadingZeros (Math.max (nLatencyNanos, 0)), 63));
+  }
+
+  void recordRetry ()
+  {
+    m_aRetries.increment ();
+  }
+
+  void recordFailure ()
+  {
+    m_aFailures.increment ();
+  }
+
+  /** @return the number of HTTP requests sent, including retries */
+  public long getRequestCount ()
+  {
+    return m_aRequests.sum ();
+  }
+
+  /** @return the number of requests that were repeated */
+  public long getRetryCount ()
+  {
+    return m_aRetries.sum ();
+  }
+
+  /** @return the number of posts that failed after all retries */
+  public long getFailureCount ()
+  {
+    return m_aFailures.sum ();
+  }
+
+  public long getBytesSent ()
+  {
+    return m_aBytesSent.sum ();
+  }
+
+  public long getBytesReceived ()
+  {
+    return m_aBytesReceived.sum ();
+  }
+
+  /** @return the average request latency in milliseconds */
+  public double getAverageLatencyMillis ()
+  {
+    final long n = m_aRequests.sum ();
+    return n == 0 ? 0 : m_aTotalLatency.sum () / (n * 1e6);
+  }
+
+  /** @return the maximum request latency in milliseconds */
+  public double getMaxLatencyMillis ()
+  {
+    return m_aMaxLatency.get () / 1e6;
+  }
+
+  /**
+   * @param dPercentile
+   *        the percentile, between 0 and 100
+   * @return an upper bound of the latency in milliseconds that is not exceeded
+   *         by the given percentage of requests
+   */
+  public double getLatencyPercentileMillis (final double dPercentile)
+  {
+    if (dPercentile < 0 || dPercentile > 100)
+      throw new IllegalArgumentException ("Percentile out of range: " + dPercentile);
+    final long [] counts = new long [m_aHistogram.length ()];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++)
+      total += counts[i] = m_aHistogram.get (i);
+    if (total == 0)
+      return 0;
+
+    final long rank = Math.max (1, (long) Math.ceil (total * dPercentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++)
+    {
+      seen += counts[i];
+      if (seen >= rank)
+        return Math.min (1L << i, m_aMaxLatency.get ()) / 1e6;
+    }
+    return getMaxLatencyMillis ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "requests=" +
+           getRequestCount () +
+           ", retries=" +
+           getRetryCount () +
+           ", failures=" +
+           getFailureCount () +
+           ", sent=" +
+           getBytesSent () +
+           ", received=" +
+           getBytesReceived () +
+           ", avg=" +
+           getAverageLatencyMillis () +
+           "ms, p99<=" +
+           getLatencyPercentileMillis (99) +
+           "ms, max=" +
+           getMaxLatencyMillis () +
+           "ms";
+  }
+}
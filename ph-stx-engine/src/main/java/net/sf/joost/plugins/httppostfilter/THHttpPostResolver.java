@@ -21,6 +21,7 @@ package net.sf.joost.plugins.httppostfilter;
 
 import java.util.Hashtable;
 
+import javax.annotation.Nonnull;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.sax.TransformerHandler;
@@ -39,6 +40,13 @@ import net.sf.joost.ITransformerHandlerResolver;
  * <stx:process-self filter-method="http://www.ietf.org/rfc/rfc2616.txt#POST" >
  * <stx:with-param name="target" select="http://myWebServerIP" />
  * </stx:process-self> ...
+ * <p>
+ * Optional parameters: <code>async</code> (<code>true</code> or
+ * <code>yes</code>) lets the transformation continue while the request is in
+ * flight, <code>batch-size</code> additionally sends up to this number of
+ * fragments for the same target in one request (see {@link HttpPostBatcher}
+ * for the message format). All requests of a resolver share one
+ * {@link HttpPostClient}.
  *
  * @version $Revision: 1.5 $ $Date: 2009/09/22 21:13:43 $
  * @author Oliver Becker
@@ -51,6 +59,34 @@ public final class THHttpPostResolver implements ITransformerHandlerResolver
   /** logging object */
   private static Logger log = LoggerFactory.getLogger (THHttpPostResolver.class);
 
+  private final HttpPostClient m_aClient;
+  private final HttpPostBatcher m_aBatcher;
+
+  public THHttpPostResolver ()
+  {
+    this (new HttpPostClient ());
+  }
+
+  /**
+   * @param aClient
+   *        the client for sending the requests
+   */
+  public THHttpPostResolver (@Nonnull final HttpPostClient aClient)
+  {
+    m_aClient = aClient;
+    m_aBatcher = new HttpPostBatcher (aClient);
+  }
+
+  /**
+   * @return the client for sending the requests, provides the request
+   *         statistics
+   */
+  @Nonnull
+  public HttpPostClient getClient ()
+  {
+    return m_aClient;
+  }
+
   /**
    * It return supported URIs, in this case @HTTP_POST_METHOD
    */
@@ -104,11 +140,29 @@ public final class THHttpPostResolver implements ITransformerHandlerResolver
     if (reader != null || href != null)
       throw new SAXException ("Attribute 'filter-src' not allowed for method '" + method + "'");
 
-    final String v = String.valueOf (params.get ("target"));
+    final Object v = params.get ("target");
     if (v == null)
       throw new SAXException ("Missing parameter 'target' for filter " + "method '" + method + "'");
+    final String target = String.valueOf (v);
+
+    final Object async = params.get ("async");
+    final boolean isAsync = async != null && ("true".equals (async.toString ()) || "yes".equals (async.toString ()));
+
+    int batchSize = 0;
+    final Object batch = params.get ("batch-size");
+    if (batch != null)
+      try
+      {
+        batchSize = Integer.parseInt (batch.toString ().trim ());
+      }
+      catch (final NumberFormatException ex)
+      {
+        throw new SAXException ("Invalid parameter 'batch-size' for filter method '" + method + "': " + batch);
+      }
 
-    return new HttpPostHandler (v);
+    if (isAsync && batchSize > 1)
+      return new HttpPostHandler (target, m_aBatcher, batchSize);
+    return new HttpPostHandler (target, m_aClient, isAsync);
   }
 
   /**
@@ -19,13 +19,26 @@
  */
 package net.sf.joost.plugins.traxfilter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.TreeMap;
 
+import javax.annotation.Nonnull;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -40,9 +53,11 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.ITransformerHandlerResolver;
@@ -69,16 +84,16 @@ import net.sf.joost.trax.TransformerFactoryImpl;
  * passed as parameter in your main STX template ( &lt;stx:with-param
  * name="http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-URL"
  * select="'true'" /&gr; )
- * <li>http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-URL If set to
- * true it will cache instantiated transformer objects and will reuse them each
- * time same HREF is asked to be resolved. This implied mainly for
- * filter-src=url(...). Possible values are true or false, false by
- * default.</li>
- * <li>http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-BUFFER
- * Essentially same as REUSE-TH-URL meaning but works for filter-src=buffer(...)
- * It caches all buffers into one object, so use it only if you're going to have
- * only one buffer() in your transformation. Possible values are true or false,
- * false by default.</li>
+ * <li>http://stx.sourceforge.net/2002/ns/trax-filter:CACHE-TEMPLATES If set
+ * to true the compiled transformation sheets are kept in a
+ * {@link TemplatesCache} and every invocation gets a new transformer from the
+ * cached sheet. Sheets are identified by their location and the hash of their
+ * contents, so a changed file or buffer will be compiled again. Possible values
+ * are true or false, true by default.</li>
+ * <li>http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-URL and
+ * http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-BUFFER are accepted
+ * for compatibility but have no effect anymore. Transformer objects aren't
+ * thread-safe and are therefore no longer shared.</li>
  * <li>http://stx.sourceforge.net/2002/ns/trax-filter:FACTORY Specifies what
  * TrAX factory is to be used. This is necessary when you want to specify
  * factory different than build-in ones such as Xalan's XTLTC for instance.
@@ -122,7 +137,19 @@ public class THTrAXResolver implements ITransformerHandlerResolver
   /** supported filter attributes */
   private static Hashtable <String, AbstractAttribute> attrs = new Hashtable<> ();
 
-  /** indicate if to cache TrAX TH and reuse them across calls */
+  /** indicate if to cache compiled sheets and reuse them across calls */
+  public static final BooleanAttribute CACHE_TEMPLATES = new BooleanAttribute ("CACHE-TEMPLATES",
+                                                                               System.getProperty (FILTER_ATTR_NS +
+                                                                                                   ":CACHE-TEMPLATES",
+                                                                                                   "true"),
+                                                                               attrs);
+
+  /**
+   * has no effect anymore, see {@link #CACHE_TEMPLATES}
+   *
+   * @deprecated transformer handlers aren't shared anymore
+   */
+  @Deprecated
   public static final BooleanAttribute REUSE_TH_URL = new BooleanAttribute ("REUSE-TH-URL",
                                                                             System.getProperty (FILTER_ATTR_NS +
                                                                                                 ":REUSE-TH-URL",
@@ -130,10 +157,11 @@ public class THTrAXResolver implements ITransformerHandlerResolver
                                                                             attrs);
 
   /**
-   * force caching XMLReader TH, joost sends new XMLReader each time it calls
-   * resolve() even if it is one and same buffer this flag is meant to "force"
-   * buffer-based th caching
+   * has no effect anymore, see {@link #CACHE_TEMPLATES}
+   *
+   * @deprecated transformer handlers aren't shared anymore
    */
+  @Deprecated
   public static final BooleanAttribute REUSE_TH_BUFFER = new BooleanAttribute ("REUSE-TH-BUFFER",
                                                                                System.getProperty (FILTER_ATTR_NS +
                                                                                                    ":REUSE-TH-BUFFER",
@@ -159,12 +187,6 @@ public class THTrAXResolver implements ITransformerHandlerResolver
                                                                                                      "false"),
                                                                                  attrs);
 
-  /** all XMLReader-based TH are reused under this hashtable key */
-  private static final String XMLREADER_KEY = "_XMLREADER";
-
-  /** cached TrAX TH */
-  private static Hashtable <String, TransformerHandler> cachedTH = new Hashtable<> (5);
-
   /** supported URI methods */
   private static final String [] METHODS = { STX_METHOD, XSLT_METHOD, TRAX_METHOD };
 
@@ -173,6 +195,32 @@ public class THTrAXResolver implements ITransformerHandlerResolver
   /** logging object */
   private static Logger log = LoggerFactory.getLogger (THTrAXResolver.class);
 
+  /** the compiled sheets */
+  private final TemplatesCache m_aTemplatesCache;
+
+  public THTrAXResolver ()
+  {
+    this (new TemplatesCache ());
+  }
+
+  /**
+   * @param aTemplatesCache
+   *        the cache for the compiled sheets
+   */
+  public THTrAXResolver (@Nonnull final TemplatesCache aTemplatesCache)
+  {
+    m_aTemplatesCache = aTemplatesCache;
+  }
+
+  /**
+   * @return the cache for the compiled sheets, provides the cache statistics
+   */
+  @Nonnull
+  public TemplatesCache getTemplatesCache ()
+  {
+    return m_aTemplatesCache;
+  }
+
   /*
    * (non-Javadoc)
    * @see net.sf.joost.plugins.HandlerPlugin#resolves()
@@ -208,57 +256,85 @@ public class THTrAXResolver implements ITransformerHandlerResolver
 
     setFilterAttributes (params);
 
-    TransformerHandler th = null;
-
-    // reuse th if available
-    th = getReusableHrefTH (method, href);
-
-    // new transformer if non available
-    if (th == null)
+    // prepare the source
+    Source source = null;
+    String contentKey = null;
+    try
     {
-      // prepare the source
-      Source source = null;
-      try
+      // use custom URIResolver if present
+      if (uriResolver != null)
       {
-        // use custom URIResolver if present
-        if (uriResolver != null)
+        source = uriResolver.resolve (href, base);
+      }
+      if (source == null)
+      {
+        if (HREF_IS_SYSTEM_ID.booleanValue ())
         {
-          source = uriResolver.resolve (href, base);
+          // systemId
+          if (CSTX.DEBUG)
+            log.debug ("resolve(url): new source out of systemId='" + href + "'");
+          source = new StreamSource (href);
         }
-        if (source == null)
+        else
         {
-          if (HREF_IS_SYSTEM_ID.booleanValue ())
+          // file
+          final String url = new URL (new URL (base), href).toExternalForm ();
+          if (CSTX.DEBUG)
+            log.debug ("resolve(url): new source out of file='" + url + "'");
+          source = new StreamSource (url);
+        }
+      }
+
+      if (CACHE_TEMPLATES.booleanValue () && source instanceof StreamSource)
+      {
+        // read the sheet for computing its hash
+        final StreamSource ss = (StreamSource) source;
+        final String systemId = ss.getSystemId ();
+        if (ss.getReader () != null)
+        {
+          final CharArrayWriter w = new CharArrayWriter ();
+          try (final Reader r = ss.getReader ())
+          {
+            final char [] buf = new char [8192];
+            int n;
+            while ((n = r.read (buf)) != -1)
+              w.write (buf, 0, n);
+          }
+          final String sheet = w.toString ();
+          contentKey = systemId + '#' + digest (sheet.getBytes (StandardCharsets.UTF_8));
+          source = new StreamSource (new StringReader (sheet), systemId);
+        }
+        else
+          if (ss.getInputStream () != null || !HREF_IS_SYSTEM_ID.booleanValue ())
           {
-            // systemId
-            if (CSTX.DEBUG)
-              log.debug ("resolve(url): new source out of systemId='" + href + "'");
-            source = new StreamSource (href);
+            final byte [] sheet = _readFully (ss.getInputStream () != null ? ss.getInputStream ()
+                                                                           : new URL (systemId).openStream ());
+            contentKey = systemId + '#' + digest (sheet);
+            final StreamSource cached = new StreamSource (new ByteArrayInputStream (sheet), systemId);
+            cached.setPublicId (ss.getPublicId ());
+            source = cached;
           }
           else
           {
-            // file
-            final String url = new URL (new URL (base), href).toExternalForm ();
-            if (CSTX.DEBUG)
-              log.debug ("resolve(url): new source out of file='" + url + "'");
-            source = new StreamSource (url);
+            // not a location, e.g. the name of a precompiled class
+            contentKey = systemId;
           }
-        }
-      }
-      catch (final MalformedURLException muex)
-      {
-        throw new SAXException (muex);
-      }
-      catch (final TransformerException tex)
-      {
-        throw new SAXException (tex);
       }
-
-      th = newTHOutOfTrAX (method, source, params, errorListener, uriResolver);
-
-      // cache the instance if required
-      cacheHrefTH (method, href, th);
+    }
+    catch (final MalformedURLException muex)
+    {
+      throw new SAXException (muex);
+    }
+    catch (final IOException ioex)
+    {
+      throw new SAXException (ioex);
+    }
+    catch (final TransformerException tex)
+    {
+      throw new SAXException (tex);
     }
 
+    final TransformerHandler th = newTH (method, source, contentKey, params, errorListener, uriResolver);
     prepareTh (th, params);
     return th;
   }
@@ -285,25 +361,29 @@ public class THTrAXResolver implements ITransformerHandlerResolver
 
     setFilterAttributes (params);
 
-    TransformerHandler th = null;
-
-    // reuse th if available
-    th = getReusableXmlReaderTH (method);
+    // prepare the source
+    if (CSTX.DEBUG)
+      log.debug ("resolve(buffer): new source out of buffer");
+    final Source source = new SAXSource (reader, new InputSource ());
 
-    // new transformer if non available
-    if (th == null)
+    String contentKey = null;
+    if (CACHE_TEMPLATES.booleanValue ())
     {
-      // prepare the source
-      if (CSTX.DEBUG)
-        log.debug ("resolve(buffer): new source out of buffer");
-      final Source source = new SAXSource (reader, new InputSource ());
-
-      th = newTHOutOfTrAX (method, source, params, errorListener, uriResolver);
-
-      // cache the instance if required
-      cacheBufferTH (method, th);
+      // the buffer can be read several times
+      final DigestHandler digest = new DigestHandler ();
+      reader.setContentHandler (digest);
+      try
+      {
+        reader.parse (new InputSource ());
+      }
+      catch (final IOException ex)
+      {
+        throw new SAXException (ex);
+      }
+      contentKey = "buffer#" + digest.getDigest ();
     }
 
+    final TransformerHandler th = newTH (method, source, contentKey, params, errorListener, uriResolver);
     prepareTh (th, params);
     return th;
   }
@@ -320,66 +400,44 @@ public class THTrAXResolver implements ITransformerHandlerResolver
   }
 
   /**
-   * Lookup in the hashtable for cached TH instance based on href. Takes into
-   * account if caching flag is on.
+   * Creates a new TH instance, using the templates cache if possible
    *
-   * @param method
-   * @param href
-   * @return TH or null
-   */
-  protected TransformerHandler getReusableHrefTH (final String method, final String href)
-  {
-    if (CSTX.DEBUG)
-      log.debug ("getReusableHrefTH(): href=" + href);
-
-    if (REUSE_TH_URL.booleanValue ())
-      return cachedTH.get (method + href);
-    return null;
-  }
-
-  /**
-   * cache this TH instance if flags says so
-   *
-   * @param th
-   */
-  protected void cacheHrefTH (final String method, final String href, final TransformerHandler th)
-  {
-    if (CSTX.DEBUG)
-      log.debug ("cacheHrefTH()");
-
-    if (REUSE_TH_URL.booleanValue ())
-      cachedTH.put (method + href, th);
-  }
-
-  /**
-   * Lookup in the hashtable for cached TH instance based on XmlReader. Takes
-   * into account if caching flag is on.
-   *
-   * @param method
-   * @return TH or null
+   * @param contentKey
+   *        identifies the location and contents of the sheet,
+   *        <code>null</code> if the sheet can't be cached
+   * @return TH
    */
-  protected TransformerHandler getReusableXmlReaderTH (final String method)
+  protected TransformerHandler newTH (final String method,
+                                      final Source source,
+                                      final String contentKey,
+                                      final Hashtable <String, Object> params,
+                                      final ErrorListener errorListener,
+                                      final URIResolver uriResolver) throws SAXException
   {
-    if (CSTX.DEBUG)
-      log.debug ("getReusableXmlReaderTH()");
+    if (contentKey == null || !CACHE_TEMPLATES.booleanValue ())
+      return newTHOutOfTrAX (method, source, params, errorListener, uriResolver);
 
-    if (REUSE_TH_BUFFER.booleanValue ())
-      return cachedTH.get (method + XMLREADER_KEY);
-    return null;
-  }
+    // everything that influences the compilation is part of the key
+    final StringBuilder key = new StringBuilder (method).append ('\n').append (FACTORY.getValueStr ());
+    final TreeMap <String, Object> traxAttrs = new TreeMap<> ();
+    for (final Enumeration <String> e = params.keys (); e.hasMoreElements ();)
+    {
+      final String name = e.nextElement ();
+      if (name.startsWith (tmp_TRAX_ATTR_NS))
+        traxAttrs.put (name, params.get (name));
+    }
+    key.append ('\n').append (traxAttrs).append ('\n').append (contentKey);
 
-  /**
-   * cache this TH instance if flags says so
-   *
-   * @param th
-   */
-  protected void cacheBufferTH (final String method, final TransformerHandler th)
-  {
     if (CSTX.DEBUG)
-      log.debug ("cacheBufferTH()");
-
-    if (REUSE_TH_BUFFER.booleanValue ())
-      cachedTH.put (method + XMLREADER_KEY, th);
+      log.debug ("newTH(): templates for " + contentKey);
+    final TransformerHandler th = m_aTemplatesCache.newTransformerHandler (key.toString (),
+                                                                           source,
+                                                                           () -> newTraxFactory (method,
+                                                                                                 params,
+                                                                                                 errorListener,
+                                                                                                 uriResolver));
+    setupTransformer (th.getTransformer (), errorListener, uriResolver);
+    return th;
   }
 
   /**
@@ -398,6 +456,33 @@ public class THTrAXResolver implements ITransformerHandlerResolver
     if (CSTX.DEBUG)
       log.debug ("newTHOutOfTrAX()");
 
+    final SAXTransformerFactory saxtf = newTraxFactory (method, params, errorListener, uriResolver);
+    try
+    {
+      if (CSTX.DEBUG)
+        log.debug ("newTHOutOfTrAX(): creating factory's TH");
+      // TrAX way to create TH
+      final TransformerHandler th = saxtf.newTransformerHandler (source);
+      setupTransformer (th.getTransformer (), errorListener, uriResolver);
+      return th;
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * Creates a new TrAX factory for the method
+   *
+   * @param method
+   * @return the factory
+   */
+  protected SAXTransformerFactory newTraxFactory (final String method,
+                                                  final Hashtable <String, Object> params,
+                                                  final ErrorListener errorListener,
+                                                  final URIResolver uriResolver) throws SAXException
+  {
     SAXTransformerFactory saxtf;
 
     if (FACTORY.getValueStr ().length () > 0)
@@ -480,21 +565,7 @@ public class THTrAXResolver implements ITransformerHandlerResolver
     // set factory attributes
     setTraxFactoryAttributes (saxtf, params);
     setupTransformerFactory (saxtf, errorListener, uriResolver);
-
-    try
-    {
-      if (CSTX.DEBUG)
-        log.debug ("newTHOutOfTrAX(): creating factory's reusable TH");
-      // TrAX way to create TH
-      final TransformerHandler th = saxtf.newTransformerHandler (source);
-      setupTransformer (th.getTransformer (), errorListener, uriResolver);
-      return th;
-    }
-    catch (final TransformerConfigurationException ex)
-    {
-      throw new SAXException (ex);
-    }
-
+    return saxtf;
   }
 
   private void setupTransformerFactory (final TransformerFactory factory,
@@ -609,4 +680,90 @@ public class THTrAXResolver implements ITransformerHandlerResolver
       }
     }
   }
+
+  private static byte [] _readFully (final InputStream is) throws IOException
+  {
+    try (final InputStream in = is)
+    {
+      final ByteArrayOutputStream ret = new ByteArrayOutputStream ();
+      final byte [] buf = new byte [8192];
+      int n;
+      while ((n = in.read (buf)) != -1)
+        ret.write (buf, 0, n);
+      return ret.toByteArray ();
+    }
+  }
+
+  /** @return the SHA-256 hash of the passed data */
+  static String digest (final byte [] data)
+  {
+    return Base64.getEncoder ().encodeToString (_newDigest ().digest (data));
+  }
+
+  private static MessageDigest _newDigest ()
+  {
+    try
+    {
+      return MessageDigest.getInstance ("SHA-256");
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      // every Java platform supports SHA-256
+      throw new IllegalStateException (ex);
+    }
+  }
+
+  /** Computes the hash of a sheet from its SAX events */
+  private static final class DigestHandler extends DefaultHandler2
+  {
+    private final MessageDigest m_aDigest = _newDigest ();
+
+    private void _update (final char type, final String... values)
+    {
+      m_aDigest.update ((byte) type);
+      for (final String value : values)
+      {
+        if (value != null)
+          m_aDigest.update (value.getBytes (StandardCharsets.UTF_8));
+        m_aDigest.update ((byte) 0);
+      }
+    }
+
+    String getDigest ()
+    {
+      return Base64.getEncoder ().encodeToString (m_aDigest.digest ());
+    }
+
+    @Override
+    public void startPrefixMapping (final String prefix, final String uri)
+    {
+      _update ('n', prefix, uri);
+    }
+
+    @Override
+    public void startElement (final String uri, final String lName, final String qName, final Attributes attrs)
+    {
+      _update ('e', uri, lName, qName);
+      for (int i = 0; i < attrs.getLength (); i++)
+        _update ('a', attrs.getURI (i), attrs.getLocalName (i), attrs.getQName (i), attrs.getValue (i));
+    }
+
+    @Override
+    public void endElement (final String uri, final String lName, final String qName)
+    {
+      _update ('/');
+    }
+
+    @Override
+    public void characters (final char [] ch, final int start, final int length)
+    {
+      _update ('t', new String (ch, start, length));
+    }
+
+    @Override
+    public void processingInstruction (final String target, final String data)
+    {
+      _update ('p', target, data);
+    }
+  }
 }
@@ -0,0 +1,272 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.traxfilter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A bounded cache of compiled transformation sheets for the
+ * {@link THTrAXResolver}. {@link Templates} objects are thread-safe, so every
+ * filter invocation gets its own cheap {@link TransformerHandler} from a
+ * shared entry. The least recently used entry is evicted when the cache is
+ * full. A sheet that is requested concurrently by several threads is compiled
+ * only once.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Philip Helger
+ */
+public final class TemplatesCache
+{
+  /** The default maximum number of cached sheets */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  /** Creates the factory for compiling a transformation sheet */
+  @FunctionalInterface
+  public interface IFactoryProvider
+  {
+    @Nonnull
+    SAXTransformerFactory createFactory () throws SAXException;
+  }
+
+  /** A compiled sheet together with the factory that created it */
+  private static final class Entry
+  {
+    final SAXTransformerFactory m_aFactory;
+    final Templates m_aTemplates;
+
+    Entry (final SAXTransformerFactory aFactory, final Templates aTemplates)
+    {
+      m_aFactory = aFactory;
+      m_aTemplates = aTemplates;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final Map <String, CompletableFuture <Entry>> m_aEntries;
+
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+  private final LongAdder m_aEvictions = new LongAdder ();
+  private final LongAdder m_aCompileNanos = new LongAdder ();
+
+  public TemplatesCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param nMaxSize
+   *        the maximum number of cached sheets
+   */
+  public TemplatesCache (@Nonnegative final int nMaxSize)
+  {
+    if (nMaxSize < 1)
+      throw new IllegalArgumentException ("The cache size must be positive");
+    m_nMaxSize = nMaxSize;
+    m_aEntries = new LinkedHashMap <String, CompletableFuture <Entry>> (16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, CompletableFuture <Entry>> eldest)
+      {
+        if (size () <= m_nMaxSize)
+          return false;
+        m_aEvictions.increment ();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns a new handler for the sheet identified by <code>sKey</code>,
+   * compiling the sheet if it isn't in the cache.
+   *
+   * @param sKey
+   *        identifies the sheet, must cover everything that influences the
+   *        compilation
+   * @param aSource
+   *        the sheet, used on a cache miss
+   * @param aFactoryProvider
+   *        creates the factory for compiling the sheet on a cache miss; this
+   *        factory creates the handlers for the cached sheet
+   */
+  @Nonnull
+  public TransformerHandler newTransformerHandler (@Nonnull final String sKey,
+                                                   @Nonnull final Source aSource,
+                                                   @Nonnull final IFactoryProvider aFactoryProvider) throws SAXException
+  {
+    CompletableFuture <Entry> future;
+    boolean owner = false;
+    synchronized (m_aEntries)
+    {
+      future = m_aEntries.get (sKey);
+      if (future == null)
+      {
+        future = new CompletableFuture<> ();
+        m_aEntries.put (sKey, future);
+        owner = true;
+      }
+    }
+
+    Entry entry;
+    if (owner)
+    {
+      m_aMisses.increment ();
+      final long start = System.nanoTime ();
+      try
+      {
+        final SAXTransformerFactory factory = aFactoryProvider.createFactory ();
+        entry = new Entry (factory, factory.newTemplates (aSource));
+        future.complete (entry);
+      }
+      catch (final TransformerConfigurationException ex)
+      {
+        synchronized (m_aEntries)
+        {
+          m_aEntries.remove (sKey, future);
+        }
+        final SAXException sex = new SAXException (ex);
+        future.completeExceptionally (sex);
+        throw sex;
+      }
+      catch (final SAXException | RuntimeException ex)
+      {
+        synchronized (m_aEntries)
+        {
+          m_aEntries.remove (sKey, future);
+        }
+        future.completeExceptionally (ex);
+        throw ex;
+      }
+      finally
+      {
+        m_aCompileNanos.add (System.nanoTime () - start);
+      }
+    }
+    else
+    {
+      m_aHits.increment ();
+      try
+      {
+        entry = future.join ();
+      }
+      catch (final CompletionException ex)
+      {
+        if (ex.getCause () instanceof SAXException)
+          throw (SAXException) ex.getCause ();
+        throw ex;
+      }
+    }
+
+    try
+    {
+      // factories are not required to be thread-safe
+      synchronized (entry.m_aFactory)
+      {
+        return entry.m_aFactory.newTransformerHandler (entry.m_aTemplates);
+      }
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  /** Removes all entries */
+  public void clear ()
+  {
+    synchronized (m_aEntries)
+    {
+      m_aEntries.clear ();
+    }
+  }
+
+  /** @return the number of cached sheets */
+  public int size ()
+  {
+    synchronized (m_aEntries)
+    {
+      return m_aEntries.size ();
+    }
+  }
+
+  public int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /** @return the number of requests that found their sheet in the cache */
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /** @return the number of requests that compiled their sheet */
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  /** @return the number of sheets removed because the cache was full */
+  public long getEvictionCount ()
+  {
+    return m_aEvictions.sum ();
+  }
+
+  /** @return the total time spent compiling sheets in milliseconds */
+  public double getCompileMillis ()
+  {
+    return m_aCompileNanos.sum () / 1e6;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "size=" +
+           size () +
+           "/" +
+           m_nMaxSize +
+           ", hits=" +
+           getHitCount () +
+           ", misses=" +
+           getMissCount () +
+           ", evictions=" +
+           getEvictionCount () +
+           ", compile=" +
+           getCompileMillis () +
+           "ms";
+  }
+}
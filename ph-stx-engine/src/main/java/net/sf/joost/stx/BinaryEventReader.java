@@ -0,0 +1,394 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.CSTX;
+import net.sf.joost.emitter.BinaryEmitter;
+
+/**
+ * An {@link XMLReader} that reads the binary event format written by
+ * {@link BinaryEmitter} and reports its events to the registered handlers.
+ * No XML parsing and no character decoding takes place. The input must be
+ * available as byte stream or via the system identifier of the
+ * {@link InputSource}.
+ *
+ * @author Philip Helger
+ */
+public class BinaryEventReader implements XMLReader
+{
+  private static final int BUFFER_SIZE = 0x10000;
+
+  private ContentHandler m_aContH;
+  private LexicalHandler m_aLexH;
+  private EntityResolver m_aEntityResolver;
+  private DTDHandler m_aDTDHandler;
+  private ErrorHandler m_aErrorHandler;
+
+  // state of the current parse
+  private InputStream m_aIS;
+  private final byte [] m_aBuf = new byte [BUFFER_SIZE];
+  private int m_nPos;
+  private int m_nLimit;
+  private char [] m_aChars = new char [256];
+  private String [] m_aNames;
+  private int m_nNameCount;
+
+  //
+  // XMLReader configuration
+  //
+
+  public boolean getFeature (final String name) throws SAXNotRecognizedException
+  {
+    if (CSTX.FEAT_NS.equals (name))
+      return true;
+    if (CSTX.FEAT_NSPREFIX.equals (name))
+      return false;
+    throw new SAXNotRecognizedException (name);
+  }
+
+  public void setFeature (final String name, final boolean value) throws SAXNotRecognizedException,
+                                                                   SAXNotSupportedException
+  {
+    if (CSTX.FEAT_NS.equals (name) || CSTX.FEAT_NSPREFIX.equals (name))
+    {
+      // the event stream always reports namespace URIs and mappings, but
+      // never xmlns attributes
+      if (value != getFeature (name))
+        throw new SAXNotSupportedException (name + " must be " + !value);
+    }
+    else
+      throw new SAXNotRecognizedException (name);
+  }
+
+  public Object getProperty (final String name) throws SAXNotRecognizedException
+  {
+    if ("http://xml.org/sax/properties/lexical-handler".equals (name))
+      return m_aLexH;
+    throw new SAXNotRecognizedException (name);
+  }
+
+  public void setProperty (final String name, final Object value) throws SAXNotRecognizedException
+  {
+    if ("http://xml.org/sax/properties/lexical-handler".equals (name))
+      m_aLexH = (LexicalHandler) value;
+    else
+      throw new SAXNotRecognizedException (name);
+  }
+
+  public void setEntityResolver (final EntityResolver resolver)
+  {
+    m_aEntityResolver = resolver;
+  }
+
+  public EntityResolver getEntityResolver ()
+  {
+    return m_aEntityResolver;
+  }
+
+  public void setDTDHandler (final DTDHandler handler)
+  {
+    m_aDTDHandler = handler;
+  }
+
+  public DTDHandler getDTDHandler ()
+  {
+    return m_aDTDHandler;
+  }
+
+  public void setContentHandler (final ContentHandler handler)
+  {
+    m_aContH = handler;
+  }
+
+  public ContentHandler getContentHandler ()
+  {
+    return m_aContH;
+  }
+
+  public void setErrorHandler (final ErrorHandler handler)
+  {
+    m_aErrorHandler = handler;
+  }
+
+  public ErrorHandler getErrorHandler ()
+  {
+    return m_aErrorHandler;
+  }
+
+  //
+  // Parsing
+  //
+
+  public void parse (final String systemId) throws IOException, SAXException
+  {
+    parse (new InputSource (systemId));
+  }
+
+  public void parse (final InputSource input) throws IOException, SAXException
+  {
+    InputStream is = input.getByteStream ();
+    boolean bClose = false;
+    if (is == null)
+    {
+      if (input.getSystemId () == null)
+        throw new SAXException ("A binary event stream must be provided as byte stream or system identifier");
+      is = new URL (input.getSystemId ()).openStream ();
+      bClose = true;
+    }
+
+    m_aIS = is;
+    m_nPos = m_nLimit = 0;
+    m_aNames = new String [64];
+    m_nNameCount = 0;
+    try
+    {
+      _readEvents ();
+    }
+    finally
+    {
+      m_aIS = null;
+      m_aNames = null;
+      if (bClose)
+        is.close ();
+    }
+  }
+
+  /** Ensures that the buffer contains at least <code>nBytes</code> bytes */
+  private void _fill (final int nBytes) throws IOException, SAXException
+  {
+    if (m_nLimit - m_nPos >= nBytes)
+      return;
+    System.arraycopy (m_aBuf, m_nPos, m_aBuf, 0, m_nLimit - m_nPos);
+    m_nLimit -= m_nPos;
+    m_nPos = 0;
+    while (m_nLimit < nBytes)
+    {
+      final int nRead = m_aIS.read (m_aBuf, m_nLimit, BUFFER_SIZE - m_nLimit);
+      if (nRead < 0)
+        throw new SAXException ("Unexpected end of the binary event stream");
+      m_nLimit += nRead;
+    }
+  }
+
+  private int _readByte () throws IOException, SAXException
+  {
+    if (m_nPos == m_nLimit)
+      _fill (1);
+    return m_aBuf[m_nPos++];
+  }
+
+  private int _readNumber () throws IOException, SAXException
+  {
+    int ret = 0;
+    int nShift = 0;
+    int b;
+    do
+    {
+      if (nShift > 28)
+        throw new SAXException ("Corrupt number in the binary event stream");
+      b = _readByte ();
+      ret |= (b & 0x7f) << nShift;
+      nShift += 7;
+    } while ((b & 0x80) != 0);
+    return ret;
+  }
+
+  /**
+   * Reads a text into {@link #m_aChars}
+   *
+   * @return the number of characters
+   */
+  private int _readChars () throws IOException, SAXException
+  {
+    final int nLength = _readNumber ();
+    if (nLength > m_aChars.length)
+      m_aChars = new char [Math.max (nLength, m_aChars.length << 1)];
+    final char [] chars = m_aChars;
+    int i = 0;
+    while (i < nLength)
+    {
+      if (m_nLimit - m_nPos < 2)
+        _fill (2);
+      final int nEnd = Math.min (nLength, i + ((m_nLimit - m_nPos) >> 1));
+      int nPos = m_nPos;
+      final byte [] buf = m_aBuf;
+      for (; i < nEnd; i++)
+      {
+        chars[i] = (char) (((buf[nPos] & 0xff) << 8) | (buf[nPos + 1] & 0xff));
+        nPos += 2;
+      }
+      m_nPos = nPos;
+    }
+    return nLength;
+  }
+
+  private String _readString () throws IOException, SAXException
+  {
+    return new String (m_aChars, 0, _readChars ());
+  }
+
+  private String _readName () throws IOException, SAXException
+  {
+    final int nRef = _readNumber ();
+    if (nRef == 0)
+      return null;
+    if (nRef <= m_nNameCount)
+      return m_aNames[nRef - 1];
+    if (nRef != m_nNameCount + 1)
+      throw new SAXException ("Corrupt name reference in the binary event stream: " + nRef);
+    final String ret = _readString ();
+    if (m_nNameCount == m_aNames.length)
+      m_aNames = Arrays.copyOf (m_aNames, m_nNameCount << 1);
+    m_aNames[m_nNameCount++] = ret;
+    return ret;
+  }
+
+  private void _readEvents () throws IOException, SAXException
+  {
+    final byte [] magic = BinaryEmitter.MAGIC;
+    _fill (magic.length + 1);
+    for (final byte element : magic)
+      if (m_aBuf[m_nPos++] != element)
+        throw new SAXException ("Not a binary event stream");
+    final int nVersion = m_aBuf[m_nPos++];
+    if (nVersion != BinaryEmitter.VERSION)
+      throw new SAXException ("Unsupported version " + nVersion + " of the binary event stream");
+
+    final ContentHandler contH = m_aContH;
+    final LexicalHandler lexH = m_aLexH;
+    final AttributesImpl noAttrs = new AttributesImpl ();
+    // names of the open elements: uri, lName, qName
+    String [] openElements = new String [48];
+    int nOpenElements = 0;
+
+    contH.startDocument ();
+    while (true)
+    {
+      final int nOpcode = _readByte ();
+      switch (nOpcode)
+      {
+        case BinaryEmitter.OP_START_ELEMENT:
+        {
+          final String uri = _readName ();
+          final String lName = _readName ();
+          final String qName = _readName ();
+          final int nAttCount = _readNumber ();
+          // a new object for each element, handlers may keep it until the
+          // next event
+          final AttributesImpl attrs = nAttCount == 0 ? noAttrs : new AttributesImpl ();
+          for (int i = 0; i < nAttCount; i++)
+          {
+            final String aUri = _readName ();
+            final String aLName = _readName ();
+            final String aQName = _readName ();
+            final String aType = _readName ();
+            attrs.addAttribute (aUri, aLName, aQName, aType, _readString ());
+          }
+          if (nOpenElements == openElements.length)
+            openElements = Arrays.copyOf (openElements, nOpenElements << 1);
+          openElements[nOpenElements++] = uri;
+          openElements[nOpenElements++] = lName;
+          openElements[nOpenElements++] = qName;
+          contH.startElement (uri, lName, qName, attrs);
+          break;
+        }
+        case BinaryEmitter.OP_END_ELEMENT:
+          if (nOpenElements == 0)
+            throw new SAXException ("Unbalanced end of element in the binary event stream");
+          nOpenElements -= 3;
+          contH.endElement (openElements[nOpenElements],
+                            openElements[nOpenElements + 1],
+                            openElements[nOpenElements + 2]);
+          break;
+        case BinaryEmitter.OP_TEXT:
+          contH.characters (m_aChars, 0, _readChars ());
+          break;
+        case BinaryEmitter.OP_CDATA:
+        {
+          final int nLength = _readChars ();
+          if (lexH != null)
+            lexH.startCDATA ();
+          contH.characters (m_aChars, 0, nLength);
+          if (lexH != null)
+            lexH.endCDATA ();
+          break;
+        }
+        case BinaryEmitter.OP_COMMENT:
+        {
+          final int nLength = _readChars ();
+          if (lexH != null)
+            lexH.comment (m_aChars, 0, nLength);
+          break;
+        }
+        case BinaryEmitter.OP_PI:
+        {
+          final String target = _readName ();
+          contH.processingInstruction (target, _readString ());
+          break;
+        }
+        case BinaryEmitter.OP_START_MAPPING:
+        {
+          final String prefix = _readName ();
+          contH.startPrefixMapping (prefix, _readName ());
+          break;
+        }
+        case BinaryEmitter.OP_END_MAPPING:
+          contH.endPrefixMapping (_readName ());
+          break;
+        case BinaryEmitter.OP_DOCTYPE:
+        {
+          final String name = _readName ();
+          final String publicId = _readName ();
+          final String systemId = _readName ();
+          if (lexH != null)
+          {
+            lexH.startDTD (name, publicId, systemId);
+            lexH.endDTD ();
+          }
+          break;
+        }
+        case BinaryEmitter.OP_END_DOCUMENT:
+          if (nOpenElements != 0)
+            throw new SAXException ("Unexpected end of document in the binary event stream");
+          contH.endDocument ();
+          return;
+        default:
+          throw new SAXException ("Unknown opcode " + nOpcode + " in the binary event stream");
+      }
+    }
+  }
+}
@@ -36,6 +36,7 @@ import org.xml.sax.helpers.LocatorImpl;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.CompactEventBuffer;
 import net.sf.joost.instruction.AbstractGroupBase;
 
 /**
@@ -56,6 +57,9 @@ public class BufferReader implements XMLReader
   /** the array of events to be feed into the external SAX processor */
   private final SAXEvent [] m_aEvents;
 
+  /** the events in compact form, used instead of {@link #m_aEvents} */
+  private final CompactEventBuffer.Snapshot m_aCompactEvents;
+
   private final String m_sPublicID, m_sSystemID;
 
   /**
@@ -85,7 +89,9 @@ public class BufferReader implements XMLReader
     // endDocument() doesn't add a event to the buffer.
     // However, it checks that the buffer contents is well-formed
     emitter.endDocument (context.currentInstruction);
-    this.m_aEvents = ((BufferEmitter) emitter.m_aContH).getEvents ();
+    final BufferEmitter buffer = (BufferEmitter) emitter.m_aContH;
+    this.m_aEvents = buffer.getEvents ();
+    this.m_aCompactEvents = buffer.getCompactEvents ();
     this.m_sPublicID = publicId;
     this.m_sSystemID = systemId;
   }
@@ -214,6 +220,12 @@ public class BufferReader implements XMLReader
    */
   public void parse (final ContentHandler contH, final LexicalHandler lexH) throws SAXException
   {
+    if (m_aCompactEvents != null)
+    {
+      m_aCompactEvents.replay (contH, lexH);
+      return;
+    }
+
     // generate events
     for (final SAXEvent ev : m_aEvents)
     {
@@ -81,6 +81,18 @@ public final class Context implements Cloneable
   public Hashtable <String, Value> localVars = new Hashtable<> ();
   public Stack <String []> localRegExGroup;
 
+  /**
+   * The maximum length of a match of <code>stx:analyze-text</code> in a large
+   * text node (see {@link Processor#setLargeTextThreshold(int)})
+   */
+  public int m_nMaxMatchLength = Processor.DEFAULT_MAX_MATCH_LENGTH;
+
+  /**
+   * Set by <code>joost:stop</code>, the remaining input will be ignored (see
+   * {@link Processor})
+   */
+  public boolean m_bStopRequested;
+
   /** External parameters passed to the transformation */
   public Hashtable <String, Value> globalParameters = new Hashtable<> ();
 
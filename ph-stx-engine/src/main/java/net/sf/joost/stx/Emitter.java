@@ -22,12 +22,19 @@ package net.sf.joost.stx;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.annotation.Nonnull;
 
@@ -39,11 +46,17 @@ import org.xml.sax.helpers.NamespaceSupport;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.CompactEventBuffer;
+import net.sf.joost.emitter.EmitterAdapter;
 import net.sf.joost.emitter.IStxEmitter;
+import net.sf.joost.emitter.StringEmitter;
+import net.sf.joost.emitter.XmlEmitter;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.AbstractNodeBase;
 import net.sf.joost.stx.helpers.IMutableAttributes;
 import net.sf.joost.stx.helpers.MutableAttributesImpl;
+import net.sf.joost.util.CharSequenceUtils;
+import net.sf.joost.util.LargeText;
 
 /**
  * Emitter acts as a filter between the Processor and the real SAX output
@@ -80,8 +93,75 @@ public class Emitter
   private AbstractNodeBase m_aLastInstruction;
 
   private boolean m_bInsideCDATA = false;
+
+  /**
+   * Reused array for passing character sequences to handlers that aren't
+   * {@link IStxEmitter} objects
+   */
+  private char [] m_aScratch;
   private boolean m_bDTDAllowed = true;
 
+  /**
+   * {@link #m_aContH} if it is a {@link Processor} of a fused pipeline, which
+   * takes over the attributes and character sequences of this emitter
+   * without copying them
+   */
+  private Processor m_aNextProcessor;
+
+  /**
+   * The pool that writes the files of <code>stx:result-document</code>, or
+   * <code>null</code> if they will be written on the transformation thread
+   */
+  ResultWriterPool m_aResultWriterPool;
+
+  /**
+   * Events that will be available later and take their place in the result
+   * stream, see {@link #insertDeferred(CompletableFuture, AbstractNodeBase)}
+   */
+  public interface IDeferredEvents
+  {
+    /**
+     * Reports the events to the passed handlers. The events must form a
+     * well-formed fragment, <code>startDocument</code> and
+     * <code>endDocument</code> are ignored.
+     */
+    void report (ContentHandler aContH, LexicalHandler aLexH) throws SAXException;
+  }
+
+  /** A deferred part of the result stream and the events following it */
+  private static final class DeferredSegment
+  {
+    final CompletableFuture <? extends IDeferredEvents> m_aEvents;
+    final AbstractNodeBase m_aInstruction;
+    /** the namespace bindings at the position of the deferred events */
+    final String m_sNSDefault;
+    final String [] m_aPrefixes;
+    final String [] m_aURIs;
+    /** records the events that follow the deferred events */
+    final BufferEmitter m_aFollowing = new BufferEmitter (0);
+
+    DeferredSegment (final CompletableFuture <? extends IDeferredEvents> aEvents,
+                     final AbstractNodeBase aInstruction,
+                     final String sNSDefault,
+                     final String [] aPrefixes,
+                     final String [] aURIs)
+    {
+      m_aEvents = aEvents;
+      m_aInstruction = aInstruction;
+      m_sNSDefault = sNSDefault;
+      m_aPrefixes = aPrefixes;
+      m_aURIs = aURIs;
+    }
+  }
+
+  /** pending deferred segments in document order, <code>null</code> if none */
+  private ArrayDeque <DeferredSegment> m_aDeferred;
+
+  /** the actual output handlers while there are deferred segments */
+  private ContentHandler m_aDeferredContH;
+  private LexicalHandler m_aDeferredLexH;
+  private Processor m_aDeferredNextProcessor;
+
   public Emitter (final ErrorHandlerImpl errorHandler)
   {
     m_aNSSupport = new NamespaceSupport ();
@@ -100,6 +180,7 @@ public class Emitter
     m_aPrev = aPrev;
     m_aContH = handler;
     m_aLexH = handler;
+    m_aResultWriterPool = aPrev.m_aResultWriterPool;
   }
 
   /**
@@ -113,11 +194,12 @@ public class Emitter
   @Nonnull
   public Emitter pushEmitter (final IStxEmitter handler)
   {
-    if (handler.getSystemId () == null && m_aContH instanceof IStxEmitter)
+    final ContentHandler target = _getTarget ();
+    if (handler.getSystemId () == null && target instanceof IStxEmitter)
     {
       // if the new handler doesn't have its own system identifier set
       // then use the system identifier of the parent
-      handler.setSystemId (((IStxEmitter) m_aContH).getSystemId ());
+      handler.setSystemId (((IStxEmitter) target).getSystemId ());
     }
     return new Emitter (this, handler);
   }
@@ -125,6 +207,8 @@ public class Emitter
   public void setContentHandler (final ContentHandler handler)
   {
     m_aContH = handler;
+    // subclasses of Processor may override the SAX methods
+    m_aNextProcessor = handler != null && handler.getClass () == Processor.class ? (Processor) handler : null;
   }
 
   public void setLexicalHandler (final LexicalHandler handler)
@@ -132,12 +216,141 @@ public class Emitter
     m_aLexH = handler;
   }
 
+  /**
+   * @return the handler that receives the result stream, also while events
+   *         are being deferred
+   */
+  private ContentHandler _getTarget ()
+  {
+    return m_aDeferred != null ? m_aDeferredContH : m_aContH;
+  }
+
+  /**
+   * Reserves the current position in the result stream for events that will
+   * be available later, for example the response of an asynchronous request.
+   * Until these events are available, all following events are buffered. The
+   * deferred events are processed with the namespace bindings of this
+   * position.
+   *
+   * @param aEvents
+   *        delivers the deferred events; its completion will be awaited at
+   *        the latest at the end of the document
+   * @param instruction
+   *        the instruction that causes this method invocation
+   */
+  public void insertDeferred (@Nonnull final CompletableFuture <? extends IDeferredEvents> aEvents,
+                              final AbstractNodeBase instruction) throws SAXException
+  {
+    if (m_aContH == null)
+      return;
+    if (m_aLastAttrs != null)
+      processLastElement ();
+
+    final Enumeration <?> e = m_aNSSupport.getPrefixes ();
+    final Stack <String> prefixes = new Stack<> ();
+    while (e.hasMoreElements ())
+      prefixes.push ((String) e.nextElement ());
+    final String [] aPrefixes = prefixes.toArray (new String [prefixes.size ()]);
+    final String [] aURIs = new String [aPrefixes.length];
+    for (int i = 0; i < aPrefixes.length; i++)
+      aURIs[i] = m_aNSSupport.getURI (aPrefixes[i]);
+    final DeferredSegment segment = new DeferredSegment (aEvents, instruction, m_sNSDefault, aPrefixes, aURIs);
+
+    if (m_aDeferred == null)
+    {
+      m_aDeferred = new ArrayDeque<> ();
+      m_aDeferredContH = m_aContH;
+      m_aDeferredLexH = m_aLexH;
+      m_aDeferredNextProcessor = m_aNextProcessor;
+      m_aNextProcessor = null;
+    }
+    m_aDeferred.add (segment);
+    m_aContH = segment.m_aFollowing;
+    m_aLexH = segment.m_aFollowing;
+
+    // report what is already available; buffers and strings will be read
+    // back soon, so there is no point in deferring their contents
+    _reportDeferred (m_aDeferredContH instanceof BufferEmitter || m_aDeferredContH instanceof StringEmitter);
+  }
+
+  /**
+   * Reports the deferred segments whose events are available to the actual
+   * output handlers.
+   *
+   * @param bWait
+   *        whether to wait for all segments
+   */
+  private void _reportDeferred (final boolean bWait) throws SAXException
+  {
+    while (!m_aDeferred.isEmpty ())
+    {
+      final DeferredSegment segment = m_aDeferred.peek ();
+      if (!bWait && !segment.m_aEvents.isDone ())
+        return;
+
+      IDeferredEvents events;
+      try
+      {
+        events = segment.m_aEvents.join ();
+      }
+      catch (final CompletionException ex)
+      {
+        final Throwable cause = ex.getCause ();
+        if (cause instanceof SAXException)
+          throw (SAXException) cause;
+        throw new SAXException (cause instanceof Exception ? (Exception) cause : ex);
+      }
+
+      // process the deferred events with the namespace context of their
+      // position
+      final Emitter emitter = new Emitter (m_aErrorHandler);
+      emitter.m_aContH = m_aDeferredContH;
+      emitter.m_aLexH = m_aDeferredLexH;
+      emitter.m_sNSDefault = segment.m_sNSDefault;
+      for (int i = 0; i < segment.m_aPrefixes.length; i++)
+        emitter.m_aNSSupport.declarePrefix (segment.m_aPrefixes[i], segment.m_aURIs[i]);
+      final EmitterAdapter adapter = new EmitterAdapter (emitter, segment.m_aInstruction);
+      events.report (adapter, adapter);
+      if (emitter.m_aLastAttrs != null)
+        emitter.processLastElement ();
+
+      segment.m_aFollowing.filled ();
+      // an empty buffer has no compact representation
+      final CompactEventBuffer.Snapshot following = segment.m_aFollowing.getCompactEvents ();
+      if (following != null)
+        following.replay (m_aDeferredContH, m_aDeferredLexH);
+      m_aDeferred.poll ();
+    }
+
+    // nothing deferred anymore
+    m_aContH = m_aDeferredContH;
+    m_aLexH = m_aDeferredLexH;
+    m_aNextProcessor = m_aDeferredNextProcessor;
+    m_aDeferred = null;
+    m_aDeferredContH = null;
+    m_aDeferredLexH = null;
+    m_aDeferredNextProcessor = null;
+  }
+
+  /**
+   * Reports the leading deferred segments that have become available since the
+   * last check, so that the following events needn't be buffered any longer.
+   */
+  private void _checkDeferred () throws SAXException
+  {
+    if (m_aDeferred != null && m_aDeferred.peek ().m_aEvents.isDone ())
+      _reportDeferred (false);
+  }
+
   /** Process a stored element start tag (from startElement) */
   private void processLastElement () throws SAXException
   {
     try
     {
-      m_aContH.startElement (m_sLastUri, m_sLastLName, m_sLastQName, m_aLastAttrs);
+      if (m_aNextProcessor != null)
+        m_aNextProcessor.startAdoptedElement (m_sLastUri, m_sLastLName, m_sLastQName, m_aLastAttrs);
+      else
+        m_aContH.startElement (m_sLastUri, m_sLastLName, m_sLastQName, m_aLastAttrs);
       m_bDTDAllowed = false;
     }
     catch (final SAXException se)
@@ -226,6 +439,8 @@ public class Emitter
     {
       if (m_aLastAttrs != null)
         processLastElement ();
+      if (m_aDeferred != null)
+        _reportDeferred (true);
       if (!m_aOpenedElements.isEmpty ())
       {
         m_aErrorHandler.fatalError ("Missing end tag for '" +
@@ -256,6 +471,7 @@ public class Emitter
   {
     if (m_aContH != null)
     {
+      _checkDeferred ();
       if (m_aLastAttrs != null)
         processLastElement ();
 
@@ -342,6 +558,7 @@ public class Emitter
   {
     if (m_aContH != null)
     {
+      _checkDeferred ();
       if (m_aLastAttrs != null)
         processLastElement ();
 
@@ -458,6 +675,252 @@ public class Emitter
     }
   }
 
+  /**
+   * Emits characters given as a {@link CharSequence}, for example the contents
+   * of a <code>StringBuffer</code>. If the output handler is an
+   * {@link IStxEmitter} the sequence is passed on without copying, otherwise
+   * the characters are copied into a reused array. The sequence won't be
+   * referenced after this method returns.
+   *
+   * @param instruction
+   *        the instruction that causes this method invocation
+   */
+  public void characters (final CharSequence chars, final AbstractNodeBase instruction) throws SAXException
+  {
+    final int length = chars.length ();
+    if (length == 0)
+      return;
+    if (m_aContH != null)
+    {
+      if (m_aLastAttrs != null)
+        processLastElement ();
+      try
+      {
+        if (m_bInsideCDATA)
+        { // prevent output of "]]>" in this CDATA section
+          int start = 0;
+          int index = _indexOfCDATAEnd (chars, start);
+          while (index != -1)
+          {
+            // "]]>" found; split between "]]" and ">"
+            index += 2;
+            _characters (chars, start, index);
+            m_aLexH.endCDATA (); // #lexH will be != null,
+            m_aLexH.startCDATA (); // because #insideCDATA was true
+            start = index;
+            index = _indexOfCDATAEnd (chars, start);
+          }
+          _characters (chars, start, length);
+        }
+        else
+          _characters (chars, 0, length);
+      }
+      catch (final SAXException ex)
+      {
+        m_aErrorHandler.fatalError (ex.getMessage (),
+                                    instruction.m_sPublicID,
+                                    instruction.m_sSystemID,
+                                    instruction.lineNo,
+                                    instruction.colNo,
+                                    ex);
+      }
+    }
+  }
+
+  private static int _indexOfCDATAEnd (final CharSequence chars, final int start)
+  {
+    for (int i = start, end = chars.length () - 2; i < end; i++)
+      if (chars.charAt (i) == ']' && chars.charAt (i + 1) == ']' && chars.charAt (i + 2) == '>')
+        return i;
+    return -1;
+  }
+
+  private void _characters (final CharSequence chars, final int start, final int end) throws SAXException
+  {
+    if (chars instanceof LargeText && end - start > LargeText.CHUNK_SIZE)
+    {
+      // never copy a large text node as a whole
+      int nStart = start;
+      while (nStart < end)
+      {
+        final int nEnd = LargeText.getChunkEnd (chars, nStart, end);
+        _characters (chars, nStart, nEnd);
+        nStart = nEnd;
+      }
+      return;
+    }
+    if (m_aContH instanceof IStxEmitter)
+      ((IStxEmitter) m_aContH).characters (start == 0 && end == chars.length () ? chars
+                                                                                : chars.subSequence (start, end));
+    else
+      if (m_aNextProcessor != null)
+        m_aNextProcessor.characters (start == 0 && end == chars.length () ? chars : chars.subSequence (start, end));
+      else
+      {
+        if (m_aScratch == null || m_aScratch.length < end - start)
+          m_aScratch = new char [Math.max (end - start, 256)];
+        CharSequenceUtils.getChars (chars, start, end, m_aScratch, 0);
+        m_aContH.characters (m_aScratch, 0, end - start);
+      }
+  }
+
+  /**
+   * Emits a static fragment of literal result elements. If the output handler
+   * is an {@link XmlEmitter} the serialized form of the fragment will be
+   * written in one step. The serialized form depends on the output encoding
+   * and the current bindings of the prefixes used in the fragment and is
+   * cached in the fragment.
+   *
+   * @param fragment
+   *        the fragment
+   * @param instruction
+   *        the instruction that causes this method invocation
+   * @return <code>true</code> if the fragment has been emitted,
+   *         <code>false</code> if the caller has to emit the events of the
+   *         fragment one by one
+   */
+  public boolean literalFragment (final LiteralFragment fragment,
+                                  final AbstractNodeBase instruction) throws SAXException
+  {
+    if (!(m_aContH instanceof XmlEmitter) || m_bInsideCDATA)
+      return false;
+
+    final XmlEmitter xmlEmitter = (XmlEmitter) m_aContH;
+    final String [] prefixes = fragment.getPrefixes ();
+    final String [] key = new String [prefixes.length + 1];
+    key[0] = xmlEmitter.getEncoding ();
+    for (int i = 0; i < prefixes.length; i++)
+      key[i + 1] = "".equals (prefixes[i]) ? m_sNSDefault : m_aNSSupport.getURI (prefixes[i]);
+
+    String serialized = fragment.getSerialized (key);
+    if (serialized == null)
+    {
+      serialized = _serializeFragment (fragment, key, instruction);
+      fragment.putSerialized (key, serialized);
+    }
+
+    if (m_aLastAttrs != null)
+      processLastElement ();
+    try
+    {
+      if (!xmlEmitter.writeSerialized (serialized))
+        return false;
+    }
+    catch (final SAXException ex)
+    {
+      m_aErrorHandler.fatalError (ex.getMessage (),
+                                  instruction.m_sPublicID,
+                                  instruction.m_sSystemID,
+                                  instruction.lineNo,
+                                  instruction.colNo,
+                                  ex);
+    }
+    m_bDTDAllowed = false;
+    return true;
+  }
+
+  /**
+   * Checks whether the content of the element that has just been started may
+   * be emitted by {@link #rawContent(CharSequence, AbstractNodeBase)}. This
+   * requires an {@link XmlEmitter} as output handler whose encoding is able to
+   * represent all characters of the source document. Moreover the default
+   * namespace must be the same as in the source document, because the
+   * content may contain unprefixed element names; all other namespaces of the
+   * source element have been declared by
+   * {@link #startElement(String, String, String, Attributes, Map, AbstractNodeBase)}.
+   *
+   * @param namespaces
+   *        the in-scope namespaces of the source element
+   * @param encoding
+   *        the encoding of the source document, <code>null</code> if unknown
+   */
+  public boolean isRawContentAllowed (final Map <String, String> namespaces, final String encoding)
+  {
+    if (!(m_aContH instanceof XmlEmitter) || m_bInsideCDATA)
+      return false;
+
+    final XmlEmitter xmlEmitter = (XmlEmitter) m_aContH;
+    final String outputEncoding = xmlEmitter.getEncoding ();
+    if (!xmlEmitter.canWriteSerialized () ||
+        !outputEncoding.equalsIgnoreCase (encoding) && !outputEncoding.toUpperCase (Locale.ROOT).startsWith ("UTF"))
+      return false;
+
+    final String defaultNS = namespaces.get ("");
+    return (defaultNS == null ? "" : defaultNS).equals (m_sNSDefault);
+  }
+
+  /**
+   * Emits the content of the current element as it has been read from the
+   * source document (see
+   * {@link #isRawContentAllowed(Map, String)}).
+   *
+   * @param content
+   *        the unparsed content
+   * @param instruction
+   *        the instruction that causes this method invocation
+   */
+  public void rawContent (final CharSequence content, final AbstractNodeBase instruction) throws SAXException
+  {
+    if (m_aLastAttrs != null)
+      processLastElement ();
+    try
+    {
+      ((XmlEmitter) m_aContH).writeSerialized (content);
+    }
+    catch (final SAXException ex)
+    {
+      m_aErrorHandler.fatalError (ex.getMessage (),
+                                  instruction.m_sPublicID,
+                                  instruction.m_sSystemID,
+                                  instruction.lineNo,
+                                  instruction.colNo,
+                                  ex);
+    }
+  }
+
+  /**
+   * Serializes a literal fragment with a separate emitter whose namespace
+   * context is initialized with the prefix bindings given in <code>key</code>
+   */
+  private String _serializeFragment (final LiteralFragment fragment,
+                                     final String [] key,
+                                     final AbstractNodeBase instruction) throws SAXException
+  {
+    final StringWriter w = new StringWriter ();
+    final Emitter emitter = new Emitter (m_aErrorHandler);
+    emitter.m_aContH = new XmlEmitter (w, key[0], null);
+
+    final String [] prefixes = fragment.getPrefixes ();
+    for (int i = 0; i < prefixes.length; i++)
+    {
+      final String uri = key[i + 1];
+      if ("".equals (prefixes[i]))
+        emitter.m_sNSDefault = uri;
+      if (uri != null && uri.length () > 0)
+        emitter.m_aNSSupport.declarePrefix (prefixes[i], uri);
+    }
+
+    for (final SAXEvent event : fragment.getEvents ())
+      switch (event.m_nType)
+      {
+        case SAXEvent.ELEMENT:
+          emitter.startElement (event.m_sURI,
+                                event.m_sLocalName,
+                                event.m_sQName,
+                                event.m_aAttrs,
+                                event.m_aNamespaces,
+                                instruction);
+          break;
+        case SAXEvent.ELEMENT_END:
+          emitter.endElement (event.m_sURI, event.m_sLocalName, event.m_sQName, instruction);
+          break;
+        case SAXEvent.TEXT:
+          emitter.characters (event.getValue (), instruction);
+          break;
+      }
+    return w.toString ();
+  }
+
   /**
    * Creates a processing instruction.
    *
@@ -519,6 +982,44 @@ public class Emitter
     }
   }
 
+  /**
+   * Creates a comment given as a {@link CharSequence}. The same rules as for
+   * {@link #characters(CharSequence, AbstractNodeBase)} apply.
+   *
+   * @param instruction
+   *        the instruction that causes this method invocation
+   */
+  public void comment (final CharSequence chars, final AbstractNodeBase instruction) throws SAXException
+  {
+    if (m_aContH != null && m_aLastAttrs != null)
+      processLastElement ();
+    if (m_aLexH != null)
+    {
+      try
+      {
+        if (m_aLexH instanceof IStxEmitter)
+          ((IStxEmitter) m_aLexH).comment (chars);
+        else
+        {
+          final int length = chars.length ();
+          if (m_aScratch == null || m_aScratch.length < length)
+            m_aScratch = new char [Math.max (length, 256)];
+          CharSequenceUtils.getChars (chars, 0, length, m_aScratch, 0);
+          m_aLexH.comment (m_aScratch, 0, length);
+        }
+      }
+      catch (final SAXException se)
+      {
+        m_aErrorHandler.error (se.getMessage (),
+                               instruction.m_sPublicID,
+                               instruction.m_sSystemID,
+                               instruction.lineNo,
+                               instruction.colNo,
+                               se);
+      }
+    }
+  }
+
   /**
    * Creates a CDATA section.
    *
@@ -601,7 +1102,7 @@ public class Emitter
    */
   public boolean isEmitterActive (final IStxEmitter emitter)
   {
-    if (m_aContH == emitter)
+    if (_getTarget () == emitter)
       return true;
     if (m_aPrev != null)
       return m_aPrev.isEmitterActive (emitter);
@@ -641,10 +1142,11 @@ public class Emitter
 
     File hrefFile = null; // the file object representing href
 
-    if (m_aContH instanceof IStxEmitter)
+    final ContentHandler target = _getTarget ();
+    if (target instanceof IStxEmitter)
     {
       // we may extract a base URI
-      final String base = ((IStxEmitter) m_aContH).getSystemId ();
+      final String base = ((IStxEmitter) target).getSystemId ();
       if (base != null)
         hrefFile = new File (new URI (base).resolve (href));
     }
@@ -663,6 +1165,23 @@ public class Emitter
       }
     }
 
+    if (m_aResultWriterPool != null)
+    {
+      // the pool creates missing directories itself
+      Charset charset;
+      try
+      {
+        charset = Charset.forName (encoding);
+      }
+      catch (final IllegalArgumentException e)
+      {
+        final String msg = "Unsupported encoding '" + encoding + "', using " + CSTX.DEFAULT_ENCODING;
+        m_aErrorHandler.warning (msg, publicId, systemId, lineNo, colNo, e);
+        charset = Charset.forName (CSTX.DEFAULT_ENCODING);
+      }
+      return m_aResultWriterPool.createWriter (hrefFile, charset, append);
+    }
+
     // create missing directories
     // (say: simply create them, don't check if there are really missing)
     final String absFilename = hrefFile.getAbsolutePath ();
@@ -0,0 +1,123 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A completely static subtree of literal result elements and text in the
+ * transformation sheet. The events of the subtree are collected once while
+ * compiling the sheet. Its serialized form is computed on first use for every
+ * output encoding and namespace context in which the subtree is emitted, so
+ * {@link Emitter#literalFragment(LiteralFragment, net.sf.joost.instruction.AbstractNodeBase)}
+ * can write it to a stream emitter with a single call.
+ * <p>
+ * Instances are shared between the copies of a transformation sheet, the
+ * cache of serialized forms is thread-safe.
+ *
+ * @author Philip Helger
+ */
+public final class LiteralFragment
+{
+  /** The maximum number of cached serialized forms */
+  private static final int MAX_CACHE_SIZE = 16;
+
+  private final List <SAXEvent> m_aEvents = new ArrayList<> ();
+
+  /**
+   * The prefixes whose bindings in the result document influence the
+   * serialization of this fragment
+   */
+  private final Set <String> m_aPrefixSet = new LinkedHashSet<> ();
+  private String [] m_aPrefixes = new String [0];
+
+  /**
+   * Serialized forms of this fragment, the key consists of the output encoding
+   * followed by the bindings of {@link #m_aPrefixes}
+   */
+  private final Map <List <String>, String> m_aSerialized = new ConcurrentHashMap<> ();
+
+  public void startElement (final String uri,
+                            final String lName,
+                            final String qName,
+                            final Attributes attrs,
+                            final Map <String, String> namespaces)
+  {
+    final int colon = qName.indexOf (':');
+    m_aPrefixSet.add (colon == -1 ? "" : qName.substring (0, colon));
+    if (namespaces != null)
+      m_aPrefixSet.addAll (namespaces.keySet ());
+    m_aEvents.add (SAXEvent.newElement (uri, lName, qName, attrs, false, namespaces));
+    if (m_aPrefixSet.size () != m_aPrefixes.length)
+      m_aPrefixes = m_aPrefixSet.toArray (new String [m_aPrefixSet.size ()]);
+  }
+
+  public void characters (final String s)
+  {
+    m_aEvents.add (SAXEvent.newText (s));
+  }
+
+  public void endElement (final String uri, final String lName, final String qName)
+  {
+    m_aEvents.add (SAXEvent.newElement (uri, lName, qName, null, false, null));
+  }
+
+  /** @return the collected events, must not be modified */
+  List <SAXEvent> getEvents ()
+  {
+    return m_aEvents;
+  }
+
+  /**
+   * @return the prefixes (the empty string for the default namespace) of the
+   *         elements and namespace declarations in this fragment
+   */
+  String [] getPrefixes ()
+  {
+    return m_aPrefixes;
+  }
+
+  /**
+   * @param key
+   *        the encoding and the prefix bindings
+   * @return the cached serialized form or <code>null</code>
+   */
+  String getSerialized (final String [] key)
+  {
+    return m_aSerialized.get (Arrays.asList (key));
+  }
+
+  /**
+   * Stores a serialized form if the cache isn't full yet
+   */
+  void putSerialized (final String [] key, final String serialized)
+  {
+    if (m_aSerialized.size () < MAX_CACHE_SIZE)
+      m_aSerialized.put (Arrays.asList (key), serialized);
+  }
+}
@@ -27,6 +27,8 @@ import javax.xml.transform.URIResolver;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.Locator;
 
+import net.sf.joost.CSTX;
+import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.instruction.TransformFactory;
 import net.sf.joost.stx.function.FunctionFactory;
 
@@ -60,12 +62,29 @@ public final class ParseContext
   /** Are calls on Java extension functions allowed? */
   public boolean allowExternalFunctions = true;
 
+  /** Should the processor check for ambiguous template rules at runtime? */
+  public boolean checkAmbiguousTemplates = true;
+
   /**
    * The function table for maintaining function definitions, especially of the
    * script functions
    */
   private FunctionFactory functionFactory;
 
+  /** The position counters read by pattern predicates */
+  private int m_nPredicateCounters = 0;
+
+  /**
+   * The position counters read by patterns if they set the context position
+   */
+  private int m_nPatternCounters = 0;
+
+  /** Whether the <code>position()</code> function is used */
+  private boolean m_bPositionUsed = false;
+
+  /** Whether the sheet observes nodes in a way that prevents a projection */
+  private boolean m_bProjectionPrevented = false;
+
   //
   // Constructors
   //
@@ -81,6 +100,7 @@ public final class ParseContext
     uriResolver = pContext.uriResolver;
     parserListener = pContext.parserListener;
     allowExternalFunctions = pContext.allowExternalFunctions;
+    checkAmbiguousTemplates = pContext.checkAmbiguousTemplates;
   }
 
   //
@@ -101,6 +121,88 @@ public final class ParseContext
     errorHandler = new ErrorHandlerImpl (errorListener, true);
   }
 
+  /**
+   * Records the position information the passed pattern needs.
+   *
+   * @param pattern
+   *        a parsed pattern
+   */
+  public void analyzePattern (final AbstractTree pattern)
+  {
+    m_nPredicateCounters |= pattern.getPredicateCounters ();
+    m_nPatternCounters |= pattern.getPositionCounters ();
+    if (!m_bPositionUsed)
+      m_bPositionUsed = pattern.callsFunction (CSTX.FUNC_NS, "position");
+    if (!m_bProjectionPrevented)
+      m_bProjectionPrevented = pattern.callsFunction (CSTX.FUNC_NS, "has-child-nodes");
+  }
+
+  /**
+   * Records the position information the passed expression needs.
+   *
+   * @param expr
+   *        a parsed expression
+   */
+  public void analyzeExpression (final AbstractTree expr)
+  {
+    if (!m_bPositionUsed)
+      m_bPositionUsed = expr.callsFunction (CSTX.FUNC_NS, "position");
+    if (!m_bProjectionPrevented)
+      m_bProjectionPrevented = expr.callsFunction (CSTX.FUNC_NS, "has-child-nodes");
+  }
+
+  /**
+   * Records that the transformation sheet passes nodes to an external filter,
+   * which prevents a document projection.
+   */
+  public void preventProjection ()
+  {
+    m_bProjectionPrevented = true;
+  }
+
+  /**
+   * Adds the position information of an included transformation sheet.
+   *
+   * @param includeContext
+   *        the parse context of the included sheet
+   */
+  public void addPositionUsage (final ParseContext includeContext)
+  {
+    m_nPredicateCounters |= includeContext.m_nPredicateCounters;
+    m_nPatternCounters |= includeContext.m_nPatternCounters;
+    m_bPositionUsed |= includeContext.m_bPositionUsed;
+    m_bProjectionPrevented |= includeContext.m_bProjectionPrevented;
+  }
+
+  /**
+   * @return whether the context position must be set when matching templates,
+   *         i.e. whether the <code>position()</code> function is used
+   */
+  public boolean isPositionUsed ()
+  {
+    return m_bPositionUsed;
+  }
+
+  /**
+   * @return the position counters that must be maintained during the
+   *         transformation, a combination of the <code>COUNT_XXX</code>
+   *         constants of {@link SAXEvent}
+   */
+  public int getPositionCounters ()
+  {
+    return m_bPositionUsed ? m_nPredicateCounters | m_nPatternCounters : m_nPredicateCounters;
+  }
+
+  /**
+   * @return whether the transformation sheet may observe nodes in a way that
+   *         prevents a document projection (see
+   *         {@link net.sf.joost.stx.Projection})
+   */
+  public boolean isProjectionPrevented ()
+  {
+    return m_bProjectionPrevented;
+  }
+
   public FunctionFactory getFunctionFactory ()
   {
     if (functionFactory == null)
@@ -72,6 +72,7 @@ import net.sf.joost.instruction.ProcedureFactory;
 import net.sf.joost.instruction.ResultBufferFactory;
 import net.sf.joost.instruction.ResultDocumentFactory;
 import net.sf.joost.instruction.ScriptFactory;
+import net.sf.joost.instruction.StopFactory;
 import net.sf.joost.instruction.TemplateFactory;
 import net.sf.joost.instruction.TextFactory;
 import net.sf.joost.instruction.TextNode;
@@ -189,7 +190,7 @@ public class Parser implements ContentHandler // , ErrorHandler
     stxFactories = createFactoryMap (stxFacs);
 
     // factories for elements from the Joost namespace
-    final AbstractFactoryBase [] joostFacs = { new ScriptFactory () };
+    final AbstractFactoryBase [] joostFacs = { new ScriptFactory (), new StopFactory () };
     joostFactories = createFactoryMap (joostFacs);
 
     litFac = new LitElementFactory ();
@@ -274,6 +275,16 @@ public class Parser implements ContentHandler // , ErrorHandler
     endPrefixMapping ("xml");
     if (includingGroup != null)
       return;
+
+    // all patterns and expressions (including those of included sheets) have
+    // been parsed
+    if (m_aPContext.transformNode != null)
+    {
+      m_aPContext.transformNode.m_nPositionCounters = m_aPContext.getPositionCounters ();
+      m_aPContext.transformNode.m_bSetPosition = m_aPContext.isPositionUsed ();
+      m_aPContext.transformNode.m_bCheckAmbiguousTemplates = m_aPContext.checkAmbiguousTemplates;
+      m_aPContext.transformNode.m_bProjectionPrevented = m_aPContext.isProjectionPrevented ();
+    }
     try
     {
       // call compile() method for those nodes that have requested to
@@ -20,11 +20,12 @@
 package net.sf.joost.stx;
 
 import java.io.IOException;
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
 import java.util.Stack;
 import java.util.Vector;
@@ -46,6 +47,7 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DeclHandler;
 import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.ext.Locator2;
 import org.xml.sax.helpers.NamespaceSupport;
 import org.xml.sax.helpers.XMLFilterImpl;
 import org.xml.sax.helpers.XMLReaderFactory;
@@ -62,6 +64,10 @@ import net.sf.joost.instruction.AbstractProcessBase;
 import net.sf.joost.instruction.PSiblingsFactory;
 import net.sf.joost.instruction.TemplateFactory;
 import net.sf.joost.instruction.TransformFactory;
+import net.sf.joost.stx.helpers.IMutableAttributes;
+import net.sf.joost.util.CharSequenceUtils;
+import net.sf.joost.util.LargeText;
+import net.sf.joost.util.RawInputReader;
 
 /**
  * Processes an XML document as SAX XMLFilter. Actions are contained within an
@@ -96,6 +102,12 @@ public class Processor extends XMLFilterImpl
    */
   private TemplateFactory.Instance [] m_aGlobalTemplates;
 
+  /**
+   * Flags for {@link #m_aGlobalTemplates}: whether a template may be in
+   * conflict with one of its successors having the same priority
+   */
+  private boolean [] m_aGlobalAmbiguities;
+
   /** The Context object */
   private Context m_aContext;
 
@@ -117,8 +129,88 @@ public class Processor extends XMLFilterImpl
    */
   private boolean m_bInsideDTD = false;
 
+  /** The default for {@link #setMaxMatchLength(int)} */
+  public static final int DEFAULT_MAX_MATCH_LENGTH = 1 << 16;
+
+  /**
+   * The number of characters from which on a text node will be kept in a
+   * temporary file, 0 for no limit
+   */
+  private int m_nLargeTextThreshold = 0;
+
+  /** The large text nodes created during the current transformation */
+  private final List <LargeText> m_aLargeTexts = new ArrayList<> ();
+
+  /** The document projection, <code>null</code> if disabled */
+  private Projection m_aProjection;
+
+  /**
+   * The pass-through flags a group needs for copying the content of an
+   * element as read from the source
+   */
+  private static final byte RAW_PASS_THROUGH = PASS_THROUGH_ELEMENT |
+                                               PASS_THROUGH_TEXT |
+                                               PASS_THROUGH_COMMENT |
+                                               PASS_THROUGH_PI;
+
+  /** The size from which on read content will be written in parts */
+  private static final int RAW_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * The source document, if the content of copied elements may be written as
+   * read (see {@link #setRawInput(RawInputReader)})
+   */
+  private RawInputReader m_aRawInput;
+
+  /** The projection of the match patterns, needed for {@link #m_aRawInput} */
+  private Projection m_aRawProjection;
+
+  /**
+   * The projection states of the elements on the event stack, indexed by the
+   * stack size. <code>null</code> means that no template matches a
+   * descendant of the element.
+   */
+  private Projection.State [] m_aRawStates = new Projection.State [32];
+
+  /** The element whose content may be written as read */
+  private SAXEvent m_aRawCandidate;
+
+  /** The offset of the content of {@link #m_aRawCandidate} */
+  private long m_nRawCandidateOffset = -1;
+
+  /**
+   * The offset of the content read that still has to be written, -1 if no
+   * content is being copied
+   */
+  private long m_nRawStart = -1;
+
+  /** The group that copies the current element, if its content is read */
+  private AbstractGroupBase m_aRawGroup;
+
+  /** Set to true if the source document has a document type declaration */
+  private boolean m_bHasDTD = false;
+
+  /**
+   * Set to true while the open elements are closed after
+   * <code>joost:stop</code>
+   */
+  private boolean m_bStopping = false;
+
+  /**
+   * Set to true after <code>joost:stop</code> has completed the
+   * transformation, all further input events will be ignored
+   */
+  private boolean m_bStopped = false;
+
+  /**
+   * Whether the parsing should be aborted by a {@link StoppedException} after
+   * <code>joost:stop</code>, this is the case if this Processor controls the
+   * parsing
+   */
+  private boolean m_bAbortOnStop = false;
+
   /** Buffer for collecting character data into single text nodes */
-  private StringBuffer m_aCollectedCharacters = new StringBuffer ();
+  private TextCollector m_aCollectedCharacters = new TextCollector (0);
 
   /** Last event (this Processor uses one look-ahead) */
   private SAXEvent m_aLastElement = null;
@@ -147,7 +239,7 @@ public class Processor extends XMLFilterImpl
    * the event stack for <code>stx:process-document</code> and character data
    * that has been already read as look-ahead ({@link #m_aCollectedCharacters}).
    */
-  private final Stack <Serializable> m_aInnerProcStack = new Stack<> ();
+  private final Stack <Object> m_aInnerProcStack = new Stack<> ();
 
   public Properties m_aOutputProperties;
 
@@ -312,6 +404,13 @@ public class Processor extends XMLFilterImpl
     private Data [] stack = new Data [32];
     private int objCount = 0;
 
+    /**
+     * For each stx:process-siblings frame the position of the lowest frame in
+     * the run of consecutive stx:process-siblings frames it belongs to, -1 for
+     * all other frames
+     */
+    private int [] siblingsStart = new int [32];
+
     void push (final Data d)
     {
       if (objCount == stack.length)
@@ -319,10 +418,30 @@ public class Processor extends XMLFilterImpl
         final Data [] tmp = new Data [objCount << 1];
         System.arraycopy (stack, 0, tmp, 0, objCount);
         stack = tmp;
+        final int [] tmpStart = new int [objCount << 1];
+        System.arraycopy (siblingsStart, 0, tmpStart, 0, objCount);
+        siblingsStart = tmpStart;
       }
+      if (d.lastProcStatus != CSTX.PR_SIBLINGS)
+        siblingsStart[objCount] = -1;
+      else
+        if (objCount > 0 && siblingsStart[objCount - 1] >= 0)
+          siblingsStart[objCount] = siblingsStart[objCount - 1];
+        else
+          siblingsStart[objCount] = objCount;
       stack[objCount++] = d;
     }
 
+    /**
+     * @return the position of the lowest of the consecutive
+     *         stx:process-siblings frames on the top of this stack, -1 if the
+     *         top frame doesn't belong to an stx:process-siblings
+     */
+    int getSiblingsStart ()
+    {
+      return siblingsStart[objCount - 1];
+    }
+
     Data peek ()
     {
       return stack[objCount - 1];
@@ -454,11 +573,19 @@ public class Processor extends XMLFilterImpl
   {
     final HashMap <Object, Object> copies = new HashMap<> ();
     m_aGlobalTemplates = AbstractInstruction.deepTemplateArrayCopy (proc.m_aGlobalTemplates, copies);
+    m_aGlobalAmbiguities = proc.m_aGlobalAmbiguities;
     init ((TransformFactory.Instance) proc.m_aTransformNode.deepCopy (copies));
     setParent (createXMLReader ());
     setTransformerHandlerResolver (proc.m_aContext.defaultTransformerHandlerResolver.customResolver);
     setOutputURIResolver (proc.m_aContext.outputUriResolver);
-
+    final ResultWriterPool pool = proc.getResultWriterPool ();
+    if (pool != null)
+      setResultWriterPool (pool.copy ());
+    setLargeTextThreshold (proc.m_nLargeTextThreshold);
+    setMaxMatchLength (proc.getMaxMatchLength ());
+    // the projection depends only on the names in the patterns
+    m_aProjection = proc.m_aProjection;
+    m_aRawProjection = proc.m_aRawProjection;
   }
 
   /**
@@ -559,6 +686,7 @@ public class Processor extends XMLFilterImpl
       m_aGlobalTemplates = new TemplateFactory.Instance [tempVec.size ()];
       tempVec.toArray (m_aGlobalTemplates);
       Arrays.sort (m_aGlobalTemplates);
+      m_aGlobalAmbiguities = TemplateFactory.getAmbiguityChecks (m_aGlobalTemplates);
     }
     initOutputProperties ();
   }
@@ -763,6 +891,30 @@ public class Processor extends XMLFilterImpl
     m_aContext.outputUriResolver = resolver;
   }
 
+  /**
+   * Registers a pool that writes the files of <code>stx:result-document</code>
+   * instructions on background threads. The transformation doesn't end before
+   * all files have been written. Copies of this processor get their own pool
+   * with the same parameters. This pool isn't used if an
+   * {@link IOutputURIResolver} provides the result.
+   *
+   * @param pool
+   *        the pool, <code>null</code> for writing the files synchronously
+   */
+  public void setResultWriterPool (final ResultWriterPool pool)
+  {
+    m_aContext.m_aEmitter.m_aResultWriterPool = pool;
+  }
+
+  /**
+   * @return the pool registered with {@link #setResultWriterPool}, may be
+   *         <code>null</code>
+   */
+  public ResultWriterPool getResultWriterPool ()
+  {
+    return m_aContext.m_aEmitter.m_aResultWriterPool;
+  }
+
   /**
    * Registers a message emitter for <code>stx:message</code>
    *
@@ -774,6 +926,210 @@ public class Processor extends XMLFilterImpl
     m_aContext.messageEmitter = emitter;
   }
 
+  /**
+   * Sets the number of characters from which on a text node will be kept in a
+   * temporary file instead of the heap (see {@link LargeText}). Such a text
+   * will be converted into a string only if an expression needs its string
+   * value. <code>stx:analyze-text</code> searches a large text in windows of
+   * bounded size (see {@link #setMaxMatchLength(int)}).
+   *
+   * @param nThreshold
+   *        the number of characters, 0 (the default) for keeping all text
+   *        nodes on the heap
+   */
+  public void setLargeTextThreshold (final int nThreshold)
+  {
+    m_nLargeTextThreshold = nThreshold;
+    m_aCollectedCharacters = new TextCollector (nThreshold, m_aLargeTexts);
+  }
+
+  /**
+   * @return the value set by {@link #setLargeTextThreshold(int)}
+   */
+  public int getLargeTextThreshold ()
+  {
+    return m_nLargeTextThreshold;
+  }
+
+  /**
+   * Sets the maximum length of a match of <code>stx:analyze-text</code> in a
+   * large text node. Longer matches will be truncated. In a large text, an
+   * <code>stx:no-match</code> child may be invoked several times for one
+   * stretch of unmatched text, each time with at most
+   * <code>max(nMaxMatchLength, 65536)</code> characters.
+   *
+   * @param nMaxMatchLength
+   *        the number of characters, defaults to
+   *        {@link #DEFAULT_MAX_MATCH_LENGTH}
+   */
+  public void setMaxMatchLength (final int nMaxMatchLength)
+  {
+    m_aContext.m_nMaxMatchLength = nMaxMatchLength;
+  }
+
+  /**
+   * @return the value set by {@link #setMaxMatchLength(int)}
+   */
+  public int getMaxMatchLength ()
+  {
+    return m_aContext.m_nMaxMatchLength;
+  }
+
+  /**
+   * Enables or disables the document projection. If enabled, the subtrees of
+   * the source document that can't be observed by this transformation sheet
+   * will be dropped before they reach the processor (see {@link Projection}).
+   * The projection is only possible if no group passes unmatched nodes through,
+   * no external filter is used and the <code>has-child-nodes()</code> function
+   * isn't called.
+   *
+   * @param bDocumentProjection
+   *        <code>true</code> for analyzing the transformation sheet
+   * @see #getProjection()
+   */
+  public void setDocumentProjection (final boolean bDocumentProjection)
+  {
+    m_aProjection = bDocumentProjection ? Projection.create (m_aTransformNode) : null;
+  }
+
+  /**
+   * @return the projection that should be applied to the source document by
+   *         means of a {@link ProjectionFilter}, <code>null</code> if it is
+   *         disabled or not possible for this transformation sheet
+   */
+  public Projection getProjection ()
+  {
+    return m_aProjection;
+  }
+
+  /**
+   * Sets the source document for the next transformation, such that the
+   * content of elements that are only copied will be written as it has been
+   * read, without processing its events. This applies to the content of an
+   * element that is copied by a group with <code>pass-through="all"</code>
+   * and without <code>strip-space</code>, if no template matches any of its
+   * descendants. The result handler must be an
+   * {@link net.sf.joost.emitter.XmlEmitter} (see
+   * {@link Emitter#isRawContentAllowed(java.util.Map, String)}), and the
+   * source document mustn't have a document type declaration, since its
+   * entities and default attributes would be lost.
+   *
+   * @param aRawInput
+   *        the reader that is passed as character stream to the parser of
+   *        this Processor, <code>null</code> for processing all events
+   */
+  public void setRawInput (final RawInputReader aRawInput)
+  {
+    m_aRawInput = aRawInput;
+    if (aRawInput != null && m_aRawProjection == null)
+      m_aRawProjection = Projection.createForPassThrough (m_aTransformNode);
+  }
+
+  /**
+   * @return the offset of the current parser position in
+   *         {@link #m_aRawInput}, -1 if it is unknown
+   */
+  private long _getRawOffset ()
+  {
+    final Locator locator = m_aContext.locator;
+    if (locator == null)
+      return -1;
+    return m_aRawInput.getOffset (locator.getLineNumber (), locator.getColumnNumber ());
+  }
+
+  /**
+   * Determines whether the content of the element just read (in
+   * {@link #m_aLastElement}) may be written as read.
+   */
+  private void _setRawCandidate (final String uri, final String lName)
+  {
+    m_aRawCandidate = null;
+    if (!m_aInnerProcStack.empty ())
+      return;
+
+    final int depth = m_aEventStack.size ();
+    if (depth + 1 == m_aRawStates.length)
+      m_aRawStates = Arrays.copyOf (m_aRawStates, m_aRawStates.length * 2);
+    final Projection.State parent = m_aRawStates[depth];
+    m_aRawStates[depth + 1] = parent == null ? null : parent.getChild (uri, lName);
+
+    // the parser position must be right after the start tag
+    final long offset = _getRawOffset ();
+    if (offset > 0 && m_aRawInput.getChar (offset - 1) == '>')
+    {
+      m_aRawCandidate = m_aLastElement;
+      m_nRawCandidateOffset = offset;
+      m_aRawInput.discard (offset);
+    }
+  }
+
+  /**
+   * Starts copying the content of the current element as read, if possible.
+   *
+   * @return <code>true</code> if the events of the content will be skipped
+   */
+  private boolean _startRawContent (final SAXEvent event, final AbstractGroupBase tg)
+  {
+    m_aRawCandidate = null;
+    if ((tg.m_nPassThrough & RAW_PASS_THROUGH) != RAW_PASS_THROUGH ||
+        tg.m_bStripSpace ||
+        m_bHasDTD ||
+        m_aRawStates[m_aEventStack.size ()] != null ||
+        !m_aInnerProcStack.empty () ||
+        m_aContext.targetHandler != null ||
+        !m_aContext.m_aEmitter.isRawContentAllowed (event.m_aNamespaces, m_aRawInput.getEncoding ()))
+      return false;
+    // XML 1.1 has additional line breaks
+    if (m_aContext.locator instanceof Locator2 && "1.1".equals (((Locator2) m_aContext.locator).getXMLVersion ()))
+      return false;
+
+    m_nSkipDepth = 1;
+    m_aCollectedCharacters.clear ();
+    m_bInsideCDATA = false;
+    m_nRawStart = m_nRawCandidateOffset;
+    m_aRawGroup = tg;
+    return true;
+  }
+
+  /**
+   * Writes the content read so far if it exceeds {@link #RAW_CHUNK_SIZE}
+   */
+  private void _flushRawContent () throws SAXException
+  {
+    final long offset = _getRawOffset ();
+    if (offset - m_nRawStart >= RAW_CHUNK_SIZE)
+    {
+      m_aContext.m_aEmitter.rawContent (m_aRawInput.getText (m_nRawStart, offset), m_aRawGroup);
+      m_nRawStart = offset;
+      m_aRawInput.discard (offset);
+    }
+  }
+
+  /**
+   * Writes the rest of the content read and closes the element.
+   */
+  private void _endRawContent (final String uri, final String lName, final String qName) throws SAXException
+  {
+    final AbstractGroupBase group = m_aRawGroup;
+    m_aRawGroup = null;
+    if (m_nRawStart >= 0)
+    {
+      // the parser position must be right after the end tag, whose start is
+      // the last '<'; an empty-element tag has no content
+      final long end = _getRawOffset ();
+      long contentEnd = end;
+      if (end > m_nRawStart)
+        contentEnd = m_aRawInput.getChar (end - 1) == '>' ? m_aRawInput.lastIndexOf ('<', m_nRawStart, end) : -1;
+      if (contentEnd < m_nRawStart)
+        throw new SAXException ("Lost the position of the content of '" + qName + "' in the source document");
+      if (contentEnd > m_nRawStart)
+        m_aContext.m_aEmitter.rawContent (m_aRawInput.getText (m_nRawStart, contentEnd), group);
+      m_aRawInput.discard (end);
+      m_nRawStart = -1;
+    }
+    m_aContext.m_aEmitter.endElement (uri, lName, qName, group);
+  }
+
   /**
    * Starts the inner processing of a new buffer or another document by saving
    * the text data already read and jumping to the targetted group (if
@@ -782,8 +1138,8 @@ public class Processor extends XMLFilterImpl
   public void startInnerProcessing ()
   {
     // there might be characters already read
-    m_aInnerProcStack.push (m_aCollectedCharacters.toString ());
-    m_aCollectedCharacters.setLength (0);
+    m_aInnerProcStack.push (m_aCollectedCharacters);
+    m_aCollectedCharacters = new TextCollector (m_nLargeTextThreshold, m_aLargeTexts);
     m_aInnerProcStack.push (m_aInScopeNamespaces);
     initNamespaces ();
     // possible jump to another group (changed visibleTemplates)
@@ -808,7 +1164,7 @@ public class Processor extends XMLFilterImpl
     // remove Data object from startInnerProcessing()
     m_aContext.localVars = dataStack.pop ().localVars;
     m_aInScopeNamespaces = (Hashtable <String, String>) m_aInnerProcStack.pop ();
-    m_aCollectedCharacters.append (m_aInnerProcStack.pop ());
+    m_aCollectedCharacters = (TextCollector) m_aInnerProcStack.pop ();
   }
 
   /**
@@ -843,6 +1199,7 @@ public class Processor extends XMLFilterImpl
   {
     TemplateFactory.Instance found = null;
     TemplateFactory.Instance [] category = null;
+    int catIndex = -1;
     int tempIndex = -1;
 
     final Data top = dataStack.peek ();
@@ -859,10 +1216,12 @@ public class Processor extends XMLFilterImpl
     // look up for a matching template in the categories
     for (int i = 0; i < precCats.length && category == null; i++)
       for (int j = 0; j < precCats[i].length; j++)
-        if (precCats[i][j].matches (m_aContext, true) && (notSelf || foundUnprocessedTemplate (precCats[i][j])))
+        if (precCats[i][j].matches (m_aContext, m_aTransformNode.m_bSetPosition) &&
+            (notSelf || foundUnprocessedTemplate (precCats[i][j])))
         {
           // bingo!
           category = precCats[i];
+          catIndex = i;
           tempIndex = j;
           break;
         }
@@ -871,9 +1230,18 @@ public class Processor extends XMLFilterImpl
     { // means, we found a template
       found = category[tempIndex];
       final double priority = found.getPriority ();
+      // only templates whose patterns may overlap with a following template
+      // need to be checked (determined while compiling the transformation
+      // sheet)
+      final boolean [] ambiguities = catIndex == 0 ? top.targetGroup.m_aVisibleAmbiguities
+                                                   : catIndex == 1 ? top.targetGroup.m_aGroupAmbiguities
+                                                                   : m_aGlobalAmbiguities;
       // look for more templates with the same priority in the same
       // category
-      if (++tempIndex < category.length && priority == category[tempIndex].getPriority ())
+      if (m_aTransformNode.m_bCheckAmbiguousTemplates &&
+          (ambiguities == null || ambiguities[tempIndex]) &&
+          ++tempIndex < category.length &&
+          priority == category[tempIndex].getPriority ())
       {
         for (; tempIndex < category.length && priority == category[tempIndex].getPriority (); tempIndex++)
         {
@@ -1014,7 +1382,7 @@ public class Processor extends XMLFilterImpl
           if (event.m_nType == SAXEvent.ELEMENT || event.m_nType == SAXEvent.ROOT)
           {
             m_nSkipDepth = 1;
-            m_aCollectedCharacters.setLength (0); // clear text
+            m_aCollectedCharacters.clear (); // clear text
             m_bInsideCDATA = false; // reset if there was a CDATA section
           }
           break;
@@ -1029,10 +1397,8 @@ public class Processor extends XMLFilterImpl
             startExternDocument ();
             if (m_aCollectedCharacters.length () > 0)
             {
-              m_aContext.targetHandler.characters (m_aCollectedCharacters.toString ().toCharArray (),
-                                                   0,
-                                                   m_aCollectedCharacters.length ());
-              m_aCollectedCharacters.setLength (0);
+              _filterCharacters (m_aCollectedCharacters.getText ());
+              m_aCollectedCharacters.clear ();
             }
             m_nSkipDepth = 1;
           }
@@ -1057,14 +1423,14 @@ public class Processor extends XMLFilterImpl
 
               case SAXEvent.TEXT:
                 startExternDocument ();
-                m_aContext.targetHandler.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length ());
+                _filterCharacters (event.getValueSequence ());
                 endExternDocument ();
                 break;
 
               case SAXEvent.CDATA:
                 startExternDocument ();
                 m_aContext.targetHandler.startCDATA ();
-                m_aContext.targetHandler.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length ());
+                _filterCharacters (event.getValueSequence ());
                 m_aContext.targetHandler.endCDATA ();
                 endExternDocument ();
                 break;
@@ -1143,7 +1509,7 @@ public class Processor extends XMLFilterImpl
           {
             // end of template reached, skip contents
             m_nSkipDepth = 1;
-            m_aCollectedCharacters.setLength (0); // clear text
+            m_aCollectedCharacters.clear (); // clear text
           }
           dataStack.push (new Data (CSTX.PR_SIBLINGS, temp, inst, currentParams, m_aContext, event));
           break;
@@ -1174,19 +1540,23 @@ public class Processor extends XMLFilterImpl
 
         case SAXEvent.ELEMENT:
           if ((tg.m_nPassThrough & PASS_THROUGH_ELEMENT) != 0)
+          {
             emitter.startElement (event.m_sURI,
                                   event.m_sLocalName,
                                   event.m_sQName,
                                   event.m_aAttrs,
                                   event.m_aNamespaces,
                                   tg);
+            if (event == m_aRawCandidate && _startRawContent (event, tg))
+              break;
+          }
           dataStack.push (new Data (dataStack.peek ()));
           break;
 
         case SAXEvent.TEXT:
           if ((tg.m_nPassThrough & PASS_THROUGH_TEXT) != 0)
           {
-            emitter.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), tg);
+            emitter.characters (event.getValueSequence (), tg);
           }
           break;
 
@@ -1194,14 +1564,14 @@ public class Processor extends XMLFilterImpl
           if ((tg.m_nPassThrough & PASS_THROUGH_TEXT) != 0)
           {
             emitter.startCDATA (tg);
-            emitter.characters (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), tg);
+            emitter.characters (event.getValueSequence (), tg);
             emitter.endCDATA ();
           }
           break;
 
         case SAXEvent.COMMENT:
           if ((tg.m_nPassThrough & PASS_THROUGH_COMMENT) != 0)
-            emitter.comment (event.m_sValue.toCharArray (), 0, event.m_sValue.length (), tg);
+            emitter.comment (event.m_sValue, tg);
           break;
 
         case SAXEvent.PI:
@@ -1231,8 +1601,8 @@ public class Processor extends XMLFilterImpl
         log.debug (m_aLastElement.toString ());
 
     // determine if the look-ahead is a text node
-    final String s = m_aCollectedCharacters.toString ();
-    if (s.length () == 0 || (m_aContext.targetGroup.m_bStripSpace && s.trim ().length () == 0))
+    if (m_aCollectedCharacters.length () == 0 ||
+        (m_aContext.targetGroup.m_bStripSpace && m_aCollectedCharacters.isWhitespace ()))
     {
       if (hasChildren)
         m_aLastElement.enableChildNodes (true);
@@ -1240,25 +1610,42 @@ public class Processor extends XMLFilterImpl
     else
     {
       // set string value of the last element
-      m_aLastElement.m_sValue = s;
+      m_aLastElement.setValue (m_aCollectedCharacters.getText ());
       m_aLastElement.enableChildNodes (true);
     }
 
     // put last element on the event stack
-    m_aEventStack.peek ().countElement (m_aLastElement.m_sURI, m_aLastElement.m_sLocalName);
+    m_aEventStack.peek ().countElement (m_aLastElement.m_sURI,
+                                        m_aLastElement.m_sLocalName,
+                                        m_aTransformNode.m_nPositionCounters);
     m_aEventStack.push (m_aLastElement);
 
     m_aLastElement = null;
     processEvent ();
   }
 
+  /**
+   * Passes a text to the handler of the current filter. A large text is passed
+   * in chunks.
+   */
+  private void _filterCharacters (final CharSequence s) throws SAXException
+  {
+    if (s instanceof LargeText)
+      ((LargeText) s).characters (m_aContext.targetHandler);
+    else
+    {
+      final char [] ch = CharSequenceUtils.toCharArray (s);
+      m_aContext.targetHandler.characters (ch, 0, ch.length);
+    }
+  }
+
   /**
    * Process a text node (from several consecutive <code>characters</code>
    * events)
    */
   private void processCharacters () throws SAXException
   {
-    final String s = m_aCollectedCharacters.toString ();
+    final CharSequence s = m_aCollectedCharacters.getText ();
 
     if (CSTX.DEBUG)
       if (log.isDebugEnabled ())
@@ -1269,30 +1656,30 @@ public class Processor extends XMLFilterImpl
       if (m_bInsideCDATA)
       {
         m_aContext.targetHandler.startCDATA ();
-        m_aContext.targetHandler.characters (s.toCharArray (), 0, s.length ());
+        _filterCharacters (s);
         m_aContext.targetHandler.endCDATA ();
       }
       else
-        m_aContext.targetHandler.characters (s.toCharArray (), 0, s.length ());
-      m_aCollectedCharacters.setLength (0);
+        _filterCharacters (s);
+      m_aCollectedCharacters.clear ();
       return;
     }
 
-    if (m_aContext.targetGroup.m_bStripSpace && s.trim ().length () == 0)
+    if (m_aContext.targetGroup.m_bStripSpace && m_aCollectedCharacters.isWhitespace ())
     {
-      m_aCollectedCharacters.setLength (0);
+      m_aCollectedCharacters.clear ();
       return; // white-space only characters found, do nothing
     }
 
     SAXEvent ev;
     if (m_bInsideCDATA)
     {
-      m_aEventStack.peek ().countCDATA ();
+      m_aEventStack.peek ().countCDATA (m_aTransformNode.m_nPositionCounters);
       ev = SAXEvent.newCDATA (s);
     }
     else
     {
-      m_aEventStack.peek ().countText ();
+      m_aEventStack.peek ().countText (m_aTransformNode.m_nPositionCounters);
       ev = SAXEvent.newText (s);
     }
 
@@ -1300,7 +1687,7 @@ public class Processor extends XMLFilterImpl
     processEvent ();
     m_aEventStack.pop ();
 
-    m_aCollectedCharacters.setLength (0);
+    m_aCollectedCharacters.clear ();
   }
 
   /**
@@ -1347,23 +1734,32 @@ public class Processor extends XMLFilterImpl
     do
     {
       // check, if one of the last consecutive stx:process-siblings
-      // terminates
-      int stackPos = dataStack.size () - 1;
-      Data data = dataStack.peek ();
+      // terminates; the lowest one that terminates terminates all
+      // stx:process-siblings above it as well
+      final int startPos = dataStack.getSiblingsStart ();
+      final int topPos = dataStack.size () - 1;
       final Hashtable <String, Value> storedVars = m_aContext.localVars;
       stopData = null;
-      do
+      for (int stackPos = startPos; stackPos <= topPos; stackPos++)
       {
-        m_aContext.localVars = data.localVars;
-        if (!data.psiblings.matches (m_aContext))
+        final Data data = dataStack.elementAt (stackPos);
+        if (data.psiblings.hasConditions ())
         {
-          stopData = data;
-          stopPos = stackPos;
+          m_aContext.localVars = data.localVars;
+          if (!data.psiblings.matches (m_aContext))
+          {
+            stopData = data;
+            stopPos = stackPos;
+            break;
+          }
         }
-        data = dataStack.elementAt (--stackPos);
-      } while (data.lastProcStatus == CSTX.PR_SIBLINGS);
+      }
       m_aContext.localVars = storedVars;
-      if (stopData != null) // the first of the non-matching process-sibs
+      // as if the conditions of all frames had been checked from the top
+      final PSiblingsFactory.Instance lowest = dataStack.elementAt (startPos).psiblings;
+      m_aContext.currentInstruction = lowest;
+      m_aContext.currentGroup = lowest.getParentGroup ();
+      if (stopData != null)
         clearProcessSiblings (stopData, false);
       // If after clearing the process siblings instructions there is
       // a new PR_SIBLINGS on the stack, its match conditions must
@@ -1381,13 +1777,9 @@ public class Processor extends XMLFilterImpl
   private void clearProcessSiblings () throws SAXException
   {
     // find last of these consecutive stx:process-siblings instructions
-    Data data, stopData = null;
-    for (int i = dataStack.size () - 1; (data = dataStack.elementAt (i)).lastProcStatus == CSTX.PR_SIBLINGS; i--)
-    {
-      stopData = data;
-    }
-    if (stopData != null) // yep, found at least one
-      clearProcessSiblings (stopData, true);
+    final int startPos = dataStack.getSiblingsStart ();
+    if (startPos >= 0) // yep, found at least one
+      clearProcessSiblings (dataStack.elementAt (startPos), true);
   }
 
   /**
@@ -1482,8 +1874,8 @@ public class Processor extends XMLFilterImpl
       // will remove it
       m_aNamespaceContext.push (m_aNamespaceContext.peek ());
       // postpone the processing of character data
-      final StringBuffer postponedCharacters = m_aCollectedCharacters;
-      m_aCollectedCharacters = new StringBuffer ();
+      final TextCollector postponedCharacters = m_aCollectedCharacters;
+      m_aCollectedCharacters = new TextCollector (m_nLargeTextThreshold, m_aLargeTexts);
       endElement (selfEvent.m_sURI, selfEvent.m_sLocalName, selfEvent.m_sQName);
       m_aCollectedCharacters = postponedCharacters;
     }
@@ -1588,12 +1980,122 @@ public class Processor extends XMLFilterImpl
     }
   }
 
+  /**
+   * Parses the source document and performs the transformation. The parsing
+   * ends early if <code>joost:stop</code> has been encountered.
+   */
+  @Override
+  public void parse (final InputSource input) throws IOException, SAXException
+  {
+    m_bAbortOnStop = true;
+    try
+    {
+      super.parse (input);
+    }
+    catch (final StoppedException ex)
+    {
+      // the result is complete, the rest of the input isn't needed
+    }
+    finally
+    {
+      m_bAbortOnStop = false;
+    }
+  }
+
+  /**
+   * Determines whether the parsing should be aborted after
+   * <code>joost:stop</code> (used by {@link ProcessorPipeline})
+   */
+  void setAbortOnStop (final boolean bAbortOnStop)
+  {
+    m_bAbortOnStop = bAbortOnStop;
+  }
+
+  /**
+   * @return whether <code>joost:stop</code> has completed the transformation
+   */
+  public boolean isStopped ()
+  {
+    return m_bStopped;
+  }
+
+  /**
+   * Completes the transformation after <code>joost:stop</code>. The input
+   * following the event that caused the stop request will be ignored: all
+   * open elements will be closed and the document will be ended, such that
+   * templates waiting in <code>stx:process-children</code> can finish their
+   * work. Stop requests during the processing of a buffer or of another
+   * document, or within a subtree passed to an external filter, take effect
+   * with the next event of the principal input afterwards.
+   *
+   * @return <code>true</code> if the current event must be ignored
+   * @throws StoppedException
+   *         if the transformation has been completed now and this Processor
+   *         controls the parsing
+   */
+  private boolean _isStopped () throws SAXException
+  {
+    if (!m_aContext.m_bStopRequested)
+      return false;
+    if (m_bStopped)
+      return true;
+    if (m_bStopping || !m_aInnerProcStack.empty () || m_aContext.targetHandler != null)
+      return false;
+
+    m_bStopping = true;
+    try
+    {
+      // forget the events that have been read after the stop request
+      m_aCollectedCharacters.clear ();
+      m_bInsideCDATA = false;
+      if (m_aLastElement != null || nsContextActive)
+      {
+        // undo the namespace context of an element not processed yet
+        m_aLastElement = null;
+        nsContextActive = false;
+        m_aInScopeNamespaces = m_aNamespaceContext.pop ();
+      }
+      // skipped descendants of the current node produce no output
+      if (m_nSkipDepth > 1)
+        m_nSkipDepth = 1;
+      m_nRawStart = -1;
+
+      while (m_aEventStack.size () > 1)
+      {
+        final SAXEvent event = m_aEventStack.peek ();
+        endElement (event.m_sURI, event.m_sLocalName, event.m_sQName);
+      }
+      endDocument ();
+    }
+    finally
+    {
+      m_bStopping = false;
+    }
+    m_bStopped = true;
+
+    if (m_bAbortOnStop)
+      throw new StoppedException ();
+    return true;
+  }
+
   // **********************************************************************
 
   //
   // from interface ContentHandler
   //
 
+  /**
+   * Releases the large text nodes of the current transformation. They might
+   * have been stored in variables or buffers, so this can be done only when
+   * the transformation is complete.
+   */
+  private void _releaseLargeTexts ()
+  {
+    for (final LargeText aText : m_aLargeTexts)
+      aText.close ();
+    m_aLargeTexts.clear ();
+  }
+
   @Override
   public void startDocument () throws SAXException
   {
@@ -1601,6 +2103,17 @@ public class Processor extends XMLFilterImpl
     // not at the begin of processing another document
     if (m_aInnerProcStack.empty ())
     {
+      m_aContext.m_bStopRequested = false;
+      m_bStopped = false;
+      m_bHasDTD = false;
+      m_aRawCandidate = null;
+      m_nRawStart = -1;
+      m_aRawGroup = null;
+      if (m_aRawInput != null)
+        m_aRawStates[1] = m_aRawProjection.getRoot ();
+      // texts left over by an aborted transformation
+      _releaseLargeTexts ();
+
       // initialize all group stx:variables
       m_aTransformNode.initGroupVariables (m_aContext);
       m_aContext.m_aEmitter.startDocument ();
@@ -1619,6 +2132,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void endDocument () throws SAXException
   {
+    if (_isStopped ())
+      return;
+
     if (m_aCollectedCharacters.length () != 0)
       processCharacters ();
 
@@ -1698,7 +2214,25 @@ public class Processor extends XMLFilterImpl
         if (m_aInnerProcStack.empty ())
         {
           m_aTransformNode.exitRecursionLevel (m_aContext);
+          final ResultWriterPool pool = m_aContext.m_aEmitter.m_aResultWriterPool;
+          if (pool != null)
+          {
+            try
+            {
+              pool.awaitCompletion ();
+            }
+            catch (final IOException ex)
+            {
+              m_aContext.m_aErrorHandler.error (ex.toString (),
+                                                m_aTransformNode.m_sPublicID,
+                                                m_aTransformNode.m_sSystemID,
+                                                m_aTransformNode.lineNo,
+                                                m_aTransformNode.colNo,
+                                                ex);
+            }
+          }
           m_aContext.m_aEmitter.endDocument (m_aTransformNode);
+          _releaseLargeTexts ();
         }
         else
           m_aEventStack = m_aContext.ancestorStack = (Stack <SAXEvent>) m_aInnerProcStack.pop ();
@@ -1714,6 +2248,34 @@ public class Processor extends XMLFilterImpl
                             final String qName,
                             final Attributes attrs) throws SAXException
   {
+    _startElement (uri, lName, qName, attrs, false);
+  }
+
+  /**
+   * Receives the start of an element from the {@link Emitter} of a preceding
+   * processor in the same pipeline. The passed attributes object will be used
+   * for the element node without copying it.
+   *
+   * @param attrs
+   *        the attributes, the caller mustn't use this object afterwards
+   */
+  public void startAdoptedElement (final String uri,
+                                   final String lName,
+                                   final String qName,
+                                   final IMutableAttributes attrs) throws SAXException
+  {
+    _startElement (uri, lName, qName, attrs, true);
+  }
+
+  private void _startElement (final String uri,
+                              final String lName,
+                              final String qName,
+                              final Attributes attrs,
+                              final boolean adoptAttrs) throws SAXException
+  {
+    if (_isStopped ())
+      return;
+
     if (CSTX.DEBUG)
       if (log.isDebugEnabled ())
       {
@@ -1734,10 +2296,16 @@ public class Processor extends XMLFilterImpl
       m_nSkipDepth++;
       if (m_aContext.targetHandler != null)
         m_aContext.targetHandler.startElement (uri, lName, qName, attrs);
+      else
+        if (m_nRawStart >= 0)
+          _flushRawContent ();
       return;
     }
 
-    m_aLastElement = SAXEvent.newElement (uri, lName, qName, attrs, false, m_aInScopeNamespaces);
+    m_aLastElement = adoptAttrs ? SAXEvent.newElement (uri, lName, qName, (IMutableAttributes) attrs, m_aInScopeNamespaces)
+                                : SAXEvent.newElement (uri, lName, qName, attrs, false, m_aInScopeNamespaces);
+    if (m_aRawInput != null)
+      _setRawCandidate (uri, lName);
 
     if (!nsContextActive)
     {
@@ -1750,6 +2318,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void endElement (final String uri, final String lName, final String qName) throws SAXException
   {
+    if (_isStopped ())
+      return;
+
     if (CSTX.DEBUG)
       if (log.isDebugEnabled ())
       {
@@ -1849,6 +2420,9 @@ public class Processor extends XMLFilterImpl
         if (m_nSkipDepth == 0)
           endExternDocument ();
       }
+      else
+        if (m_nSkipDepth == 0 && m_aRawGroup != null)
+          _endRawContent (uri, lName, qName);
     }
 
     if (m_nSkipDepth == 0)
@@ -1869,15 +2443,47 @@ public class Processor extends XMLFilterImpl
   @Override
   public void characters (final char [] ch, final int start, final int length) throws SAXException
   {
+    if (_isStopped ())
+      return;
+
     if (m_nSkipDepth > 0)
     {
       if (m_aContext.targetHandler != null)
         m_aContext.targetHandler.characters (ch, start, length);
+      else
+        if (m_nRawStart >= 0)
+          _flushRawContent ();
       return;
     }
+    if (m_aRawInput != null && m_aLastElement == null && m_aInnerProcStack.empty ())
+      m_aRawInput.discard (_getRawOffset ());
     m_aCollectedCharacters.append (ch, start, length);
   }
 
+  /**
+   * Receives characters from the {@link Emitter} of a preceding processor in
+   * the same pipeline, without copying them into an array first.
+   *
+   * @param chars
+   *        the characters, won't be referenced after this method returns
+   */
+  public void characters (final CharSequence chars) throws SAXException
+  {
+    if (_isStopped ())
+      return;
+
+    if (m_nSkipDepth > 0)
+    {
+      if (m_aContext.targetHandler != null)
+        _filterCharacters (chars);
+      else
+        if (m_nRawStart >= 0)
+          _flushRawContent ();
+      return;
+    }
+    m_aCollectedCharacters.append (chars);
+  }
+
   @Override
   public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
   {
@@ -1887,7 +2493,7 @@ public class Processor extends XMLFilterImpl
   @Override
   public void processingInstruction (final String target, final String data) throws SAXException
   {
-    if (m_bInsideDTD)
+    if (m_bInsideDTD || _isStopped ())
       return;
 
     if (m_aLastElement != null)
@@ -1904,7 +2510,7 @@ public class Processor extends XMLFilterImpl
     }
 
     // don't modify the event stack after process-self
-    m_aEventStack.peek ().countPI (target);
+    m_aEventStack.peek ().countPI (target, m_aTransformNode.m_nPositionCounters);
 
     m_aEventStack.push (SAXEvent.newPI (target, data));
 
@@ -1916,6 +2522,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void startPrefixMapping (final String prefix, final String uri) throws SAXException
   {
+    if (_isStopped ())
+      return;
+
     if (m_aLastElement != null)
       processLastElement (true);
 
@@ -1941,6 +2550,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void endPrefixMapping (final String prefix) throws SAXException
   {
+    if (_isStopped ())
+      return;
+
     if (m_aContext.targetHandler != null)
       m_aContext.targetHandler.endPrefixMapping (prefix);
   }
@@ -1965,6 +2577,7 @@ public class Processor extends XMLFilterImpl
   public void startDTD (final String name, final String publicId, final String systemId)
   {
     m_bInsideDTD = true;
+    m_bHasDTD = true;
   }
 
   public void endDTD ()
@@ -1980,7 +2593,7 @@ public class Processor extends XMLFilterImpl
 
   public void startCDATA () throws SAXException
   {
-    if (!m_aContext.targetGroup.m_bRecognizeCdata)
+    if (!m_aContext.targetGroup.m_bRecognizeCdata || _isStopped ())
       return;
 
     if (CSTX.DEBUG)
@@ -2011,7 +2624,7 @@ public class Processor extends XMLFilterImpl
 
   public void endCDATA () throws SAXException
   {
-    if (!m_aContext.targetGroup.m_bRecognizeCdata)
+    if (!m_aContext.targetGroup.m_bRecognizeCdata || _isStopped ())
       return;
 
     if (m_nSkipDepth > 0)
@@ -2035,7 +2648,7 @@ public class Processor extends XMLFilterImpl
       if (log.isDebugEnabled ())
         log.debug (new String (ch, start, length));
 
-    if (m_bInsideDTD)
+    if (m_bInsideDTD || _isStopped ())
       return;
 
     if (m_aLastElement != null)
@@ -2052,7 +2665,7 @@ public class Processor extends XMLFilterImpl
     }
 
     // don't modify the event stack after process-self
-    m_aEventStack.peek ().countComment ();
+    m_aEventStack.peek ().countComment (m_aTransformNode.m_nPositionCounters);
 
     m_aEventStack.push (SAXEvent.newComment (new String (ch, start, length)));
 
@@ -2115,6 +2728,20 @@ public class Processor extends XMLFilterImpl
     return this.m_aLastElement;
   }
 
+  /**
+   * Aborts the parsing after <code>joost:stop</code> has completed the
+   * transformation
+   */
+  static final class StoppedException extends SAXException
+  {
+    private static final long serialVersionUID = 1L;
+
+    StoppedException ()
+    {
+      super ("Transformation completed by joost:stop");
+    }
+  }
+
   // **********************************************************************
 
   // private static long maxUsed = 0;
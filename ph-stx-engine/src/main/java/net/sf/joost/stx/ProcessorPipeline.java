@@ -0,0 +1,503 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+import net.sf.joost.emitter.CompactEventBuffer;
+import net.sf.joost.util.SpscRingBuffer;
+
+/**
+ * Runs a transformation in three pipelined stages on separate threads: XML
+ * parsing, STX processing and serialization. The stages are connected by
+ * bounded {@link SpscRingBuffer}s that carry batches of events in the format of
+ * {@link CompactEventBuffer}, plus document type declarations. A full buffer blocks the preceding stage, and an
+ * exception in one stage aborts the other stages and is rethrown by
+ * {@link #transform(XMLReader, InputSource, ContentHandler, LexicalHandler)}.
+ * <p>
+ * Parsing and processing run on new threads, serialization (i.e. calling the
+ * result handlers) happens on the calling thread. Since the processor sees
+ * the source document only via the buffered events, its context contains no
+ * {@link Locator} for the source document during a pipelined transformation.
+ *
+ * @author Philip Helger
+ */
+public final class ProcessorPipeline
+{
+  private static final Logger log = LoggerFactory.getLogger (ProcessorPipeline.class);
+
+  /** Default number of events per batch */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  /** Default number of batches a ring buffer between two stages can hold */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  /** Marks the end of the event stream */
+  private static final Object END_OF_DOCUMENT = new Object ();
+
+  private final Processor m_aProcessor;
+  private int m_nBatchSize = DEFAULT_BATCH_SIZE;
+  private int m_nCapacity = DEFAULT_CAPACITY;
+
+  /**
+   * @param aProcessor
+   *        the processor that performs the transformation; it mustn't be used
+   *        by other threads during a transformation
+   */
+  public ProcessorPipeline (@Nonnull final Processor aProcessor)
+  {
+    m_aProcessor = aProcessor;
+  }
+
+  /**
+   * @param nBatchSize
+   *        the number of events that will be collected before they are passed
+   *        to the next stage
+   */
+  public void setBatchSize (@Nonnegative final int nBatchSize)
+  {
+    if (nBatchSize <= 0)
+      throw new IllegalArgumentException ("Illegal batch size " + nBatchSize);
+    m_nBatchSize = nBatchSize;
+  }
+
+  /**
+   * @param nCapacity
+   *        the maximum number of batches that may wait between two stages
+   */
+  public void setCapacity (@Nonnegative final int nCapacity)
+  {
+    if (nCapacity <= 0)
+      throw new IllegalArgumentException ("Illegal capacity " + nCapacity);
+    m_nCapacity = nCapacity;
+  }
+
+  /**
+   * Performs a pipelined transformation.
+   *
+   * @param aReader
+   *        the XML reader that parses the source document
+   * @param aInput
+   *        the source document
+   * @param aContH
+   *        the content handler for the result
+   * @param aLexH
+   *        the lexical handler for the result, may be <code>null</code>
+   * @throws SAXException
+   *         if one of the stages failed
+   * @throws IOException
+   *         if the source document couldn't be read
+   */
+  public void transform (@Nonnull final XMLReader aReader,
+                         @Nonnull final InputSource aInput,
+                         @Nonnull final ContentHandler aContH,
+                         final LexicalHandler aLexH) throws SAXException, IOException
+  {
+    final SpscRingBuffer <Object> aSourceEvents = new SpscRingBuffer<> (m_nCapacity);
+    final SpscRingBuffer <Object> aResultEvents = new SpscRingBuffer<> (m_nCapacity);
+    final AtomicReference <Throwable> aError = new AtomicReference<> ();
+    final AtomicBoolean aStopped = new AtomicBoolean ();
+
+    final BatchWriter aSourceWriter = new BatchWriter (aSourceEvents, m_nBatchSize);
+    final BatchWriter aResultWriter = new BatchWriter (aResultEvents, m_nBatchSize);
+    aReader.setContentHandler (aSourceWriter);
+    _setLexicalHandler (aReader, aSourceWriter);
+    m_aProcessor.setContentHandler (aResultWriter);
+    m_aProcessor.setLexicalHandler (aResultWriter);
+
+    final Thread aParserThread = new AbstractStage ("joost-pipeline-parser", aError, aSourceEvents, aResultEvents)
+    {
+      @Override
+      protected void runStage () throws Exception
+      {
+        try
+        {
+          aReader.parse (aInput);
+        }
+        catch (final SAXException ex)
+        {
+          // after joost:stop the processor doesn't need further events
+          if (!aStopped.get ())
+            throw ex;
+        }
+      }
+    };
+    final Thread aProcessorThread = new AbstractStage ("joost-pipeline-processor", aError, aSourceEvents, aResultEvents)
+    {
+      @Override
+      protected void runStage () throws Exception
+      {
+        m_aProcessor.setAbortOnStop (true);
+        try
+        {
+          m_aProcessor.startDocument ();
+          if (_replay (aSourceEvents, m_aProcessor, m_aProcessor))
+            m_aProcessor.endDocument ();
+        }
+        catch (final Processor.StoppedException ex)
+        {
+          // the result is complete, only the parser has to be stopped
+          aStopped.set (true);
+          aSourceEvents.abort ();
+        }
+        finally
+        {
+          m_aProcessor.setAbortOnStop (false);
+        }
+      }
+    };
+
+    try
+    {
+      aParserThread.start ();
+      aProcessorThread.start ();
+      try
+      {
+        // serialization
+        aContH.startDocument ();
+        if (_replay (aResultEvents, aContH, aLexH))
+          aContH.endDocument ();
+      }
+      catch (final Throwable t)
+      {
+        _fail (aError, t, aSourceEvents, aResultEvents);
+      }
+      _join (aParserThread);
+      _join (aProcessorThread);
+    }
+    finally
+    {
+      // restore the default connections
+      aReader.setContentHandler (m_aProcessor);
+      _setLexicalHandler (aReader, m_aProcessor);
+      m_aProcessor.setContentHandler (aContH);
+      m_aProcessor.setLexicalHandler (aLexH);
+    }
+
+    final Throwable t = aError.get ();
+    if (t != null)
+    {
+      if (t instanceof SAXException)
+        throw (SAXException) t;
+      if (t instanceof IOException)
+        throw (IOException) t;
+      if (t instanceof RuntimeException)
+        throw (RuntimeException) t;
+      if (t instanceof Error)
+        throw (Error) t;
+      throw new SAXException ((Exception) t);
+    }
+  }
+
+  private static void _setLexicalHandler (final XMLReader aReader, final LexicalHandler aLexH)
+  {
+    try
+    {
+      aReader.setProperty ("http://xml.org/sax/properties/lexical-handler", aLexH);
+    }
+    catch (final SAXException ex)
+    {
+      log.warn ("Accessing " + aReader + ": " + ex);
+    }
+  }
+
+  private static void _join (final Thread aThread)
+  {
+    boolean bInterrupted = false;
+    while (aThread.isAlive ())
+      try
+      {
+        aThread.join ();
+      }
+      catch (final InterruptedException ex)
+      {
+        bInterrupted = true;
+      }
+    if (bInterrupted)
+      Thread.currentThread ().interrupt ();
+  }
+
+  /**
+   * Records the first error and aborts all stages
+   */
+  static void _fail (final AtomicReference <Throwable> aError,
+                     final Throwable t,
+                     final SpscRingBuffer <?> aBuffer1,
+                     final SpscRingBuffer <?> aBuffer2)
+  {
+    // subsequent errors (including AbortedException) are consequences
+    aError.compareAndSet (null, t);
+    aBuffer1.abort ();
+    aBuffer2.abort ();
+  }
+
+  /**
+   * Passes all batches from a buffer to the handlers.
+   *
+   * @return <code>true</code> if the end of the document was reached,
+   *         <code>false</code> if the buffer has been aborted
+   */
+  static boolean _replay (final SpscRingBuffer <Object> aBuffer,
+                          final ContentHandler aContH,
+                          final LexicalHandler aLexH) throws SAXException
+  {
+    Object aBatch;
+    while ((aBatch = aBuffer.take ()) != null)
+    {
+      if (aBatch == END_OF_DOCUMENT)
+        return true;
+      if (aBatch instanceof CompactEventBuffer.Snapshot)
+        ((CompactEventBuffer.Snapshot) aBatch).replay (aContH, aLexH);
+      else
+        if (aLexH != null)
+        {
+          final DocType aDocType = (DocType) aBatch;
+          aLexH.startDTD (aDocType.m_sName, aDocType.m_sPublicId, aDocType.m_sSystemId);
+          aLexH.endDTD ();
+        }
+    }
+    return false;
+  }
+
+  // ********************************************************************
+
+  /** Signals that a stage stopped because another stage failed */
+  private static final class AbortedException extends SAXException
+  {
+    private static final long serialVersionUID = 1L;
+
+    AbortedException ()
+    {
+      super ("Pipeline has been aborted");
+    }
+  }
+
+  /** A document type declaration, passed as separate item */
+  private static final class DocType
+  {
+    final String m_sName;
+    final String m_sPublicId;
+    final String m_sSystemId;
+
+    DocType (final String sName, final String sPublicId, final String sSystemId)
+    {
+      m_sName = sName;
+      m_sPublicId = sPublicId;
+      m_sSystemId = sSystemId;
+    }
+  }
+
+  /**
+   * A thread that runs one stage and records its failure
+   */
+  private abstract static class AbstractStage extends Thread
+  {
+    private final AtomicReference <Throwable> m_aError;
+    private final SpscRingBuffer <?> m_aBuffer1;
+    private final SpscRingBuffer <?> m_aBuffer2;
+
+    AbstractStage (final String sName,
+                   final AtomicReference <Throwable> aError,
+                   final SpscRingBuffer <?> aBuffer1,
+                   final SpscRingBuffer <?> aBuffer2)
+    {
+      super (sName);
+      setDaemon (true);
+      m_aError = aError;
+      m_aBuffer1 = aBuffer1;
+      m_aBuffer2 = aBuffer2;
+    }
+
+    protected abstract void runStage () throws Exception;
+
+    @Override
+    public final void run ()
+    {
+      try
+      {
+        runStage ();
+      }
+      catch (final Throwable t)
+      {
+        _fail (m_aError, t, m_aBuffer1, m_aBuffer2);
+      }
+    }
+  }
+
+  /**
+   * Collects SAX events in batches and passes them to a ring buffer
+   */
+  private static final class BatchWriter implements ContentHandler, LexicalHandler
+  {
+    private final SpscRingBuffer <Object> m_aBuffer;
+    private final int m_nBatchSize;
+    private final CompactEventBuffer m_aEvents = new CompactEventBuffer ();
+    /** the contents of the current CDATA section, <code>null</code> outside */
+    private StringBuilder m_aCDATA;
+    private DocType m_aDocType;
+
+    BatchWriter (final SpscRingBuffer <Object> aBuffer, final int nBatchSize)
+    {
+      m_aBuffer = aBuffer;
+      m_nBatchSize = nBatchSize;
+    }
+
+    private void _put (final Object aBatch) throws SAXException
+    {
+      if (!m_aBuffer.put (aBatch))
+        throw new AbortedException ();
+    }
+
+    private void _flush () throws SAXException
+    {
+      if (m_aEvents.getEventCount () != 0)
+      {
+        _put (m_aEvents.snapshot ());
+        m_aEvents.clear ();
+      }
+    }
+
+    private void _added () throws SAXException
+    {
+      if (m_aEvents.getEventCount () >= m_nBatchSize)
+        _flush ();
+    }
+
+    public void setDocumentLocator (final Locator locator)
+    {}
+
+    public void startDocument () throws SAXException
+    {}
+
+    public void endDocument () throws SAXException
+    {
+      _flush ();
+      _put (END_OF_DOCUMENT);
+    }
+
+    public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+    {
+      m_aEvents.startPrefixMapping (prefix, uri);
+      _added ();
+    }
+
+    public void endPrefixMapping (final String prefix) throws SAXException
+    {
+      m_aEvents.endPrefixMapping (prefix);
+      _added ();
+    }
+
+    public void startElement (final String uri,
+                              final String localName,
+                              final String qName,
+                              final Attributes atts) throws SAXException
+    {
+      m_aEvents.startElement (uri, localName, qName, atts);
+      _added ();
+    }
+
+    public void endElement (final String uri, final String localName, final String qName) throws SAXException
+    {
+      m_aEvents.endElement (uri, localName, qName);
+      _added ();
+    }
+
+    public void characters (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aCDATA != null)
+        m_aCDATA.append (ch, start, length);
+      else
+      {
+        m_aEvents.characters (SAXEvent.TEXT, ch, start, length);
+        _added ();
+      }
+    }
+
+    public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+    {
+      characters (ch, start, length);
+    }
+
+    public void processingInstruction (final String target, final String data) throws SAXException
+    {
+      m_aEvents.processingInstruction (target, data);
+      _added ();
+    }
+
+    public void skippedEntity (final String name)
+    {}
+
+    public void startDTD (final String name, final String publicId, final String systemId)
+    {
+      m_aDocType = new DocType (name, publicId, systemId);
+    }
+
+    public void endDTD () throws SAXException
+    {
+      _flush ();
+      _put (m_aDocType);
+      m_aDocType = null;
+    }
+
+    public void startEntity (final String name)
+    {}
+
+    public void endEntity (final String name)
+    {}
+
+    public void startCDATA ()
+    {
+      m_aCDATA = new StringBuilder ();
+    }
+
+    public void endCDATA () throws SAXException
+    {
+      // one event for the whole section, even if the characters were reported
+      // in several chunks
+      m_aEvents.characters (SAXEvent.CDATA, m_aCDATA);
+      m_aCDATA = null;
+      _added ();
+    }
+
+    public void comment (final char [] ch, final int start, final int length) throws SAXException
+    {
+      // comments of the DTD are not part of the document
+      if (m_aDocType != null)
+        return;
+      m_aEvents.characters (SAXEvent.COMMENT, ch, start, length);
+      _added ();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.instruction.AbstractGroupBase;
+import net.sf.joost.instruction.TemplateFactory;
+import net.sf.joost.instruction.TransformFactory;
+
+/**
+ * The result of the projection analysis of a transformation sheet. STX can't
+ * look into the subtree of an element: a subtree is only observed by templates
+ * that match its nodes and by the pass-through rules. If no match pattern can
+ * match any node below an element (known from the names of the element and its
+ * ancestors) and nothing is passed through, all descendants of this element
+ * may be dropped without changing the result. The element itself is kept, so
+ * the positions of its following siblings remain correct.
+ * <p>
+ * The match patterns are translated into an automaton over element names.
+ * Each {@link State} represents the steps that the children of an element may
+ * match; the states and their transitions are created on demand and shared by
+ * all threads. A {@link ProjectionFilter} applies a projection to a parser.
+ * <p>
+ * Projection is impossible if a group passes through unmatched nodes, if a
+ * <code>filter-method</code> or <code>filter-src</code> hands a subtree to an
+ * external filter, or if the <code>has-child-nodes()</code> function is used.
+ *
+ * @author Philip Helger
+ */
+public final class Projection
+{
+  /** The state of the children of an element that can't be observed */
+  private static final State DEAD = new State (null, new BitSet ());
+
+  /** One step of a match pattern */
+  private static final class Step
+  {
+    /** the node test of the step */
+    final AbstractTree m_aTest;
+    /** whether elements may occur between the previous step and this step */
+    final boolean m_bDescendant;
+    /** whether this is the last step of its pattern */
+    boolean m_bLast;
+
+    Step (final AbstractTree aTest, final boolean bDescendant)
+    {
+      m_aTest = aTest;
+      m_bDescendant = bDescendant;
+    }
+
+    boolean matchesElement (final String sURI, final String sLocalName)
+    {
+      switch (m_aTest.getType ())
+      {
+        case AbstractTree.NAME_TEST:
+          return m_aTest.m_sURI.equals (sURI) && m_aTest.m_sLocalName.equals (sLocalName);
+        case AbstractTree.URI_WILDCARD:
+          return m_aTest.m_sLocalName.equals (sLocalName);
+        case AbstractTree.LOCAL_WILDCARD:
+          return m_aTest.m_sURI.equals (sURI);
+        case AbstractTree.TEXT_TEST:
+        case AbstractTree.CDATA_TEST:
+        case AbstractTree.COMMENT_TEST:
+        case AbstractTree.PI_TEST:
+        case AbstractTree.ATTR:
+        case AbstractTree.ATTR_WILDCARD:
+        case AbstractTree.ATTR_URI_WILDCARD:
+        case AbstractTree.ATTR_LOCAL_WILDCARD:
+          return false;
+        default:
+          // "*", "node()" or something unexpected
+          return true;
+      }
+    }
+  }
+
+  /**
+   * The set of pattern steps that may be matched by the children of an
+   * element (or by deeper descendants, if the step allows this)
+   */
+  public static final class State
+  {
+    private final Projection m_aProjection;
+    private final BitSet m_aSteps;
+    private final ConcurrentHashMap <String, ConcurrentHashMap <String, State>> m_aTransitions = new ConcurrentHashMap<> ();
+
+    State (final Projection aProjection, final BitSet aSteps)
+    {
+      m_aProjection = aProjection;
+      m_aSteps = aSteps;
+    }
+
+    /**
+     * Determines the state for a child element.
+     *
+     * @param sURI
+     *        the namespace URI of the child
+     * @param sLocalName
+     *        the local name of the child
+     * @return the state of the child, <code>null</code> if the descendants of
+     *         the child can't be observed
+     */
+    @Nullable
+    public State getChild (@Nonnull final String sURI, @Nonnull final String sLocalName)
+    {
+      final State aChild = m_aTransitions.computeIfAbsent (sURI, k -> new ConcurrentHashMap<> ())
+                                         .computeIfAbsent (sLocalName,
+                                                           k -> m_aProjection._getState (m_aProjection._next (m_aSteps,
+                                                                                                              sURI,
+                                                                                                              sLocalName)));
+      return aChild == DEAD ? null : aChild;
+    }
+  }
+
+  private final Step [] m_aSteps;
+  private final ConcurrentHashMap <BitSet, State> m_aStates = new ConcurrentHashMap<> ();
+  private final State m_aRoot;
+
+  private Projection (final List <Step> aSteps, final BitSet aStart)
+  {
+    m_aSteps = aSteps.toArray (new Step [aSteps.size ()]);
+    m_aRoot = _getState (aStart);
+  }
+
+  /**
+   * Analyzes a compiled transformation sheet.
+   *
+   * @param aTransformNode
+   *        the root node of the transformation sheet
+   * @return the projection for this sheet, <code>null</code> if the sheet
+   *         doesn't allow a projection
+   */
+  @Nullable
+  public static Projection create (@Nonnull final TransformFactory.Instance aTransformNode)
+  {
+    if (aTransformNode.m_bProjectionPrevented)
+      return null;
+    final List <Step> aSteps = new ArrayList<> ();
+    final BitSet aStart = new BitSet ();
+    if (!_addGroup (aTransformNode, aSteps, aStart, true))
+      return null;
+    return new Projection (aSteps, aStart);
+  }
+
+  /**
+   * Analyzes only the match patterns of a compiled transformation sheet. A
+   * subtree without observable nodes in this projection won't be seen by any
+   * template, but the pass-through rules of the groups may still copy it.
+   *
+   * @param aTransformNode
+   *        the root node of the transformation sheet
+   * @return the projection of the match patterns
+   */
+  @Nonnull
+  public static Projection createForPassThrough (@Nonnull final TransformFactory.Instance aTransformNode)
+  {
+    final List <Step> aSteps = new ArrayList<> ();
+    final BitSet aStart = new BitSet ();
+    _addGroup (aTransformNode, aSteps, aStart, false);
+    return new Projection (aSteps, aStart);
+  }
+
+  private static boolean _addGroup (final AbstractGroupBase aGroup,
+                                    final List <Step> aSteps,
+                                    final BitSet aStart,
+                                    final boolean bCheckPassThrough)
+  {
+    if (bCheckPassThrough && aGroup.m_nPassThrough != Processor.PASS_THROUGH_NONE)
+      return false;
+    for (final TemplateFactory.Instance aTemplate : aGroup.getVisibleTemplates ())
+      _addPattern (aTemplate.getMatchPattern (), aSteps, aStart);
+    for (final AbstractGroupBase aContained : aGroup.getContainedGroups ())
+      if (!_addGroup (aContained, aSteps, aStart, bCheckPassThrough))
+        return false;
+    return true;
+  }
+
+  private static void _addPattern (final AbstractTree aPattern, final List <Step> aSteps, final BitSet aStart)
+  {
+    if (aPattern.getType () == AbstractTree.UNION)
+    {
+      _addPattern (aPattern.m_aLeft, aSteps, aStart);
+      _addPattern (aPattern.m_aRight, aSteps, aStart);
+      return;
+    }
+
+    // the steps are the right subtrees from the last to the first one
+    final List <Step> aPath = new ArrayList<> ();
+    AbstractTree aTree = aPattern;
+    while (aTree.getType () == AbstractTree.CHILD || aTree.getType () == AbstractTree.DESC)
+    {
+      aPath.add (0, new Step (_getNodeTest (aTree.m_aRight), aTree.getType () == AbstractTree.DESC));
+      aTree = aTree.m_aLeft;
+    }
+    // a relative pattern may match at any depth
+    if (aTree.getType () != AbstractTree.ROOT)
+      aPath.add (0, new Step (_getNodeTest (aTree), true));
+    if (aPath.isEmpty ())
+      return; // "/" matches only the document node
+
+    aPath.get (aPath.size () - 1).m_bLast = true;
+    aStart.set (aSteps.size ());
+    aSteps.addAll (aPath);
+  }
+
+  private static AbstractTree _getNodeTest (final AbstractTree aStep)
+  {
+    AbstractTree aTest = aStep;
+    while (aTest.getType () == AbstractTree.PREDICATE)
+      aTest = aTest.m_aLeft;
+    return aTest;
+  }
+
+  /** @return the steps that may be matched by the children of a child */
+  private BitSet _next (final BitSet aSteps, final String sURI, final String sLocalName)
+  {
+    final BitSet aNext = new BitSet ();
+    for (int i = aSteps.nextSetBit (0); i >= 0; i = aSteps.nextSetBit (i + 1))
+    {
+      final Step aStep = m_aSteps[i];
+      if (aStep.m_bDescendant)
+        aNext.set (i);
+      if (!aStep.m_bLast && aStep.matchesElement (sURI, sLocalName))
+        aNext.set (i + 1);
+    }
+    return aNext;
+  }
+
+  private State _getState (final BitSet aSteps)
+  {
+    if (aSteps.isEmpty ())
+      return DEAD;
+    return m_aStates.computeIfAbsent (aSteps, k -> new State (this, k));
+  }
+
+  /**
+   * @return the state of the document node, <code>null</code> if no element
+   *         can be observed
+   */
+  @Nullable
+  public State getRoot ()
+  {
+    return m_aRoot == DEAD ? null : m_aRoot;
+  }
+}
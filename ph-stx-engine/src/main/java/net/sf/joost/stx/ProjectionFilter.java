@@ -0,0 +1,242 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Applies a {@link Projection} to the events of a parser: the descendants of
+ * elements whose subtrees can't be observed by the transformation are dropped
+ * before they reach the {@link Processor}. Once an element has been found
+ * irrelevant, its subtree is skipped by counting the element depth only.
+ *
+ * @author Philip Helger
+ */
+public final class ProjectionFilter extends XMLFilterImpl implements LexicalHandler
+{
+  private static final Logger log = LoggerFactory.getLogger (ProjectionFilter.class);
+
+  private static final String PROP_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+  private final Projection m_aProjection;
+  private LexicalHandler m_aLexH;
+
+  /**
+   * the states of the open elements that are passed on, <code>null</code> for
+   * an element whose children are dropped
+   */
+  private final List <Projection.State> m_aStates = new ArrayList<> ();
+
+  /** the number of open elements that are dropped */
+  private int m_nDropDepth = 0;
+
+  /**
+   * @param aProjection
+   *        the projection of the transformation sheet
+   * @param aParent
+   *        the parser
+   */
+  public ProjectionFilter (@Nonnull final Projection aProjection, @Nonnull final XMLReader aParent)
+  {
+    super (aParent);
+    m_aProjection = aProjection;
+  }
+
+  /** @return whether the current event has to be dropped */
+  private boolean _isDropping ()
+  {
+    return m_nDropDepth > 0 || m_aStates.get (m_aStates.size () - 1) == null;
+  }
+
+  @Override
+  public void setProperty (final String name, final Object value) throws SAXNotRecognizedException,
+                                                                  SAXNotSupportedException
+  {
+    if (PROP_LEXICAL_HANDLER.equals (name))
+      m_aLexH = (LexicalHandler) value;
+    else
+      super.setProperty (name, value);
+  }
+
+  @Override
+  public Object getProperty (final String name) throws SAXNotRecognizedException, SAXNotSupportedException
+  {
+    if (PROP_LEXICAL_HANDLER.equals (name))
+      return m_aLexH;
+    return super.getProperty (name);
+  }
+
+  @Override
+  public void parse (final InputSource input) throws SAXException, IOException
+  {
+    try
+    {
+      getParent ().setProperty (PROP_LEXICAL_HANDLER, this);
+    }
+    catch (final SAXException ex)
+    {
+      log.warn ("Accessing " + getParent () + ": " + ex);
+    }
+    super.parse (input);
+  }
+
+  //
+  // ContentHandler
+  //
+
+  @Override
+  public void startDocument () throws SAXException
+  {
+    m_aStates.clear ();
+    m_aStates.add (m_aProjection.getRoot ());
+    m_nDropDepth = 0;
+    super.startDocument ();
+  }
+
+  @Override
+  public void startElement (final String uri,
+                            final String localName,
+                            final String qName,
+                            final Attributes atts) throws SAXException
+  {
+    if (_isDropping ())
+    {
+      m_nDropDepth++;
+      return;
+    }
+    m_aStates.add (m_aStates.get (m_aStates.size () - 1).getChild (uri, localName));
+    super.startElement (uri, localName, qName, atts);
+  }
+
+  @Override
+  public void endElement (final String uri, final String localName, final String qName) throws SAXException
+  {
+    if (m_nDropDepth > 0)
+    {
+      m_nDropDepth--;
+      return;
+    }
+    m_aStates.remove (m_aStates.size () - 1);
+    super.endElement (uri, localName, qName);
+  }
+
+  @Override
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (!_isDropping ())
+      super.characters (ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (!_isDropping ())
+      super.ignorableWhitespace (ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    if (!_isDropping ())
+      super.processingInstruction (target, data);
+  }
+
+  @Override
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    if (!_isDropping ())
+      super.startPrefixMapping (prefix, uri);
+  }
+
+  @Override
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    if (!_isDropping ())
+      super.endPrefixMapping (prefix);
+  }
+
+  @Override
+  public void skippedEntity (final String name) throws SAXException
+  {
+    if (!_isDropping ())
+      super.skippedEntity (name);
+  }
+
+  //
+  // LexicalHandler
+  //
+
+  public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+  {
+    if (m_aLexH != null)
+      m_aLexH.startDTD (name, publicId, systemId);
+  }
+
+  public void endDTD () throws SAXException
+  {
+    if (m_aLexH != null)
+      m_aLexH.endDTD ();
+  }
+
+  public void startEntity (final String name) throws SAXException
+  {
+    if (m_aLexH != null && !_isDropping ())
+      m_aLexH.startEntity (name);
+  }
+
+  public void endEntity (final String name) throws SAXException
+  {
+    if (m_aLexH != null && !_isDropping ())
+      m_aLexH.endEntity (name);
+  }
+
+  public void startCDATA () throws SAXException
+  {
+    if (m_aLexH != null && !_isDropping ())
+      m_aLexH.startCDATA ();
+  }
+
+  public void endCDATA () throws SAXException
+  {
+    if (m_aLexH != null && !_isDropping ())
+      m_aLexH.endCDATA ();
+  }
+
+  public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_aLexH != null && !_isDropping ())
+      m_aLexH.comment (ch, start, length);
+  }
+}
@@ -0,0 +1,446 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Writes the files of <code>stx:result-document</code> instructions on
+ * background threads. The writers returned by
+ * {@link #createWriter(File, Charset, boolean)} collect the serialized
+ * document in memory. Small documents are passed to the pool in batches when
+ * they are closed, large documents in chunks while they are being written. The
+ * pool threads encode the characters and write them to the files, so the
+ * transformation thread performs no file I/O. The files are not forced to the
+ * storage device. All chunks of a document are encoded by the same
+ * {@link CharsetEncoder}, and a chunk never ends within a surrogate pair.
+ * Thus a byte order mark is written only once per document.
+ * <p>
+ * The number of threads is also the maximum number of files that are open at
+ * the same time, since each write operation opens and closes its file. Writes
+ * to the same file are executed in the order of their creation. The number of
+ * batches and chunks waiting for a thread is bounded; if the bound is reached
+ * the transformation thread waits until a write operation has finished, which
+ * limits the memory used for pending output.
+ * <p>
+ * Except for the pool threads, an instance must only be used by the thread
+ * that executes the transformation. I/O errors of the pool threads are
+ * reported by the next {@link #createWriter(File, Charset, boolean)} or
+ * {@link #awaitCompletion()} invocation.
+ *
+ * @author Philip Helger
+ */
+public final class ResultWriterPool
+{
+  /** Default number of characters that are passed to the pool at once */
+  public static final int DEFAULT_CHUNK_SIZE = 0x10000;
+
+  /** Default number of batches and chunks that may wait for a thread */
+  public static final int DEFAULT_MAX_PENDING = 256;
+
+  /** Idle pool threads terminate after this number of seconds */
+  private static final int KEEP_ALIVE_SECONDS = 5;
+
+  private static final AtomicInteger s_aThreadCounter = new AtomicInteger ();
+
+  private final int m_nThreads;
+  private final int m_nMaxPending;
+  private final int m_nChunkSize;
+  private final ThreadPoolExecutor m_aExecutor;
+  private final Semaphore m_aPending;
+  private final AtomicReference <IOException> m_aError = new AtomicReference<> ();
+
+  /** the last write operation of each file */
+  private final Map <File, CompletableFuture <Void>> m_aLastWrites = new HashMap<> ();
+  private int m_nPruneThreshold = 1024;
+
+  /** closed small documents that haven't been passed to the pool yet */
+  private final List <DocumentWriter> m_aBatch = new ArrayList<> ();
+  private final Set <File> m_aBatchFiles = new HashSet<> ();
+  private int m_nBatchSize = 0;
+
+  /**
+   * @param nThreads
+   *        the number of pool threads, i.e. the maximum number of open files
+   */
+  public ResultWriterPool (@Nonnegative final int nThreads)
+  {
+    this (nThreads, DEFAULT_MAX_PENDING, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param nThreads
+   *        the number of pool threads, i.e. the maximum number of open files
+   * @param nMaxPending
+   *        the maximum number of batches and chunks waiting for a thread
+   * @param nChunkSize
+   *        the number of characters that will be passed to the pool at once;
+   *        documents up to this size are written in batches
+   */
+  public ResultWriterPool (@Nonnegative final int nThreads,
+                           @Nonnegative final int nMaxPending,
+                           @Nonnegative final int nChunkSize)
+  {
+    if (nThreads < 1 || nMaxPending < 1 || nChunkSize < 1)
+      throw new IllegalArgumentException ("The pool parameters must be positive");
+    m_nThreads = nThreads;
+    m_nMaxPending = nMaxPending;
+    m_nChunkSize = nChunkSize;
+    m_aPending = new Semaphore (nMaxPending);
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          KEEP_ALIVE_SECONDS,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue <Runnable> (),
+                                          r -> {
+                                            final Thread t = new Thread (r,
+                                                                         "Joost result writer " +
+                                                                            s_aThreadCounter.incrementAndGet ());
+                                            t.setDaemon (true);
+                                            return t;
+                                          });
+    m_aExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  /**
+   * @return a new pool with the same parameters as this one
+   */
+  @Nonnull
+  public ResultWriterPool copy ()
+  {
+    return new ResultWriterPool (m_nThreads, m_nMaxPending, m_nChunkSize);
+  }
+
+  /**
+   * Creates a writer for a result document.
+   *
+   * @param aFile
+   *        the target file; missing directories will be created
+   * @param aCharset
+   *        the encoding of the file
+   * @param bAppend
+   *        whether the document should be appended to an existing file
+   * @return a new writer, which must be closed after the document has been
+   *         written
+   * @throws IOException
+   *         if a previous write operation failed
+   */
+  @Nonnull
+  public Writer createWriter (@Nonnull final File aFile,
+                              @Nonnull final Charset aCharset,
+                              final boolean bAppend) throws IOException
+  {
+    _checkError ();
+    return new DocumentWriter (aFile, aCharset, bAppend);
+  }
+
+  /**
+   * Waits until all documents created so far have been written.
+   *
+   * @throws IOException
+   *         the first error of a write operation
+   */
+  public void awaitCompletion () throws IOException
+  {
+    _flushBatch ();
+    final CompletableFuture <?> [] aWrites = m_aLastWrites.values ().toArray (new CompletableFuture <?> [0]);
+    m_aLastWrites.clear ();
+    try
+    {
+      CompletableFuture.allOf (aWrites).join ();
+    }
+    catch (final CompletionException ex)
+    {
+      // write operations don't throw, see _submit
+      throw new IllegalStateException (ex);
+    }
+    _checkError ();
+  }
+
+  private void _checkError () throws IOException
+  {
+    final IOException ex = m_aError.getAndSet (null);
+    if (ex != null)
+      throw ex;
+  }
+
+  /**
+   * Passes a write operation to the pool, after all previous write operations
+   * for the passed files
+   */
+  private void _submit (final Set <File> aFiles, final WriteTask aTask) throws IOException
+  {
+    final List <CompletableFuture <Void>> aPrevious = new ArrayList<> ();
+    for (final File aFile : aFiles)
+    {
+      final CompletableFuture <Void> aLast = m_aLastWrites.get (aFile);
+      if (aLast != null && !aLast.isDone ())
+        aPrevious.add (aLast);
+    }
+
+    try
+    {
+      m_aPending.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IOException ("Interrupted while waiting for the result writer pool", ex);
+    }
+
+    final Runnable aRunnable = () -> {
+      try
+      {
+        aTask.write ();
+      }
+      catch (final IOException ex)
+      {
+        m_aError.compareAndSet (null, ex);
+      }
+      catch (final RuntimeException ex)
+      {
+        m_aError.compareAndSet (null, new IOException (ex));
+      }
+      finally
+      {
+        m_aPending.release ();
+      }
+    };
+
+    final CompletableFuture <Void> aWrite;
+    if (aPrevious.isEmpty ())
+      aWrite = CompletableFuture.runAsync (aRunnable, m_aExecutor);
+    else
+      if (aPrevious.size () == 1)
+        aWrite = aPrevious.get (0).thenRunAsync (aRunnable, m_aExecutor);
+      else
+        aWrite = CompletableFuture.allOf (aPrevious.toArray (new CompletableFuture <?> [aPrevious.size ()]))
+                                  .thenRunAsync (aRunnable, m_aExecutor);
+
+    if (m_aLastWrites.size () >= m_nPruneThreshold)
+    {
+      m_aLastWrites.values ().removeIf (CompletableFuture::isDone);
+      m_nPruneThreshold = Math.max (1024, m_aLastWrites.size () * 2);
+    }
+    for (final File aFile : aFiles)
+      m_aLastWrites.put (aFile, aWrite);
+  }
+
+  private void _flushBatch () throws IOException
+  {
+    if (m_aBatch.isEmpty ())
+      return;
+    final DocumentWriter [] aDocs = m_aBatch.toArray (new DocumentWriter [m_aBatch.size ()]);
+    final Set <File> aFiles = new HashSet<> (m_aBatchFiles);
+    m_aBatch.clear ();
+    m_aBatchFiles.clear ();
+    m_nBatchSize = 0;
+    _submit (aFiles, () -> {
+      for (final DocumentWriter aDoc : aDocs)
+        _writeFile (aDoc.m_aFile, aDoc.m_aEncoder, aDoc.m_aText, aDoc.m_bAppend, true);
+    });
+  }
+
+  /**
+   * Executed by a pool thread
+   *
+   * @param bEndOfInput
+   *        whether <code>aText</code> is the last part of the document
+   */
+  static void _writeFile (final File aFile,
+                          final CharsetEncoder aEncoder,
+                          final CharSequence aText,
+                          final boolean bAppend,
+                          final boolean bEndOfInput) throws IOException
+  {
+    FileOutputStream aFOS;
+    try
+    {
+      aFOS = new FileOutputStream (aFile, bAppend);
+    }
+    catch (final FileNotFoundException ex)
+    {
+      // create missing directories (maybe concurrently with another thread)
+      // and try again
+      final File aParent = aFile.getAbsoluteFile ().getParentFile ();
+      if (aParent == null || !(aParent.mkdirs () || aParent.isDirectory ()))
+        throw ex;
+      aFOS = new FileOutputStream (aFile, bAppend);
+    }
+    try (final FileChannel aChannel = aFOS.getChannel ())
+    {
+      final CharBuffer aChars = CharBuffer.wrap (aText);
+      final ByteBuffer aBytes = ByteBuffer.allocate ((int) Math.min (aText.length () *
+                                                                     (double) aEncoder.averageBytesPerChar (),
+                                                                     0x10000) +
+                                                     16);
+      // the encoder keeps its state (e.g. whether the byte order mark has been
+      // written) between the chunks of a document
+      while (aEncoder.encode (aChars, aBytes, bEndOfInput).isOverflow ())
+        _drain (aChannel, aBytes);
+      if (bEndOfInput)
+        while (aEncoder.flush (aBytes).isOverflow ())
+          _drain (aChannel, aBytes);
+      _drain (aChannel, aBytes);
+    }
+    finally
+    {
+      aFOS.close ();
+    }
+  }
+
+  private static void _drain (final FileChannel aChannel, final ByteBuffer aBytes) throws IOException
+  {
+    aBytes.flip ();
+    while (aBytes.hasRemaining ())
+      aChannel.write (aBytes);
+    aBytes.clear ();
+  }
+
+  /** A write operation executed by a pool thread */
+  private interface WriteTask
+  {
+    void write () throws IOException;
+  }
+
+  /**
+   * Collects the characters of a document
+   */
+  private final class DocumentWriter extends Writer
+  {
+    final File m_aFile;
+    /** used by the pool threads one after the other */
+    final CharsetEncoder m_aEncoder;
+    /** whether the next write operation appends to the file */
+    boolean m_bAppend;
+    StringBuilder m_aText = new StringBuilder ();
+    private boolean m_bClosed = false;
+
+    DocumentWriter (final File aFile, final Charset aCharset, final boolean bAppend)
+    {
+      m_aFile = aFile;
+      // replace unmappable characters like Charset.encode
+      m_aEncoder = aCharset.newEncoder ()
+                           .onMalformedInput (CodingErrorAction.REPLACE)
+                           .onUnmappableCharacter (CodingErrorAction.REPLACE);
+      m_bAppend = bAppend;
+    }
+
+    private void _ensureOpen () throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("Writer closed");
+    }
+
+    /** Passes the collected characters of a large document to the pool */
+    private void _submitChunk () throws IOException
+    {
+      if (m_aBatchFiles.contains (m_aFile))
+        _flushBatch ();
+      final StringBuilder aText = m_aText;
+      final boolean bAppend = m_bAppend;
+      m_aText = new StringBuilder (m_nChunkSize + (m_nChunkSize >> 2));
+      // don't separate the characters of a surrogate pair
+      final int nLast = aText.length () - 1;
+      if (Character.isHighSurrogate (aText.charAt (nLast)))
+      {
+        m_aText.append (aText.charAt (nLast));
+        aText.setLength (nLast);
+      }
+      _submit (Collections.singleton (m_aFile), () -> _writeFile (m_aFile, m_aEncoder, aText, bAppend, false));
+      m_bAppend = true;
+    }
+
+    @Override
+    public void write (final char [] cbuf, final int off, final int len) throws IOException
+    {
+      _ensureOpen ();
+      m_aText.append (cbuf, off, len);
+      if (m_aText.length () >= m_nChunkSize)
+        _submitChunk ();
+    }
+
+    @Override
+    public void write (final String str, final int off, final int len) throws IOException
+    {
+      _ensureOpen ();
+      m_aText.append (str, off, off + len);
+      if (m_aText.length () >= m_nChunkSize)
+        _submitChunk ();
+    }
+
+    @Override
+    public void write (final int c) throws IOException
+    {
+      _ensureOpen ();
+      m_aText.append ((char) c);
+      if (m_aText.length () >= m_nChunkSize)
+        _submitChunk ();
+    }
+
+    @Override
+    public void flush ()
+    {
+      // the characters will be written when the writer is closed
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      // even an empty last part of a chunked document finishes its encoding
+      m_aBatch.add (this);
+      m_aBatchFiles.add (m_aFile);
+      m_nBatchSize += m_aText.length ();
+      if (m_nBatchSize >= m_nChunkSize)
+        _flushBatch ();
+    }
+  }
+}
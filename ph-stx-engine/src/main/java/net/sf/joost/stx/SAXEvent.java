@@ -29,6 +29,7 @@ import org.xml.sax.Attributes;
 
 import net.sf.joost.stx.helpers.IMutableAttributes;
 import net.sf.joost.stx.helpers.MutableAttributesImpl;
+import net.sf.joost.util.LargeText;
 
 /**
  * SAXEvent stores all information attached to an incoming SAX event, it is the
@@ -51,6 +52,18 @@ public final class SAXEvent
   public static final int MAPPING = 8;
   public static final int MAPPING_END = 9;
 
+  /** Position counter kinds, see {@link #countElement(String, String, int)} */
+  public static final int COUNT_NODE = 1; // node()
+  public static final int COUNT_ELEMENT = 1 << 1; // *
+  public static final int COUNT_ELEMENT_NAME = 1 << 2; // prefix:lname
+  public static final int COUNT_ELEMENT_LOCAL_NAME = 1 << 3; // *:lname
+  public static final int COUNT_ELEMENT_URI = 1 << 4; // prefix:*
+  public static final int COUNT_TEXT = 1 << 5; // text()
+  public static final int COUNT_CDATA = 1 << 6; // cdata()
+  public static final int COUNT_COMMENT = 1 << 7; // comment()
+  public static final int COUNT_PI = 1 << 8; // pi(), pi(target)
+  public static final int COUNT_ALL = (1 << 9) - 1;
+
   public int m_nType;
   public String m_sURI;
   public String m_sLocalName;
@@ -60,6 +73,11 @@ public final class SAXEvent
   public String m_sValue = "";
   // PI->data, MAPPING->uri, TEXT, ATTRIBUTES as usual
   // ELEMENT->text look-ahead
+  /**
+   * The value of a large text node (or look-ahead of an element),
+   * {@link #m_sValue} will be created on demand by {@link #getValue()}
+   */
+  public LargeText m_aLargeText;
   public boolean m_bHasChildNodes = false;
 
   /** contains the position counters */
@@ -106,21 +124,52 @@ public final class SAXEvent
     return event;
   }
 
+  /**
+   * Create a new element node that takes over the passed attributes object
+   * without copying it.
+   *
+   * @param uri
+   * @param lName
+   * @param qName
+   * @param attrs
+   *        the attributes, mustn't be modified by the caller afterwards
+   * @param inScopeNamespaces
+   * @return new {@link SAXEvent}
+   */
+  @Nonnull
+  public static SAXEvent newElement (final String uri,
+                                     final String lName,
+                                     final String qName,
+                                     @Nonnull final IMutableAttributes attrs,
+                                     final Map <String, String> inScopeNamespaces)
+  {
+    final SAXEvent event = new SAXEvent ();
+    event.m_nType = ELEMENT;
+    event.m_sURI = uri;
+    event.m_sLocalName = lName;
+    event.m_sQName = qName;
+    event.m_aAttrs = attrs;
+    event.m_aNamespaces = inScopeNamespaces;
+    event.m_bHasChildNodes = false;
+    event.m_sValue = "";
+    return event;
+  }
+
   /** Create a new text node */
-  public static SAXEvent newText (final String value)
+  public static SAXEvent newText (final CharSequence value)
   {
     final SAXEvent event = new SAXEvent ();
     event.m_nType = TEXT;
-    event.m_sValue = value;
+    event.setValue (value);
     return event;
   }
 
   /** Create a new CDATA node */
-  public static SAXEvent newCDATA (final String value)
+  public static SAXEvent newCDATA (final CharSequence value)
   {
     final SAXEvent event = new SAXEvent ();
     event.m_nType = CDATA;
-    event.m_sValue = value;
+    event.setValue (value);
     return event;
   }
 
@@ -198,12 +247,50 @@ public final class SAXEvent
   {
     if (bHasChildNodes)
     {
-      m_aPosHash = new HashMap<> ();
+      // the counters will be created on demand
+      m_aPosHash = null;
       this.m_bHasChildNodes = true;
     }
+  }
+
+  /**
+   * Sets the value of this node.
+   *
+   * @param value
+   *        the value, a {@link LargeText} won't be converted into a string
+   */
+  public void setValue (final CharSequence value)
+  {
+    if (value instanceof LargeText)
+    {
+      m_aLargeText = (LargeText) value;
+      m_sValue = null;
+    }
     else
-      if (m_aPosHash == null)
-        m_aPosHash = new HashMap<> ();
+    {
+      m_aLargeText = null;
+      m_sValue = value != null ? value.toString () : null;
+    }
+  }
+
+  /**
+   * @return the value of this node as string, converts a large text into a
+   *         string on the first invocation
+   */
+  public String getValue ()
+  {
+    if (m_sValue == null && m_aLargeText != null)
+      m_sValue = m_aLargeText.toString ();
+    return m_sValue;
+  }
+
+  /**
+   * @return the value of this node without converting a large text into a
+   *         string
+   */
+  public CharSequence getValueSequence ()
+  {
+    return m_aLargeText != null ? m_aLargeText : m_sValue;
   }
 
   // *******************************************************************
@@ -268,12 +355,33 @@ public final class SAXEvent
    */
   public void countElement (final String uri, final String lName)
   {
-    final Object [] keys = { "node()",
-                             GENERIC_ELEMENT,
-                             new DoubleString (uri, lName),
-                             new DoubleString ("*", lName),
-                             new DoubleString (uri, "*") };
-    _countPosition (keys);
+    countElement (uri, lName, COUNT_ALL);
+  }
+
+  /**
+   * Increments the requested counters for an element.
+   *
+   * @param uri
+   *        the namespace URI of the element
+   * @param lName
+   *        the local name of the element
+   * @param nCounters
+   *        the counters to be maintained, a combination of the
+   *        <code>COUNT_XXX</code> constants. Other counters won't be available
+   *        for the <code>getPositionOf...</code> methods.
+   */
+  public void countElement (final String uri, final String lName, final int nCounters)
+  {
+    if ((nCounters & COUNT_NODE) != 0)
+      _countPosition ("node()");
+    if ((nCounters & COUNT_ELEMENT) != 0)
+      _countPosition (GENERIC_ELEMENT);
+    if ((nCounters & COUNT_ELEMENT_NAME) != 0)
+      _countPosition (new DoubleString (uri, lName));
+    if ((nCounters & COUNT_ELEMENT_LOCAL_NAME) != 0)
+      _countPosition (new DoubleString ("*", lName));
+    if ((nCounters & COUNT_ELEMENT_URI) != 0)
+      _countPosition (new DoubleString (uri, "*"));
   }
 
   /**
@@ -281,8 +389,22 @@ public final class SAXEvent
    */
   public void countText ()
   {
-    final String [] keys = { "node()", "text()" };
-    _countPosition (keys);
+    countText (COUNT_ALL);
+  }
+
+  /**
+   * Increments the requested counters for a text node.
+   *
+   * @param nCounters
+   *        the counters to be maintained
+   * @see #countElement(String, String, int)
+   */
+  public void countText (final int nCounters)
+  {
+    if ((nCounters & COUNT_NODE) != 0)
+      _countPosition ("node()");
+    if ((nCounters & COUNT_TEXT) != 0)
+      _countPosition ("text()");
   }
 
   /**
@@ -290,8 +412,21 @@ public final class SAXEvent
    */
   public void countCDATA ()
   {
-    final String [] keys = { "node()", "text()", "cdata()" };
-    _countPosition (keys);
+    countCDATA (COUNT_ALL);
+  }
+
+  /**
+   * Increments the requested counters for a text CDATA node.
+   *
+   * @param nCounters
+   *        the counters to be maintained
+   * @see #countElement(String, String, int)
+   */
+  public void countCDATA (final int nCounters)
+  {
+    countText (nCounters);
+    if ((nCounters & COUNT_CDATA) != 0)
+      _countPosition ("cdata()");
   }
 
   /**
@@ -299,8 +434,22 @@ public final class SAXEvent
    */
   public void countComment ()
   {
-    final String [] keys = { "node()", "comment()" };
-    _countPosition (keys);
+    countComment (COUNT_ALL);
+  }
+
+  /**
+   * Increments the requested counters for a comment node.
+   *
+   * @param nCounters
+   *        the counters to be maintained
+   * @see #countElement(String, String, int)
+   */
+  public void countComment (final int nCounters)
+  {
+    if ((nCounters & COUNT_NODE) != 0)
+      _countPosition ("node()");
+    if ((nCounters & COUNT_COMMENT) != 0)
+      _countPosition ("comment()");
   }
 
   private static final DoubleString GENERIC_PI = new DoubleString ("pi()", "");
@@ -310,91 +459,82 @@ public final class SAXEvent
    */
   public void countPI (final String target)
   {
-    final Object [] keys = { "node()", GENERIC_PI, new DoubleString ("pi()", target) };
-    _countPosition (keys);
+    countPI (target, COUNT_ALL);
   }
 
   /**
-   * Performs the real counting. Will be used by the count* functions.
+   * Increments the requested counters for a processing instruction node.
+   *
+   * @param target
+   *        the target of the processing instruction
+   * @param nCounters
+   *        the counters to be maintained
+   * @see #countElement(String, String, int)
    */
-  private void _countPosition (final Object [] keys)
+  public void countPI (final String target, final int nCounters)
   {
-    Counter c;
-    for (final Object key : keys)
+    if ((nCounters & COUNT_NODE) != 0)
+      _countPosition ("node()");
+    if ((nCounters & COUNT_PI) != 0)
     {
-      c = m_aPosHash.get (key);
-      if (c == null)
-        m_aPosHash.put (key, new Counter ());
-      else
-        c.m_nValue++;
-      // posHash.put(keys[i], new Long(l.longValue()+1));
+      _countPosition (GENERIC_PI);
+      _countPosition (new DoubleString ("pi()", target));
     }
   }
 
-  public long getPositionOf (final String uri, final String lName)
+  /**
+   * Performs the real counting. Will be used by the count* functions.
+   */
+  private void _countPosition (final Object key)
   {
-    final Counter c = m_aPosHash.get (new DoubleString (uri, lName));
+    if (m_aPosHash == null)
+      m_aPosHash = new HashMap<> ();
+    final Counter c = m_aPosHash.get (key);
     if (c == null)
-    {
-      // Shouldn't happen
-      throw new NullPointerException ();
-    }
-    return c.m_nValue;
+      m_aPosHash.put (key, new Counter ());
+    else
+      c.m_nValue++;
   }
 
-  public long getPositionOfNode ()
+  private Counter _getCounter (final Object key)
   {
-    final Counter c = m_aPosHash.get ("node()");
+    final Counter c = m_aPosHash == null ? null : m_aPosHash.get (key);
     if (c == null)
     {
       // Shouldn't happen
       throw new NullPointerException ();
     }
-    return c.m_nValue;
+    return c;
+  }
+
+  public long getPositionOf (final String uri, final String lName)
+  {
+    return _getCounter (new DoubleString (uri, lName)).m_nValue;
+  }
+
+  public long getPositionOfNode ()
+  {
+    return _getCounter ("node()").m_nValue;
   }
 
   public long getPositionOfText ()
   {
-    final Counter c = m_aPosHash.get ("text()");
-    if (c == null)
-    {
-      // Shouldn't happen
-      throw new NullPointerException ();
-    }
-    return c.m_nValue;
+    return _getCounter ("text()").m_nValue;
   }
 
   public long getPositionOfCDATA ()
   {
-    final Counter c = m_aPosHash.get ("cdata()");
-    if (c == null)
-    {
-      // Shouldn't happen
-      throw new NullPointerException ();
-    }
-    return c.m_nValue;
+    return _getCounter ("cdata()").m_nValue;
   }
 
   public long getPositionOfComment ()
   {
-    final Counter c = m_aPosHash.get ("comment()");
-    if (c == null)
-    {
-      // Shouldn't happen
-      throw new NullPointerException ();
-    }
-    return c.m_nValue;
+    return _getCounter ("comment()").m_nValue;
   }
 
   public long getPositionOfPI (final String target)
   {
-    final Counter c = m_aPosHash.get (new DoubleString ("pi()", target));
-    if (c == null)
-    {
-      // Shouldn't happen
-      throw new NullPointerException ();
-    }
-    return c.m_nValue;
+    return _getCounter (new DoubleString ("pi()", target)).m_nValue;
   }
 
   @Override
@@ -0,0 +1,242 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.util.LargeText;
+
+/**
+ * Collects the characters of consecutive <code>characters</code> events that
+ * form one text node. As soon as the text exceeds a threshold, the characters
+ * are moved into a {@link LargeText}, so that huge text nodes don't have to be
+ * kept on the heap.
+ *
+ * @author Philip Helger
+ */
+public final class TextCollector
+{
+  private final StringBuilder m_aChars = new StringBuilder ();
+
+  /** maximum number of characters kept on the heap, 0 for no limit */
+  private final int m_nThreshold;
+
+  /** the spool for a large text, <code>null</code> for small texts */
+  private LargeText.Builder m_aSpool;
+
+  /** receives every large text built by this collector, may be null */
+  private final List <LargeText> m_aLargeTexts;
+
+  /** the result of {@link #getText()} */
+  private CharSequence m_aText;
+
+  /**
+   * @param nThreshold
+   *        the maximum number of characters kept on the heap, 0 for no limit
+   */
+  public TextCollector (final int nThreshold)
+  {
+    this (nThreshold, null);
+  }
+
+  /**
+   * @param nThreshold
+   *        the maximum number of characters kept on the heap, 0 for no limit
+   * @param aLargeTexts
+   *        a list that receives every {@link LargeText} built by this
+   *        collector, so that they can be closed when they aren't needed any
+   *        more. May be <code>null</code>.
+   */
+  public TextCollector (final int nThreshold, @Nullable final List <LargeText> aLargeTexts)
+  {
+    m_nThreshold = nThreshold;
+    m_aLargeTexts = aLargeTexts;
+  }
+
+  public void append (@Nonnull final char [] ch, final int start, final int length) throws SAXException
+  {
+    try
+    {
+      if (m_aText != null)
+        _reopen ();
+      if (m_aSpool == null && m_nThreshold > 0 && m_aChars.length () + length > m_nThreshold)
+        _startSpool ();
+      if (m_aSpool != null)
+        m_aSpool.append (ch, start, length);
+      else
+        m_aChars.append (ch, start, length);
+    }
+    catch (final IOException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void append (@Nonnull final CharSequence chars) throws SAXException
+  {
+    try
+    {
+      if (m_aText != null)
+        _reopen ();
+      if (m_aSpool == null && m_nThreshold > 0 && m_aChars.length () + chars.length () > m_nThreshold)
+        _startSpool ();
+      if (m_aSpool != null)
+        m_aSpool.append (chars);
+      else
+        m_aChars.append (chars);
+    }
+    catch (final IOException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  /** Allows appending after {@link #getText()} */
+  private void _reopen () throws IOException
+  {
+    if (m_aText instanceof LargeText)
+    {
+      m_aSpool = new LargeText.Builder ();
+      m_aSpool.append (m_aText);
+    }
+    m_aText = null;
+  }
+
+  private void _startSpool () throws IOException
+  {
+    m_aSpool = new LargeText.Builder ();
+    m_aSpool.append (m_aChars);
+    m_aChars.setLength (0);
+  }
+
+  /**
+   * @return the number of collected characters
+   */
+  public int length ()
+  {
+    if (m_aSpool != null)
+      return (int) Math.min (m_aSpool.length (), Integer.MAX_VALUE);
+    if (m_aText instanceof LargeText)
+      return m_aText.length ();
+    return m_aChars.length ();
+  }
+
+  /**
+   * @return <code>true</code> if the collected characters have been moved into
+   *         a {@link LargeText}
+   */
+  public boolean isLarge ()
+  {
+    return m_aSpool != null || m_aText instanceof LargeText;
+  }
+
+  /**
+   * @return the collected text, either a <code>String</code> or a
+   *         {@link LargeText}. No characters may be appended afterwards until
+   *         {@link #clear()} has been called.
+   * @throws SAXException
+   *         if the text couldn't be written to its temporary file
+   */
+  @Nonnull
+  public CharSequence getText () throws SAXException
+  {
+    if (m_aText == null)
+    {
+      if (m_aSpool != null)
+      {
+        try
+        {
+          final LargeText aText = m_aSpool.build ();
+          if (m_aLargeTexts != null)
+            m_aLargeTexts.add (aText);
+          m_aText = aText;
+        }
+        catch (final IOException ex)
+        {
+          throw new SAXException (ex);
+        }
+        m_aSpool = null;
+      }
+      else
+        m_aText = m_aChars.toString ();
+    }
+    return m_aText;
+  }
+
+  /**
+   * @return <code>true</code> if the collected text consists of white space
+   *         only
+   */
+  public boolean isWhitespace () throws SAXException
+  {
+    final CharSequence aText = getText ();
+    if (aText instanceof LargeText)
+      return ((LargeText) aText).isWhitespace ();
+    return aText.toString ().trim ().length () == 0;
+  }
+
+  /** Removes the collected characters. */
+  public void clear ()
+  {
+    m_aChars.setLength (0);
+    m_aText = null;
+    if (m_aSpool != null)
+    {
+      try
+      {
+        m_aSpool.discard ();
+      }
+      catch (final IOException ex)
+      {
+        // the file has been opened for deletion on close
+      }
+      m_aSpool = null;
+    }
+  }
+
+  /**
+   * @return the collected text as string, creates the complete string for a
+   *         large text
+   */
+  @Override
+  public String toString ()
+  {
+    if (m_aText != null)
+      return m_aText.toString ();
+    if (m_aSpool != null)
+    {
+      try
+      {
+        return getText ().toString ();
+      }
+      catch (final SAXException ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    }
+    return m_aChars.toString ();
+  }
+}
@@ -243,7 +243,7 @@ public final class Value implements Cloneable
       case STRING:
         return string;
       case NODE:
-        return event.m_sValue;
+        return event.getValue ();
       case EMPTY:
         return "";
       case BOOLEAN:
@@ -529,7 +529,7 @@ public final class Value implements Cloneable
         case EMPTY:
           return null;
         case NODE:
-          return event.m_sValue;
+          return event.getValue ();
         case BOOLEAN:
           return new Boolean (bool);
         case NUMBER:
@@ -19,6 +19,9 @@
  */
 package net.sf.joost.stx.function;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Executable;
 import java.lang.reflect.InvocationTargetException;
@@ -40,18 +43,34 @@ import net.sf.joost.stx.function.FunctionFactory.IInstance;
 /**
  * An instance of this class represents a Java extension function. Parts of this
  * code are taken from Michael Kay's Saxon XSLT processor implementation.
+ * <p>
+ * Every candidate method is bound to a {@link MethodHandle} that converts the
+ * {@link Value} arguments directly to the formal parameter types. If there are
+ * several candidates, the choice is remembered for the types of the actual
+ * arguments.
  *
  * @version $Revision: 1.6 $ $Date: 2009/08/21 12:46:17 $
  * @author Oliver Becker
  */
 public final class ExtensionFunction implements IInstance
 {
+  /** the maximum number of argument type signatures remembered per call */
+  private static final int DISPATCH_CACHE_SIZE = 4;
+
+  private static final Value [] NO_VALUES = new Value [0];
+
   /** the target class, identified by the namespace */
   private Class <?> targetClass;
 
   /** possible methods, should differ at most in formal parameter types */
   private final List <Executable> candidateMethods = new ArrayList<> ();
 
+  /** the bound {@link #candidateMethods} */
+  private final List <Candidate> candidates = new ArrayList<> ();
+
+  /** the recently chosen candidates, replaced as a whole when it changes */
+  private volatile DispatchEntry [] dispatchCache = new DispatchEntry [0];
+
   /** the number of provided parameters in the function call */
   private int paramCount = 0;
 
@@ -199,6 +218,11 @@ public final class ExtensionFunction implements IInstance
                                      className,
                                      locator);
     }
+
+    // bind the candidates
+    final boolean singleCandidate = candidateMethods.size () == 1;
+    for (final Executable executable : candidateMethods)
+      candidates.add (new Candidate (targetClass, executable, singleCandidate));
   }
 
   /** find and call the correct Java method */
@@ -206,7 +230,7 @@ public final class ExtensionFunction implements IInstance
                                                                                         EvalException
   {
     // evaluate current parameters
-    Value [] values = null;
+    Value [] values = NO_VALUES;
     AbstractTree aArgs = args;
     if (paramCount > 0)
     {
@@ -220,190 +244,422 @@ public final class ExtensionFunction implements IInstance
       values[0] = aArgs.evaluate (context, top);
     }
 
-    if (isConstructor)
+    final Candidate candidate = candidates.size () == 1 ? candidates.get (0) : _choose (values);
+    if (candidate.m_aInvoker == null)
+      throw new EvalException ((isConstructor ? "Constructor" : "Method") +
+                               " access is illegal " +
+                               candidate.m_sAccessError);
+
+    try
     {
-      // this is a constructor call
-      Constructor <?> theConstructor = null;
-      final int methodNum = candidateMethods.size ();
-      if (methodNum == 1)
-        theConstructor = (Constructor <?>) candidateMethods.get (0);
-      else
-      {
-        // choose the best constructor depending on current parameters
-        // This algorithm simply adds the distance values of all
-        // parameters and chooses the candidate with the lowest value.
-        // (Saxon's algorithm is more complicated, presumably there's
-        // a good reason for that ...)
-        double minDistance = -1;
-        boolean ambigous = false;
-        for (int i = 0; i < methodNum; i++)
-        {
-          final Constructor <?> c = (Constructor <?>) candidateMethods.get (i);
-          double distance = 0;
-          final Class <?> [] paramTypes = c.getParameterTypes ();
-          for (int j = 0; j < paramTypes.length; j++)
-            distance += values[j].getDistanceTo (paramTypes[j]);
-          // better fit?
-          if (distance < minDistance || minDistance < 0)
-          {
-            minDistance = distance;
-            theConstructor = c;
-            ambigous = false;
-          }
-          else
-            if (distance == minDistance)
-              ambigous = true;
-        }
-        if (minDistance == Double.POSITIVE_INFINITY)
-          throw new EvalException ("None of the Java constructors in " +
-                                   targetClass.getName () +
-                                   " matches this function call to 'new'");
-        if (ambigous)
-          throw new EvalException ("There are several Java constructors in " +
-                                   targetClass.getName () +
-                                   " that match the function call to 'new' equally well ");
-      } // end else (choose best constructor)
-
-      // set current parameters
-      final Class <?> [] formalParams = theConstructor.getParameterTypes ();
-      final Object [] currentParams = new Object [formalParams.length];
-      for (int i = 0; i < formalParams.length; i++)
-        currentParams[i] = values[i].toJavaObject (formalParams[i]);
-
-      // call constructor
-      try
-      {
-        final Object obj = theConstructor.newInstance (currentParams);
-        return new Value (obj);
-      }
-      catch (final InstantiationException err0)
-      {
-        throw new EvalException ("Cannot instantiate class " + err0.getMessage ());
-      }
-      catch (final IllegalAccessException err1)
+      return (Value) candidate.m_aInvoker.invokeExact (values);
+    }
+    catch (final EvalException ex)
+    {
+      throw ex;
+    }
+    catch (final InvocationTargetException ex)
+    {
+      if (isConstructor)
+        throw new EvalException ("Exception in extension constructor " +
+                                 candidate.m_aExecutable.getName () +
+                                 ": " +
+                                 ex.getTargetException ().toString ());
+      throw new EvalException ("Exception in extension method '" +
+                               candidate.m_aExecutable.getName () +
+                               "': " +
+                               ex.getTargetException ().toString (),
+                               ex);
+    }
+    catch (final ClassCastException ex)
+    {
+      throw new EvalException ("Argument is of wrong type " + ex.getMessage (), ex);
+    }
+    catch (final RuntimeException | Error ex)
+    {
+      throw ex;
+    }
+    catch (final Throwable t)
+    {
+      // can't happen, the invoker wraps all exceptions of the target
+      throw new EvalException (t.toString ());
+    }
+  }
+
+  /**
+   * Chooses the best candidate for the current parameters, using the
+   * remembered choices for the same argument types if possible
+   */
+  private Candidate _choose (final Value [] values) throws EvalException
+  {
+    final DispatchEntry [] cache = dispatchCache;
+    for (final DispatchEntry entry : cache)
+      if (entry.matches (values))
+        return entry.m_aCandidate;
+
+    final Candidate ret = _select (values);
+
+    // remember this choice, forget the oldest one if the cache is full
+    final int n = Math.min (cache.length + 1, DISPATCH_CACHE_SIZE);
+    final DispatchEntry [] newCache = new DispatchEntry [n];
+    newCache[0] = new DispatchEntry (values, ret);
+    System.arraycopy (cache, 0, newCache, 1, n - 1);
+    dispatchCache = newCache;
+    return ret;
+  }
+
+  /** Chooses the best candidate for the current parameters */
+  private Candidate _select (final Value [] values) throws EvalException
+  {
+    // This algorithm simply adds the distance values of all
+    // parameters and chooses the candidate with the lowest value.
+    // (Saxon's algorithm is more complicated, presumably there's
+    // a good reason for that ...)
+    Candidate ret = null;
+    double minDistance = -1;
+    boolean ambigous = false;
+    for (final Candidate c : candidates)
+    {
+      double distance = 0;
+      final Class <?> [] paramTypes = c.m_aExecutable.getParameterTypes ();
+      if (c.m_bStatic)
       {
-        throw new EvalException ("Constructor access is illegal " + err1.getMessage ());
+        for (int j = 0; j < paramTypes.length; j++)
+          distance += values[j].getDistanceTo (paramTypes[j]);
       }
-      catch (final IllegalArgumentException err2)
+      else
       {
-        throw new EvalException ("Argument is of wrong type " + err2.getMessage ());
+        // first argument is the target object
+        distance = values[0].getDistanceTo (targetClass);
+        for (int j = 0; j < paramTypes.length; j++)
+          distance += values[j + 1].getDistanceTo (paramTypes[j]);
       }
-      catch (final InvocationTargetException err3)
+      // better fit?
+      if (distance < minDistance || minDistance < 0)
       {
-        throw new EvalException ("Exception in extension constructor " +
-                                 theConstructor.getName () +
-                                 ": " +
-                                 err3.getTargetException ().toString ());
+        minDistance = distance;
+        ret = c;
+        ambigous = false;
       }
+      else
+        if (distance == minDistance)
+          ambigous = true;
     }
 
-    // method invocation
-    Method theMethod = null;
-    final int methodNum = candidateMethods.size ();
-    if (methodNum == 1)
-      theMethod = (Method) candidateMethods.get (0);
+    if (isConstructor)
+    {
+      if (minDistance == Double.POSITIVE_INFINITY)
+        throw new EvalException ("None of the Java constructors in " +
+                                 targetClass.getName () +
+                                 " matches this function call to 'new'");
+      if (ambigous)
+        throw new EvalException ("There are several Java constructors in " +
+                                 targetClass.getName () +
+                                 " that match the function call to 'new' equally well ");
+    }
     else
     {
-      // choose the best method depending on current parameters
-      // (see comment for constructors above)
-      double minDistance = -1;
-      boolean ambigous = false;
-      for (int i = 0; i < methodNum; i++)
-      {
-        final Method m = (Method) candidateMethods.get (i);
-        double distance = 0;
-        final Class <?> [] paramTypes = m.getParameterTypes ();
-        if (Modifier.isStatic (m.getModifiers ()))
-        {
-          for (int j = 0; j < paramTypes.length; j++)
-            distance += values[j].getDistanceTo (paramTypes[j]);
-        }
-        else
-        {
-          // first argument is the target object
-          distance = values[0].getDistanceTo (targetClass);
-          for (int j = 0; j < paramTypes.length; j++)
-            distance += values[j + 1].getDistanceTo (paramTypes[j]);
-        }
-        // better fit?
-        if (distance < minDistance || minDistance < 0)
-        {
-          minDistance = distance;
-          theMethod = m;
-          ambigous = false;
-        }
-        else
-          if (distance == minDistance)
-            ambigous = true;
-      }
       if (minDistance == Double.POSITIVE_INFINITY)
         throw new EvalException ("None of the Java methods in " +
                                  targetClass.getName () +
                                  " matches this function call to '" +
-                                 theMethod.getName () +
+                                 ret.m_aExecutable.getName () +
                                  "'");
       if (ambigous)
         throw new EvalException ("There are several Java methods in " +
                                  targetClass.getName () +
                                  " that match function '" +
-                                 theMethod.getName () +
+                                 ret.m_aExecutable.getName () +
                                  "' equally well");
-    } // end else (choose best method)
+    }
+    return ret;
+  }
 
-    // set current parameters
-    Object theInstance = null;
-    final Class <?> [] formalParams = theMethod.getParameterTypes ();
-    final Object [] currentParams = new Object [formalParams.length];
-    if (Modifier.isStatic (theMethod.getModifiers ()))
+  /** A remembered choice for a signature of actual argument types */
+  private static final class DispatchEntry
+  {
+    final int [] m_aTypes;
+    /** the classes of object arguments, the distance depends on them */
+    final Class <?> [] m_aClasses;
+    final Candidate m_aCandidate;
+
+    DispatchEntry (final Value [] values, final Candidate aCandidate)
     {
-      for (int i = 0; i < formalParams.length; i++)
-        currentParams[i] = values[i].toJavaObject (formalParams[i]);
+      m_aTypes = new int [values.length];
+      m_aClasses = new Class <?> [values.length];
+      for (int i = 0; i < values.length; i++)
+      {
+        m_aTypes[i] = values[i].type;
+        m_aClasses[i] = _getObjectClass (values[i]);
+      }
+      m_aCandidate = aCandidate;
     }
-    else
+
+    boolean matches (final Value [] values)
+    {
+      for (int i = 0; i < values.length; i++)
+        if (values[i].type != m_aTypes[i] || _getObjectClass (values[i]) != m_aClasses[i])
+          return false;
+      return true;
+    }
+
+    private static Class <?> _getObjectClass (final Value v)
+    {
+      if (v.type != Value.OBJECT)
+        return null;
+      final Object o = v.getObject ();
+      return o == null ? null : o.getClass ();
+    }
+  }
+
+  /**
+   * A candidate method or constructor, bound to a method handle of the type
+   * <code>(Value[])Value</code>
+   */
+  private static final class Candidate
+  {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup ();
+
+    final Executable m_aExecutable;
+    final boolean m_bStatic;
+    /** <code>null</code> if the candidate isn't accessible */
+    final MethodHandle m_aInvoker;
+    final String m_sAccessError;
+
+    Candidate (final Class <?> targetClass, final Executable aExecutable, final boolean bSingle)
+    {
+      m_aExecutable = aExecutable;
+      m_bStatic = aExecutable instanceof Constructor <?> || Modifier.isStatic (aExecutable.getModifiers ());
+
+      MethodHandle invoker = null;
+      String accessError = null;
+      try
+      {
+        invoker = _bind (targetClass, bSingle);
+      }
+      catch (final IllegalAccessException ex)
+      {
+        accessError = ex.getMessage ();
+      }
+      m_aInvoker = invoker;
+      m_sAccessError = accessError;
+    }
+
+    private MethodHandle _bind (final Class <?> targetClass, final boolean bSingle) throws IllegalAccessException
+    {
+      // only public members are candidates; a full-privilege lookup can bind
+      // caller-sensitive methods as well
+      MethodHandle mh = m_aExecutable instanceof Constructor <?> ? LOOKUP.unreflectConstructor ((Constructor <?>) m_aExecutable)
+                                                                 : LOOKUP.unreflect ((Method) m_aExecutable);
+      final MethodType type = mh.type ();
+
+      // report exceptions of the target as InvocationTargetException
+      final MethodHandle rethrow = MethodHandles.dropArguments (RETHROW.asType (MethodType.methodType (type.returnType (),
+                                                                                                      Throwable.class)),
+                                                                1,
+                                                                type.parameterList ());
+      mh = MethodHandles.catchException (mh, Throwable.class, rethrow);
+
+      // convert the arguments
+      final MethodHandle [] converters = new MethodHandle [type.parameterCount ()];
+      for (int i = 0; i < converters.length; i++)
+      {
+        final Class <?> paramType = type.parameterType (i);
+        if (i == 0 && !m_bStatic)
+          converters[i] = MethodHandles.insertArguments (TO_INSTANCE,
+                                                         0,
+                                                         m_aExecutable.getName (),
+                                                         targetClass,
+                                                         Boolean.valueOf (bSingle))
+                                       .asType (MethodType.methodType (paramType, Value.class));
+        else
+          converters[i] = _getConverter (paramType);
+      }
+      mh = MethodHandles.filterArguments (mh, 0, converters);
+
+      // convert the result
+      final Class <?> returnType = type.returnType ();
+      if (returnType == void.class)
+        mh = MethodHandles.filterReturnValue (mh, VOID_RESULT);
+      else
+        if (returnType == boolean.class)
+          mh = MethodHandles.filterReturnValue (mh, BOOLEAN_RESULT);
+        else
+          if (returnType.isPrimitive () && returnType != char.class)
+            mh = MethodHandles.filterReturnValue (mh.asType (mh.type ().changeReturnType (double.class)),
+                                                  NUMBER_RESULT);
+          else
+            mh = MethodHandles.filterReturnValue (mh.asType (mh.type ().changeReturnType (Object.class)),
+                                                  OBJECT_RESULT);
+
+      return mh.asSpreader (Value [].class, converters.length)
+               .asType (MethodType.methodType (Value.class, Value [].class));
+    }
+
+    private static MethodHandle _getConverter (final Class <?> paramType)
+    {
+      if (paramType == boolean.class)
+        return TO_BOOLEAN;
+      if (paramType == double.class)
+        return TO_DOUBLE;
+      if (paramType == float.class)
+        return TO_FLOAT;
+      if (paramType == long.class)
+        return TO_LONG;
+      if (paramType == int.class)
+        return TO_INT;
+      if (paramType == short.class)
+        return TO_SHORT;
+      if (paramType == byte.class)
+        return TO_BYTE;
+      // char and reference types
+      return MethodHandles.insertArguments (TO_OBJECT, 0, paramType)
+                          .asType (MethodType.methodType (paramType, Value.class));
+    }
+
+    private static final MethodHandle RETHROW;
+    private static final MethodHandle TO_INSTANCE;
+    private static final MethodHandle TO_OBJECT;
+    private static final MethodHandle TO_BOOLEAN;
+    private static final MethodHandle TO_DOUBLE;
+    private static final MethodHandle TO_FLOAT;
+    private static final MethodHandle TO_LONG;
+    private static final MethodHandle TO_INT;
+    private static final MethodHandle TO_SHORT;
+    private static final MethodHandle TO_BYTE;
+    private static final MethodHandle VOID_RESULT;
+    private static final MethodHandle BOOLEAN_RESULT;
+    private static final MethodHandle NUMBER_RESULT;
+    private static final MethodHandle OBJECT_RESULT;
+
+    static
+    {
+      try
+      {
+        final Class <?> c = Candidate.class;
+        RETHROW = LOOKUP.findStatic (c, "_rethrow", MethodType.methodType (Object.class, Throwable.class));
+        TO_INSTANCE = LOOKUP.findStatic (c,
+                                         "_toInstance",
+                                         MethodType.methodType (Object.class,
+                                                                String.class,
+                                                                Class.class,
+                                                                boolean.class,
+                                                                Value.class));
+        TO_OBJECT = LOOKUP.findStatic (c, "_toObject", MethodType.methodType (Object.class, Class.class, Value.class));
+        TO_BOOLEAN = LOOKUP.findStatic (c, "_toBoolean", MethodType.methodType (boolean.class, Value.class));
+        TO_DOUBLE = LOOKUP.findStatic (c, "_toDouble", MethodType.methodType (double.class, Value.class));
+        TO_FLOAT = LOOKUP.findStatic (c, "_toFloat", MethodType.methodType (float.class, Value.class));
+        TO_LONG = LOOKUP.findStatic (c, "_toLong", MethodType.methodType (long.class, Value.class));
+        TO_INT = LOOKUP.findStatic (c, "_toInt", MethodType.methodType (int.class, Value.class));
+        TO_SHORT = LOOKUP.findStatic (c, "_toShort", MethodType.methodType (short.class, Value.class));
+        TO_BYTE = LOOKUP.findStatic (c, "_toByte", MethodType.methodType (byte.class, Value.class));
+        VOID_RESULT = LOOKUP.findStatic (c, "_voidResult", MethodType.methodType (Value.class));
+        BOOLEAN_RESULT = LOOKUP.findStatic (Value.class, "getBoolean", MethodType.methodType (Value.class, boolean.class));
+        NUMBER_RESULT = LOOKUP.findConstructor (Value.class, MethodType.methodType (void.class, double.class));
+        OBJECT_RESULT = LOOKUP.findConstructor (Value.class, MethodType.methodType (void.class, Object.class));
+      }
+      catch (final ReflectiveOperationException ex)
+      {
+        throw new ExceptionInInitializerError (ex);
+      }
+    }
+
+    @SuppressWarnings ("unused")
+    private static Object _rethrow (final Throwable t) throws InvocationTargetException
+    {
+      throw new InvocationTargetException (t);
+    }
+
+    @SuppressWarnings ("unused")
+    private static Object _toInstance (final String methodName,
+                                       final Class <?> targetClass,
+                                       final boolean check,
+                                       final Value v) throws EvalException
     {
       // perform this additional check for the first parameter,
       // because otherwise the error message is a little but
       // misleading ("Conversion to ... is not supported")
-      if (methodNum == 1 && // haven't done this check in this case
-          values[0].getDistanceTo (targetClass) == Double.POSITIVE_INFINITY)
+      if (check && // haven't done this check in this case
+          v.getDistanceTo (targetClass) == Double.POSITIVE_INFINITY)
         throw new EvalException ("First parameter in the function call to '" +
-                                 theMethod.getName () +
+                                 methodName +
                                  "' must be the object instance");
 
-      theInstance = values[0].toJavaObject (targetClass);
-
-      if (theInstance == null)
+      final Object ret = v.toJavaObject (targetClass);
+      if (ret == null)
         throw new EvalException ("Target object (first parameter) in the function call " +
                                  "to '" +
-                                 theMethod.getName () +
+                                 methodName +
                                  "' is null");
+      return ret;
+    }
 
-      for (int i = 0; i < formalParams.length; i++)
-      {
-        currentParams[i] = values[i + 1].toJavaObject (formalParams[i]);
-      }
+    private static Object _toObject (final Class <?> target, final Value v) throws EvalException
+    {
+      final Object ret = v.toJavaObject (target);
+      if (ret == null && target.isPrimitive ())
+        throw new EvalException ("Argument is of wrong type null for " + target.getName ());
+      return ret;
     }
 
-    // call method
-    try
+    // The following conversions are the same as those of
+    // Value.toJavaObject, without creating wrapper objects
+
+    @SuppressWarnings ("unused")
+    private static boolean _toBoolean (final Value v) throws EvalException
     {
-      return new Value (theMethod.invoke (theInstance, currentParams));
+      if (v.type == Value.BOOLEAN)
+        return v.getBooleanValue ();
+      return ((Boolean) _toObject (boolean.class, v)).booleanValue ();
     }
-    catch (final IllegalAccessException err1)
+
+    private static double _toNumber (final Value v, final Class <?> target) throws EvalException
     {
-      throw new EvalException ("Method access is illegal " + err1.getMessage (), err1);
+      if (v.type == Value.NUMBER)
+        return v.getNumberValue ();
+      return ((Number) _toObject (target, v)).doubleValue ();
     }
-    catch (final IllegalArgumentException err2)
+
+    @SuppressWarnings ("unused")
+    private static double _toDouble (final Value v) throws EvalException
     {
-      throw new EvalException ("Argument is of wrong type " + err2.getMessage (), err2);
+      return _toNumber (v, double.class);
     }
-    catch (final InvocationTargetException err3)
+
+    @SuppressWarnings ("unused")
+    private static float _toFloat (final Value v) throws EvalException
     {
-      throw new EvalException ("Exception in extension method '" +
-                               theMethod.getName () +
-                               "': " +
-                               err3.getTargetException ().toString (),
-                               err3);
+      return (float) _toNumber (v, float.class);
+    }
+
+    @SuppressWarnings ("unused")
+    private static long _toLong (final Value v) throws EvalException
+    {
+      return (long) _toNumber (v, long.class);
+    }
+
+    @SuppressWarnings ("unused")
+    private static int _toInt (final Value v) throws EvalException
+    {
+      return (int) _toNumber (v, int.class);
+    }
+
+    @SuppressWarnings ("unused")
+    private static short _toShort (final Value v) throws EvalException
+    {
+      return (short) _toNumber (v, short.class);
+    }
+
+    @SuppressWarnings ("unused")
+    private static byte _toByte (final Value v) throws EvalException
+    {
+      return (byte) _toNumber (v, byte.class);
+    }
+
+    @SuppressWarnings ("unused")
+    private static Value _voidResult ()
+    {
+      return new Value ((Object) null);
     }
   }
 
@@ -19,7 +19,9 @@
  */
 package net.sf.joost.stx.function;
 
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -144,6 +146,9 @@ public final class FunctionFactory
   /** The parse context for this <code>FunctionFactory</code> instance */
   private final ParseContext m_aContext;
 
+  /** The scripts of <code>joost:script</code> elements, keyed by namespace */
+  private final Map <String, ScriptModule> m_aScripts = new HashMap<> ();
+
   //
   // Constructor
   //
@@ -161,6 +166,28 @@ public final class FunctionFactory
   // Methods
   //
 
+  /**
+   * Registers the functions of a <code>joost:script</code> element.
+   *
+   * @param uri
+   *        the namespace URI of the script functions
+   * @param script
+   *        the loaded script
+   */
+  public void addScript (final String uri, final ScriptModule script)
+  {
+    m_aScripts.put (uri, script);
+  }
+
+  /**
+   * @return <code>true</code> if the namespace URI has been already assigned to
+   *         a <code>joost:script</code> element
+   */
+  public boolean isScriptUri (final String uri)
+  {
+    return m_aScripts.containsKey (uri);
+  }
+
   /**
    * Looks for a function implementation.
    *
@@ -188,16 +215,14 @@ public final class FunctionFactory
       throw new SAXParseException ("No permission to call extension function '" + qName + "'", m_aContext.locator);
     }
 
-    // TODO
     // execute script functions
-    // if (this.scriptUriMap.containsValue (uri))
-    // if (pContext.allowExternalFunctions)
-    // {
-    // return createScriptFunction (uri, lName, qName);
-    // }
-    // else
-    // throw new SAXParseException ("No permission to call script function '" +
-    // qName + "'", pContext.locator);
+    final ScriptModule script = m_aScripts.get (uri);
+    if (script != null)
+    {
+      if (m_aContext.allowExternalFunctions)
+        return new ScriptFunction (script, lName, qName, args);
+      throw new SAXParseException ("No permission to call script function '" + qName + "'", m_aContext.locator);
+    }
 
     final IInstance function = functionHash.get ("{" + uri + "}" + lName);
     if (function == null)
@@ -19,8 +19,9 @@
  */
 package net.sf.joost.stx.function;
 
-import java.util.Stack;
-import java.util.Vector;
+import java.util.List;
+
+import javax.script.ScriptException;
 
 import org.xml.sax.SAXException;
 
@@ -31,8 +32,8 @@ import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.IInstance;
 
 /**
- * An instance of this class represents a Javascript extension function defined
- * by the <code>joost:script</code> element.
+ * An instance of this class represents a script extension function defined by
+ * the <code>joost:script</code> element.
  *
  * @see net.sf.joost.instruction.ScriptFactory
  * @version $Revision: 1.5 $ $Date: 2007/05/20 18:00:44 $
@@ -40,65 +41,77 @@ import net.sf.joost.stx.function.FunctionFactory.IInstance;
  */
 public final class ScriptFunction implements IInstance
 {
-  /** BSF script engine instance */
-  // BSFEngine engine;
+  private static final Object [] NO_ARGS = new Object [0];
+
+  /** the script that defines this function */
+  private final ScriptModule module;
 
   /** the local function name without prefix for this script function */
-  String funcName;
+  private final String funcName;
 
   /**
    * the qualified function name including the prefix for this script function
    */
-  String qName;
+  private final String qName;
 
-  // public ScriptFunction (final BSFEngine engine, final String funcName, final
-  // String qName)
-  // {
-  // this.engine = engine;
-  // this.funcName = funcName;
-  // this.qName = qName;
-  // }
+  /** the number of provided parameters in the function call */
+  private final int paramCount;
 
-  /**
-   * convert Joost-STXPath arguments Value-tree into an array of simple Objects
-   *
-   * @param top
-   * @param args
-   * @return Object[]
-   */
-  private Object [] convertInputArgs (final Context context, final int top, final AbstractTree args) throws SAXException
+  public ScriptFunction (final ScriptModule module, final String funcName, final String qName, final AbstractTree args)
   {
-    // evaluate current parameters
-    final Stack <Value> varr = new Stack<> ();
-    if (args != null)
+    this.module = module;
+    this.funcName = funcName;
+    this.qName = qName;
+
+    int argc = 0;
+    AbstractTree aArgs = args;
+    if (aArgs != null)
     {
-      AbstractTree t = args;
-      do
+      argc = 1;
+      while (aArgs.getType () == AbstractTree.LIST)
       {
-        if (t.m_aRight != null)
-          varr.push (t.m_aRight.evaluate (context, top));
-        if (t.m_aLeft == null)
-          varr.push (t.evaluate (context, top));
-      } while ((t = t.m_aLeft) != null);
+        aArgs = aArgs.m_aLeft;
+        argc++;
+      }
     }
+    this.paramCount = argc;
+  }
 
-    // convert values to java objects
-    final Vector <Object> ret = new Vector<> ();
-    while (!varr.isEmpty ())
+  /**
+   * Converts a value to the object passed to the script. Atomic values become
+   * <code>String</code>, <code>Double</code> or <code>Boolean</code> objects,
+   * sequences become a {@link List}.
+   */
+  static Object toScriptObject (final Value v) throws EvalException
+  {
+    if (v.next != null)
+      return v.toJavaObject (List.class);
+    switch (v.type)
     {
-      final Value v = varr.pop ();
-      try
-      {
-        ret.add (v.toJavaObject (Object.class));
-      }
-      catch (final EvalException e)
-      {
-        // Mustn't happen!
-        throw new SAXException (e);
-      }
+      case Value.EMPTY:
+        return null;
+      case Value.BOOLEAN:
+        return Boolean.valueOf (v.getBooleanValue ());
+      case Value.NUMBER:
+        return Double.valueOf (v.getNumberValue ());
+      case Value.OBJECT:
+        return v.getObject ();
+      default:
+        // nodes and strings
+        return v.getStringValue ();
     }
+  }
 
-    return ret.toArray ();
+  /**
+   * Converts the result of a script function to a value.
+   */
+  static Value fromScriptObject (final Object obj)
+  {
+    if (obj instanceof String)
+      return new Value ((String) obj);
+    if (obj instanceof Boolean)
+      return Value.getBoolean (((Boolean) obj).booleanValue ());
+    return new Value (obj);
   }
 
   /**
@@ -108,23 +121,33 @@ public final class ScriptFunction implements IInstance
   public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
                                                                                         EvalException
   {
-    // convert input params
-    @SuppressWarnings ("unused")
-    final Object [] scrArgs = convertInputArgs (context, top, args);
+    // evaluate and convert current parameters
+    Object [] scrArgs = NO_ARGS;
+    AbstractTree aArgs = args;
+    if (paramCount > 0)
+    {
+      scrArgs = new Object [paramCount];
+      for (int i = paramCount - 1; i > 0; i--)
+      {
+        scrArgs[i] = toScriptObject (aArgs.m_aRight.evaluate (context, top));
+        aArgs = aArgs.m_aLeft;
+      }
+      scrArgs[0] = toScriptObject (aArgs.evaluate (context, top));
+    }
 
-    final Object ret = null;
     // execute the script function
-    // try
-    // {
-    // ret = engine.call (null, funcName, scrArgs);
-    // }
-    // catch (final BSFException e)
-    // {
-    // throw new EvalException ("Exception while executing " + qName, e);
-    // }
+    final Object ret;
+    try
+    {
+      ret = module.invoke (funcName, scrArgs);
+    }
+    catch (final ScriptException | NoSuchMethodException | RuntimeException e)
+    {
+      throw new EvalException ("Exception while executing " + qName, e);
+    }
 
     // wrap the result
-    return new Value (ret);
+    return fromScriptObject (ret);
   }
 
   // These functions will never be called.
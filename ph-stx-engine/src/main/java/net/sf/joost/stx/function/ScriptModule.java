@@ -0,0 +1,162 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * The code of a <code>joost:script</code> element, loaded into a JSR-223
+ * script engine.
+ * <p>
+ * The script is compiled (if the engine is {@link Compilable}) and evaluated
+ * once while the transformation sheet is compiled, so that errors will be
+ * reported early. Engines that declare themselves thread-safe via the
+ * <code>THREADING</code> parameter are shared by all transformations.
+ * Otherwise every thread gets its own engine: the first one takes over the
+ * engine created at compile time, any further thread loads the script into a
+ * new engine once and reuses it for all subsequent calls.
+ *
+ * @see net.sf.joost.instruction.ScriptFactory
+ * @author Philip Helger
+ */
+public final class ScriptModule
+{
+  /** the scripting language */
+  private final String m_sLanguage;
+
+  /** the script code */
+  private final String m_sScript;
+
+  /** the factory for further engines */
+  private final ScriptEngineFactory m_aFactory;
+
+  /** the engine used for all threads if the engine is thread-safe */
+  private final ScriptEngine m_aSharedEngine;
+
+  /** the engine created at compile time, until a thread takes it over */
+  private final AtomicReference <ScriptEngine> m_aUnclaimedEngine = new AtomicReference<> ();
+
+  /** the engines of the individual threads */
+  private final ThreadLocal <ScriptEngine> m_aThreadEngine = ThreadLocal.withInitial (this::_claimEngine);
+
+  /**
+   * Creates a new module and loads the script into an engine for the given
+   * language.
+   *
+   * @param sLanguage
+   *        the name of the scripting language, as understood by
+   *        {@link ScriptEngineManager#getEngineByName(String)}
+   * @param sScript
+   *        the script code
+   * @exception ScriptException
+   *            if there's no suitable engine or the script can't be compiled
+   */
+  public ScriptModule (final String sLanguage, final String sScript) throws ScriptException
+  {
+    m_sLanguage = sLanguage;
+    m_sScript = sScript != null ? sScript : "";
+
+    final ScriptEngine aEngine = new ScriptEngineManager ().getEngineByName (sLanguage);
+    if (aEngine == null)
+      throw new ScriptException ("No script engine found for language '" + sLanguage + "'");
+    if (!(aEngine instanceof Invocable))
+      throw new ScriptException ("The script engine for language '" + sLanguage + "' doesn't support function calls");
+    m_aFactory = aEngine.getFactory ();
+    _load (aEngine);
+
+    if (m_aFactory.getParameter ("THREADING") != null)
+      m_aSharedEngine = aEngine;
+    else
+    {
+      m_aSharedEngine = null;
+      m_aUnclaimedEngine.set (aEngine);
+    }
+  }
+
+  /** Compiles and evaluates the script in the passed engine */
+  private void _load (final ScriptEngine aEngine) throws ScriptException
+  {
+    if (aEngine instanceof Compilable)
+    {
+      final CompiledScript aCompiled = ((Compilable) aEngine).compile (m_sScript);
+      aCompiled.eval ();
+    }
+    else
+      aEngine.eval (m_sScript);
+  }
+
+  /** @return a new engine for the current thread */
+  private ScriptEngine _claimEngine ()
+  {
+    final ScriptEngine aEngine = m_aUnclaimedEngine.getAndSet (null);
+    if (aEngine != null)
+      return aEngine;
+
+    final ScriptEngine aNewEngine = m_aFactory.getScriptEngine ();
+    try
+    {
+      _load (aNewEngine);
+    }
+    catch (final ScriptException ex)
+    {
+      // the same script compiled successfully before
+      throw new IllegalStateException ("Failed to load the " + m_sLanguage + " script into a new engine", ex);
+    }
+    return aNewEngine;
+  }
+
+  /** @return the engine to be used by the current thread */
+  ScriptEngine getEngine ()
+  {
+    return m_aSharedEngine != null ? m_aSharedEngine : m_aThreadEngine.get ();
+  }
+
+  /** @return the scripting language */
+  public String getLanguage ()
+  {
+    return m_sLanguage;
+  }
+
+  /**
+   * Calls a function defined by the script.
+   *
+   * @param sFuncName
+   *        the name of the function
+   * @param aArgs
+   *        the already converted arguments
+   * @return the result of the function
+   * @exception ScriptException
+   *            if the function failed
+   * @exception NoSuchMethodException
+   *            if the script doesn't define this function
+   */
+  public Object invoke (final String sFuncName, final Object [] aArgs) throws ScriptException, NoSuchMethodException
+  {
+    return ((Invocable) getEngine ()).invokeFunction (sFuncName, aArgs);
+  }
+}
@@ -35,6 +35,7 @@ import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.AbstractNodeBase;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ErrorHandlerImpl;
+import net.sf.joost.stx.LiteralFragment;
 import net.sf.joost.stx.SAXEvent;
 
 /**
@@ -225,6 +226,43 @@ public class DebugEmitter extends Emitter
     m_aTraceMgr.fireResultText (saxevent);
   }
 
+  /**
+   * overloaded method for debug information
+   */
+  @Override
+  public void characters (final CharSequence chars, final AbstractNodeBase instruction) throws SAXException
+  {
+    if (log.isDebugEnabled ())
+      log.debug ("characters in resultdoc");
+    SAXEvent saxevent;
+    saxevent = SAXEvent.newText (chars.toString ());
+    super.characters (chars, instruction);
+    // update locator
+    updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
+    m_aTraceMgr.fireResultText (saxevent);
+  }
+
+  /**
+   * Always returns <code>false</code>, so that trace listeners receive the
+   * events of literal fragments one by one
+   */
+  @Override
+  public boolean literalFragment (final LiteralFragment fragment,
+                                  final AbstractNodeBase instruction) throws SAXException
+  {
+    return false;
+  }
+
+  /**
+   * Always returns <code>false</code>, so that trace listeners receive the
+   * events of copied content one by one
+   */
+  @Override
+  public boolean isRawContentAllowed (final Map <String, String> namespaces, final String encoding)
+  {
+    return false;
+  }
+
   /**
    * overloaded method for debug information
    */
@@ -262,6 +300,22 @@ public class DebugEmitter extends Emitter
     m_aTraceMgr.fireResultComment (saxevent);
   }
 
+  /**
+   * overloaded method for debug information
+   */
+  @Override
+  public void comment (final CharSequence chars, final AbstractNodeBase instruction) throws SAXException
+  {
+    if (log.isDebugEnabled ())
+      log.debug ("comment in resultdoc");
+    SAXEvent saxevent;
+    saxevent = SAXEvent.newComment (chars.toString ());
+    super.comment (chars, instruction);
+    // update locator
+    updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
+    m_aTraceMgr.fireResultComment (saxevent);
+  }
+
   /**
    * overloaded method for debug information
    */
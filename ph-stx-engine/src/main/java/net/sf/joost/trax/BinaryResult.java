@@ -0,0 +1,56 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * A <code>Result</code> that receives the transformation output as binary
+ * event stream (see {@link net.sf.joost.emitter.BinaryEmitter}) instead of
+ * serialized XML. The output can be used as input of another transformation
+ * by means of a {@link BinarySource}, which avoids serializing and parsing
+ * the intermediate document. Output properties are ignored.
+ *
+ * @author Philip Helger
+ */
+public class BinaryResult extends StreamResult
+{
+  /**
+   * @param aOS
+   *        the stream receiving the binary events; it will not be closed
+   */
+  public BinaryResult (@Nonnull final OutputStream aOS)
+  {
+    super (aOS);
+  }
+
+  /**
+   * @param aFile
+   *        the file receiving the binary events
+   */
+  public BinaryResult (@Nonnull final File aFile)
+  {
+    super (aFile);
+  }
+}
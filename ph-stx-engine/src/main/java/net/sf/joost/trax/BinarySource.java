@@ -0,0 +1,59 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.InputSource;
+
+import net.sf.joost.stx.BinaryEventReader;
+
+/**
+ * A <code>Source</code> for event streams written by a {@link BinaryResult}
+ * (or a {@link net.sf.joost.emitter.BinaryEmitter}). The events are reported
+ * by a {@link BinaryEventReader}, so the transformation input is neither
+ * parsed nor decoded.
+ *
+ * @author Philip Helger
+ */
+public class BinarySource extends SAXSource
+{
+  /**
+   * @param aIS
+   *        the stream containing the binary events
+   */
+  public BinarySource (@Nonnull final InputStream aIS)
+  {
+    super (new BinaryEventReader (), new InputSource (aIS));
+  }
+
+  /**
+   * @param aFile
+   *        the file containing the binary events
+   */
+  public BinarySource (@Nonnull final File aFile)
+  {
+    super (new BinaryEventReader (), new InputSource (aFile.toURI ().toASCIIString ()));
+  }
+}
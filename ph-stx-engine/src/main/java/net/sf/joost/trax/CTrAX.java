@@ -86,6 +86,95 @@ public final class CTrAX
    */
   public final static String ALLOW_EXTERNAL_FUNCTIONS = "http://joost.sf.net/attributes/allow-external-functions";
 
+  /**
+   * Key for a Joost property that determines whether the processor checks at
+   * runtime for ambiguous template rules, i.e. for further templates with the
+   * same priority that match the current node. If set to
+   * <code>false</code>, the first matching template will be used without
+   * reporting an error. Its property value must be a Boolean, the default is
+   * <code>true</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String CHECK_AMBIGUOUS_TEMPLATES = "http://joost.sf.net/attributes/check-ambiguous-templates";
+
+  /**
+   * Key for a Joost property that determines whether transformations will be
+   * executed in a pipeline of three threads for parsing, processing and
+   * serializing (see {@link net.sf.joost.stx.ProcessorPipeline}). Its property
+   * value must be a Boolean, the default is <code>false</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String PIPELINED_EXECUTION = "http://joost.sf.net/attributes/pipelined-execution";
+
+  /**
+   * Key for a Joost property that determines whether a
+   * <code>StreamSource</code> that denotes a UTF-8 encoded file will be read
+   * via memory mapping and passed to the XML parser as character
+   * stream (see {@link net.sf.joost.util.MappedFileReader}). Its property
+   * value must be a Boolean, the default is <code>false</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String MEMORY_MAPPED_INPUT = "http://joost.sf.net/attributes/memory-mapped-input";
+
+  /**
+   * Key for a Joost property that determines whether the subtrees of the
+   * source document that can't be observed by the transformation sheet will be
+   * dropped right after parsing (see {@link net.sf.joost.stx.Projection}). Its
+   * property value must be a Boolean, the default is <code>false</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String DOCUMENT_PROJECTION = "http://joost.sf.net/attributes/document-projection";
+
+  /**
+   * Key for a Joost property that determines whether the content of elements
+   * that are copied unchanged by the pass-through rules will be written to an
+   * XML result as it has been read from the source document, without
+   * processing its events (see
+   * {@link net.sf.joost.stx.Processor#setRawInput(net.sf.joost.util.RawInputReader)}).
+   * It applies to a <code>StreamSource</code> with a character stream, or with
+   * a UTF-8 encoded byte stream or file. Its property value must be a
+   * Boolean, the default is <code>false</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String RAW_PASS_THROUGH = "http://joost.sf.net/attributes/raw-pass-through";
+
+  /**
+   * Key for a Joost property that determines the number of background threads
+   * that write the files of <code>stx:result-document</code> instructions (see
+   * {@link net.sf.joost.stx.ResultWriterPool}). Its property value must be an
+   * Integer, the default is <code>0</code>, which means that the files will be
+   * written by the transformation thread.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String RESULT_WRITER_THREADS = "http://joost.sf.net/attributes/result-writer-threads";
+
+  /**
+   * Key for a Joost property that determines the number of characters from
+   * which on a text node will be kept in a temporary file instead of the heap
+   * (see {@link net.sf.joost.stx.Processor#setLargeTextThreshold(int)}). Its
+   * property value must be an Integer, the default is <code>0</code>, which
+   * means that all text nodes will be kept on the heap.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String LARGE_TEXT_THRESHOLD = "http://joost.sf.net/attributes/large-text-threshold";
+
+  /**
+   * Key for a Joost property that determines the maximum length of a match of
+   * <code>stx:analyze-text</code> in a large text node (see
+   * {@link net.sf.joost.stx.Processor#setMaxMatchLength(int)}). Its property
+   * value must be an Integer, the default is <code>65536</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String MAX_MATCH_LENGTH = "http://joost.sf.net/attributes/max-match-length";
+
   /**
    * Key for a Joost output property that determines whether the PIs for
    * controlling disable-output-escaping
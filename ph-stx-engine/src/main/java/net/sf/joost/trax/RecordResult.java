@@ -0,0 +1,57 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.sax.SAXResult;
+
+import net.sf.joost.emitter.RecordEmitter;
+
+/**
+ * A <code>Result</code> that delivers the records found in the transformation
+ * output as Java objects (see {@link RecordEmitter}) instead of serialized
+ * XML. Output properties are ignored.
+ *
+ * @author Philip Helger
+ */
+public class RecordResult extends SAXResult
+{
+  private final RecordEmitter <?> m_aEmitter;
+
+  /**
+   * @param aEmitter
+   *        the emitter that creates and delivers the records
+   */
+  public RecordResult (@Nonnull final RecordEmitter <?> aEmitter)
+  {
+    super (aEmitter);
+    setLexicalHandler (aEmitter);
+    m_aEmitter = aEmitter;
+  }
+
+  /**
+   * @return the emitter passed to the constructor
+   */
+  @Nonnull
+  public RecordEmitter <?> getRecordEmitter ()
+  {
+    return m_aEmitter;
+  }
+}
@@ -35,6 +35,7 @@ import net.sf.joost.CSTX;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Parser;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.ResultWriterPool;
 import net.sf.joost.trace.DebugProcessor;
 
 /**
@@ -154,6 +155,11 @@ public class TemplatesImpl implements Templates
       }
       m_aProcessor.setTransformerHandlerResolver (m_aFactory.m_aTHResolver);
       m_aProcessor.setOutputURIResolver (m_aFactory.m_aOutputUriResolver);
+      if (m_aFactory.m_nResultWriterThreads > 0)
+        m_aProcessor.setResultWriterPool (new ResultWriterPool (m_aFactory.m_nResultWriterThreads));
+      m_aProcessor.setLargeTextThreshold (m_aFactory.m_nLargeTextThreshold);
+      m_aProcessor.setMaxMatchLength (m_aFactory.m_nMaxMatchLength);
+      m_aProcessor.setDocumentProjection (m_aFactory.m_bDocumentProjection);
     }
     catch (final org.xml.sax.SAXException sE)
     {
@@ -195,6 +201,7 @@ public class TemplatesImpl implements Templates
 
       final ParseContext pContext = new ParseContext ();
       pContext.allowExternalFunctions = m_aFactory.m_bAllowExternalFunctions;
+      pContext.checkAmbiguousTemplates = m_aFactory.m_bCheckAmbiguousTemplates;
       pContext.setErrorListener (m_aFactory.getErrorListener ());
       pContext.uriResolver = m_aFactory.getURIResolver ();
       if (debugmode)
@@ -210,6 +217,11 @@ public class TemplatesImpl implements Templates
       }
       m_aProcessor.setTransformerHandlerResolver (m_aFactory.m_aTHResolver);
       m_aProcessor.setOutputURIResolver (m_aFactory.m_aOutputUriResolver);
+      if (m_aFactory.m_nResultWriterThreads > 0)
+        m_aProcessor.setResultWriterPool (new ResultWriterPool (m_aFactory.m_nResultWriterThreads));
+      m_aProcessor.setLargeTextThreshold (m_aFactory.m_nLargeTextThreshold);
+      m_aProcessor.setMaxMatchLength (m_aFactory.m_nMaxMatchLength);
+      m_aProcessor.setDocumentProjection (m_aFactory.m_bDocumentProjection);
     }
     catch (final java.io.IOException iE)
     {
@@ -252,7 +264,10 @@ public class TemplatesImpl implements Templates
       try
       {
         // register the processor
-        final Transformer transformer = new TransformerImpl (m_aProcessor.copy ());
+        final TransformerImpl transformer = new TransformerImpl (m_aProcessor.copy ());
+        transformer.setPipelinedExecution (m_aFactory.m_bPipelinedExecution);
+        transformer.setMemoryMappedInput (m_aFactory.m_bMemoryMappedInput);
+        transformer.setRawPassThrough (m_aFactory.m_bRawPassThrough);
         if (m_aFactory.getURIResolver () != null)
           transformer.setURIResolver (m_aFactory.getURIResolver ());
         return transformer;
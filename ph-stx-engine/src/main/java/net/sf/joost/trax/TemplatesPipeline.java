@@ -0,0 +1,183 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.emitter.IStxEmitter;
+import net.sf.joost.stx.Processor;
+
+/**
+ * A chain of STX transformations that will be executed in one pass, each
+ * transformation processing the result of its predecessor. Adjacent stages are
+ * connected directly (see {@link Processor#startAdoptedElement}): element
+ * names, attribute objects and character sequences created by one stage are
+ * passed on to the next stage without copying them.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * TemplatesPipeline pipeline = new TemplatesPipeline (Arrays.asList (templates1, templates2));
+ * pipeline.getTransformer (1).setParameter ("p", "value");
+ * pipeline.transform (new StreamSource (in), new StreamResult (out));
+ * </pre>
+ *
+ * A pipeline must not be used by several threads concurrently.
+ *
+ * @author Philip Helger
+ */
+public class TemplatesPipeline
+{
+  private final TransformerImpl [] m_aTransformers;
+  private ErrorListener m_aErrorListener = new TransformationErrListener ();
+
+  /**
+   * Constructor
+   *
+   * @param aTemplates
+   *        the stages of the pipeline, must be Joost <code>Templates</code>
+   *        objects
+   * @throws TransformerConfigurationException
+   *         if there are no stages or a <code>Templates</code> object doesn't
+   *         create Joost transformers
+   */
+  public TemplatesPipeline (@Nonnull final List <? extends Templates> aTemplates) throws TransformerConfigurationException
+  {
+    if (aTemplates.isEmpty ())
+      throw new TransformerConfigurationException ("A pipeline needs at least one stage");
+    m_aTransformers = new TransformerImpl [aTemplates.size ()];
+    for (int i = 0; i < m_aTransformers.length; i++)
+    {
+      final Transformer transformer = aTemplates.get (i).newTransformer ();
+      if (!(transformer instanceof TransformerImpl))
+        throw new TransformerConfigurationException ("Stage " +
+                                                     i +
+                                                     " is not an STX transformation of Joost: " +
+                                                     transformer);
+      m_aTransformers[i] = (TransformerImpl) transformer;
+    }
+  }
+
+  /** @return the number of stages */
+  @Nonnegative
+  public int getStageCount ()
+  {
+    return m_aTransformers.length;
+  }
+
+  /**
+   * Gives access to a stage, for example for setting parameters. The output
+   * properties of the last stage determine the serialization of the result.
+   *
+   * @param nStage
+   *        the index of the stage, starting with 0
+   * @return the transformer of this stage
+   */
+  @Nonnull
+  public Transformer getTransformer (@Nonnegative final int nStage)
+  {
+    return m_aTransformers[nStage];
+  }
+
+  /**
+   * Registers an error listener for all stages.
+   *
+   * @param aListener
+   *        the error listener
+   */
+  public void setErrorListener (@Nonnull final ErrorListener aListener)
+  {
+    m_aErrorListener = aListener;
+    for (final TransformerImpl transformer : m_aTransformers)
+      transformer.setErrorListener (aListener);
+  }
+
+  /**
+   * Transforms a source document through all stages.
+   *
+   * @param xmlSource
+   *        the input of the first stage
+   * @param result
+   *        receives the output of the last stage
+   * @throws TransformerException
+   *         if one of the stages failed
+   */
+  public void transform (@Nonnull final Source xmlSource, @Nonnull final Result result) throws TransformerException
+  {
+    final Processor first = m_aTransformers[0].getStxProcessor ();
+    final Processor last = m_aTransformers[m_aTransformers.length - 1].getStxProcessor ();
+    try
+    {
+      // connect the stages
+      for (int i = 0; i < m_aTransformers.length; i++)
+      {
+        final Processor processor = m_aTransformers[i].getStxProcessor ();
+        if (m_aTransformers[i].getErrorListener () != null)
+          processor.setErrorListener (m_aTransformers[i].getErrorListener ());
+        if (i > 0)
+        {
+          m_aTransformers[i - 1].getStxProcessor ().setContentHandler (processor);
+          m_aTransformers[i - 1].getStxProcessor ().setLexicalHandler (processor);
+        }
+      }
+
+      final IStxEmitter out = TrAXHelper.initStxEmitter (result, last, null);
+      out.setSystemId (result.getSystemId ());
+      last.setContentHandler (out);
+      last.setLexicalHandler (out);
+
+      final SAXSource saxSource = TrAXHelper.getSAXSource (xmlSource, m_aErrorListener);
+      final InputSource isource = saxSource.getInputSource ();
+      if (isource == null)
+        throw new TransformerException ("InputSource is null - could not perform transformation");
+      if (saxSource.getXMLReader () != null)
+        first.setParent (saxSource.getXMLReader ());
+      first.parse (isource);
+
+      TrAXHelper.performResult (result, out);
+    }
+    catch (final SAXException ex)
+    {
+      final Exception emb = ex.getException ();
+      if (emb instanceof TransformerException)
+        throw (TransformerException) emb;
+      throw new TransformerException (ex.getMessage (), ex);
+    }
+    catch (final IOException ex)
+    {
+      throw new TransformerException (ex.getMessage (), ex);
+    }
+  }
+}
@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Properties;
@@ -52,6 +53,7 @@ import org.xml.sax.InputSource;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.emitter.AbstractStreamEmitter;
+import net.sf.joost.emitter.BinaryEmitter;
 import net.sf.joost.emitter.DOMEmitter;
 import net.sf.joost.emitter.IStxEmitter;
 import net.sf.joost.emitter.SAXEmitter;
@@ -204,6 +206,20 @@ public class TrAXHelper
     // Return the content handler for this Result object
     try
     {
+      // BinaryResult is a special StreamResult
+      if (result instanceof BinaryResult)
+      {
+        if (CSTX.DEBUG)
+          log.debug ("return BinaryResult specific Implementation for StxEmitter");
+        final OutputStream ostream = ((BinaryResult) result).getOutputStream ();
+        if (ostream != null)
+          return new BinaryEmitter (ostream);
+        final String systemId = result.getSystemId ();
+        if (systemId == null)
+          throw new TransformerException ("JAXP_NO_RESULT_ERR");
+        return new BinaryEmitter (new FileOutputStream (new File (URI.create (systemId))), true);
+      }
+
       // Result object could be SAXResult, DOMResult, or StreamResult
       if (result instanceof SAXResult)
       {
@@ -306,6 +322,54 @@ public class TrAXHelper
     return null;
   }
 
+  /**
+   * Performs the <code>Result</code> after a transformation, i.e. passes a
+   * created DOM tree to a <code>DOMResult</code>.
+   *
+   * @param result
+   *        A <code>Result</code>
+   * @param out
+   *        <code>StxEmitter</code>.
+   */
+  public static void performResult (final Result result, final IStxEmitter out)
+  {
+    if (CSTX.DEBUG)
+      log.debug ("perform result");
+    // DOMResult
+    if (result instanceof DOMResult)
+    {
+      if (CSTX.DEBUG)
+        log.debug ("result is a DOMResult");
+      final Node nodeResult = ((DOMEmitter) out).getDOMTree ();
+      // DOM specific Implementation
+      ((DOMResult) result).setNode (nodeResult);
+      return;
+    }
+    // StreamResult
+    if (result instanceof StreamResult)
+    {
+      if (CSTX.DEBUG)
+        log.debug ("result is a StreamResult");
+      return;
+    }
+    // RecordResult, the records have been delivered already
+    if (result instanceof RecordResult)
+    {
+      if (CSTX.DEBUG)
+        log.debug ("result is a RecordResult with " +
+                   ((RecordResult) result).getRecordEmitter ().getRecordCount () +
+                   " records");
+      return;
+    }
+    // SAXResult
+    if (result instanceof SAXResult)
+    {
+      if (CSTX.DEBUG)
+        log.debug ("result is a SAXResult");
+      return;
+    }
+  }
+
   /**
    * Converts a supplied <code>Source</code> to a <code>SAXSource</code>.
    *
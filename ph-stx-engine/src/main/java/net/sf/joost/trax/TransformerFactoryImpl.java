@@ -75,6 +75,14 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
   protected ITransformerHandlerResolver m_aTHResolver;
   protected IOutputURIResolver m_aOutputUriResolver;
   protected boolean m_bAllowExternalFunctions = true;
+  protected boolean m_bCheckAmbiguousTemplates = true;
+  protected boolean m_bPipelinedExecution = false;
+  protected boolean m_bMemoryMappedInput = false;
+  protected boolean m_bDocumentProjection = false;
+  protected boolean m_bRawPassThrough = false;
+  protected int m_nResultWriterThreads = 0;
+  protected int m_nLargeTextThreshold = 0;
+  protected int m_nMaxMatchLength = Processor.DEFAULT_MAX_MATCH_LENGTH;
 
   // init default errorlistener
   // visible for TemplatesImpl
@@ -169,6 +177,22 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
       return System.getProperty (CTrAX.KEY_XSLT_FACTORY);
     if (CTrAX.ALLOW_EXTERNAL_FUNCTIONS.equals (name))
       return Boolean.valueOf (m_bAllowExternalFunctions);
+    if (CTrAX.CHECK_AMBIGUOUS_TEMPLATES.equals (name))
+      return Boolean.valueOf (m_bCheckAmbiguousTemplates);
+    if (CTrAX.PIPELINED_EXECUTION.equals (name))
+      return Boolean.valueOf (m_bPipelinedExecution);
+    if (CTrAX.MEMORY_MAPPED_INPUT.equals (name))
+      return Boolean.valueOf (m_bMemoryMappedInput);
+    if (CTrAX.DOCUMENT_PROJECTION.equals (name))
+      return Boolean.valueOf (m_bDocumentProjection);
+    if (CTrAX.RAW_PASS_THROUGH.equals (name))
+      return Boolean.valueOf (m_bRawPassThrough);
+    if (CTrAX.RESULT_WRITER_THREADS.equals (name))
+      return Integer.valueOf (m_nResultWriterThreads);
+    if (CTrAX.LARGE_TEXT_THRESHOLD.equals (name))
+      return Integer.valueOf (m_nLargeTextThreshold);
+    if (CTrAX.MAX_MATCH_LENGTH.equals (name))
+      return Integer.valueOf (m_nMaxMatchLength);
     if (CTrAX.DEBUG_FEATURE.equals (name))
       return Boolean.valueOf (m_bDebugmode);
 
@@ -238,15 +262,55 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
               this.m_bAllowExternalFunctions = ((Boolean) value).booleanValue ();
             }
             else
-              if (CTrAX.DEBUG_FEATURE.equals (name))
+              if (CTrAX.CHECK_AMBIGUOUS_TEMPLATES.equals (name))
               {
-                this.m_bDebugmode = ((Boolean) value).booleanValue ();
+                this.m_bCheckAmbiguousTemplates = ((Boolean) value).booleanValue ();
               }
               else
-              {
-                log.warn ("Feature not supported: " + name);
-                throw new IllegalArgumentException ("Feature not supported: " + name);
-              }
+                if (CTrAX.PIPELINED_EXECUTION.equals (name))
+                {
+                  this.m_bPipelinedExecution = ((Boolean) value).booleanValue ();
+                }
+                else
+                  if (CTrAX.MEMORY_MAPPED_INPUT.equals (name))
+                  {
+                    this.m_bMemoryMappedInput = ((Boolean) value).booleanValue ();
+                  }
+                  else
+                    if (CTrAX.DOCUMENT_PROJECTION.equals (name))
+                    {
+                      this.m_bDocumentProjection = ((Boolean) value).booleanValue ();
+                    }
+                    else
+                      if (CTrAX.RAW_PASS_THROUGH.equals (name))
+                      {
+                        this.m_bRawPassThrough = ((Boolean) value).booleanValue ();
+                      }
+                      else
+                        if (CTrAX.RESULT_WRITER_THREADS.equals (name))
+                        {
+                          this.m_nResultWriterThreads = ((Integer) value).intValue ();
+                        }
+                        else
+                          if (CTrAX.LARGE_TEXT_THRESHOLD.equals (name))
+                          {
+                            this.m_nLargeTextThreshold = ((Integer) value).intValue ();
+                          }
+                          else
+                            if (CTrAX.MAX_MATCH_LENGTH.equals (name))
+                            {
+                              this.m_nMaxMatchLength = ((Integer) value).intValue ();
+                            }
+                            else
+                              if (CTrAX.DEBUG_FEATURE.equals (name))
+                              {
+                                this.m_bDebugmode = ((Boolean) value).booleanValue ();
+                              }
+                              else
+                              {
+                                log.warn ("Feature not supported: " + name);
+                                throw new IllegalArgumentException ("Feature not supported: " + name);
+                              }
   }
 
   /**
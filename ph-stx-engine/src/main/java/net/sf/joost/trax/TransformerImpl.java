@@ -32,26 +32,27 @@ import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import net.sf.joost.CSTX;
-import net.sf.joost.emitter.DOMEmitter;
 import net.sf.joost.emitter.IStxEmitter;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.ProcessorPipeline;
+import net.sf.joost.stx.Projection;
+import net.sf.joost.stx.ProjectionFilter;
 import net.sf.joost.trace.DebugEmitter;
 import net.sf.joost.trace.DebugProcessor;
 import net.sf.joost.trace.TraceManager;
+import net.sf.joost.util.MappedFileReader;
+import net.sf.joost.util.RawInputReader;
 
 /**
  * This class implements the Transformer-Interface for TraX. With a
@@ -82,7 +83,7 @@ public class TransformerImpl extends Transformer
    * Synch object to gaurd against setting values from the TrAX interface or
    * reentry while the transform is going on.
    */
-  private final Boolean reentryGuard = Boolean.TRUE;
+  private final Object reentryGuard = new Object ();
 
   /**
    * This is a compile-time flag to enable or disable calling of trace
@@ -102,6 +103,23 @@ public class TransformerImpl extends Transformer
    */
   private final TraceManager traceManager = new TraceManager ();
 
+  /**
+   * Whether parsing, processing and serializing run on separate threads (not
+   * supported in debug mode)
+   */
+  private boolean m_bPipelinedExecution = false;
+
+  /**
+   * Whether files of stream sources are read via {@link MappedFileReader}
+   */
+  private boolean m_bMemoryMappedInput = false;
+
+  /**
+   * Whether copied content of stream sources is written as read (not
+   * supported in debug mode and for pipelined execution)
+   */
+  private boolean m_bRawPassThrough = false;
+
   /**
    * Constructor
    *
@@ -167,6 +185,7 @@ public class TransformerImpl extends Transformer
 
     IStxEmitter out = null;
     SAXSource saxSource = null;
+    MappedFileReader mappedReader = null;
 
     // should be synchronized
     synchronized (reentryGuard)
@@ -196,6 +215,39 @@ public class TransformerImpl extends Transformer
 
         final InputSource isource = saxSource.getInputSource ();
 
+        if (m_bMemoryMappedInput &&
+            xmlSource instanceof StreamSource &&
+            isource != null &&
+            isource.getByteStream () == null &&
+            isource.getCharacterStream () == null)
+        {
+          // the InputSource has been created by getSAXSource, so it may be
+          // modified
+          mappedReader = MappedFileReader.open (isource.getSystemId ());
+          if (mappedReader != null)
+            isource.setCharacterStream (mappedReader);
+        }
+
+        if (m_bRawPassThrough &&
+            xmlSource instanceof StreamSource &&
+            isource != null &&
+            !m_bPipelinedExecution &&
+            !(m_aProcessor instanceof DebugProcessor))
+        {
+          if (mappedReader == null && isource.getByteStream () == null && isource.getCharacterStream () == null)
+          {
+            mappedReader = MappedFileReader.open (isource.getSystemId ());
+            if (mappedReader != null)
+              isource.setCharacterStream (mappedReader);
+          }
+          final RawInputReader rawReader = RawInputReader.open (isource);
+          if (rawReader != null)
+          {
+            isource.setCharacterStream (rawReader);
+            m_aProcessor.setRawInput (rawReader);
+          }
+        }
+
         if (isource != null)
         {
           if (CSTX.DEBUG)
@@ -251,8 +303,18 @@ public class TransformerImpl extends Transformer
             this.m_aProcessor.setParent (saxSource.getXMLReader ());
           }
 
+          // drop the parts of the source that can't be observed
+          final Projection projection = m_aProcessor.getProjection ();
+          if (projection != null &&
+              !(m_aProcessor instanceof DebugProcessor) &&
+              !(m_aProcessor.getParent () instanceof ProjectionFilter))
+            this.m_aProcessor.setParent (new ProjectionFilter (projection, m_aProcessor.getParent ()));
+
           // perform transformation
-          this.m_aProcessor.parse (isource);
+          if (m_bPipelinedExecution && !(m_aProcessor instanceof DebugProcessor))
+            new ProcessorPipeline (m_aProcessor).transform (m_aProcessor.getParent (), isource, out, out);
+          else
+            this.m_aProcessor.parse (isource);
         }
         else
         {
@@ -260,7 +322,7 @@ public class TransformerImpl extends Transformer
           getErrorListener ().fatalError (tE);
         }
         // perform result
-        performResults (result, out);
+        TrAXHelper.performResult (result, out);
       }
       catch (final SAXException ex)
       {
@@ -281,46 +343,65 @@ public class TransformerImpl extends Transformer
         // will this ever happen?
         getErrorListener ().fatalError (new TransformerException (ex.getMessage (), ex));
       }
+      finally
+      {
+        m_aProcessor.setRawInput (null);
+        // a failed transformation leaves the record consumer running
+        if (result instanceof RecordResult)
+          ((RecordResult) result).getRecordEmitter ().close ();
+        if (mappedReader != null)
+        {
+          try
+          {
+            mappedReader.close ();
+          }
+          catch (final IOException ex)
+          {
+            // ignore
+          }
+        }
+      }
     }
   }
 
   /**
-   * Performs the <code>Result</code>.
+   * Enables or disables the pipelined execution of transformations.
    *
-   * @param result
-   *        A <code>Result</code>
-   * @param out
-   *        <code>StxEmitter</code>.
+   * @param bPipelinedExecution
+   *        <code>true</code> for executing parsing, processing and
+   *        serializing on separate threads
+   * @see ProcessorPipeline
    */
-  private void performResults (final Result result, final IStxEmitter out)
+  void setPipelinedExecution (final boolean bPipelinedExecution)
   {
+    m_bPipelinedExecution = bPipelinedExecution;
+  }
 
-    if (CSTX.DEBUG)
-      log.debug ("perform result");
-    // DOMResult
-    if (result instanceof DOMResult)
-    {
-      if (CSTX.DEBUG)
-        log.debug ("result is a DOMResult");
-      final Node nodeResult = ((DOMEmitter) out).getDOMTree ();
-      // DOM specific Implementation
-      ((DOMResult) result).setNode (nodeResult);
-      return;
-    }
-    // StreamResult
-    if (result instanceof StreamResult)
-    {
-      if (CSTX.DEBUG)
-        log.debug ("result is a StreamResult");
-      return;
-    }
-    // SAXResult
-    if (result instanceof SAXResult)
-    {
-      if (CSTX.DEBUG)
-        log.debug ("result is a SAXResult");
-      return;
-    }
+  /**
+   * Enables or disables reading the files of stream sources via memory
+   * mapping.
+   *
+   * @param bMemoryMappedInput
+   *        <code>true</code> for reading UTF-8 encoded files through a
+   *        {@link MappedFileReader}
+   */
+  void setMemoryMappedInput (final boolean bMemoryMappedInput)
+  {
+    m_bMemoryMappedInput = bMemoryMappedInput;
+  }
+
+  /**
+   * Enables or disables writing the copied content of stream sources as it
+   * has been read.
+   *
+   * @param bRawPassThrough
+   *        <code>true</code> for passing the source document through a
+   *        {@link RawInputReader}
+   * @see Processor#setRawInput(RawInputReader)
+   */
+  void setRawPassThrough (final boolean bRawPassThrough)
+  {
+    m_bRawPassThrough = bRawPassThrough;
   }
 
   /**
@@ -0,0 +1,107 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.nio.CharBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Provides static methods for copying character data out of
+ * {@link CharSequence} objects without creating intermediate strings.
+ *
+ * @author Philip Helger
+ */
+public final class CharSequenceUtils
+{
+  private CharSequenceUtils ()
+  {
+    // there are no instances of this class
+  }
+
+  /**
+   * Copies characters from a sequence into an array, the counterpart of
+   * {@link String#getChars(int, int, char[], int)} for all common
+   * {@link CharSequence} implementations.
+   */
+  public static void getChars (@Nonnull final CharSequence chars,
+                               final int srcBegin,
+                               final int srcEnd,
+                               @Nonnull final char [] dst,
+                               final int dstBegin)
+  {
+    if (chars instanceof String)
+      ((String) chars).getChars (srcBegin, srcEnd, dst, dstBegin);
+    else
+      if (chars instanceof StringBuilder)
+        ((StringBuilder) chars).getChars (srcBegin, srcEnd, dst, dstBegin);
+      else
+        if (chars instanceof StringBuffer)
+          ((StringBuffer) chars).getChars (srcBegin, srcEnd, dst, dstBegin);
+        else
+          if (chars instanceof CharBuffer && ((CharBuffer) chars).hasArray ())
+          {
+            final CharBuffer cb = (CharBuffer) chars;
+            System.arraycopy (cb.array (), cb.arrayOffset () + cb.position () + srcBegin, dst, dstBegin, srcEnd - srcBegin);
+          }
+          else
+            if (chars instanceof LargeText)
+              ((LargeText) chars).getChars (srcBegin, srcEnd, dst, dstBegin);
+            else
+              for (int i = srcBegin, j = dstBegin; i < srcEnd; i++, j++)
+                dst[j] = chars.charAt (i);
+  }
+
+  /**
+   * @return the contents of the sequence as new array
+   */
+  @Nonnull
+  public static char [] toCharArray (@Nonnull final CharSequence chars)
+  {
+    if (chars instanceof String)
+      return ((String) chars).toCharArray ();
+    final char [] ret = new char [chars.length ()];
+    getChars (chars, 0, ret.length, ret, 0);
+    return ret;
+  }
+
+  /**
+   * Copies the contents of the sequence into the passed scratch array if it is
+   * large enough, otherwise into a new array.
+   *
+   * @param chars
+   *        the character sequence
+   * @param scratch
+   *        an array that may be reused, may be <code>null</code>
+   * @return the array holding the characters of <code>chars</code>, starting
+   *         at index 0. Either <code>scratch</code> or a new, larger array that
+   *         should be reused by the caller.
+   */
+  @Nonnull
+  public static char [] toCharArray (@Nonnull final CharSequence chars, final char [] scratch)
+  {
+    final int length = chars.length ();
+    char [] ret = scratch;
+    if (ret == null || ret.length < length)
+      ret = new char [Math.max (length, ret == null ? 256 : ret.length << 1)];
+    getChars (chars, 0, length, ret, 0);
+    return ret;
+  }
+}
@@ -0,0 +1,309 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * The characters of a large text node, kept in a temporary file outside of the
+ * Java heap. The file is mapped into memory, so random access through
+ * {@link #charAt(int)} (as needed by regular expressions) is cheap and leaves
+ * it to the operating system which parts of the text stay in memory.
+ * Instances are immutable and created by a {@link Builder}.
+ * <p>
+ * The temporary file is removed as soon as it has been mapped (or, on
+ * platforms that don't allow removing mapped files, when its mapping has been
+ * released). {@link #close()} releases the mapping of a text that won't be used
+ * any more.
+ * <p>
+ * {@link #toString()} creates the complete string on the heap and should only
+ * be used if a string value is really needed.
+ *
+ * @author Philip Helger
+ */
+public final class LargeText implements CharSequence
+{
+  /** The number of characters per mapped segment */
+  private static final int SEGMENT_SHIFT = 28;
+  private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+  /** The maximum number of characters passed downstream in one call */
+  public static final int CHUNK_SIZE = 1 << 16;
+
+  private CharBuffer [] m_aSegments;
+  private final int m_nLength;
+
+  private LargeText (final CharBuffer [] aSegments, final int nLength)
+  {
+    m_aSegments = aSegments;
+    m_nLength = nLength;
+  }
+
+  public int length ()
+  {
+    return m_nLength;
+  }
+
+  public char charAt (final int index)
+  {
+    if (index < 0 || index >= m_nLength)
+      throw new IndexOutOfBoundsException ("index " + index + ", length " + m_nLength);
+    return m_aSegments[index >>> SEGMENT_SHIFT].get (index & SEGMENT_MASK);
+  }
+
+  /**
+   * Copies characters into an array, see
+   * {@link String#getChars(int, int, char[], int)}.
+   */
+  public void getChars (final int srcBegin, final int srcEnd, @Nonnull final char [] dst, final int dstBegin)
+  {
+    if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > m_nLength)
+      throw new IndexOutOfBoundsException ("range " + srcBegin + "-" + srcEnd + ", length " + m_nLength);
+    int nSrc = srcBegin;
+    int nDst = dstBegin;
+    while (nSrc < srcEnd)
+    {
+      // a duplicate shares the content but has its own position
+      final CharBuffer aSegment = m_aSegments[nSrc >>> SEGMENT_SHIFT].duplicate ();
+      final int nOffset = nSrc & SEGMENT_MASK;
+      final int nCount = Math.min (srcEnd - nSrc, aSegment.limit () - nOffset);
+      ((Buffer) aSegment).position (nOffset);
+      aSegment.get (dst, nDst, nCount);
+      nSrc += nCount;
+      nDst += nCount;
+    }
+  }
+
+  /** @return the characters in the given range as string */
+  @Nonnull
+  public String subSequence (final int start, final int end)
+  {
+    final char [] aChars = new char [end - start];
+    getChars (start, end, aChars, 0);
+    return new String (aChars);
+  }
+
+  /**
+   * Releases the mapped segments, so that their memory (and the temporary file)
+   * can be freed by the garbage collector without waiting for this object. The
+   * text mustn't be used afterwards.
+   */
+  public void close ()
+  {
+    m_aSegments = null;
+  }
+
+  /** @return the complete text as string */
+  @Override
+  @Nonnull
+  public String toString ()
+  {
+    return subSequence (0, m_nLength);
+  }
+
+  /**
+   * @return <code>true</code> if the text consists of white space only
+   *         (according to {@link String#trim()})
+   */
+  public boolean isWhitespace ()
+  {
+    for (int i = 0; i < m_nLength; i++)
+      if (charAt (i) > ' ')
+        return false;
+    return true;
+  }
+
+  /**
+   * Passes the text to a handler in several <code>characters</code> calls of
+   * at most {@link #CHUNK_SIZE} characters each, so that the complete text is
+   * never copied onto the heap.
+   *
+   * @param handler
+   *        the handler that receives the characters
+   * @throws SAXException
+   *         as thrown by the handler
+   */
+  public void characters (@Nonnull final ContentHandler handler) throws SAXException
+  {
+    final char [] aChunk = new char [Math.min (m_nLength, CHUNK_SIZE)];
+    int nStart = 0;
+    while (nStart < m_nLength)
+    {
+      final int nEnd = getChunkEnd (this, nStart, m_nLength);
+      getChars (nStart, nEnd, aChunk, 0);
+      handler.characters (aChunk, 0, nEnd - nStart);
+      nStart = nEnd;
+    }
+  }
+
+  /**
+   * Determines the end of the next chunk of a text that is passed downstream
+   * piece by piece. A chunk never ends between the two characters of a
+   * surrogate pair.
+   *
+   * @param chars
+   *        the text
+   * @param start
+   *        the start of the chunk
+   * @param end
+   *        the end of the text range
+   * @return the end of the chunk, at most {@link #CHUNK_SIZE} characters after
+   *         <code>start</code>
+   */
+  public static int getChunkEnd (@Nonnull final CharSequence chars, final int start, final int end)
+  {
+    if (end - start <= CHUNK_SIZE)
+      return end;
+    final int nEnd = start + CHUNK_SIZE;
+    return Character.isHighSurrogate (chars.charAt (nEnd - 1)) ? nEnd - 1 : nEnd;
+  }
+
+  /**
+   * Collects the characters of a {@link LargeText} in a temporary file. Not
+   * thread-safe.
+   */
+  public static final class Builder
+  {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel m_aChannel;
+    private final ByteBuffer m_aBytes = ByteBuffer.allocate (BUFFER_SIZE);
+    private final CharBuffer m_aChars = m_aBytes.asCharBuffer ();
+    private long m_nLength = 0;
+
+    public Builder () throws IOException
+    {
+      final File aFile = File.createTempFile ("joost", ".txt");
+      try
+      {
+        // the file will be removed when the channel and all mappings have been
+        // closed (or even immediately on some platforms)
+        m_aChannel = FileChannel.open (aFile.toPath (),
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                       StandardOpenOption.DELETE_ON_CLOSE);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        aFile.delete ();
+        throw ex;
+      }
+    }
+
+    /** @return the number of characters appended so far */
+    public long length ()
+    {
+      return m_nLength;
+    }
+
+    public void append (@Nonnull final char [] ch, final int start, final int length) throws IOException
+    {
+      int nPos = start;
+      final int nEnd = start + length;
+      while (nPos < nEnd)
+      {
+        final int nCount = Math.min (nEnd - nPos, m_aChars.remaining ());
+        m_aChars.put (ch, nPos, nCount);
+        nPos += nCount;
+        if (!m_aChars.hasRemaining ())
+          _flush ();
+      }
+      m_nLength += length;
+    }
+
+    public void append (@Nonnull final CharSequence chars) throws IOException
+    {
+      final int nLength = chars.length ();
+      int nPos = 0;
+      while (nPos < nLength)
+      {
+        final int nCount = Math.min (nLength - nPos, m_aChars.remaining ());
+        for (int i = 0; i < nCount; i++)
+          m_aChars.put (chars.charAt (nPos + i));
+        nPos += nCount;
+        if (!m_aChars.hasRemaining ())
+          _flush ();
+      }
+      m_nLength += nLength;
+    }
+
+    private void _flush () throws IOException
+    {
+      ((Buffer) m_aBytes).clear ();
+      ((Buffer) m_aBytes).limit (m_aChars.position () * 2);
+      while (m_aBytes.hasRemaining ())
+        m_aChannel.write (m_aBytes);
+      ((Buffer) m_aChars).clear ();
+    }
+
+    /**
+     * Finishes the text. The builder mustn't be used afterwards.
+     *
+     * @return the text
+     * @throws IOException
+     *         if the temporary file couldn't be written or mapped
+     */
+    @Nonnull
+    public LargeText build () throws IOException
+    {
+      if (m_nLength > Integer.MAX_VALUE)
+        throw new IOException ("Text too large: " + m_nLength + " characters");
+      try
+      {
+        _flush ();
+        final int nLength = (int) m_nLength;
+        final CharBuffer [] aSegments = new CharBuffer [(nLength >>> SEGMENT_SHIFT) + 1];
+        for (int i = 0; i < aSegments.length; i++)
+        {
+          final long nStart = (long) i << SEGMENT_SHIFT;
+          final long nChars = Math.min (nLength - nStart, 1L << SEGMENT_SHIFT);
+          aSegments[i] = m_aChannel.map (MapMode.READ_ONLY, nStart * 2, nChars * 2).asCharBuffer ();
+        }
+        return new LargeText (aSegments, nLength);
+      }
+      finally
+      {
+        discard ();
+      }
+    }
+
+    /**
+     * Closes and removes the temporary file. Texts that have been built from
+     * this builder remain accessible.
+     */
+    public void discard () throws IOException
+    {
+      m_aChannel.close ();
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.io.CharConversionException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Reader} for UTF-8 encoded XML files that maps the file into
+ * memory and decodes it without an intermediate byte buffer and without a
+ * {@link java.nio.charset.CharsetDecoder}. Runs of ASCII characters are
+ * detected and widened eight bytes at a time. Files larger than the maximum
+ * window size are mapped in consecutive regions.
+ * <p>
+ * Passing this reader as character stream to the XML parser replaces the
+ * parser's own buffered byte input and decoding. Instances are created by
+ * {@link #open(File)}, which checks the byte order mark and the XML
+ * declaration of the file and returns <code>null</code> for other encodings.
+ *
+ * @author Philip Helger
+ */
+public final class MappedFileReader extends Reader
+{
+  /** The default maximum size of a mapped region */
+  static final long DEFAULT_WINDOW_SIZE = 1L << 28;
+
+  /** The number of bytes examined for detecting the encoding */
+  static final int HEAD_SIZE = 1024;
+
+  private static final Pattern ENCODING = Pattern.compile ("\\sencoding\\s*=\\s*([\"'])([^\"']*)\\1");
+
+  private final File m_aFile;
+  private final FileChannel m_aChannel;
+  private final long m_nFileSize;
+  private final long m_nWindowSize;
+
+  /** position of the current region within the file */
+  private long m_nWindowStart;
+  private MappedByteBuffer m_aBuf;
+
+  /** low surrogate that didn't fit into the last read request, or 0 */
+  private char m_cPending = 0;
+
+  private MappedFileReader (final File aFile,
+                            final FileChannel aChannel,
+                            final long nStart,
+                            final long nWindowSize) throws IOException
+  {
+    m_aFile = aFile;
+    m_aChannel = aChannel;
+    m_nFileSize = aChannel.size ();
+    m_nWindowSize = nWindowSize;
+    _map (nStart);
+  }
+
+  /**
+   * Opens a reader for the passed file if its contents are encoded in UTF-8.
+   * Files with an XML declaration that names another encoding (including
+   * US-ASCII) are rejected.
+   *
+   * @param aFile
+   *        the XML file
+   * @return a new reader positioned after a possible byte order mark, or
+   *         <code>null</code> if the file uses a different encoding
+   * @throws IOException
+   *         if the file cannot be opened or mapped
+   */
+  @Nullable
+  public static MappedFileReader open (@Nonnull final File aFile) throws IOException
+  {
+    return open (aFile, DEFAULT_WINDOW_SIZE);
+  }
+
+  @Nullable
+  static MappedFileReader open (@Nonnull final File aFile, final long nWindowSize) throws IOException
+  {
+    final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ);
+    boolean bSuccess = false;
+    try
+    {
+      final long nStart = _getContentStart (aChannel);
+      if (nStart < 0)
+        return null;
+      final MappedFileReader ret = new MappedFileReader (aFile, aChannel, nStart, nWindowSize);
+      bSuccess = true;
+      return ret;
+    }
+    finally
+    {
+      if (!bSuccess)
+        aChannel.close ();
+    }
+  }
+
+  /**
+   * Opens a reader for the file denoted by a system identifier.
+   *
+   * @param sSystemId
+   *        the system identifier, may be <code>null</code>
+   * @return a new reader, or <code>null</code> if the system identifier isn't
+   *         a <code>file:</code> URI of a regular file or if the file uses an
+   *         encoding other than UTF-8
+   * @throws IOException
+   *         if the file cannot be opened or mapped
+   * @see #open(File)
+   */
+  @Nullable
+  public static MappedFileReader open (@Nullable final String sSystemId) throws IOException
+  {
+    if (sSystemId == null || !sSystemId.startsWith ("file:"))
+      return null;
+    final File aFile;
+    try
+    {
+      aFile = new File (new URI (sSystemId));
+    }
+    catch (final Exception ex)
+    {
+      // not a hierarchical file URI
+      return null;
+    }
+    return aFile.isFile () ? open (aFile) : null;
+  }
+
+  /**
+   * Determines the encoding of the file from its first bytes.
+   *
+   * @return the start of the content, i.e. the length of the byte order mark,
+   *         or <code>-1</code> if the file is not UTF-8 encoded
+   */
+  private static long _getContentStart (final FileChannel aChannel) throws IOException
+  {
+    final ByteBuffer aHead = ByteBuffer.allocate (HEAD_SIZE);
+    while (aHead.hasRemaining () && aChannel.read (aHead, aHead.position ()) > 0)
+    {
+      // read on
+    }
+    return getContentStart (aHead.array (), aHead.position ());
+  }
+
+  /**
+   * Determines the encoding of an XML document from its first bytes.
+   *
+   * @param b
+   *        the first bytes of the document
+   * @param n
+   *        the number of valid bytes in <code>b</code>
+   * @return the start of the content, i.e. the length of the byte order mark,
+   *         or <code>-1</code> if the document is not UTF-8 encoded
+   */
+  static int getContentStart (final byte [] b, final int n)
+  {
+    if (n >= 3 && b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF)
+      return 3;
+    // UTF-16 or UTF-32 with or without byte order mark, or EBCDIC
+    if (n >= 2 && (b[0] == 0 || b[1] == 0 || (b[0] & 0xfe) == 0xfe || b[0] == 0x4c && b[1] == 0x6f))
+      return -1;
+
+    final String sHead = new String (b, 0, n, StandardCharsets.ISO_8859_1);
+    if (sHead.startsWith ("<?xml"))
+    {
+      final int nEnd = sHead.indexOf ("?>");
+      if (nEnd < 0)
+        return -1;
+      final Matcher m = ENCODING.matcher (sHead.substring (0, nEnd));
+      if (m.find ())
+      {
+        final String sEncoding = m.group (2);
+        // the reader decodes UTF-8 only, so documents declared as ASCII are
+        // left to the parser which rejects non-ASCII bytes in them
+        if (!"UTF-8".equalsIgnoreCase (sEncoding) && !"UTF8".equalsIgnoreCase (sEncoding))
+          return -1;
+      }
+    }
+    // no declaration means UTF-8
+    return 0;
+  }
+
+  private void _map (final long nStart) throws IOException
+  {
+    m_nWindowStart = nStart;
+    m_aBuf = m_aChannel.map (MapMode.READ_ONLY, nStart, Math.min (m_nWindowSize, m_nFileSize - nStart));
+  }
+
+  private CharConversionException _malformed (final int nPos)
+  {
+    return new CharConversionException ("Invalid UTF-8 byte sequence at offset " +
+                                        (m_nWindowStart + nPos) +
+                                        " of " +
+                                        m_aFile);
+  }
+
+  @Override
+  public int read (final char [] cbuf, final int off, final int len) throws IOException
+  {
+    if (m_aBuf == null)
+      throw new IOException ("Reader closed");
+    if (len == 0)
+      return 0;
+
+    final int nEnd = off + len;
+    int nOut = off;
+    if (m_cPending != 0)
+    {
+      cbuf[nOut++] = m_cPending;
+      m_cPending = 0;
+    }
+
+    MappedByteBuffer buf = m_aBuf;
+    int nPos = buf.position ();
+    int nLimit = buf.limit ();
+    while (nOut < nEnd)
+    {
+      if (nPos == nLimit)
+      {
+        final long nNext = m_nWindowStart + nLimit;
+        if (nNext == m_nFileSize)
+          break;
+        _map (nNext);
+        buf = m_aBuf;
+        nPos = 0;
+        nLimit = buf.limit ();
+      }
+
+      // fast path: eight ASCII characters at once
+      while (nPos + 8 <= nLimit && nOut + 8 <= nEnd)
+      {
+        final long l = buf.getLong (nPos);
+        if ((l & 0x8080808080808080L) != 0)
+          break;
+        cbuf[nOut] = (char) (l >>> 56);
+        cbuf[nOut + 1] = (char) ((l >>> 48) & 0xff);
+        cbuf[nOut + 2] = (char) ((l >>> 40) & 0xff);
+        cbuf[nOut + 3] = (char) ((l >>> 32) & 0xff);
+        cbuf[nOut + 4] = (char) ((l >>> 24) & 0xff);
+        cbuf[nOut + 5] = (char) ((l >>> 16) & 0xff);
+        cbuf[nOut + 6] = (char) ((l >>> 8) & 0xff);
+        cbuf[nOut + 7] = (char) (l & 0xff);
+        nPos += 8;
+        nOut += 8;
+      }
+      if (nOut == nEnd || nPos == nLimit)
+        continue;
+
+      final int b = buf.get (nPos) & 0xff;
+      if (b < 0x80)
+      {
+        cbuf[nOut++] = (char) b;
+        nPos++;
+        continue;
+      }
+
+      // multi-byte sequence
+      final int nLength;
+      if (b >= 0xC2 && b <= 0xDF)
+        nLength = 2;
+      else
+        if (b >= 0xE0 && b <= 0xEF)
+          nLength = 3;
+        else
+          if (b >= 0xF0 && b <= 0xF4)
+            nLength = 4;
+          else
+            throw _malformed (nPos);
+      if (nPos + nLength > nLimit)
+      {
+        // the sequence crosses the end of the region
+        if (m_nWindowStart + nPos + nLength > m_nFileSize)
+          throw _malformed (nPos);
+        _map (m_nWindowStart + nPos);
+        buf = m_aBuf;
+        nPos = 0;
+        nLimit = buf.limit ();
+      }
+      int c = b & (0xff >> (nLength + 1));
+      for (int i = 1; i < nLength; i++)
+      {
+        final int cb = buf.get (nPos + i);
+        if ((cb & 0xC0) != 0x80)
+          throw _malformed (nPos);
+        c = (c << 6) | (cb & 0x3F);
+      }
+      // overlong forms, surrogates and values beyond the Unicode range
+      if (nLength == 3 && (c < 0x800 || (c >= 0xD800 && c <= 0xDFFF)) ||
+          nLength == 4 && (c < 0x10000 || c > 0x10FFFF))
+        throw _malformed (nPos);
+      nPos += nLength;
+
+      if (nLength < 4)
+        cbuf[nOut++] = (char) c;
+      else
+      {
+        cbuf[nOut++] = Character.highSurrogate (c);
+        final char cLow = Character.lowSurrogate (c);
+        if (nOut < nEnd)
+          cbuf[nOut++] = cLow;
+        else
+          m_cPending = cLow;
+      }
+    }
+    // Buffer.position (int), newer JDKs have a covariant override in ByteBuffer
+    ((Buffer) buf).position (nPos);
+
+    final int ret = nOut - off;
+    return ret == 0 ? -1 : ret;
+  }
+
+  /**
+   * Closes the underlying file channel. The mapped regions are released by
+   * the garbage collector.
+   */
+  @Override
+  public void close () throws IOException
+  {
+    m_aBuf = null;
+    m_aChannel.close ();
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * An append-only pool that maps strings (names, namespace URIs, prefixes) to
+ * dense <code>int</code> codes. Each distinct string is stored only once, so
+ * event streams may refer to names by their code instead of holding their own
+ * string references.
+ * <p>
+ * Codes are never reused or reassigned. An array returned by
+ * {@link #getNames()} therefore remains valid for all codes that were assigned
+ * before it was obtained, even if the pool grows afterwards.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Philip Helger
+ */
+public final class NamePool
+{
+  /** The code used for a <code>null</code> string */
+  public static final int NULL_CODE = -1;
+
+  private final Map <String, Integer> m_aCodes = new HashMap<> ();
+  private String [] m_aNames;
+  private int m_nCount = 0;
+
+  public NamePool ()
+  {
+    this (16);
+  }
+
+  public NamePool (@Nonnegative final int nInitialCapacity)
+  {
+    m_aNames = new String [Math.max (nInitialCapacity, 4)];
+  }
+
+  /**
+   * Returns the code of the passed string, allocating a new code if the string
+   * hasn't been seen before.
+   *
+   * @param sName
+   *        the string, may be <code>null</code>
+   * @return the code, {@link #NULL_CODE} for <code>null</code>
+   */
+  public int allocate (final String sName)
+  {
+    if (sName == null)
+      return NULL_CODE;
+    final Integer aCode = m_aCodes.get (sName);
+    if (aCode != null)
+      return aCode.intValue ();
+
+    if (m_nCount == m_aNames.length)
+    {
+      final String [] tmp = new String [m_nCount << 1];
+      System.arraycopy (m_aNames, 0, tmp, 0, m_nCount);
+      m_aNames = tmp;
+    }
+    m_aNames[m_nCount] = sName;
+    m_aCodes.put (sName, Integer.valueOf (m_nCount));
+    return m_nCount++;
+  }
+
+  /**
+   * @param nCode
+   *        a code returned by {@link #allocate(String)}
+   * @return the string for this code, <code>null</code> for
+   *         {@link #NULL_CODE}
+   */
+  public String getName (final int nCode)
+  {
+    return nCode == NULL_CODE ? null : m_aNames[nCode];
+  }
+
+  /**
+   * @return the current name table, indexed by code. Entries beyond
+   *         {@link #size()} are undefined.
+   */
+  public String [] getNames ()
+  {
+    return m_aNames;
+  }
+
+  /** @return the number of allocated codes */
+  @Nonnegative
+  public int size ()
+  {
+    return m_nCount;
+  }
+}
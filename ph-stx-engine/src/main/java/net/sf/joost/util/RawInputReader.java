@@ -0,0 +1,313 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A {@link Reader} that keeps the characters passed to the XML parser, such
+ * that parts of the source document can be written unchanged to the result.
+ * The positions reported by the parser's {@link org.xml.sax.Locator} (line
+ * and column) are translated into character offsets from the start of the
+ * document. The characters are retained until they are released by
+ * {@link #discard(long)}.
+ * <p>
+ * The translation relies on the line and column numbers of the parser. Since
+ * parsers differ in counting the columns after a carriage return without a
+ * following line feed, such a carriage return is passed on as line feed, the
+ * character the parser would normalize it to anyway.
+ *
+ * @author Philip Helger
+ */
+public final class RawInputReader extends Reader
+{
+  private final Reader m_aIn;
+  private final String m_sEncoding;
+
+  /** the retained characters between m_nBegin and m_nEnd */
+  private char [] m_aText = new char [8192];
+  private int m_nBegin;
+  private int m_nEnd;
+  /** the offset of m_aText[m_nBegin] */
+  private long m_nTextStart;
+
+  /** the offsets of the retained line starts */
+  private long [] m_aLineStarts = new long [64];
+  private int m_nLineBegin;
+  private int m_nLineEnd = 1;
+  /** the number of the line that starts at m_aLineStarts[m_nLineBegin] */
+  private int m_nFirstLine = 1;
+
+  /** whether the last character was a carriage return */
+  private boolean m_bCR;
+  /** a character read ahead, -1 for none */
+  private int m_nNext = -1;
+
+  /**
+   * @param aIn
+   *        the reader for the source document
+   * @param sEncoding
+   *        the encoding of the source document if it is known,
+   *        <code>null</code> otherwise
+   */
+  public RawInputReader (@Nonnull final Reader aIn, @Nullable final String sEncoding)
+  {
+    m_aIn = aIn;
+    m_sEncoding = sEncoding;
+  }
+
+  /**
+   * Creates a reader for a source document that is available as character
+   * stream or as byte stream. Byte streams must be UTF-8 encoded, files may
+   * be passed as {@link MappedFileReader}.
+   *
+   * @param aInput
+   *        the source, a byte stream may be replaced by a buffered one
+   * @return a new reader, or <code>null</code> if the source doesn't allow
+   *         it
+   * @throws IOException
+   *         if reading the start of the source failed
+   */
+  @Nullable
+  public static RawInputReader open (@Nonnull final InputSource aInput) throws IOException
+  {
+    final Reader aChars = aInput.getCharacterStream ();
+    if (aChars != null)
+      return new RawInputReader (aChars, aChars instanceof MappedFileReader ? "UTF-8" : null);
+
+    final InputStream aBytes = aInput.getByteStream ();
+    if (aBytes != null)
+    {
+      // the head of the stream must be read again by the decoder or parser
+      final BufferedInputStream aBuffered = new BufferedInputStream (aBytes);
+      aInput.setByteStream (aBuffered);
+      final byte [] aHead = new byte [MappedFileReader.HEAD_SIZE];
+      aBuffered.mark (aHead.length);
+      int n = 0;
+      int nRead;
+      while (n < aHead.length && (nRead = aBuffered.read (aHead, n, aHead.length - n)) > 0)
+        n += nRead;
+      aBuffered.reset ();
+
+      final int nStart = MappedFileReader.getContentStart (aHead, n);
+      if (nStart < 0)
+        return null;
+      aBuffered.skip (nStart);
+      return new RawInputReader (new InputStreamReader (aBuffered, StandardCharsets.UTF_8.newDecoder ()), "UTF-8");
+    }
+    return null;
+  }
+
+  /**
+   * @return the encoding of the source document, <code>null</code> if it is
+   *         unknown
+   */
+  @Nullable
+  public String getEncoding ()
+  {
+    return m_sEncoding;
+  }
+
+  @Override
+  public int read (final char [] cbuf, final int off, final int len) throws IOException
+  {
+    if (len == 0)
+      return 0;
+    int n;
+    if (m_nNext >= 0)
+    {
+      cbuf[off] = (char) m_nNext;
+      m_nNext = -1;
+      n = 1;
+      if (len > 1)
+        n += Math.max (m_aIn.read (cbuf, off + 1, len - 1), 0);
+    }
+    else
+    {
+      n = m_aIn.read (cbuf, off, len);
+      if (n <= 0)
+        return n;
+    }
+    // the character after a trailing carriage return decides whether it is
+    // followed by a line feed
+    if (cbuf[off + n - 1] == '\r')
+      m_nNext = m_aIn.read ();
+    for (int i = off; i < off + n; i++)
+      if (cbuf[i] == '\r' && (i + 1 < off + n ? cbuf[i + 1] : m_nNext) != '\n')
+        cbuf[i] = '\n';
+
+    if (m_nEnd + n > m_aText.length)
+    {
+      final int nLength = m_nEnd - m_nBegin;
+      char [] aText = m_aText;
+      if (nLength + n > aText.length / 2)
+        aText = new char [Math.max (aText.length * 2, nLength + n)];
+      System.arraycopy (m_aText, m_nBegin, aText, 0, nLength);
+      m_aText = aText;
+      m_nBegin = 0;
+      m_nEnd = nLength;
+    }
+    System.arraycopy (cbuf, off, m_aText, m_nEnd, n);
+
+    final long nOffset = m_nTextStart + m_nEnd - m_nBegin;
+    for (int i = 0; i < n; i++)
+    {
+      final char c = cbuf[off + i];
+      if (c == '\n')
+      {
+        if (m_bCR)
+          m_aLineStarts[m_nLineEnd - 1] = nOffset + i + 1;
+        else
+          _addLine (nOffset + i + 1);
+      }
+      m_bCR = c == '\r';
+      if (m_bCR)
+        _addLine (nOffset + i + 1);
+    }
+    m_nEnd += n;
+    return n;
+  }
+
+  private void _addLine (final long nStart)
+  {
+    if (m_nLineEnd == m_aLineStarts.length)
+    {
+      final int nCount = m_nLineEnd - m_nLineBegin;
+      long [] aLineStarts = m_aLineStarts;
+      if (nCount + 1 > aLineStarts.length / 2)
+        aLineStarts = new long [aLineStarts.length * 2];
+      System.arraycopy (m_aLineStarts, m_nLineBegin, aLineStarts, 0, nCount);
+      m_aLineStarts = aLineStarts;
+      m_nLineBegin = 0;
+      m_nLineEnd = nCount;
+    }
+    m_aLineStarts[m_nLineEnd++] = nStart;
+  }
+
+  /**
+   * Translates a position reported by the parser.
+   *
+   * @param nLine
+   *        the line number
+   * @param nColumn
+   *        the column number
+   * @return the offset of this position, or <code>-1</code> if it is unknown
+   */
+  public long getOffset (final int nLine, final int nColumn)
+  {
+    final int nIndex = m_nLineBegin + nLine - m_nFirstLine;
+    if (nColumn < 1 || nIndex < m_nLineBegin || nIndex >= m_nLineEnd)
+      return -1;
+    return m_aLineStarts[nIndex] + nColumn - 1;
+  }
+
+  /**
+   * @param nOffset
+   *        the offset of a character
+   * @return the character at this offset, or <code>-1</code> if it isn't
+   *         retained
+   */
+  public int getChar (final long nOffset)
+  {
+    if (nOffset < m_nTextStart || nOffset >= m_nTextStart + m_nEnd - m_nBegin)
+      return -1;
+    return m_aText[(int) (nOffset - m_nTextStart) + m_nBegin];
+  }
+
+  /**
+   * Searches backwards for a character.
+   *
+   * @param c
+   *        the character to search for
+   * @param nStart
+   *        the offset where the search ends
+   * @param nEnd
+   *        the offset after the first character to examine
+   * @return the offset of the last occurrence of <code>c</code> between
+   *         <code>nStart</code> and <code>nEnd</code>, or <code>-1</code>
+   */
+  public long lastIndexOf (final char c, final long nStart, final long nEnd)
+  {
+    final int nFirst = _getIndex (nStart);
+    for (int i = _getIndex (nEnd) - 1; i >= nFirst; i--)
+      if (m_aText[i] == c)
+        return m_nTextStart + i - m_nBegin;
+    return -1;
+  }
+
+  /**
+   * @return a view of the retained characters between the two offsets, valid
+   *         until the next invocation of {@link #read(char[], int, int)}
+   */
+  @Nonnull
+  public CharSequence getText (final long nStart, final long nEnd)
+  {
+    final int nIndex = _getIndex (nStart);
+    return CharBuffer.wrap (m_aText, nIndex, _getIndex (nEnd) - nIndex);
+  }
+
+  private int _getIndex (final long nOffset)
+  {
+    if (nOffset < m_nTextStart || nOffset > m_nTextStart + m_nEnd - m_nBegin)
+      throw new IndexOutOfBoundsException ("Offset " + nOffset + " hasn't been retained");
+    return (int) (nOffset - m_nTextStart) + m_nBegin;
+  }
+
+  /**
+   * Releases the characters before an offset. Later calls of
+   * {@link #getOffset(int, int)} must not refer to earlier positions.
+   *
+   * @param nOffset
+   *        the offset of the first character still needed
+   */
+  public void discard (final long nOffset)
+  {
+    final long nRetained = m_nTextStart + m_nEnd - m_nBegin;
+    final long nNewStart = Math.min (nOffset, nRetained);
+    if (nNewStart > m_nTextStart)
+    {
+      m_nBegin += (int) (nNewStart - m_nTextStart);
+      m_nTextStart = nNewStart;
+    }
+    // keep the start of the line that contains nOffset
+    while (m_nLineBegin + 1 < m_nLineEnd && m_aLineStarts[m_nLineBegin + 1] <= nOffset)
+    {
+      m_nLineBegin++;
+      m_nFirstLine++;
+    }
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    m_aIn.close ();
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * A bounded, lock-free ring buffer for passing objects from exactly one
+ * producer thread to exactly one consumer thread. The producer waits while the
+ * buffer is full and the consumer waits while it is empty, first by spinning
+ * and then by parking for short periods, so a slow consumer throttles the
+ * producer.
+ * <p>
+ * Either side may {@link #abort()} the buffer, which releases a waiting
+ * partner: {@link #put(Object)} then returns <code>false</code> and
+ * {@link #take()} returns <code>null</code>.
+ *
+ * @author Philip Helger
+ */
+public final class SpscRingBuffer <T>
+{
+  private static final int SPIN_LIMIT = 100;
+  private static final int YIELD_LIMIT = 200;
+  private static final long PARK_NANOS = 20000;
+
+  private final Object [] m_aSlots;
+  private final int m_nMask;
+  /** index of the next slot to read, written only by the consumer */
+  private final AtomicLong m_aHead = new AtomicLong ();
+  /** index of the next slot to write, written only by the producer */
+  private final AtomicLong m_aTail = new AtomicLong ();
+  private volatile boolean m_bAborted = false;
+
+  /**
+   * @param nCapacity
+   *        the minimum number of objects the buffer can hold, will be rounded
+   *        up to the next power of two
+   */
+  public SpscRingBuffer (@Nonnegative final int nCapacity)
+  {
+    if (nCapacity <= 0 || nCapacity > (1 << 30))
+      throw new IllegalArgumentException ("Illegal capacity " + nCapacity);
+    final int nSize = Integer.highestOneBit (nCapacity) == nCapacity ? nCapacity
+                                                                    : Integer.highestOneBit (nCapacity) << 1;
+    m_aSlots = new Object [nSize];
+    m_nMask = nSize - 1;
+  }
+
+  /** @return the number of objects the buffer can hold */
+  @Nonnegative
+  public int getCapacity ()
+  {
+    return m_aSlots.length;
+  }
+
+  private static void _backOff (final int nRound)
+  {
+    if (nRound < SPIN_LIMIT)
+      return;
+    if (nRound < YIELD_LIMIT)
+      Thread.yield ();
+    else
+      LockSupport.parkNanos (PARK_NANOS);
+  }
+
+  /**
+   * Adds an object, waits while the buffer is full. Must be called only by the
+   * producer thread.
+   *
+   * @param aObj
+   *        the object to add
+   * @return <code>true</code> if the object was added, <code>false</code> if
+   *         the buffer has been aborted
+   */
+  public boolean put (@Nonnull final T aObj)
+  {
+    final long nTail = m_aTail.get ();
+    int nRound = 0;
+    while (nTail - m_aHead.get () == m_aSlots.length)
+    {
+      if (m_bAborted)
+        return false;
+      _backOff (nRound++);
+    }
+    if (m_bAborted)
+      return false;
+    m_aSlots[(int) nTail & m_nMask] = aObj;
+    // publishes the slot contents
+    m_aTail.lazySet (nTail + 1);
+    return true;
+  }
+
+  /**
+   * Removes the oldest object, waits while the buffer is empty. Must be called
+   * only by the consumer thread.
+   *
+   * @return the object, <code>null</code> if the buffer has been aborted
+   */
+  @SuppressWarnings ("unchecked")
+  public T take ()
+  {
+    final long nHead = m_aHead.get ();
+    int nRound = 0;
+    while (nHead == m_aTail.get ())
+    {
+      if (m_bAborted)
+        return null;
+      _backOff (nRound++);
+    }
+    if (m_bAborted)
+      return null;
+    final int nIndex = (int) nHead & m_nMask;
+    final T ret = (T) m_aSlots[nIndex];
+    m_aSlots[nIndex] = null;
+    // frees the slot for the producer
+    m_aHead.lazySet (nHead + 1);
+    return ret;
+  }
+
+  /**
+   * Aborts the exchange of objects, releases a waiting producer or consumer.
+   */
+  public void abort ()
+  {
+    m_bAborted = true;
+  }
+
+  /** @return whether {@link #abort()} has been called */
+  public boolean isAborted ()
+  {
+    return m_bAborted;
+  }
+}
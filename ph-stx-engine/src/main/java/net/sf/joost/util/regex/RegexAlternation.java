@@ -0,0 +1,381 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util.regex;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import net.sf.joost.grammar.EvalException;
+
+/**
+ * A set of regular expressions that will be searched simultaneously, as needed
+ * by <code>stx:analyze-text</code>. The winner at each step is the expression
+ * with the leftmost non-empty match, and among those the one with the longest
+ * match; remaining ties are resolved in favor of the expression that comes
+ * first.
+ * <p>
+ * All expressions are compiled into one alternation with a capturing group for
+ * each branch. Every search step scans the text only once with this
+ * alternation and then checks the branches anchored at the found position. If
+ * the expressions can't be combined, each of them will be searched separately.
+ * <p>
+ * Instances are immutable and may be shared between threads, a
+ * {@link Scanner} holds the state for one particular text.
+ *
+ * @author Philip Helger
+ */
+public final class RegexAlternation
+{
+  /** the source expressions */
+  private final String [] m_aRegexes;
+
+  /** the source flags */
+  private final String [] m_aFlags;
+
+  /** the compiled expressions */
+  private final JRegularExpression [] m_aCompiled;
+
+  /** the alternation, <code>null</code> if not available */
+  private final Pattern m_aCombined;
+
+  /** the capturing group of each branch in {@link #m_aCombined} */
+  private final int [] m_aBranchGroups;
+
+  /**
+   * Compiles a set of regular expressions.
+   *
+   * @param aRegexes
+   *        the expressions in XPath syntax
+   * @param aFlags
+   *        the flags of each expression
+   * @exception EvalException
+   *            if one of the expressions or flags is invalid
+   */
+  public RegexAlternation (final String [] aRegexes, final String [] aFlags) throws EvalException
+  {
+    this (aRegexes, aFlags, true);
+  }
+
+  /** Allows the tests to compare both search strategies */
+  RegexAlternation (final String [] aRegexes, final String [] aFlags, final boolean bCombine) throws EvalException
+  {
+    m_aRegexes = aRegexes.clone ();
+    m_aFlags = aFlags.clone ();
+    m_aCompiled = new JRegularExpression [aRegexes.length];
+    for (int i = 0; i < aRegexes.length; i++)
+      m_aCompiled[i] = new JRegularExpression (aRegexes[i], true, aFlags[i]);
+
+    m_aBranchGroups = new int [aRegexes.length];
+    m_aCombined = bCombine && aRegexes.length > 1 ? _combine (m_aCompiled, m_aBranchGroups) : null;
+  }
+
+  /**
+   * Builds the alternation <code>(?flags:(r1))|(?flags:(r2))|...</code>, with
+   * the back-references in each branch shifted to the new group numbers.
+   *
+   * @return the compiled alternation, or <code>null</code> if the expressions
+   *         can't be combined
+   */
+  private static Pattern _combine (final JRegularExpression [] aCompiled, final int [] aBranchGroups)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    int nGroup = 1;
+    for (int i = 0; i < aCompiled.length; i++)
+    {
+      final String sRegex = aCompiled[i].getJavaRegularExpression ();
+      final int nFlags = aCompiled[i].getFlagBits ();
+      if (i > 0)
+        aSB.append ('|');
+      // set the flags of each branch explicitly, because inline flags in Java
+      // remain active after the end of the group
+      aSB.append ("(?");
+      _appendFlags (aSB, nFlags, true);
+      aSB.append ('-');
+      _appendFlags (aSB, nFlags, false);
+      aSB.append (":(");
+      if (!_appendShifted (aSB, sRegex, nGroup))
+        return null;
+      aSB.append ("))");
+      aBranchGroups[i] = nGroup;
+      nGroup += aCompiled[i].matcher ("").groupCount () + 1;
+    }
+    try
+    {
+      return Pattern.compile (aSB.toString ());
+    }
+    catch (final PatternSyntaxException ex)
+    {
+      return null;
+    }
+  }
+
+  private static void _appendFlags (final StringBuilder aSB, final int nFlags, final boolean bSet)
+  {
+    if (((nFlags & Pattern.UNIX_LINES) != 0) == bSet)
+      aSB.append ('d');
+    if (((nFlags & Pattern.MULTILINE) != 0) == bSet)
+      aSB.append ('m');
+    if (((nFlags & Pattern.DOTALL) != 0) == bSet)
+      aSB.append ('s');
+    // the translator already resolved CASE_INSENSITIVE and COMMENTS
+    aSB.append (bSet ? "" : "ix");
+  }
+
+  /**
+   * Appends a translated Java regex, adding <code>nOffset</code> to the number
+   * of every back-reference.
+   *
+   * @return <code>false</code> if the regex contains constructs that prevent
+   *         its use as branch of an alternation
+   */
+  private static boolean _appendShifted (final StringBuilder aSB, final String sRegex, final int nOffset)
+  {
+    final int nLen = sRegex.length ();
+    for (int i = 0; i < nLen; i++)
+    {
+      final char c = sRegex.charAt (i);
+      if (c == '\\' && i + 1 < nLen)
+      {
+        final char cNext = sRegex.charAt (i + 1);
+        if (cNext >= '1' && cNext <= '9')
+        {
+          // the translator terminates back-references with ')'
+          int nEnd = i + 1;
+          while (nEnd < nLen && Character.isDigit (sRegex.charAt (nEnd)))
+            nEnd++;
+          aSB.append ('\\').append (Integer.parseInt (sRegex.substring (i + 1, nEnd)) + nOffset);
+          i = nEnd - 1;
+        }
+        else
+        {
+          if (cNext == 'Q')
+            return false;
+          aSB.append (c).append (cNext);
+          i++;
+        }
+      }
+      else
+      {
+        if (c == '(' && i + 2 < nLen && sRegex.charAt (i + 1) == '?' && Character.isLetter (sRegex.charAt (i + 2)))
+        {
+          // inline flags
+          return false;
+        }
+        aSB.append (c);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return <code>true</code> if this alternation has been compiled from the
+   *         passed expressions and flags
+   */
+  public boolean isFor (final String [] aRegexes, final String [] aFlags)
+  {
+    return Arrays.equals (m_aRegexes, aRegexes) && Arrays.equals (m_aFlags, aFlags);
+  }
+
+  /**
+   * @return <code>true</code> if all branches are searched in one pass
+   */
+  public boolean isCombined ()
+  {
+    return m_aCombined != null;
+  }
+
+  /**
+   * @return a new scanner for the passed text
+   */
+  public Scanner scanner (final CharSequence aText)
+  {
+    return new Scanner (aText);
+  }
+
+  /**
+   * Searches the matches in one text. Not thread-safe.
+   */
+  public final class Scanner
+  {
+    private final CharSequence m_aText;
+    private final Matcher m_aCombinedMatcher;
+    private final Matcher [] m_aMatchers;
+
+    private int m_nBranch = -1;
+    private int m_nStart;
+    private int m_nEnd;
+
+    Scanner (final CharSequence aText)
+    {
+      m_aText = aText;
+      m_aCombinedMatcher = m_aCombined != null ? m_aCombined.matcher (aText) : null;
+      m_aMatchers = new Matcher [m_aCompiled.length];
+      if (m_aCombinedMatcher != null)
+        m_aCombinedMatcher.useTransparentBounds (true).useAnchoringBounds (false);
+      for (int i = 0; i < m_aMatchers.length; i++)
+        m_aMatchers[i] = m_aCompiled[i].matcher (aText).useTransparentBounds (true).useAnchoringBounds (false);
+    }
+
+    /**
+     * Searches the next non-empty match.
+     *
+     * @param nFrom
+     *        the index in the text where to start the search
+     * @return <code>true</code> if a match has been found
+     */
+    public boolean find (final int nFrom)
+    {
+      return find (nFrom, m_aText.length ());
+    }
+
+    /**
+     * Searches the next non-empty match that ends before a given index. The
+     * expressions may look at the characters outside of this range (e.g. for
+     * <code>^</code> or lookbehind), but a match can't extend beyond it.
+     *
+     * @param nFrom
+     *        the index in the text where to start the search
+     * @param nTo
+     *        the index in the text where the search ends
+     * @return <code>true</code> if a match has been found
+     */
+    public boolean find (final int nFrom, final int nTo)
+    {
+      m_nBranch = -1;
+      if (m_aCombinedMatcher != null)
+        return _findCombined (nFrom, nTo);
+      return _findSeparately (nFrom, nTo);
+    }
+
+    private boolean _findCombined (final int nFrom, final int nTo)
+    {
+      m_aCombinedMatcher.region (nFrom, nTo);
+      boolean bFound = m_aCombinedMatcher.find ();
+      while (bFound)
+      {
+        // no branch matches before this position, and those before the
+        // first matching branch don't match here either
+        final int nPos = m_aCombinedMatcher.start ();
+        int nFirst = 0;
+        while (m_aCombinedMatcher.start (m_aBranchGroups[nFirst]) == -1)
+          nFirst++;
+
+        int nMaxLen = 0;
+        for (int i = nFirst; i < m_aMatchers.length; i++)
+        {
+          final Matcher aMatcher = m_aMatchers[i];
+          aMatcher.region (nPos, nTo);
+          if (aMatcher.lookingAt () && aMatcher.end () - nPos > nMaxLen)
+          {
+            nMaxLen = aMatcher.end () - nPos;
+            m_nBranch = i;
+          }
+        }
+        if (m_nBranch != -1)
+        {
+          m_nStart = nPos;
+          m_nEnd = nPos + nMaxLen;
+          return true;
+        }
+
+        // only empty matches at this position
+        bFound = m_aCombinedMatcher.find ();
+      }
+      return false;
+    }
+
+    private boolean _findSeparately (final int nFrom, final int nTo)
+    {
+      int nNewIndex = nTo;
+      int nMaxLen = 0;
+      for (int i = 0; i < m_aMatchers.length; i++)
+      {
+        final Matcher aMatcher = m_aMatchers[i];
+        int nStart = -1;
+        aMatcher.region (nFrom, nTo);
+        if (aMatcher.find ())
+        {
+          if (aMatcher.start () == aMatcher.end ())
+          {
+            // skip empty matches
+            while (aMatcher.find ())
+            {
+              if (aMatcher.start () != aMatcher.end ())
+              {
+                nStart = aMatcher.start ();
+                break;
+              }
+            }
+          }
+          else
+            nStart = aMatcher.start ();
+        }
+        if (nStart > -1 && nStart <= nNewIndex)
+        {
+          final int nLen = aMatcher.end () - nStart;
+          if (nStart < nNewIndex || nLen > nMaxLen)
+          {
+            nNewIndex = nStart;
+            nMaxLen = nLen;
+            m_nBranch = i;
+          }
+        }
+      }
+      if (m_nBranch == -1)
+        return false;
+      m_nStart = nNewIndex;
+      m_nEnd = nNewIndex + nMaxLen;
+      return true;
+    }
+
+    /** @return the index of the matching expression */
+    public int getBranch ()
+    {
+      return m_nBranch;
+    }
+
+    /** @return the start index of the match */
+    public int getStart ()
+    {
+      return m_nStart;
+    }
+
+    /** @return the end index of the match */
+    public int getEnd ()
+    {
+      return m_nEnd;
+    }
+
+    /**
+     * @return the matched substring (index 0) and the substrings captured by
+     *         the groups of the matching expression
+     */
+    public String [] getGroups ()
+    {
+      final Matcher aMatcher = m_aMatchers[m_nBranch];
+      final String [] ret = new String [aMatcher.groupCount () + 1];
+      for (int i = 0; i < ret.length; i++)
+        ret[i] = aMatcher.group (i);
+      return ret;
+    }
+  }
+}
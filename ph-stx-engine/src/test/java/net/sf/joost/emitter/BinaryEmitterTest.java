@@ -0,0 +1,122 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.stx.BinaryEventReader;
+
+/**
+ * Test class for {@link BinaryEmitter} and {@link BinaryEventReader}
+ *
+ * @author Philip Helger
+ */
+public class BinaryEmitterTest
+{
+  @Test
+  public void testRoundTrip () throws SAXException, IOException
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    final BinaryEmitter aEmitter = new BinaryEmitter (aBAOS);
+    final AttributesImpl aAttrs = new AttributesImpl ();
+    aAttrs.addAttribute ("", "id", "id", "CDATA", "a&b");
+    aEmitter.startDocument ();
+    aEmitter.startPrefixMapping ("p", "urn:p");
+    aEmitter.startElement ("urn:p", "root", "p:root", aAttrs);
+    aEmitter.characters ("t\u00e4xt\uD83D\uDE00".toCharArray (), 0, 6);
+    aEmitter.startElement ("urn:p", "root", "p:root", new AttributesImpl ());
+    aEmitter.startCDATA ();
+    aEmitter.characters ("<cda".toCharArray (), 0, 4);
+    aEmitter.characters ("ta>".toCharArray (), 0, 3);
+    aEmitter.endCDATA ();
+    aEmitter.endElement ("urn:p", "root", "p:root");
+    aEmitter.comment ("xcommentx".toCharArray (), 1, 7);
+    aEmitter.processingInstruction ("pi", "data");
+    aEmitter.endElement ("urn:p", "root", "p:root");
+    aEmitter.endPrefixMapping ("p");
+    aEmitter.endDocument ();
+
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aXmlEmitter = new XmlEmitter (aSW, "UTF-8", null);
+    aXmlEmitter.setOmitXmlDeclaration (true);
+    final BinaryEventReader aReader = new BinaryEventReader ();
+    aReader.setContentHandler (aXmlEmitter);
+    aReader.setProperty ("http://xml.org/sax/properties/lexical-handler", aXmlEmitter);
+    aReader.parse (new InputSource (new ByteArrayInputStream (aBAOS.toByteArray ())));
+    assertEquals ("<p:root xmlns:p=\"urn:p\" id=\"a&amp;b\">t\u00e4xt&#128512;<p:root><![CDATA[<cdata>]]></p:root><!--comment--><?pi data?></p:root>\n",
+                  aSW.toString ());
+  }
+
+  private static String _read (final byte [] aBytes, final int nOffset, final int nLength) throws SAXException, IOException
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aXmlEmitter = new XmlEmitter (aSW, "UTF-8", null);
+    aXmlEmitter.setOmitXmlDeclaration (true);
+    final BinaryEventReader aReader = new BinaryEventReader ();
+    aReader.setContentHandler (aXmlEmitter);
+    aReader.parse (new InputSource (new ByteArrayInputStream (aBytes, nOffset, nLength)));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testMultipleDocuments () throws SAXException, IOException
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    final BinaryEmitter aEmitter = new BinaryEmitter (aBAOS);
+    for (int i = 0; i < 2; i++)
+    {
+      aEmitter.startDocument ();
+      aEmitter.startElement ("", "x", "x", new AttributesImpl ());
+      aEmitter.endElement ("", "x", "x");
+      aEmitter.endDocument ();
+    }
+    // each document must be readable on its own
+    final byte [] aBytes = aBAOS.toByteArray ();
+    final int nFirst = aBytes.length / 2;
+    assertEquals ("<x />\n", _read (aBytes, 0, nFirst));
+    assertEquals ("<x />\n", _read (aBytes, nFirst, aBytes.length - nFirst));
+  }
+
+  @Test (expected = SAXException.class)
+  public void testTruncatedStream () throws SAXException, IOException
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    final BinaryEmitter aEmitter = new BinaryEmitter (aBAOS);
+    aEmitter.startDocument ();
+    aEmitter.startElement ("", "x", "x", new AttributesImpl ());
+    aEmitter.endElement ("", "x", "x");
+    aEmitter.endDocument ();
+    final byte [] aBytes = aBAOS.toByteArray ();
+
+    final BinaryEventReader aReader = new BinaryEventReader ();
+    aReader.setContentHandler (new BufferEmitter ());
+    aReader.parse (new InputSource (new ByteArrayInputStream (aBytes, 0, aBytes.length - 1)));
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Test class for {@link BufferEmitter} and {@link CompactEventBuffer}
+ *
+ * @author Philip Helger
+ */
+public class BufferEmitterTest
+{
+  private static void _fill (final BufferEmitter aBuffer) throws SAXException
+  {
+    final AttributesImpl aAttrs = new AttributesImpl ();
+    aAttrs.addAttribute ("", "id", "id", "CDATA", "a&b");
+    aBuffer.startPrefixMapping ("p", "urn:p");
+    aBuffer.startElement ("urn:p", "root", "p:root", aAttrs);
+    aBuffer.characters ("text".toCharArray (), 0, 4);
+    aBuffer.startCDATA ();
+    aBuffer.characters ("<cdata>".toCharArray (), 0, 7);
+    aBuffer.endCDATA ();
+    aBuffer.startCDATA ();
+    aBuffer.endCDATA ();
+    aBuffer.comment ("xcommentx".toCharArray (), 1, 7);
+    aBuffer.processingInstruction ("pi", "data");
+    aBuffer.endElement ("urn:p", "root", "p:root");
+    aBuffer.endPrefixMapping ("p");
+    aBuffer.filled ();
+  }
+
+  private static String _serialize (final CompactEventBuffer.Snapshot aSnapshot) throws SAXException
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aEmitter = new XmlEmitter (aSW, "UTF-8", null);
+    aEmitter.setOmitXmlDeclaration (true);
+    aSnapshot.replay (aEmitter, aEmitter);
+    aEmitter.endDocument ();
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testSmallBufferUsesEvents () throws SAXException
+  {
+    final BufferEmitter aBuffer = new BufferEmitter ();
+    _fill (aBuffer);
+    assertNotNull (aBuffer.getEvents ());
+    assertNull (aBuffer.getCompactEvents ());
+    assertEquals (9, aBuffer.getEvents ().length);
+  }
+
+  @Test
+  public void testCompactReplay () throws SAXException
+  {
+    final BufferEmitter aBuffer = new BufferEmitter (3);
+    _fill (aBuffer);
+    assertNull (aBuffer.getEvents ());
+    final CompactEventBuffer.Snapshot aSnapshot = aBuffer.getCompactEvents ();
+    assertNotNull (aSnapshot);
+    assertEquals (9, aSnapshot.getEventCount ());
+    assertEquals ("<p:root xmlns:p=\"urn:p\" id=\"a&amp;b\">text<![CDATA[<cdata>]]><![CDATA[]]><!--comment--><?pi data?></p:root>\n",
+                  _serialize (aSnapshot));
+  }
+
+  @Test
+  public void testReplayKeepsAttributes () throws SAXException
+  {
+    // the XmlEmitter writes a start tag not before the next event
+    final BufferEmitter aBuffer = new BufferEmitter (0);
+    final AttributesImpl aAttrs = new AttributesImpl ();
+    aAttrs.addAttribute ("", "a", "a", "CDATA", "1");
+    aBuffer.startElement ("", "x", "x", aAttrs);
+    aAttrs.setValue (0, "2");
+    aBuffer.startElement ("", "y", "y", aAttrs);
+    aBuffer.endElement ("", "y", "y");
+    aBuffer.endElement ("", "x", "x");
+    aBuffer.filled ();
+    assertEquals ("<x a=\"1\"><y a=\"2\" /></x>\n", _serialize (aBuffer.getCompactEvents ()));
+  }
+
+  @Test
+  public void testSnapshotSurvivesRefill () throws SAXException
+  {
+    final BufferEmitter aBuffer = new BufferEmitter (0);
+    _fill (aBuffer);
+    final CompactEventBuffer.Snapshot aFirst = aBuffer.getCompactEvents ();
+    final String sFirst = _serialize (aFirst);
+
+    // refill after clearing: the previous snapshot must not change
+    aBuffer.clear ();
+    aBuffer.startElement ("", "other", "other", new AttributesImpl ());
+    aBuffer.endElement ("", "other", "other");
+    aBuffer.filled ();
+    assertEquals (sFirst, _serialize (aFirst));
+    assertEquals ("<other />\n", _serialize (aBuffer.getCompactEvents ()));
+
+    // append without clearing
+    aBuffer.characters ("x".toCharArray (), 0, 1);
+    aBuffer.filled ();
+    assertEquals ("<other />x\n", _serialize (aBuffer.getCompactEvents ()));
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for {@link JsonEmitter}
+ *
+ * @author Philip Helger
+ */
+public class JsonEmitterTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                       " xmlns:joost='http://joost.sf.net/extension' output-method='joost:json'" +
+                                       " output-encoding='US-ASCII'>";
+
+  private static String _transform (final String sTemplates, final String sDoc) throws TransformerException
+  {
+    final Transformer aTransformer = StxTestHelper.newTransformer (new TransformerFactoryImpl (),
+                                                                   PREFIX + sTemplates + "</stx:transform>");
+    // the output encoding applies to byte streams only
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    aTransformer.transform (new StreamSource (new StringReader (sDoc)), new StreamResult (aBAOS));
+    return new String (aBAOS.toByteArray (), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testMapping () throws TransformerException
+  {
+    final String sTemplates = "<stx:template match='/'>" +
+                              "<result version='1'>\n" +
+                              "  <title>A \"quoted\"\ttext \u00e4</title>\n" +
+                              "  <empty />\n" +
+                              "  <blank><stx:text>  </stx:text></blank>\n" +
+                              "  <items joost:type='array'><stx:process-children /></items>\n" +
+                              "  <n joost:name='first name' joost:type='null' />\n" +
+                              "  <nested joost:type='string'>a<b>b</b>c</nested>\n" +
+                              "</result>" +
+                              "</stx:template>" +
+                              "<stx:template match='item'>" +
+                              "<item><id joost:type='number'> <stx:value-of select='@id' /> </id>" +
+                              "<ok joost:type='boolean'><stx:value-of select='@id = 2' /></ok></item>" +
+                              "</stx:template>";
+    assertEquals ("{\"version\":\"1\",\"title\":\"A \\\"quoted\\\"\\ttext \\u00e4\",\"empty\":\"\",\"blank\":\"  \"," +
+                  "\"items\":[{\"id\":1,\"ok\":false},{\"id\":2,\"ok\":true}]," +
+                  "\"first name\":null,\"nested\":\"abc\"}\n",
+                  _transform (sTemplates, "<doc><item id='1' /><item id='2' /></doc>"));
+  }
+
+  @Test
+  public void testJsonLines () throws TransformerException
+  {
+    final String sTemplates = "<stx:template match='item'><rec id='{@id}'><v><stx:value-of select='.' /></v></rec>" +
+                              "</stx:template>";
+    assertEquals ("{\"id\":\"1\",\"v\":\"a\\nb\"}\n{\"id\":\"2\",\"v\":\"\"}\n",
+                  _transform (sTemplates, "<doc><item id='1'>a\nb</item>\n<item id='2' /></doc>"));
+  }
+
+  @Test
+  public void testInvalidValues ()
+  {
+    for (final String sTemplate : new String [] { "<a joost:type='number'>1.</a>",
+                                                  "<a joost:type='boolean'>yes</a>",
+                                                  "<a joost:type='array'>text</a>",
+                                                  "<a joost:type='list' />",
+                                                  "<a x='1' joost:type='string' />",
+                                                  "<a><b />text</a>" })
+      try
+      {
+        _transform ("<stx:template match='/'>" + sTemplate + "</stx:template>", "<doc />");
+        fail (sTemplate);
+      }
+      catch (final TransformerException ex)
+      {
+        // expected
+      }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.RecordResult;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for {@link RecordEmitter} and {@link RecordMapping}
+ *
+ * @author Philip Helger
+ */
+public class RecordEmitterTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='/'><list><stx:process-children /></list></stx:template>" +
+                                      "<stx:template match='item'>" +
+                                      "<rec id='{@id}'><name><stx:value-of select='.' /></name>" +
+                                      "<len><b><stx:value-of select='string-length(.)' /></b></len></rec>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String DOC = "<doc><item id='1'>one</item><x /><item id='2'>three</item></doc>";
+
+  private static final class Item
+  {
+    final int m_nID;
+    final String m_sName;
+
+    Item (final Map <String, String> aFields)
+    {
+      m_nID = Integer.parseInt (aFields.get ("@id"));
+      m_sName = aFields.get ("name") + "/" + aFields.get ("len");
+    }
+  }
+
+  private static void _transform (final RecordEmitter <?> aEmitter) throws TransformerException
+  {
+    final Transformer aTransformer = StxTestHelper.newTransformer (new TransformerFactoryImpl (), SHEET);
+    aTransformer.transform (new StreamSource (new StringReader (DOC)), new RecordResult (aEmitter));
+  }
+
+  @Test
+  public void testQueue () throws Exception
+  {
+    final BlockingQueue <Map <String, String>> aQueue = new ArrayBlockingQueue<> (1);
+    final Map <String, String> aEnd = Collections.emptyMap ();
+    final RecordEmitter <Map <String, String>> aEmitter = new RecordEmitter<> (RecordMapping.forMaps (null, "rec"),
+                                                                               aQueue,
+                                                                               aEnd);
+    final List <Map <String, String>> aRecords = new ArrayList<> ();
+    final Thread aThread = new Thread ( () -> {
+      try
+      {
+        Map <String, String> aRecord;
+        while ((aRecord = aQueue.take ()) != aEnd)
+          aRecords.add (aRecord);
+      }
+      catch (final InterruptedException ex)
+      {
+        // ignore
+      }
+    });
+    aThread.start ();
+    _transform (aEmitter);
+    aThread.join ();
+
+    assertEquals (2, aEmitter.getRecordCount ());
+    assertEquals ("[{@id=1, name=one, len=3}, {@id=2, name=three, len=5}]", aRecords.toString ());
+  }
+
+  @Test
+  public void testConsumer () throws TransformerException
+  {
+    final List <Item> aItems = new ArrayList<> ();
+    final RecordMapping <Item> aMapping = new RecordMapping <Item> ().addRecord ("", "rec", Item::new);
+    _transform (new RecordEmitter<> (aMapping, aItems::add, 1));
+
+    assertEquals (2, aItems.size ());
+    assertEquals (2, aItems.get (1).m_nID);
+    assertEquals ("three/5", aItems.get (1).m_sName);
+  }
+
+  @Test
+  public void testFailingConsumer ()
+  {
+    final IllegalStateException aFailure = new IllegalStateException ("full");
+    final RecordEmitter <Map <String, String>> aEmitter = new RecordEmitter<> (RecordMapping.forMaps (null, "rec"),
+                                                                               r -> {
+                                                                                 throw aFailure;
+                                                                               },
+                                                                               1);
+    try
+    {
+      _transform (aEmitter);
+      fail ();
+    }
+    catch (final TransformerException ex)
+    {
+      Throwable t = ex;
+      while (t.getCause () != null && t != aFailure)
+        t = t.getCause ();
+      assertSame (aFailure, t);
+    }
+  }
+}
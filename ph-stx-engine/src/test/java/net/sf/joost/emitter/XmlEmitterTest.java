@@ -0,0 +1,129 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Test class for {@link XmlEmitter}
+ *
+ * @author Philip Helger
+ */
+public class XmlEmitterTest
+{
+  private static final String TEXT = "a<b>&c ä€ 😀 ]]> end";
+
+  private static String _emitArray (final String sEncoding, final boolean bCDATA) throws SAXException
+  {
+    return _emitArray (sEncoding, bCDATA, TEXT);
+  }
+
+  private static String _emitArray (final String sEncoding,
+                                    final boolean bCDATA,
+                                    final String sText) throws SAXException
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aEmitter = new XmlEmitter (aSW, sEncoding, null);
+    aEmitter.setOmitXmlDeclaration (true);
+    if (bCDATA)
+      aEmitter.startCDATA ();
+    aEmitter.characters (sText.toCharArray (), 0, sText.length ());
+    if (bCDATA)
+      aEmitter.endCDATA ();
+    aEmitter.comment (sText.toCharArray (), 0, sText.length ());
+    aEmitter.endDocument ();
+    return aSW.toString ();
+  }
+
+  private static String _emitSequence (final String sEncoding,
+                                       final boolean bCDATA,
+                                       final CharSequence aChars) throws SAXException
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aEmitter = new XmlEmitter (aSW, sEncoding, null);
+    aEmitter.setOmitXmlDeclaration (true);
+    if (bCDATA)
+      aEmitter.startCDATA ();
+    aEmitter.characters (aChars);
+    if (bCDATA)
+      aEmitter.endCDATA ();
+    aEmitter.comment (aChars);
+    aEmitter.endDocument ();
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testCharSequenceMatchesArray () throws SAXException
+  {
+    for (final String sEncoding : new String [] { "UTF-8", "ISO-8859-1", "US-ASCII" })
+    {
+      final String sExpected = _emitArray (sEncoding, false);
+      assertEquals (sExpected, _emitSequence (sEncoding, false, TEXT));
+      assertEquals (sExpected, _emitSequence (sEncoding, false, new StringBuilder (TEXT)));
+      assertEquals (sExpected, _emitSequence (sEncoding, false, new StringBuffer (TEXT)));
+      assertEquals (sExpected, _emitSequence (sEncoding, false, CharBuffer.wrap (("xx" + TEXT).toCharArray (), 2, TEXT.length ())));
+    }
+    assertEquals ("a&lt;b&gt;&amp;c &#228;&#8364; &#128512; ]]&gt; end<!--" + TEXT + "-->\n", _emitArray ("US-ASCII", false));
+  }
+
+  @Test
+  public void testCharSequenceInCDATA () throws SAXException
+  {
+    // surrogate pairs can't be written within CDATA sections
+    final String sText = "a<b>&c ä€";
+    final String sExpected = _emitArray ("UTF-8", true, sText);
+    assertEquals ("<![CDATA[" + sText + "]]><!--" + sText + "-->\n", sExpected);
+    assertEquals (sExpected, _emitSequence ("UTF-8", true, new StringBuilder (sText)));
+  }
+
+  @Test (expected = SAXException.class)
+  public void testUnencodableInCDATA () throws SAXException
+  {
+    _emitSequence ("US-ASCII", true, TEXT);
+  }
+
+  @Test
+  public void testArrayRange () throws SAXException
+  {
+    // only the given range of the array is written and escaped
+    final char [] aChars = ("<" + TEXT + ">").toCharArray ();
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aEmitter = new XmlEmitter (aSW, "US-ASCII", null);
+    aEmitter.setOmitXmlDeclaration (true);
+    aEmitter.characters (aChars, 1, TEXT.length ());
+    aEmitter.endDocument ();
+    assertEquals ("a&lt;b&gt;&amp;c &#228;&#8364; &#128512; ]]&gt; end\n", aSW.toString ());
+  }
+
+  @Test (expected = SAXException.class)
+  public void testSurrogatePairOutsideRange () throws SAXException
+  {
+    // the low surrogate after the end of the range must not be used
+    final char [] aChars = "a\uD83D\uDE00".toCharArray ();
+    final XmlEmitter aEmitter = new XmlEmitter (new StringWriter (), "UTF-8", null);
+    aEmitter.characters (aChars, 0, 2);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+
+/**
+ * Test class for {@link AnalyzeTextFactory}, especially for large text nodes
+ *
+ * @author Philip Helger
+ */
+public class AnalyzeTextFactoryTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " output-method='text'>" +
+                                      "<stx:template match='text()'>" +
+                                      "<stx:analyze-text select='.'>" +
+                                      "<stx:match regex='[0-9]+'>[<stx:value-of select='regex-group(0)' />]</stx:match>" +
+                                      "<stx:match regex='[a-z]+([0-9])'>(<stx:value-of select='regex-group(1)' />)</stx:match>" +
+                                      "<stx:no-match><stx:value-of select='string-length(regex-group(0))' />;</stx:no-match>" +
+                                      "</stx:analyze-text>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static String _transform (final String sText, final int nThreshold) throws TransformerException
+  {
+    return StxTestHelper.transform (StxTestHelper.newFactory (CTrAX.LARGE_TEXT_THRESHOLD,
+                                                              Integer.valueOf (nThreshold),
+                                                              CTrAX.MAX_MATCH_LENGTH,
+                                                              Integer.valueOf (16)),
+                                    SHEET,
+                                    "<x>" + sText + "</x>");
+  }
+
+  @Test
+  public void testLargeTextSameResult () throws TransformerException
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 50000; i++)
+      aSB.append (i % 7 == 0 ? "abc" : "").append (i).append (", ");
+    final String sText = aSB.toString ();
+    assertEquals (_transform (sText, 0), _transform (sText, 1000));
+  }
+
+  @Test
+  public void testLargeTextSplitsLongNoMatch () throws TransformerException
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 200000; i++)
+      aSB.append ('-');
+    aSB.append ("42");
+    final String sText = aSB.toString ();
+    assertEquals ("200000;[42]", _transform (sText, 0));
+    // a stretch of unmatched text is reported in windows of 65536 characters
+    assertEquals ("65536;65536;65536;3392;[42]", _transform (sText, 1000));
+  }
+}
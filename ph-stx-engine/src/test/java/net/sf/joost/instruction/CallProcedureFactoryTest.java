@@ -0,0 +1,117 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+
+/**
+ * Test class for {@link CallProcedureFactory}
+ *
+ * @author Philip Helger
+ */
+public class CallProcedureFactoryTest
+{
+  private static final String HEAD = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                     " output-method='text'>";
+
+  // a small procedure without processing instructions will be inlined
+  private static final String PROCEDURE = "<stx:procedure name='p'>" +
+                                          "<stx:param name='a' required='yes' />" +
+                                          "<stx:param name='b' select=\"'-'\" />" +
+                                          "<stx:variable name='v' select='concat($a, $b)' />" +
+                                          "[<stx:value-of select='$v' />]" +
+                                          "</stx:procedure>";
+
+  @Test
+  public void testParameters () throws TransformerException
+  {
+    final String sSheet = HEAD +
+                          PROCEDURE +
+                          "<stx:variable name='v' select=\"'global'\" />" +
+                          "<stx:template match='item'>" +
+                          "<stx:variable name='v' select=\"'local'\" />" +
+                          "<stx:call-procedure name='p'>" +
+                          "<stx:with-param name='a' select='@id' />" +
+                          "</stx:call-procedure>" +
+                          "<stx:call-procedure name='p'>" +
+                          "<stx:with-param name='a' select='@id' />" +
+                          "<stx:with-param name='b'>+<stx:value-of select='$v' /></stx:with-param>" +
+                          "</stx:call-procedure>" +
+                          "<stx:value-of select='$v' />;" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    // every call gets its own parameters and restores the variables of the
+    // caller
+    assertEquals ("[1-][1+local]local;[2-][2+local]local;",
+                  StxTestHelper.transform (sSheet, "<doc><item id='1' /><item id='2' /></doc>"));
+  }
+
+  @Test
+  public void testRecursionInParameters () throws TransformerException
+  {
+    // the same call site will be entered again while its parameters are being
+    // evaluated
+    final String sSheet = HEAD +
+                          PROCEDURE +
+                          "<stx:template match='n'>" +
+                          "<stx:call-procedure name='p'>" +
+                          "<stx:with-param name='a' select='@d' />" +
+                          "<stx:with-param name='b'>" +
+                          "<stx:if test='@d &gt; 0'>" +
+                          "<stx:buffer name='buf'><n d='{@d - 1}' /></stx:buffer>" +
+                          "<stx:process-buffer name='buf' />" +
+                          "</stx:if>" +
+                          "</stx:with-param>" +
+                          "</stx:call-procedure>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    assertEquals ("[2[1[0]]]", StxTestHelper.transform (sSheet, "<n d='2' />"));
+  }
+
+  @Test
+  public void testRecursiveProcedure () throws TransformerException
+  {
+    // a recursive procedure won't be inlined
+    final String sSheet = HEAD +
+                          "<stx:procedure name='r'>" +
+                          "<stx:param name='n' />" +
+                          "<stx:value-of select='$n' />" +
+                          "<stx:if test='$n &gt; 0'>" +
+                          "<stx:call-procedure name='r'>" +
+                          "<stx:with-param name='n' select='$n - 1' />" +
+                          "</stx:call-procedure>" +
+                          "</stx:if>" +
+                          "<stx:value-of select='$n' />" +
+                          "</stx:procedure>" +
+                          "<stx:template match='/'>" +
+                          "<stx:call-procedure name='r'>" +
+                          "<stx:with-param name='n' select='3' />" +
+                          "</stx:call-procedure>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    assertEquals ("32100123", StxTestHelper.transform (sSheet, "<doc />"));
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+
+/**
+ * Test class for {@link ChooseFactory}
+ *
+ * @author Philip Helger
+ */
+public class ChooseFactoryTest
+{
+  private static String _transform (final String sTemplate, final String sDoc) throws TransformerException
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " output-method='text'>" +
+                          "<stx:template match='item'>" +
+                          sTemplate +
+                          ";</stx:template>" +
+                          "</stx:transform>";
+    return StxTestHelper.transform (sSheet, sDoc);
+  }
+
+  @Test
+  public void testStringKeys () throws TransformerException
+  {
+    final String sChoose = "<stx:choose>" +
+                           "<stx:when test=\"@t = 'a'\">A</stx:when>" +
+                           "<stx:when test=\"'b' = @t or @t = 'c'\">BC</stx:when>" +
+                           // duplicate key: the first stx:when wins
+                           "<stx:when test=\"@t = 'a' or @t = 'd'\">AD</stx:when>" +
+                           "<stx:when test=\"@t = 'b'\">B</stx:when>" +
+                           "<stx:otherwise>O</stx:otherwise>" +
+                           "</stx:choose>";
+    assertEquals ("A;BC;BC;AD;O;O;",
+                  _transform (sChoose,
+                              "<doc><item t='a' /><item t='b' /><item t='c' /><item t='d' />" +
+                                       "<item t='e' /><item /></doc>"));
+  }
+
+  @Test
+  public void testNoOtherwise () throws TransformerException
+  {
+    final String sChoose = "<stx:choose>" +
+                           "<stx:when test=\"name() = 'x'\">X</stx:when>" +
+                           "<stx:when test=\"name() = 'y'\">Y</stx:when>" +
+                           "<stx:when test=\"name() = 'item'\">I</stx:when>" +
+                           "</stx:choose>" +
+                           "<stx:choose>" +
+                           "<stx:when test=\"name() = 'x'\">X</stx:when>" +
+                           "<stx:when test=\"name() = 'y'\">Y</stx:when>" +
+                           "<stx:when test=\"name() = 'z'\">Z</stx:when>" +
+                           "</stx:choose>";
+    assertEquals ("I;", _transform (sChoose, "<doc><item /></doc>"));
+  }
+
+  @Test
+  public void testNumberKeys () throws TransformerException
+  {
+    final String sChoose = "<stx:choose>" +
+                           "<stx:when test='number(@n) = 1'>1</stx:when>" +
+                           "<stx:when test='number(@n) = 2 or number(@n) = 0'>2</stx:when>" +
+                           "<stx:when test='number(@n) = 3'>3</stx:when>" +
+                           "<stx:otherwise>O</stx:otherwise>" +
+                           "</stx:choose>";
+    assertEquals ("1;2;2;2;O;",
+                  _transform (sChoose,
+                              "<doc><item n='1.0' /><item n='2' /><item n='0' /><item n='-0' /><item n='x' /></doc>"));
+  }
+
+  @Test
+  public void testFallbackToTests () throws TransformerException
+  {
+    // the number value of the selector must be compared numerically with the
+    // string constants
+    final String sNumber = "<stx:choose>" +
+                           "<stx:when test=\"number(@n) = '1.0'\">1</stx:when>" +
+                           "<stx:when test=\"number(@n) = '2'\">2</stx:when>" +
+                           "<stx:when test=\"number(@n) = '3'\">3</stx:when>" +
+                           "<stx:otherwise>O</stx:otherwise>" +
+                           "</stx:choose>";
+    assertEquals ("1;2;O;", _transform (sNumber, "<doc><item n='1' /><item n='2.0' /><item n='4' /></doc>"));
+
+    // the boolean value of the selector must be compared as boolean
+    final String sBoolean = "<stx:choose>" +
+                            "<stx:when test=\"boolean(@b) = 'x'\">T</stx:when>" +
+                            "<stx:when test=\"boolean(@b) = ''\">F</stx:when>" +
+                            "<stx:when test=\"boolean(@b) = 'y'\">Y</stx:when>" +
+                            "</stx:choose>";
+    assertEquals ("T;F;", _transform (sBoolean, "<doc><item b='1' /><item /></doc>"));
+
+    // different expressions and computed tests will be evaluated one by one
+    final String sMixed = "<stx:choose>" +
+                          "<stx:when test=\"@t = 'a'\">A</stx:when>" +
+                          "<stx:when test=\"@u = 'b'\">B</stx:when>" +
+                          "<stx:when test=\"@t = concat('c', '')\">C</stx:when>" +
+                          "<stx:when test='@t = @u'>D</stx:when>" +
+                          "<stx:otherwise>O</stx:otherwise>" +
+                          "</stx:choose>";
+    assertEquals ("A;B;C;D;O;",
+                  _transform (sMixed,
+                              "<doc><item t='a' /><item u='b' /><item t='c' /><item t='d' u='d' /><item t='e' /></doc>"));
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+
+/**
+ * Test class for {@link PSiblingsFactory}
+ *
+ * @author Philip Helger
+ */
+public class PSiblingsFactoryTest
+{
+  private static final String DOC = "<doc><h n='1' /><i /><s /><i /><i /><s /><i /><h n='2' /><i /><h n='2' /><s /></doc>";
+
+  private static String _transform (final String sTemplates) throws TransformerException
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " output-method='text'>" +
+                          "<stx:template match='doc'><stx:process-children />.</stx:template>" +
+                          "<stx:template match='i'>i</stx:template>" +
+                          sTemplates +
+                          "</stx:transform>";
+    return StxTestHelper.transform (sSheet, DOC);
+  }
+
+  @Test
+  public void testWithoutConditions () throws TransformerException
+  {
+    // all following siblings will be processed
+    assertEquals ("(1i{ii{i(2i(2{}))}}).",
+                  _transform ("<stx:template match='h'>(<stx:value-of select='@n' /><stx:process-siblings />)</stx:template>" +
+                              "<stx:template match='s'>{<stx:process-siblings />}</stx:template>"));
+  }
+
+  @Test
+  public void testConditions () throws TransformerException
+  {
+    assertEquals ("(1i{ii}{i})(2i)(2{}).",
+                  _transform ("<stx:template match='h'>(<stx:value-of select='@n' /><stx:process-siblings until='h' />)</stx:template>" +
+                              "<stx:template match='s'>{<stx:process-siblings while='i' />}</stx:template>"));
+
+    // the termination of a lower stx:process-siblings terminates the upper
+    // ones as well
+    assertEquals ("(1i{ii}{i})(2i)(2{}).",
+                  _transform ("<stx:template match='h'>(<stx:value-of select='@n' /><stx:process-siblings until='h' />)</stx:template>" +
+                              "<stx:template match='s'>{<stx:process-siblings until='s' />}</stx:template>"));
+
+    // the upper stx:process-siblings has conditions, the lower one doesn't
+    assertEquals ("(1i{ii}{i}(2i(2{}))).",
+                  _transform ("<stx:template match='h'>(<stx:value-of select='@n' /><stx:process-siblings />)</stx:template>" +
+                              "<stx:template match='s'>{<stx:process-siblings while='i' />}</stx:template>"));
+  }
+
+  @Test
+  public void testVariables () throws TransformerException
+  {
+    // the conditions are evaluated with the variables of their template
+    assertEquals ("(1i{ii}{i})(2i(2{})).",
+                  _transform ("<stx:template match='h'>" +
+                              "<stx:variable name='n' select='@n' />" +
+                              "(<stx:value-of select='$n' /><stx:process-siblings while='i | s | h[@n = $n]' />)" +
+                              "</stx:template>" +
+                              "<stx:template match='s'>{<stx:process-siblings while='i' />}</stx:template>"));
+  }
+}
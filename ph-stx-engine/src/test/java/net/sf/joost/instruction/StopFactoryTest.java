@@ -0,0 +1,94 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import net.sf.joost.stx.Processor;
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for {@link StopFactory}
+ *
+ * @author Philip Helger
+ */
+public class StopFactoryTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:joost='http://joost.sf.net/extension' output-method='text'>" +
+                                      "<stx:template match='/doc'>(<stx:process-children />)</stx:template>" +
+                                      "<stx:template match='item'>" +
+                                      "[<stx:value-of select='@id' />]" +
+                                      "<stx:if test='@id = 2'><joost:stop /></stx:if>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String DOC = "<doc><item id='1' /><item id='2' /><item id='3' /></doc>";
+
+  private static String _transform (final String sDoc, final boolean bPipelined) throws TransformerException
+  {
+    return StxTestHelper.transform (StxTestHelper.newFactory (CTrAX.PIPELINED_EXECUTION, Boolean.valueOf (bPipelined)),
+                                    SHEET,
+                                    sDoc);
+  }
+
+  @Test
+  public void testStop () throws TransformerException
+  {
+    assertEquals ("([1][2])", _transform (DOC, false));
+    assertEquals ("([1][2])", _transform (DOC, true));
+  }
+
+  @Test
+  public void testParsingAborted () throws TransformerException
+  {
+    // the parsing mustn't reach the error at the end of this document
+    assertEquals ("([1][2])", _transform ("<doc><item id='1' /><item id='2' /><item id='3' /><broken></doc>", false));
+  }
+
+  @Test
+  public void testStopInTransformerHandler () throws Exception
+  {
+    final TransformerFactoryImpl aFactory = new TransformerFactoryImpl ();
+    final TransformerHandler aHandler = aFactory.newTransformerHandler (new StreamSource (new StringReader (SHEET)));
+    final StringWriter aSW = new StringWriter ();
+    aHandler.setResult (new StreamResult (aSW));
+
+    // the events after the stop will be ignored
+    final XMLReader aReader = Processor.createXMLReader ();
+    aReader.setContentHandler (aHandler);
+    aReader.parse (new InputSource (new StringReader (DOC)));
+    assertEquals ("([1][2])", aSW.toString ());
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Parser;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for the detection of ambiguous template rules in
+ * {@link TemplateFactory}
+ *
+ * @author Philip Helger
+ */
+public class TemplateFactoryTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                       " xmlns:x='urn:x' xmlns:y='urn:y' output-method='text'>";
+
+  /** Collects the messages of all warnings and errors */
+  private static final class Collector implements ErrorListener
+  {
+    final List <String> m_aWarnings = new ArrayList<> ();
+    final List <String> m_aErrors = new ArrayList<> ();
+
+    public void warning (final TransformerException ex)
+    {
+      m_aWarnings.add (ex.getMessage ());
+    }
+
+    public void error (final TransformerException ex)
+    {
+      m_aErrors.add (ex.getMessage ());
+    }
+
+    public void fatalError (final TransformerException ex) throws TransformerException
+    {
+      throw ex;
+    }
+  }
+
+  /**
+   * @return whether the runtime check for ambiguous template rules is needed
+   *         for the two templates with the passed match patterns
+   */
+  private static boolean _needsCheck (final String sPattern1, final String sPattern2) throws Exception
+  {
+    final Parser aParser = new Parser (new ParseContext ());
+    final XMLReader aReader = Processor.createXMLReader ();
+    aReader.setContentHandler (aParser);
+    aReader.parse (new InputSource (new StringReader (PREFIX +
+                                                      "<stx:template match=\"" +
+                                                      sPattern1 +
+                                                      "\" />" +
+                                                      "<stx:template match=\"" +
+                                                      sPattern2 +
+                                                      "\" />" +
+                                                      "</stx:transform>")));
+    final TransformFactory.Instance aTransform = aParser.getTransformNode ();
+    assertEquals (2, aTransform.m_aVisibleTemplates.length);
+    assertEquals (aTransform.m_aVisibleTemplates[0].getPriority (),
+                  aTransform.m_aVisibleTemplates[1].getPriority (),
+                  0);
+    assertFalse (aTransform.m_aVisibleAmbiguities[1]);
+    return aTransform.m_aVisibleAmbiguities[0];
+  }
+
+  private static Collector _transform (final String sTemplates,
+                                       final String sDoc,
+                                       final boolean bCheck) throws TransformerException
+  {
+    final Collector aCollector = new Collector ();
+    final TransformerFactoryImpl aFactory = StxTestHelper.newFactory (CTrAX.CHECK_AMBIGUOUS_TEMPLATES,
+                                                                      Boolean.valueOf (bCheck));
+    aFactory.setErrorListener (aCollector);
+    final Transformer aTransformer = StxTestHelper.newTransformer (aFactory, PREFIX + sTemplates + "</stx:transform>");
+    aTransformer.setErrorListener (aCollector);
+    StxTestHelper.transform (aTransformer, sDoc);
+    return aCollector;
+  }
+
+  @Test
+  public void testDisjointPatterns () throws Exception
+  {
+    assertFalse (_needsCheck ("a[@x]", "b[@x]"));
+    assertFalse (_needsCheck ("x:*", "y:*"));
+    assertFalse (_needsCheck ("*:a", "*:b"));
+    assertFalse (_needsCheck ("x:a[1]", "y:a[1]"));
+    assertFalse (_needsCheck ("a[1]", "text()[1]"));
+    assertFalse (_needsCheck ("comment()[1]", "text()[1]"));
+    assertFalse (_needsCheck ("cdata()[1]", "processing-instruction()[1]"));
+    assertFalse (_needsCheck ("processing-instruction('p')[1]", "processing-instruction('q')[1]"));
+  }
+
+  @Test
+  public void testOverlappingPatterns () throws Exception
+  {
+    assertTrue (_needsCheck ("a[@x]", "a[@y]"));
+    assertTrue (_needsCheck ("a[@x]", "*[@y]"));
+    assertTrue (_needsCheck ("x:*", "*:a"));
+    assertTrue (_needsCheck ("c/a", "d/a"));
+    assertTrue (_needsCheck ("a[1]", "node()[1]"));
+    assertTrue (_needsCheck ("text()[1]", "cdata()[1]"));
+    assertTrue (_needsCheck ("processing-instruction()[1]", "processing-instruction('q')[1]"));
+  }
+
+  @Test
+  public void testRuntimeError () throws TransformerException
+  {
+    final String sTemplates = "<stx:template match='/'><stx:process-children /></stx:template>" +
+                              "<stx:template match='a[@x]' />" +
+                              "<stx:template match='*[@y]' />" +
+                              "<stx:template match='b[@x]' />";
+    Collector aCollector = _transform (sTemplates, "<a x='1' y='2' />", true);
+    assertEquals (1, aCollector.m_aErrors.size ());
+    assertTrue (aCollector.m_aErrors.get (0).startsWith ("Ambigous template rule with priority 0.5"));
+
+    // no error if only one of the templates matches
+    assertEquals (0, _transform (sTemplates, "<a x='1' />", true).m_aErrors.size ());
+    assertEquals (0, _transform (sTemplates, "<b x='1' />", true).m_aErrors.size ());
+
+    // no error if the check has been switched off
+    aCollector = _transform (sTemplates, "<a x='1' y='2' />", false);
+    assertEquals (0, aCollector.m_aErrors.size ());
+  }
+
+  @Test
+  public void testIdenticalPatterns () throws TransformerException
+  {
+    final Collector aCollector = _transform ("<stx:template match='a[@x]' /><stx:template match='a[@x]' />",
+                                             "<b />",
+                                             true);
+    assertEquals (1, aCollector.m_aWarnings.size ());
+    assertTrue (aCollector.m_aWarnings.get (0).startsWith ("Ambiguous template rule with priority 0.5"));
+  }
+}
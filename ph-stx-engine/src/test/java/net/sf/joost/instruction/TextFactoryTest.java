@@ -0,0 +1,78 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.instruction;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+
+/**
+ * Test class for {@link TextFactory}
+ *
+ * @author Philip Helger
+ */
+public class TextFactoryTest
+{
+  private static String _transform (final String sTemplate) throws TransformerException
+  {
+    return StxTestHelper.transform ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                    " output-method='text'>" +
+                                    "<stx:variable name='v' select=\"'a&lt;b'\" />" +
+                                    "<stx:template match='/'>" +
+                                    sTemplate +
+                                    "</stx:template>" +
+                                    "</stx:transform>",
+                                    "<doc />");
+  }
+
+  @Test
+  public void testConstantText () throws TransformerException
+  {
+    assertEquals ("a<b & c", _transform ("<stx:text>a&lt;b &amp; c</stx:text>"));
+    assertEquals ("a<b & c", _transform ("<stx:text markup='ignore'>a&lt;b &amp; c</stx:text>"));
+    assertEquals ("a&lt;b &amp; c", _transform ("<stx:text markup='serialize'>a&lt;b &amp; c</stx:text>"));
+  }
+
+  @Test
+  public void testComputedText () throws TransformerException
+  {
+    assertEquals ("a<b & c", _transform ("<stx:text><stx:value-of select='$v' /> &amp; c</stx:text>"));
+    assertEquals ("a&lt;b &amp; c<e />",
+                  _transform ("<stx:text markup='serialize'><stx:value-of select='$v' /> &amp; c<e /></stx:text>"));
+  }
+
+  @Test
+  public void testSerializedTextInLiteralElement () throws TransformerException
+  {
+    // the literal element is written as one pre-serialized fragment
+    final String sResult = StxTestHelper.transform ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                                    "<stx:template match='/'>" +
+                                                    "<e><stx:text markup='serialize'>a&lt;b &amp; c</stx:text>" +
+                                                    "<f><stx:text>a&lt;b</stx:text></f></e>" +
+                                                    "</stx:template>" +
+                                                    "</stx:transform>",
+                                                    "<doc />");
+    assertEquals ("<e>a&amp;lt;b &amp;amp; c<f>a&lt;b</f></e>", sResult.substring (sResult.indexOf ("<e>")).trim ());
+  }
+}
@@ -0,0 +1,260 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.httppostfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+
+/**
+ * Test class for the HTTP POST filter, using a local server
+ *
+ * @author Philip Helger
+ */
+public class HttpPostHandlerTest
+{
+  private static final Pattern ITEM = Pattern.compile ("<item n=\"(\\d+)\"\\s*/>");
+
+  private static final String STX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0' pass-through='all'>" +
+                                    "<stx:param name='target' />" +
+                                    "<stx:param name='async' select=\"'no'\" />" +
+                                    "<stx:param name='batch' select=\"'0'\" />" +
+                                    "<stx:template match='item'>" +
+                                    "<stx:process-self filter-method='http://www.ietf.org/rfc/rfc2616.txt#POST'>" +
+                                    "<stx:with-param name='target' select='$target' />" +
+                                    "<stx:with-param name='async' select='$async' />" +
+                                    "<stx:with-param name='batch-size' select='$batch' />" +
+                                    "</stx:process-self>" +
+                                    "<after />" +
+                                    "</stx:template>" +
+                                    "</stx:transform>";
+
+  private HttpServer m_aServer;
+  private final AtomicInteger m_aRequests = new AtomicInteger ();
+  private final AtomicInteger m_aFlakyRequests = new AtomicInteger ();
+
+  private static String _read (final InputStream aIS) throws IOException
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    final byte [] aBuf = new byte [1024];
+    int n;
+    while ((n = aIS.read (aBuf)) != -1)
+      aBAOS.write (aBuf, 0, n);
+    return new String (aBAOS.toByteArray (), StandardCharsets.UTF_8);
+  }
+
+  private static void _respond (final HttpExchange aExchange, final int nStatus, final String sBody) throws IOException
+  {
+    final byte [] aBytes = sBody.getBytes (StandardCharsets.UTF_8);
+    aExchange.getResponseHeaders ().set ("Content-Type", "text/xml; charset=UTF-8");
+    aExchange.sendResponseHeaders (nStatus, aBytes.length);
+    try (final OutputStream aOS = aExchange.getResponseBody ())
+    {
+      aOS.write (aBytes);
+    }
+  }
+
+  /** Answers every item with a result element, later items respond faster */
+  private void _echo (final HttpExchange aExchange) throws IOException
+  {
+    m_aRequests.incrementAndGet ();
+    final String sBody = _read (aExchange.getRequestBody ());
+    final StringBuilder aResponse = new StringBuilder ();
+    final Matcher aMatcher = ITEM.matcher (sBody);
+    int nLast = 0;
+    while (aMatcher.find ())
+    {
+      nLast = Integer.parseInt (aMatcher.group (1));
+      aResponse.append ("<r:result xmlns:r='urn:r'>").append (nLast).append ("</r:result>");
+    }
+    try
+    {
+      Thread.sleep (Math.max (0, 10 - nLast) * 5);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    if (sBody.contains ("<batch>"))
+      _respond (aExchange, 200, "<results>" + aResponse + "</results>");
+    else
+      _respond (aExchange, 200, aResponse.toString ());
+  }
+
+  @Before
+  public void startServer () throws IOException
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.setExecutor (Executors.newFixedThreadPool (4));
+    m_aServer.createContext ("/echo", this::_echo);
+    m_aServer.createContext ("/flaky", aExchange -> {
+      if (m_aFlakyRequests.incrementAndGet () == 1)
+      {
+        _read (aExchange.getRequestBody ());
+        _respond (aExchange, 503, "busy");
+      }
+      else
+        _echo (aExchange);
+    });
+    m_aServer.createContext ("/error", aExchange -> {
+      _read (aExchange.getRequestBody ());
+      _respond (aExchange, 500, "broken");
+    });
+    m_aServer.createContext ("/gateway", aExchange -> {
+      m_aRequests.incrementAndGet ();
+      _read (aExchange.getRequestBody ());
+      _respond (aExchange, 502, "bad gateway");
+    });
+    m_aServer.start ();
+  }
+
+  @After
+  public void stopServer ()
+  {
+    m_aServer.stop (0);
+  }
+
+  private String _transform (final THHttpPostResolver aResolver,
+                             final String sPath,
+                             final String sAsync,
+                             final int nBatchSize) throws TransformerException
+  {
+    final TransformerFactory aFactory = StxTestHelper.newFactory (CTrAX.KEY_TH_RESOLVER, aResolver);
+    final Transformer aTransformer = StxTestHelper.newTransformer (aFactory, STX);
+    aTransformer.setParameter ("target", "http://localhost:" + m_aServer.getAddress ().getPort () + sPath);
+    aTransformer.setParameter ("async", sAsync);
+    aTransformer.setParameter ("batch", Integer.toString (nBatchSize));
+
+    final StringBuilder aInput = new StringBuilder ("<list>");
+    for (int i = 1; i <= 5; i++)
+      aInput.append ("<item n='").append (i).append ("'/>");
+    aInput.append ("</list>");
+
+    return StxTestHelper.transform (aTransformer, aInput.toString ());
+  }
+
+  private static String _expected ()
+  {
+    final StringBuilder ret = new StringBuilder ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<list>");
+    for (int i = 1; i <= 5; i++)
+      ret.append ("<r:result xmlns:r=\"urn:r\">").append (i).append ("</r:result><after />");
+    return ret.append ("</list>\n").toString ();
+  }
+
+  @Test
+  public void testSync () throws TransformerException
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver ();
+    assertEquals (_expected (), _transform (aResolver, "/echo", "no", 0));
+    assertEquals (5, m_aRequests.get ());
+    assertEquals (5, aResolver.getClient ().getStatistics ().getRequestCount ());
+  }
+
+  @Test
+  public void testAsyncKeepsOrder () throws TransformerException
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver (new HttpPostClient (3, 0, 0));
+    assertEquals (_expected (), _transform (aResolver, "/echo", "yes", 0));
+    final HttpPostStatistics aStats = aResolver.getClient ().getStatistics ();
+    assertEquals (5, aStats.getRequestCount ());
+    assertEquals (0, aStats.getFailureCount ());
+    assertTrue (aStats.getLatencyPercentileMillis (50) <= aStats.getMaxLatencyMillis ());
+  }
+
+  @Test
+  public void testBatch () throws TransformerException
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver ();
+    assertEquals (_expected (), _transform (aResolver, "/echo", "true", 2));
+    // 2 full batches and the rest
+    assertEquals (3, m_aRequests.get ());
+  }
+
+  @Test
+  public void testRetry () throws TransformerException
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver (new HttpPostClient (1, 2, 1));
+    assertEquals (_expected (), _transform (aResolver, "/flaky", "yes", 0));
+    final HttpPostStatistics aStats = aResolver.getClient ().getStatistics ();
+    assertEquals (1, aStats.getRetryCount ());
+    assertEquals (6, aStats.getRequestCount ());
+  }
+
+  @Test
+  public void testError ()
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver (new HttpPostClient (2, 2, 1));
+    try
+    {
+      _transform (aResolver, "/error", "yes", 0);
+      fail ();
+    }
+    catch (final TransformerException ex)
+    {
+      assertTrue (ex.getMessage (), ex.getMessage ().contains ("HTTP status 500"));
+    }
+    // the status 500 isn't retried
+    assertEquals (0, aResolver.getClient ().getStatistics ().getRetryCount ());
+    assertTrue (aResolver.getClient ().getStatistics ().getFailureCount () > 0);
+  }
+
+  @Test
+  public void testNoRetryAfterGatewayError ()
+  {
+    final THHttpPostResolver aResolver = new THHttpPostResolver (new HttpPostClient (2, 2, 1));
+    try
+    {
+      _transform (aResolver, "/gateway", "no", 0);
+      fail ();
+    }
+    catch (final TransformerException ex)
+    {
+      assertTrue (ex.getMessage (), ex.getMessage ().contains ("HTTP status 502"));
+    }
+    // the request might have reached the server, so it mustn't be repeated
+    assertEquals (1, m_aRequests.get ());
+    assertEquals (0, aResolver.getClient ().getStatistics ().getRetryCount ());
+  }
+}
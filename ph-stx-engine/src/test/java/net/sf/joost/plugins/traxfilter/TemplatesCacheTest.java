@@ -0,0 +1,197 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.plugins.traxfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import net.sf.joost.stx.Processor;
+
+/**
+ * Test class for {@link TemplatesCache} and its use in {@link THTrAXResolver}
+ *
+ * @author Philip Helger
+ */
+public class TemplatesCacheTest
+{
+  private static final String XSLT = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>" +
+                                     "<xsl:output omit-xml-declaration='yes' />" +
+                                     "<xsl:template match='/'><out><xsl:value-of select='concat(\"$1\", .)' /></out></xsl:template>" +
+                                     "</xsl:stylesheet>";
+
+  /** the XSLT implementation of the JDK, independent of system properties */
+  private static final String XSLTC = "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl";
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  private static String _sheet (final String sPrefix)
+  {
+    return XSLT.replace ("$1", sPrefix);
+  }
+
+  private static String _transform (final TransformerHandler aTH, final String sInput) throws Exception
+  {
+    final StringWriter aSW = new StringWriter ();
+    aTH.setResult (new StreamResult (aSW));
+    final XMLReader aReader = Processor.createXMLReader ();
+    aReader.setContentHandler (aTH);
+    aReader.parse (new InputSource (new StringReader (sInput)));
+    return aSW.toString ();
+  }
+
+  private static SAXTransformerFactory _newFactory ()
+  {
+    return (SAXTransformerFactory) SAXTransformerFactory.newInstance (XSLTC, null);
+  }
+
+  @Test
+  public void testResolverReusesTemplates () throws Exception
+  {
+    final File aSheet = m_aTempFolder.newFile ("sheet.xsl");
+    Files.write (aSheet.toPath (), _sheet ("a").getBytes (StandardCharsets.UTF_8));
+    final String sBase = m_aTempFolder.getRoot ().toURI ().toString ();
+
+    final THTrAXResolver aResolver = new THTrAXResolver ();
+    final TemplatesCache aCache = aResolver.getTemplatesCache ();
+    THTrAXResolver.FACTORY.setValue (XSLTC);
+    try
+    {
+      final TransformerHandler aTH1 = aResolver.resolve (THTrAXResolver.XSLT_METHOD,
+                                                         "sheet.xsl",
+                                                         sBase,
+                                                         null,
+                                                         null,
+                                                         new Hashtable<> ());
+      final TransformerHandler aTH2 = aResolver.resolve (THTrAXResolver.XSLT_METHOD,
+                                                         "sheet.xsl",
+                                                         sBase,
+                                                         null,
+                                                         null,
+                                                         new Hashtable<> ());
+      assertNotSame (aTH1, aTH2);
+      assertEquals ("<out>ax</out>", _transform (aTH1, "<in>x</in>"));
+      assertEquals ("<out>ay</out>", _transform (aTH2, "<in>y</in>"));
+      assertEquals (1, aCache.getMissCount ());
+      assertEquals (1, aCache.getHitCount ());
+
+      // a changed sheet is compiled again
+      Files.write (aSheet.toPath (), _sheet ("b").getBytes (StandardCharsets.UTF_8));
+      final TransformerHandler aTH3 = aResolver.resolve (THTrAXResolver.XSLT_METHOD,
+                                                         "sheet.xsl",
+                                                         sBase,
+                                                         null,
+                                                         null,
+                                                         new Hashtable<> ());
+      assertEquals ("<out>bz</out>", _transform (aTH3, "<in>z</in>"));
+      assertEquals (2, aCache.getMissCount ());
+      assertEquals (2, aCache.size ());
+    }
+    finally
+    {
+      THTrAXResolver.FACTORY.setValue ("");
+    }
+  }
+
+  @Test
+  public void testEviction () throws Exception
+  {
+    final TemplatesCache aCache = new TemplatesCache (2);
+    for (final String s : new String [] { "a", "b", "a", "c", "b" })
+      aCache.newTransformerHandler (s,
+                                    new StreamSource (new StringReader (_sheet (s))),
+                                    TemplatesCacheTest::_newFactory);
+    // "b" was evicted by "c"
+    assertEquals (4, aCache.getMissCount ());
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (2, aCache.getEvictionCount ());
+    assertEquals (2, aCache.size ());
+  }
+
+  @Test
+  public void testConcurrentUse () throws Exception
+  {
+    final TemplatesCache aCache = new TemplatesCache ();
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (4);
+    try
+    {
+      final List <Future <String>> aResults = new ArrayList<> ();
+      for (int i = 0; i < 40; i++)
+      {
+        final String sInput = "<in>" + i + "</in>";
+        aResults.add (aExecutor.submit ( () -> _transform (aCache.newTransformerHandler ("key",
+                                                                                          new StreamSource (new StringReader (_sheet ("c"))),
+                                                                                          TemplatesCacheTest::_newFactory),
+                                                                sInput)));
+      }
+      for (int i = 0; i < 40; i++)
+        assertEquals ("<out>c" + i + "</out>", aResults.get (i).get ());
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+    }
+    assertEquals (1, aCache.getMissCount ());
+    assertEquals (39, aCache.getHitCount ());
+  }
+
+  @Test (expected = IOException.class)
+  public void testMissingSheet () throws Exception
+  {
+    try
+    {
+      new THTrAXResolver ().resolve (THTrAXResolver.XSLT_METHOD,
+                                     "missing.xsl",
+                                     m_aTempFolder.getRoot ().toURI ().toString (),
+                                     null,
+                                     null,
+                                     new Hashtable<> ());
+    }
+    catch (final SAXException ex)
+    {
+      throw ex.getException ();
+    }
+  }
+}
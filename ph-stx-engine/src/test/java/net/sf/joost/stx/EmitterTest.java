@@ -0,0 +1,81 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.emitter.XmlEmitter;
+
+/**
+ * Test class for {@link Emitter}
+ *
+ * @author Philip Helger
+ */
+public class EmitterTest
+{
+  private static void _element (final Emitter aEmitter, final String sName) throws SAXException
+  {
+    aEmitter.startElement ("", sName, sName, new AttributesImpl (), null, null);
+    aEmitter.endElement ("", sName, sName, null);
+  }
+
+  @Test
+  public void testDeferredEvents () throws SAXException
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XmlEmitter aXmlEmitter = new XmlEmitter (aSW, "UTF-8", null);
+    aXmlEmitter.setOmitXmlDeclaration (true);
+    final Emitter aEmitter = new Emitter (new ErrorHandlerImpl ());
+    aEmitter.setContentHandler (aXmlEmitter);
+    aEmitter.setLexicalHandler (aXmlEmitter);
+
+    aEmitter.startDocument ();
+    aEmitter.startElement ("", "root", "root", new AttributesImpl (), null, null);
+    _element (aEmitter, "a");
+    final CompletableFuture <Emitter.IDeferredEvents> aFirst = new CompletableFuture<> ();
+    final CompletableFuture <Emitter.IDeferredEvents> aSecond = new CompletableFuture<> ();
+    aEmitter.insertDeferred (aFirst, null);
+    _element (aEmitter, "b");
+    aEmitter.insertDeferred (aSecond, null);
+    _element (aEmitter, "c");
+    assertEquals ("<root><a />", aSW.toString ());
+
+    // the events following a completed segment are passed on with the next
+    // element
+    aFirst.complete ( (aContH, aLexH) -> aContH.characters ("1".toCharArray (), 0, 1));
+    _element (aEmitter, "d");
+    assertEquals ("<root><a />1<b />", aSW.toString ());
+    aSecond.complete ( (aContH, aLexH) -> aContH.characters ("2".toCharArray (), 0, 1));
+    _element (aEmitter, "e");
+    _element (aEmitter, "f");
+    assertEquals ("<root><a />1<b />2<c /><d /><e /><f />", aSW.toString ());
+
+    aEmitter.endElement ("", "root", "root", null);
+    aEmitter.endDocument (null);
+    assertEquals ("<root><a />1<b />2<c /><d /><e /><f /></root>", aSW.toString ().trim ());
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+import net.sf.joost.emitter.SAXEmitter;
+import net.sf.joost.emitter.XmlEmitter;
+
+/**
+ * Test class for {@link LiteralFragment}: the pre-serialized output of static
+ * literal result elements must be identical to the output of their events.
+ *
+ * @author Philip Helger
+ */
+public class LiteralFragmentTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:p='urn:p' exclude-result-prefixes='#all'>" +
+                                      "<stx:template match='/'>" +
+                                      "<root xmlns='urn:d'><stx:process-children /></root>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='item'>" +
+                                      "<p:x a='&lt;&amp;&quot;&gt;' b=\"'ä\"><y>&lt;t&gt; &amp; ä€😀</y>" +
+                                      "<z xmlns='' xmlns:q='urn:q'><q:e q:a='1' /></z></p:x>" +
+                                      "<stx:element name='dyn' namespace='urn:p'>" +
+                                      "<p:x><p:y xmlns:p='urn:other' /></p:x>" +
+                                      "</stx:element>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String DOC = "<doc><item /><item /></doc>";
+
+  /** Counts the pre-serialized fragments */
+  private static final class CountingXmlEmitter extends XmlEmitter
+  {
+    private int m_nFragments;
+
+    CountingXmlEmitter (final Writer aWriter, final String sEncoding)
+    {
+      super (aWriter, sEncoding, null);
+    }
+
+    @Override
+    public boolean writeSerialized (final CharSequence markup) throws SAXException
+    {
+      m_nFragments++;
+      return super.writeSerialized (markup);
+    }
+  }
+
+  private static String _transform (final String sEncoding, final boolean bFragments) throws IOException,
+                                                                                              SAXException
+  {
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (SHEET)), new ParseContext ());
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    final Writer aWriter = new OutputStreamWriter (aBAOS, sEncoding);
+    final CountingXmlEmitter aXmlEmitter = new CountingXmlEmitter (aWriter, sEncoding);
+    // the processor writes fragments only to an XmlEmitter
+    final Object aHandler = bFragments ? aXmlEmitter : new SAXEmitter (aXmlEmitter);
+    aProcessor.setContentHandler ((ContentHandler) aHandler);
+    aProcessor.setLexicalHandler ((LexicalHandler) aHandler);
+    aProcessor.parse (new InputSource (new StringReader (DOC)));
+    aWriter.close ();
+    if (bFragments)
+      assertTrue (aXmlEmitter.m_nFragments > 0);
+    else
+      assertEquals (0, aXmlEmitter.m_nFragments);
+    return new String (aBAOS.toByteArray (), "ISO-8859-1");
+  }
+
+  @Test
+  public void testSameOutput () throws IOException, SAXException
+  {
+    for (final String sEncoding : new String [] { "UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16" })
+      assertEquals (sEncoding, _transform (sEncoding, false), _transform (sEncoding, true));
+  }
+
+  @Test
+  public void testOutput () throws IOException, SAXException
+  {
+    final String sItem = "<p:x xmlns:p=\"urn:p\" a=\"&lt;&amp;&quot;&gt;\" b=\"'&#228;\">" +
+                         "<y xmlns=\"\">&lt;t&gt; &amp; &#228;&#8364;&#128512;</y>" +
+                         "<z xmlns=\"\" xmlns:q=\"urn:q\"><q:e q:a=\"1\" /></z></p:x>" +
+                         "<dyn xmlns=\"urn:p\"><p:x xmlns:p=\"urn:p\"><p:y xmlns:p=\"urn:other\" /></p:x></dyn>";
+    assertEquals ("<?xml version=\"1.0\" encoding=\"US-ASCII\"?>\n<root xmlns=\"urn:d\">" + sItem + sItem + "</root>\n",
+                  _transform ("US-ASCII", true));
+  }
+}
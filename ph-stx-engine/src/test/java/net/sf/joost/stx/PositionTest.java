@@ -0,0 +1,123 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for the position counters of {@link SAXEvent} that are
+ * maintained by the {@link Processor} only if the transformation sheet needs
+ * them.
+ *
+ * @author Philip Helger
+ */
+public class PositionTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                       " xmlns:x='urn:x' output-method='text'>" +
+                                       "<stx:template match='/doc'><stx:process-children /></stx:template>";
+
+  private static final String DOC = "<doc xmlns:x='urn:x'>" +
+                                    "<a />t1<!--c1--><?p one?><b /><a /><![CDATA[d1]]>t2<!--c2--><?q two?>" +
+                                    "<x:a /><x:b /><![CDATA[d2]]><a /><?p three?>" +
+                                    "</doc>";
+
+  private static final String INCLUDED = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                         "<stx:template match='a[2]'>[a2]</stx:template>" +
+                                         "</stx:transform>";
+
+  private static String _transform (final String sTemplates) throws TransformerException
+  {
+    final TransformerFactoryImpl aFactory = new TransformerFactoryImpl ();
+    aFactory.setURIResolver ( (sHref, sBase) -> new StreamSource (new StringReader (INCLUDED), sHref));
+    return StxTestHelper.transform (aFactory, PREFIX + sTemplates + "</stx:transform>", DOC);
+  }
+
+  private static String _position (final String sPattern, final String sLabel)
+  {
+    return "<stx:template match=\"" +
+           sPattern +
+           "\">[" +
+           sLabel +
+           "<stx:value-of select='position()' />]</stx:template>";
+  }
+
+  @Test
+  public void testPositionFunction () throws TransformerException
+  {
+    // every node type sets its own position, CDATA sections are text nodes too
+    assertEquals ("[a1][t1][c1][p1][e2][a2][d1][t3][c2][p2][x1][x2][d2][a3][p3]",
+                  _transform (_position ("a", "a") +
+                              _position ("x:*", "x") +
+                              _position ("*", "e") +
+                              _position ("text()", "t") +
+                              _position ("cdata()", "d") +
+                              _position ("comment()", "c") +
+                              _position ("processing-instruction()", "p")));
+    assertEquals ("[n1][n2][n3][n4][n5][n6][n7][n8][n9][n10][n11][n12][n13][n14][n15]",
+                  _transform (_position ("node()", "n")));
+    assertEquals ("[l1][p1][l2][l3][l4][p2]",
+                  _transform (_position ("*:a", "l") + _position ("processing-instruction('p')", "p")));
+
+    // only the last step sets the position, a union doesn't set it at all
+    assertEquals ("[a1][b1][a2][b1][a3]", _transform (_position ("doc/a", "a") + _position ("x:b | b", "b")));
+  }
+
+  @Test
+  public void testPredicates () throws TransformerException
+  {
+    // position() is never called, but the predicates need the counters
+    final String [] [] aCases = { { "a[3]", "[a]" },
+                                  { "text()[2]", "[d1]" },
+                                  { "text()[3]", "[t2]" },
+                                  { "cdata()[2]", "[d2]" },
+                                  { "/doc[1]/cdata()[1]", "[d1]" },
+                                  { "comment()[2]", "[c2]" },
+                                  { "processing-instruction()[3]", "[pthree]" },
+                                  { "processing-instruction('p')[2]", "[pthree]" },
+                                  { "*[2]", "[b]" },
+                                  { "x:*[2]", "[x:b]" },
+                                  { "*:a[3]", "[x:a]" },
+                                  { "node()[6]", "[a]" },
+                                  { "x:*[position() = 1]", "[x:a]" } };
+    for (final String [] aCase : aCases)
+      assertEquals (aCase[0],
+                    aCase[1],
+                    _transform ("<stx:template match=\"" +
+                                aCase[0] +
+                                "\">[<stx:value-of select='concat(name(), .)' />]</stx:template>"));
+  }
+  @Test
+  public void testIncludedPredicate () throws TransformerException
+  {
+    // the counters needed by an included sheet are maintained, too
+    assertEquals ("[a2]", _transform ("<stx:include href='urn:included' />"));
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Test class for {@link ProcessorPipeline}
+ *
+ * @author Philip Helger
+ */
+public class ProcessorPipelineTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:procedure name='fail'><stx:param name='p' required='yes' /></stx:procedure>" +
+                                      "<stx:template match='item[@fail]'><stx:call-procedure name='fail' /></stx:template>" +
+                                      "<stx:template match='item'><out n='{@n}' /></stx:template>" +
+                                      "<stx:template match='doc'><result><stx:process-children /></result></stx:template>" +
+                                      "</stx:transform>";
+
+  /** Records the result and fails after a number of elements */
+  private static final class Recorder extends DefaultHandler
+  {
+    private final int m_nFailAfter;
+    private final StringBuilder m_aSB = new StringBuilder ();
+    private int m_nElements = 0;
+
+    Recorder (final int nFailAfter)
+    {
+      m_nFailAfter = nFailAfter;
+    }
+
+    @Override
+    public void startElement (final String uri,
+                              final String localName,
+                              final String qName,
+                              final Attributes atts) throws SAXException
+    {
+      if (++m_nElements > m_nFailAfter)
+        throw new IllegalStateException ("consumer failed");
+      m_aSB.append (qName);
+      if (atts.getLength () > 0)
+        m_aSB.append (atts.getValue (0));
+      m_aSB.append (' ');
+    }
+  }
+
+  private static String _createDoc (final int nItems, final int nFailAt)
+  {
+    final StringBuilder aSB = new StringBuilder ("<doc>");
+    for (int i = 0; i < nItems; i++)
+      aSB.append (i == nFailAt ? "<item fail='yes' />" : "<item n='" + i + "' />");
+    return aSB.append ("</doc>").toString ();
+  }
+
+  private static void _transform (final String sDoc, final Recorder aRecorder) throws IOException, SAXException
+  {
+    final Processor aProcessor = new Processor (null, new InputSource (new StringReader (SHEET)), new ParseContext ());
+    final ProcessorPipeline aPipeline = new ProcessorPipeline (aProcessor);
+    // small batches and buffers make all stages wait for each other
+    aPipeline.setBatchSize (2);
+    aPipeline.setCapacity (1);
+    try
+    {
+      aPipeline.transform (Processor.createXMLReader (), new InputSource (new StringReader (sDoc)), aRecorder, null);
+    }
+    finally
+    {
+      // all stages have been terminated
+      for (final Thread aThread : Thread.getAllStackTraces ().keySet ())
+        assertFalse (aThread.getName (), aThread.getName ().startsWith ("joost-pipeline-") && aThread.isAlive ());
+    }
+  }
+
+  @Test
+  public void testOrdering () throws Exception
+  {
+    final Recorder aRecorder = new Recorder (Integer.MAX_VALUE);
+    _transform (_createDoc (5000, -1), aRecorder);
+    final StringBuilder aExpected = new StringBuilder ("result ");
+    for (int i = 0; i < 5000; i++)
+      aExpected.append ("out").append (i).append (' ');
+    assertEquals (aExpected.toString (), aRecorder.m_aSB.toString ());
+  }
+
+  @Test
+  public void testParserFailure () throws Exception
+  {
+    try
+    {
+      _transform (_createDoc (5000, -1) + "<broken", new Recorder (Integer.MAX_VALUE));
+      fail ();
+    }
+    catch (final SAXException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testProcessorFailure () throws Exception
+  {
+    final Recorder aRecorder = new Recorder (Integer.MAX_VALUE);
+    try
+    {
+      _transform (_createDoc (5000, 2500), aRecorder);
+      fail ();
+    }
+    catch (final SAXException ex)
+    {
+      assertTrue (ex.getMessage (), ex.getMessage ().contains ("required parameter"));
+    }
+  }
+
+  @Test
+  public void testConsumerFailure () throws Exception
+  {
+    try
+    {
+      // the other stages are blocked on their full buffers
+      _transform (_createDoc (5000, -1), new Recorder (100));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      assertEquals ("consumer failed", ex.getMessage ());
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+
+/**
+ * Test class for {@link Projection} and {@link ProjectionFilter}
+ *
+ * @author Philip Helger
+ */
+public class ProjectionTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                       " output-method='text'";
+
+  private static final String SHEET = PREFIX +
+                                      ">" +
+                                      "<stx:template match='/doc/header/title/text()'><stx:value-of select='.' /></stx:template>" +
+                                      "<stx:template match='/doc/body/item'>" +
+                                      "[<stx:value-of select='@id' />:<stx:value-of select='position()' />]" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String DOC = "<doc><header><title>T</title><meta><x><y/></x></meta></header>" +
+                                    "<body><item id='1'><sub><deep/></sub></item>" +
+                                    "<other><item id='no'/></other><item id='2'/></body></doc>";
+
+  private static Projection _getProjection (final String sSheet) throws IOException, SAXException
+  {
+    final Processor aProcessor = new Processor (null, new InputSource (new StringReader (sSheet)), new ParseContext ());
+    aProcessor.setDocumentProjection (true);
+    return aProcessor.getProjection ();
+  }
+
+  private static String _transform (final boolean bProjection) throws TransformerException
+  {
+    return StxTestHelper.transform (StxTestHelper.newFactory (CTrAX.DOCUMENT_PROJECTION, Boolean.valueOf (bProjection)),
+                                    SHEET,
+                                    DOC);
+  }
+
+  @Test
+  public void testDropSubtrees () throws IOException, SAXException
+  {
+    final Projection aProjection = _getProjection (SHEET);
+    assertNotNull (aProjection);
+
+    final StringBuilder aNames = new StringBuilder ();
+    final ProjectionFilter aFilter = new ProjectionFilter (aProjection, Processor.createXMLReader ());
+    aFilter.setContentHandler (new DefaultHandler ()
+    {
+      @Override
+      public void startElement (final String uri, final String localName, final String qName, final Attributes atts)
+      {
+        aNames.append (localName).append (' ');
+      }
+    });
+    aFilter.parse (new InputSource (new StringReader (DOC)));
+    // elements without observable descendants are kept, their content is
+    // dropped
+    assertEquals ("doc header title meta body item other item ", aNames.toString ());
+  }
+
+  @Test
+  public void testSameResult () throws TransformerException
+  {
+    assertEquals ("T[1:1][2:2]", _transform (false));
+    assertEquals ("T[1:1][2:2]", _transform (true));
+  }
+
+  @Test
+  public void testPrevented () throws IOException, SAXException
+  {
+    assertNull (_getProjection (PREFIX + " pass-through='text'><stx:template match='/doc' /></stx:transform>"));
+    assertNull (_getProjection (PREFIX +
+                                "><stx:template match='/doc'><stx:value-of select='has-child-nodes()' />" +
+                                "</stx:template></stx:transform>"));
+    assertNull (_getProjection (PREFIX +
+                                "><stx:template match='/doc'><stx:process-children filter-method='urn:x' />" +
+                                "</stx:template></stx:transform>"));
+    assertNotNull (_getProjection (PREFIX + "><stx:template match='/doc' /></stx:transform>"));
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+
+/**
+ * Test class for the raw pass-through of unmatched subtrees
+ *
+ * @author Philip Helger
+ */
+public class RawPassThroughTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " pass-through='all' output-method='xml'>" +
+                                      "<stx:template match='/doc/chapter/title'>" +
+                                      "<title>[<stx:value-of select='.' />]</title>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String DOC = "<doc>\n <chapter n='1'><title>One</title>" +
+                                    "<p a='x'>Text &amp; &#65; <b/><!-- c --><?pi d?><![CDATA[<x>]]></p>\n" +
+                                    "<p/>\n<q xmlns:z='urn:z'><z:e   z:a=\"1\" /></q></chapter>\n<e/><f></f></doc>";
+
+  private static String _transform (final boolean bRaw, final String sDoc) throws TransformerException
+  {
+    final TransformerFactory aFactory = StxTestHelper.newFactory (CTrAX.RAW_PASS_THROUGH, Boolean.valueOf (bRaw));
+    final Transformer aTransformer = StxTestHelper.newTransformer (aFactory, SHEET);
+    aTransformer.setOutputProperty ("omit-xml-declaration", "yes");
+    return StxTestHelper.transform (aTransformer, sDoc);
+  }
+
+  @Test
+  public void testRawContent () throws TransformerException
+  {
+    assertEquals ("<doc>\n <chapter n=\"1\"><title>[One]</title>" +
+                  "<p a=\"x\">Text &amp; A <b /><!-- c --><?pi d?><![CDATA[<x>]]></p>\n" +
+                  "<p />\n<q xmlns:z=\"urn:z\"><z:e z:a=\"1\" /></q></chapter>\n<e /><f /></doc>\n",
+                  _transform (false, DOC));
+    // the start and end tags are serialized, the content is copied
+    assertEquals ("<doc>\n <chapter n=\"1\"><title>[One]</title>" +
+                  "<p a=\"x\">Text &amp; &#65; <b/><!-- c --><?pi d?><![CDATA[<x>]]></p>\n" +
+                  "<p />\n<q xmlns:z=\"urn:z\"><z:e   z:a=\"1\" /></q></chapter>\n<e /><f /></doc>\n",
+                  _transform (true, DOC));
+  }
+
+  @Test
+  public void testNoRawContentWithDTD () throws TransformerException
+  {
+    final String sDoc = "<!DOCTYPE doc [<!ENTITY x 'y'>]><doc><p>&x;&#65;</p></doc>";
+    assertEquals (_transform (false, sDoc), _transform (true, sDoc));
+  }
+
+  @Test
+  public void testDefaultNamespace () throws TransformerException
+  {
+    // the unprefixed names of the copied content keep their namespace
+    final String sDoc = "<doc xmlns='urn:d'><chapter><title>T</title><p><b>&#65;</b></p></chapter></doc>";
+    assertEquals (_transform (false, sDoc), _transform (true, sDoc).replace ("&#65;", "A"));
+  }
+
+  @Test
+  public void testLoneCarriageReturn () throws TransformerException
+  {
+    // the parser may have read the carriage return before the end of the
+    // content has been reached
+    final StringBuilder aSB = new StringBuilder ("<doc><p>");
+    for (int i = 0; i < 20000; i++)
+      aSB.append ('x');
+    final String sDoc = aSB.append ("</p>\r<e/></doc>").toString ();
+    assertEquals (_transform (false, sDoc), _transform (true, sDoc));
+
+    // a carriage return on its own is copied as line feed
+    assertEquals ("<doc>\n<p>a\nb<b/>\n\r\n<c  \n/></p>\n<e>x\ny</e>\n<f>\n</f></doc>\n",
+                  _transform (true, "<doc>\r<p>a\rb<b/>\r\r\n<c  \r/></p>\r<e>x\ry</e>\r\n<f>\n</f></doc>"));
+  }
+}
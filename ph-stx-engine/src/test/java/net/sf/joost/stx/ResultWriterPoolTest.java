@@ -0,0 +1,151 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for {@link ResultWriterPool}
+ *
+ * @author Philip Helger
+ */
+public class ResultWriterPoolTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  private static String _read (final File aFile) throws IOException
+  {
+    return new String (Files.readAllBytes (aFile.toPath ()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testWriteInOrder () throws IOException
+  {
+    // small chunks and batches for testing
+    final ResultWriterPool aPool = new ResultWriterPool (3, 2, 16);
+    final File aDir = m_aTempFolder.getRoot ();
+    final File aLog = new File (aDir, "log.txt");
+    final StringBuilder aExpectedLog = new StringBuilder ();
+    for (int i = 0; i < 200; i++)
+    {
+      try (final Writer aWriter = aPool.createWriter (new File (aDir, "d" + (i % 7) + "/f" + i + ".xml"),
+                                                      StandardCharsets.UTF_8,
+                                                      false))
+      {
+        aWriter.write ("<doc>\u00e4" + i + "</doc>");
+      }
+      try (final Writer aWriter = aPool.createWriter (aLog, StandardCharsets.UTF_8, i > 0))
+      {
+        aWriter.write (i + "\n");
+      }
+      aExpectedLog.append (i).append ('\n');
+    }
+    aPool.awaitCompletion ();
+
+    for (int i = 0; i < 200; i++)
+      assertEquals ("<doc>\u00e4" + i + "</doc>", _read (new File (aDir, "d" + (i % 7) + "/f" + i + ".xml")));
+    assertEquals (aExpectedLog.toString (), _read (aLog));
+  }
+
+  @Test
+  public void testOverwrite () throws IOException
+  {
+    final ResultWriterPool aPool = new ResultWriterPool (2, 4, 8);
+    final File aFile = new File (m_aTempFolder.getRoot (), "doc.xml");
+    try (final Writer aWriter = aPool.createWriter (aFile, StandardCharsets.UTF_8, false))
+    {
+      aWriter.write ("a rather long first document");
+    }
+    try (final Writer aWriter = aPool.createWriter (aFile, StandardCharsets.UTF_8, false))
+    {
+      aWriter.write ("second");
+    }
+    aPool.awaitCompletion ();
+    assertEquals ("second", _read (aFile));
+  }
+
+  private File _writeChunked (final String sText, final Charset aCharset, final boolean bSingleChars) throws IOException
+  {
+    // the document will be passed to the pool in chunks of 4 characters
+    final ResultWriterPool aPool = new ResultWriterPool (2, 2, 4);
+    final File aFile = m_aTempFolder.newFile ();
+    try (final Writer aWriter = aPool.createWriter (aFile, aCharset, false))
+    {
+      if (bSingleChars)
+        for (final char c : sText.toCharArray ())
+          aWriter.write (c);
+      else
+        aWriter.write (sText);
+    }
+    aPool.awaitCompletion ();
+    return aFile;
+  }
+
+  @Test
+  public void testSurrogatePairAtChunkBoundary () throws IOException
+  {
+    // the pair would be split after the fourth character
+    final String sText = "abc\ud83d\ude00def\ud83d\ude00\ud83d\ude00";
+    for (final Charset aCharset : new Charset [] { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE })
+    {
+      assertArrayEquals (sText.getBytes (aCharset),
+                         Files.readAllBytes (_writeChunked (sText, aCharset, true).toPath ()));
+      assertArrayEquals (sText.getBytes (aCharset),
+                         Files.readAllBytes (_writeChunked (sText, aCharset, false).toPath ()));
+    }
+  }
+
+  @Test
+  public void testByteOrderMark () throws IOException
+  {
+    // UTF-16 writes a byte order mark only at the start of the document
+    final String sText = "<doc>\u00e4\ud83d\ude00</doc>";
+    assertArrayEquals (sText.getBytes (StandardCharsets.UTF_16),
+                       Files.readAllBytes (_writeChunked (sText, StandardCharsets.UTF_16, true).toPath ()));
+    assertArrayEquals (sText.getBytes (StandardCharsets.UTF_16),
+                       Files.readAllBytes (_writeChunked (sText, StandardCharsets.UTF_16, false).toPath ()));
+  }
+
+  @Test (expected = IOException.class)
+  public void testError () throws IOException
+  {
+    final ResultWriterPool aPool = new ResultWriterPool (1);
+    final File aFile = m_aTempFolder.newFile ("file");
+    // a file can't be a directory
+    try (final Writer aWriter = aPool.createWriter (new File (aFile, "doc.xml"), StandardCharsets.UTF_8, false))
+    {
+      aWriter.write ("x");
+    }
+    aPool.awaitCompletion ();
+  }
+}
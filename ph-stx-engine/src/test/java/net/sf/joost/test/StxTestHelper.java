@@ -0,0 +1,93 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Runs transformations of inline transformation sheets and documents for the
+ * tests.
+ *
+ * @author Philip Helger
+ */
+public final class StxTestHelper
+{
+  private StxTestHelper ()
+  {}
+
+  /**
+   * @param aAttributes
+   *        pairs of attribute names (see {@link net.sf.joost.trax.CTrAX}) and
+   *        values
+   * @return a new factory with these attributes
+   */
+  @Nonnull
+  public static TransformerFactoryImpl newFactory (@Nonnull final Object... aAttributes)
+  {
+    final TransformerFactoryImpl aFactory = new TransformerFactoryImpl ();
+    for (int i = 0; i < aAttributes.length; i += 2)
+      aFactory.setAttribute ((String) aAttributes[i], aAttributes[i + 1]);
+    return aFactory;
+  }
+
+  @Nonnull
+  public static Transformer newTransformer (@Nonnull final TransformerFactory aFactory,
+                                            @Nonnull final String sSheet) throws TransformerConfigurationException
+  {
+    return aFactory.newTransformer (new StreamSource (new StringReader (sSheet)));
+  }
+
+  /**
+   * @return the result of the transformation as string
+   */
+  @Nonnull
+  public static String transform (@Nonnull final Transformer aTransformer,
+                                  @Nonnull final String sDoc) throws TransformerException
+  {
+    final StringWriter aSW = new StringWriter ();
+    aTransformer.transform (new StreamSource (new StringReader (sDoc)), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Nonnull
+  public static String transform (@Nonnull final TransformerFactory aFactory,
+                                  @Nonnull final String sSheet,
+                                  @Nonnull final String sDoc) throws TransformerException
+  {
+    return transform (newTransformer (aFactory, sSheet), sDoc);
+  }
+
+  @Nonnull
+  public static String transform (@Nonnull final String sSheet, @Nonnull final String sDoc) throws TransformerException
+  {
+    return transform (new TransformerFactoryImpl (), sSheet, sDoc);
+  }
+}
@@ -70,4 +70,31 @@ public class ExtensionFunctionTarget
   {
     throw new MockExtensionFunctionException ();
   }
+
+  private final StringBuilder m_aLog = new StringBuilder ();
+
+  public String getLog ()
+  {
+    return m_aLog.toString ();
+  }
+
+  public void log (final String s)
+  {
+    m_aLog.append (s).append (';');
+  }
+
+  public static String describe (final double d)
+  {
+    return "double " + d;
+  }
+
+  public static String describe (final boolean b)
+  {
+    return "boolean " + b;
+  }
+
+  public static String describe (final String s)
+  {
+    return "String " + s;
+  }
 }
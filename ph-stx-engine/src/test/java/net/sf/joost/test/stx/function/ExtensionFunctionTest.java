@@ -91,6 +91,17 @@ public class ExtensionFunctionTest
     assertEquals (42, target.getBigIntegerValue ().intValue ());
   }
 
+  @Test
+  public void testOverloadedValues () throws TransformerException
+  {
+    final ExtensionFunctionTarget target = new ExtensionFunctionTarget ();
+    doTransform (target, "extensionFunctionOverload.stx");
+
+    // the best method must be chosen for every call, even if the
+    // argument types change between calls of the same function
+    assertEquals ("double 1.0;String a;boolean true;double 2.5;String b;boolean false;", target.getLog ());
+  }
+
   @Test
   public void testException ()
   {
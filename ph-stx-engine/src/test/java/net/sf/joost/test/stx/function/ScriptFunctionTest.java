@@ -0,0 +1,118 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx.function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test class for <code>joost:script</code> functions, using the
+ * {@link StubScriptEngine}
+ *
+ * @author Philip Helger
+ */
+public class ScriptFunctionTest
+{
+  private static Templates _compile () throws TransformerConfigurationException
+  {
+    return new TransformerFactoryImpl ().newTemplates (new StreamSource (ScriptFunctionTest.class.getResource ("scriptFunction.stx")
+                                                                                                 .toExternalForm ()));
+  }
+
+  private static String _transform (final Templates aTemplates) throws TransformerException
+  {
+    return StxTestHelper.transform (aTemplates.newTransformer (), "<x/>");
+  }
+
+  private static String _engineID (final String sResult)
+  {
+    return sResult.substring (sResult.lastIndexOf ('|') + 1);
+  }
+
+  @Test
+  public void testConversions () throws TransformerException
+  {
+    final String sResult = _transform (_compile ());
+    assertTrue (sResult, sResult.startsWith ("a1.0true|4.5|3|true|"));
+  }
+
+  @Test
+  public void testCompiledOncePerThread () throws Exception
+  {
+    final Templates aTemplates = _compile ();
+    final int nCompilations = StubScriptEngine.COMPILATIONS.get ();
+
+    // the engine of the compilation is reused
+    final String sFirst = _transform (aTemplates);
+    assertEquals (sFirst, _transform (aTemplates));
+    assertEquals (nCompilations, StubScriptEngine.COMPILATIONS.get ());
+
+    // another thread gets its own engine
+    final String [] aOther = new String [1];
+    final Thread aThread = new Thread ( () -> {
+      try
+      {
+        aOther[0] = _transform (aTemplates) + _transform (aTemplates);
+      }
+      catch (final TransformerException ex)
+      {
+        aOther[0] = ex.toString ();
+      }
+    });
+    aThread.start ();
+    aThread.join ();
+    final int nHalf = aOther[0].length () / 2;
+    assertEquals (aOther[0].substring (0, nHalf), aOther[0].substring (nHalf));
+    assertNotEquals (_engineID (sFirst), _engineID (aOther[0]));
+    assertEquals (nCompilations + 1, StubScriptEngine.COMPILATIONS.get ());
+  }
+
+  @Test
+  public void testUnknownLanguage ()
+  {
+    try
+    {
+      new TransformerFactoryImpl ().newTemplates (new StreamSource (new StringReader ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                                                                      " xmlns:joost='http://joost.sf.net/extension'" +
+                                                                                      " xmlns:s='urn:script' version='1.0'>" +
+                                                                                      "<joost:script prefix='s' language='no-such-language'>f: concat</joost:script>" +
+                                                                                      "</stx:transform>")));
+      fail ();
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx.function;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * A minimal JSR-223 engine for testing <code>joost:script</code>. Every line
+ * of a script has the form <code>name: operation</code> and defines a function
+ * that applies one of the built-in operations <code>concat</code>,
+ * <code>add</code>, <code>size</code>, <code>not</code> or
+ * <code>engine</code> to its arguments.
+ *
+ * @author Philip Helger
+ */
+public class StubScriptEngine extends AbstractScriptEngine implements Compilable, Invocable
+{
+  /** number of compiled scripts */
+  public static final AtomicInteger COMPILATIONS = new AtomicInteger ();
+
+  private static final AtomicInteger ENGINE_IDS = new AtomicInteger ();
+
+  private final ScriptEngineFactory m_aFactory;
+  private final int m_nID = ENGINE_IDS.incrementAndGet ();
+  private final Map <String, String> m_aFunctions = new HashMap<> ();
+
+  public StubScriptEngine (final ScriptEngineFactory aFactory)
+  {
+    m_aFactory = aFactory;
+  }
+
+  public CompiledScript compile (final String script) throws ScriptException
+  {
+    COMPILATIONS.incrementAndGet ();
+    final Map <String, String> aFunctions = new HashMap<> ();
+    for (final String sLine : script.split ("\n"))
+    {
+      final String sTrimmed = sLine.trim ();
+      if (sTrimmed.isEmpty ())
+        continue;
+      final int nColon = sTrimmed.indexOf (':');
+      if (nColon <= 0)
+        throw new ScriptException ("Syntax error in '" + sTrimmed + "'");
+      aFunctions.put (sTrimmed.substring (0, nColon).trim (), sTrimmed.substring (nColon + 1).trim ());
+    }
+    return new CompiledScript ()
+    {
+      @Override
+      public Object eval (final ScriptContext context)
+      {
+        m_aFunctions.putAll (aFunctions);
+        return null;
+      }
+
+      @Override
+      public ScriptEngine getEngine ()
+      {
+        return StubScriptEngine.this;
+      }
+    };
+  }
+
+  public CompiledScript compile (final Reader script) throws ScriptException
+  {
+    return compile (_read (script));
+  }
+
+  public Object eval (final String script, final ScriptContext context) throws ScriptException
+  {
+    return compile (script).eval (context);
+  }
+
+  public Object eval (final Reader reader, final ScriptContext context) throws ScriptException
+  {
+    return eval (_read (reader), context);
+  }
+
+  private static String _read (final Reader aReader) throws ScriptException
+  {
+    try (final BufferedReader aBR = new BufferedReader (aReader))
+    {
+      return aBR.lines ().collect (Collectors.joining ("\n"));
+    }
+    catch (final IOException ex)
+    {
+      throw new ScriptException (ex);
+    }
+  }
+
+  public Object invokeFunction (final String name, final Object... args) throws ScriptException,
+                                                                         NoSuchMethodException
+  {
+    final String sOperation = m_aFunctions.get (name);
+    if (sOperation == null)
+      throw new NoSuchMethodException (name);
+    switch (sOperation)
+    {
+      case "concat":
+      {
+        final StringBuilder aSB = new StringBuilder ();
+        for (final Object aArg : args)
+          aSB.append (aArg == null ? "" : aArg);
+        return aSB.toString ();
+      }
+      case "add":
+      {
+        double dSum = 0;
+        for (final Object aArg : args)
+          dSum += ((Number) aArg).doubleValue ();
+        return Double.valueOf (dSum);
+      }
+      case "size":
+        return Integer.valueOf (args[0] instanceof List ? ((List <?>) args[0]).size () : args[0] == null ? 0 : 1);
+      case "not":
+        return Boolean.valueOf (!((Boolean) args[0]).booleanValue ());
+      case "engine":
+        return Integer.valueOf (m_nID);
+      default:
+        throw new ScriptException ("Unknown operation '" + sOperation + "'");
+    }
+  }
+
+  public Object invokeMethod (final Object thiz, final String name, final Object... args) throws NoSuchMethodException
+  {
+    throw new NoSuchMethodException (name);
+  }
+
+  public <T> T getInterface (final Class <T> clasz)
+  {
+    return null;
+  }
+
+  public <T> T getInterface (final Object thiz, final Class <T> clasz)
+  {
+    return null;
+  }
+
+  public Bindings createBindings ()
+  {
+    return new SimpleBindings ();
+  }
+
+  public ScriptEngineFactory getFactory ()
+  {
+    return m_aFactory;
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Factory for {@link StubScriptEngine}, registered for the language
+ * <code>stub</code>.
+ *
+ * @author Philip Helger
+ */
+public class StubScriptEngineFactory implements ScriptEngineFactory
+{
+  public String getEngineName ()
+  {
+    return "Joost stub script engine";
+  }
+
+  public String getEngineVersion ()
+  {
+    return "1.0";
+  }
+
+  public List <String> getExtensions ()
+  {
+    return Arrays.asList ("stub");
+  }
+
+  public List <String> getMimeTypes ()
+  {
+    return Arrays.asList ("text/x-stub");
+  }
+
+  public List <String> getNames ()
+  {
+    return Arrays.asList ("stub");
+  }
+
+  public String getLanguageName ()
+  {
+    return "stub";
+  }
+
+  public String getLanguageVersion ()
+  {
+    return "1.0";
+  }
+
+  public Object getParameter (final String key)
+  {
+    if (ScriptEngine.ENGINE.equals (key))
+      return getEngineName ();
+    if (ScriptEngine.ENGINE_VERSION.equals (key))
+      return getEngineVersion ();
+    if (ScriptEngine.NAME.equals (key) || ScriptEngine.LANGUAGE.equals (key))
+      return getLanguageName ();
+    if (ScriptEngine.LANGUAGE_VERSION.equals (key))
+      return getLanguageVersion ();
+    // "THREADING": null, the engine is not thread-safe
+    return null;
+  }
+
+  public String getMethodCallSyntax (final String obj, final String m, final String... args)
+  {
+    return m + "(" + obj + ")";
+  }
+
+  public String getOutputStatement (final String toDisplay)
+  {
+    return toDisplay;
+  }
+
+  public String getProgram (final String... statements)
+  {
+    return String.join ("\n", statements);
+  }
+
+  public ScriptEngine getScriptEngine ()
+  {
+    return new StubScriptEngine (this);
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.test.StxTestHelper;
+
+/**
+ * Test class for {@link TemplatesPipeline}
+ *
+ * @author Philip Helger
+ */
+public class TemplatesPipelineTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'";
+
+  // creates elements with attributes in several namespaces
+  private static final String SHEET1 = PREFIX +
+                                       " xmlns:x='urn:x' xmlns='urn:d' exclude-result-prefixes='stx'>" +
+                                       "<stx:param name='p' select=\"'default'\" />" +
+                                       "<stx:template match='doc'>" +
+                                       "<x:list p='{$p}'><stx:process-children /></x:list>" +
+                                       "</stx:template>" +
+                                       "<stx:template match='item'>" +
+                                       "<entry n='{@id}' x:k='v{@id}'><stx:value-of select='.' /></entry>" +
+                                       "<stx:comment>c<stx:value-of select='@id' /></stx:comment>" +
+                                       "</stx:template>" +
+                                       "</stx:transform>";
+
+  // copies its input, adds attributes and moves entries to another namespace
+  private static final String SHEET2 = PREFIX +
+                                       " xmlns:d='urn:d' xmlns:y='urn:y' pass-through='all'" +
+                                       " exclude-result-prefixes='stx d'>" +
+                                       "<stx:template match='d:entry[@n = 2]'>" +
+                                       "<y:entry><stx:attribute name='y:n' select='@n' />" +
+                                       "<stx:process-attributes /><stx:process-children /></y:entry>" +
+                                       "</stx:template>" +
+                                       "<stx:template match='d:entry'>" +
+                                       "<stx:copy attributes='@*'>" +
+                                       "<stx:attribute name='stage' select='2' /><stx:process-children />" +
+                                       "</stx:copy>" +
+                                       "</stx:template>" +
+                                       "</stx:transform>";
+
+  private static final String DOC = "<doc><item id='1'>a &amp; b</item><item id='2'>c</item><item id='3' /></doc>";
+
+  private static Templates _newTemplates (final String sSheet) throws TransformerException
+  {
+    return new TransformerFactoryImpl ().newTemplates (new StreamSource (new StringReader (sSheet)));
+  }
+
+  private static TemplatesPipeline _newPipeline () throws TransformerException
+  {
+    final TemplatesPipeline aPipeline = new TemplatesPipeline (Arrays.asList (_newTemplates (SHEET1),
+                                                                              _newTemplates (SHEET2)));
+    aPipeline.getTransformer (0).setParameter ("p", "set");
+    return aPipeline;
+  }
+
+  /** Transforms with separate transformers, connected by a string */
+  private static void _chain (final Result aResult) throws TransformerException
+  {
+    final Transformer aTransformer1 = _newTemplates (SHEET1).newTransformer ();
+    aTransformer1.setParameter ("p", "set");
+    final String sIntermediate = StxTestHelper.transform (aTransformer1, DOC);
+    _newTemplates (SHEET2).newTransformer ().transform (new StreamSource (new StringReader (sIntermediate)), aResult);
+  }
+
+  private static String _serialize (final DOMResult aResult) throws TransformerException
+  {
+    final StringWriter aSW = new StringWriter ();
+    new TransformerFactoryImpl ().newTransformer ().transform (new DOMSource (aResult.getNode ()),
+                                                               new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testStreamResult () throws TransformerException
+  {
+    final StringWriter aExpected = new StringWriter ();
+    _chain (new StreamResult (aExpected));
+
+    final StringWriter aSW = new StringWriter ();
+    _newPipeline ().transform (new StreamSource (new StringReader (DOC)), new StreamResult (aSW));
+    assertEquals (aExpected.toString (), aSW.toString ());
+
+    // the test really covers attributes and namespaces
+    assertTrue (aSW.toString (),
+                aSW.toString ()
+                   .contains ("<y:entry xmlns:y=\"urn:y\" y:n=\"2\" n=\"2\" x:k=\"v2\">c</y:entry>"));
+    assertTrue (aSW.toString (), aSW.toString ().contains ("<!--c3-->"));
+  }
+
+  @Test
+  public void testDOMResult () throws TransformerException
+  {
+    final DOMResult aExpected = new DOMResult ();
+    _chain (aExpected);
+
+    final DOMResult aResult = new DOMResult ();
+    _newPipeline ().transform (new StreamSource (new StringReader (DOC)), aResult);
+    assertEquals (_serialize (aExpected), _serialize (aResult));
+  }
+
+  @Test
+  public void testReuse () throws TransformerException
+  {
+    // a pipeline can perform several transformations
+    final TemplatesPipeline aPipeline = _newPipeline ();
+    final StringWriter aSW1 = new StringWriter ();
+    aPipeline.transform (new StreamSource (new StringReader (DOC)), new StreamResult (aSW1));
+    final StringWriter aSW2 = new StringWriter ();
+    aPipeline.transform (new StreamSource (new StringReader (DOC)), new StreamResult (aSW2));
+    assertEquals (aSW1.toString (), aSW2.toString ());
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.sf.joost.test.StxTestHelper;
+import net.sf.joost.trax.CTrAX;
+
+/**
+ * Test class for {@link LargeText} and the chunked output of large text nodes
+ *
+ * @author Philip Helger
+ */
+public class LargeTextTest
+{
+  private static final String PREFIX = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                       " xmlns:a='urn:alias' output-method='text' pass-through='all'>";
+
+  private static String _createText ()
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 150000; i++)
+      aSB.append ((char) ('a' + i % 26));
+    return aSB.toString ();
+  }
+
+  private static String _transform (final String sTemplates,
+                                     final String sText,
+                                     final int nThreshold) throws TransformerException
+  {
+    return StxTestHelper.transform (StxTestHelper.newFactory (CTrAX.LARGE_TEXT_THRESHOLD, Integer.valueOf (nThreshold)),
+                                    PREFIX + sTemplates + "</stx:transform>",
+                                    "<x>" + sText + "</x>");
+  }
+
+  @Test
+  public void testChunks () throws IOException, SAXException
+  {
+    final StringBuilder aSB = new StringBuilder (_createText ());
+    // a surrogate pair across the first chunk boundary
+    aSB.setCharAt (LargeText.CHUNK_SIZE - 1, '\uD83D');
+    aSB.setCharAt (LargeText.CHUNK_SIZE, '\uDE00');
+    final String sText = aSB.toString ();
+    final LargeText.Builder aBuilder = new LargeText.Builder ();
+    aBuilder.append (sText);
+    final LargeText aText = aBuilder.build ();
+    assertEquals (sText.length (), aText.length ());
+
+    final StringBuilder aResult = new StringBuilder ();
+    aText.characters (new DefaultHandler ()
+    {
+      @Override
+      public void characters (final char [] ch, final int start, final int length)
+      {
+        assertTrue (length <= LargeText.CHUNK_SIZE);
+        assertTrue (!Character.isHighSurrogate (ch[start + length - 1]));
+        aResult.append (ch, start, length);
+      }
+    });
+    assertEquals (sText, aResult.toString ());
+  }
+
+  @Test
+  public void testOutputOfLargeText () throws TransformerException
+  {
+    final String sText = _createText ();
+    final String [] aTemplates = { "",
+                                   "<stx:template match='text()'><stx:copy /></stx:template>",
+                                   "<stx:template match='text()'><stx:value-of select='.' /></stx:template>",
+                                   "<stx:namespace-alias sheet-prefix='a' result-prefix='stx' />" +
+                                   "<stx:buffer name='f'><a:transform version='1.0' pass-through='all' /></stx:buffer>" +
+                                   "<stx:template match='x'><stx:process-children filter-src='buffer(f)'" +
+                                   " filter-method='http://stx.sourceforge.net/2002/ns' /></stx:template>" };
+    for (final String sTemplate : aTemplates)
+    {
+      assertEquals (sTemplate, sText, _transform (sTemplate, sText, 0));
+      assertEquals (sTemplate, sText, _transform (sTemplate, sText, 1000));
+    }
+  }
+
+  private static int _countTemporaryFiles ()
+  {
+    final File [] aFiles = new File (System.getProperty ("java.io.tmpdir")).listFiles ( (aDir,
+                                                                                       sName) -> sName.startsWith ("joost") &&
+                                                                                                 sName.endsWith (".txt"));
+    return aFiles == null ? 0 : aFiles.length;
+  }
+
+  @Test
+  public void testTemporaryFiles () throws IOException, TransformerException
+  {
+    final int nFiles = _countTemporaryFiles ();
+
+    // the file is removed as soon as the text has been mapped
+    final LargeText.Builder aBuilder = new LargeText.Builder ();
+    aBuilder.append (_createText ());
+    final LargeText aText = aBuilder.build ();
+    assertEquals (nFiles, _countTemporaryFiles ());
+    assertEquals ('a', aText.charAt (0));
+    aText.close ();
+
+    final LargeText.Builder aDiscarded = new LargeText.Builder ();
+    aDiscarded.append ("abc");
+    aDiscarded.discard ();
+    assertEquals (nFiles, _countTemporaryFiles ());
+
+    final String sText = _createText ();
+    assertEquals (sText,
+                  _transform ("<stx:variable name='v' /><stx:template match='text()'><stx:assign name='v' select='.' />" +
+                              "<stx:value-of select='$v' /></stx:template>",
+                              sText,
+                              1000));
+    assertEquals (nFiles, _countTemporaryFiles ());
+  }
+}
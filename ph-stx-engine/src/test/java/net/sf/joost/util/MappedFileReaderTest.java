@@ -0,0 +1,128 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.CharConversionException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link MappedFileReader}
+ *
+ * @author Philip Helger
+ */
+public class MappedFileReaderTest
+{
+  private static File _createFile (final byte [] aBytes) throws IOException
+  {
+    final File aFile = File.createTempFile ("mapped", ".xml");
+    aFile.deleteOnExit ();
+    Files.write (aFile.toPath (), aBytes);
+    return aFile;
+  }
+
+  private static File _createFile (final String sContent, final Charset aCharset) throws IOException
+  {
+    return _createFile (sContent.getBytes (aCharset));
+  }
+
+  private static String _read (final File aFile, final long nWindowSize, final int nChunkSize) throws IOException
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    try (final MappedFileReader aReader = MappedFileReader.open (aFile, nWindowSize))
+    {
+      assertNotNull (aReader);
+      final char [] aBuf = new char [nChunkSize];
+      int n;
+      while ((n = aReader.read (aBuf, 0, nChunkSize)) >= 0)
+        aSB.append (aBuf, 0, n);
+    }
+    return aSB.toString ();
+  }
+
+  @Test
+  public void testDecode () throws IOException
+  {
+    final StringBuilder aSB = new StringBuilder ("<?xml version='1.0' encoding='utf-8'?>\n<doc>");
+    for (int i = 0; i < 200; i++)
+      aSB.append ("ascii text \u00e4\u00f6\u00fc \u20ac \uD83D\uDE00 ");
+    aSB.append ("</doc>");
+    final String sContent = aSB.toString ();
+    final File aFile = _createFile (sContent, StandardCharsets.UTF_8);
+
+    assertEquals (sContent, _read (aFile, MappedFileReader.DEFAULT_WINDOW_SIZE, 8192));
+    // sequences crossing region boundaries, pending low surrogates
+    for (final int nWindowSize : new int [] { 5, 7, 64 })
+      for (final int nChunkSize : new int [] { 1, 3, 17 })
+        assertEquals (sContent, _read (aFile, nWindowSize, nChunkSize));
+  }
+
+  @Test
+  public void testByteOrderMark () throws IOException
+  {
+    final byte [] aBytes = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '<', 'a', '/', '>' };
+    assertEquals ("<a/>", _read (_createFile (aBytes), MappedFileReader.DEFAULT_WINDOW_SIZE, 16));
+    assertEquals ("", _read (_createFile (new byte [0]), MappedFileReader.DEFAULT_WINDOW_SIZE, 16));
+  }
+
+  @Test
+  public void testOtherEncodings () throws IOException
+  {
+    assertNull (MappedFileReader.open (_createFile ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a/>",
+                                                    StandardCharsets.ISO_8859_1)));
+    assertNull (MappedFileReader.open (_createFile ("\uFEFF<a/>", StandardCharsets.UTF_16LE)));
+    assertNull (MappedFileReader.open (_createFile ("<a/>", StandardCharsets.UTF_16BE)));
+    assertNull (MappedFileReader.open ("http://localhost/a.xml"));
+  }
+
+  @Test
+  public void testDeclaredAscii () throws IOException
+  {
+    // non-ASCII bytes in documents declared as ASCII must not be decoded as
+    // UTF-8, so these are left to the parser
+    final byte [] aBytes = { (byte) 0xC3, (byte) 0xA4 };
+    for (final String sEncoding : new String [] { "US-ASCII", "ascii" })
+      assertNull (MappedFileReader.open (_createFile ("<?xml version=\"1.0\" encoding=\"" +
+                                                      sEncoding +
+                                                      "\"?><a>" +
+                                                      new String (aBytes, StandardCharsets.ISO_8859_1) +
+                                                      "</a>",
+                                                      StandardCharsets.ISO_8859_1)));
+    final String sUTF8 = "<?xml version=\"1.0\" encoding=\"UTF8\"?><a/>";
+    assertEquals (sUTF8, _read (_createFile (sUTF8, StandardCharsets.UTF_8), MappedFileReader.DEFAULT_WINDOW_SIZE, 16));
+  }
+
+  @Test (expected = CharConversionException.class)
+  public void testMalformed () throws IOException
+  {
+    _read (_createFile (new byte [] { '<', 'a', '>', (byte) 0xC3, 'x', '<', '/', 'a', '>' }),
+           MappedFileReader.DEFAULT_WINDOW_SIZE,
+           16);
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link SpscRingBuffer}
+ *
+ * @author Philip Helger
+ */
+public class SpscRingBufferTest
+{
+  @Test
+  public void testCapacity ()
+  {
+    assertEquals (1, new SpscRingBuffer<> (1).getCapacity ());
+    assertEquals (4, new SpscRingBuffer<> (3).getCapacity ());
+    assertEquals (16, new SpscRingBuffer<> (16).getCapacity ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testIllegalCapacity ()
+  {
+    new SpscRingBuffer<> (0);
+  }
+
+  @Test
+  public void testWrapAround ()
+  {
+    final SpscRingBuffer <Integer> aBuffer = new SpscRingBuffer<> (4);
+    int nNext = 0;
+    for (int nRound = 0; nRound < 10; nRound++)
+    {
+      // fill the buffer with a varying offset of the slots
+      final int nCount = 1 + nRound % 4;
+      for (int i = 0; i < nCount; i++)
+        assertTrue (aBuffer.put (Integer.valueOf (nNext + i)));
+      for (int i = 0; i < nCount; i++)
+        assertEquals (nNext + i, aBuffer.take ().intValue ());
+      nNext += nCount;
+    }
+  }
+
+  private static Thread _start (final Runnable aRunnable, final AtomicReference <Throwable> aError)
+  {
+    final Thread aThread = new Thread ( () -> {
+      try
+      {
+        aRunnable.run ();
+      }
+      catch (final Throwable t)
+      {
+        aError.set (t);
+      }
+    });
+    aThread.start ();
+    return aThread;
+  }
+
+  private static void _sleep (final long nMillis)
+  {
+    try
+    {
+      Thread.sleep (nMillis);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * Passes objects from a producer to a consumer thread, the delays make the
+   * waiting side spin, yield and park.
+   */
+  private static void _transfer (final int nCount, final int nProducerDelay, final int nConsumerDelay) throws Exception
+  {
+    final SpscRingBuffer <Integer> aBuffer = new SpscRingBuffer<> (2);
+    final AtomicReference <Throwable> aError = new AtomicReference<> ();
+    final Thread aProducer = _start ( () -> {
+      for (int i = 0; i < nCount; i++)
+      {
+        if (nProducerDelay > 0 && i % 1000 == 0)
+          _sleep (nProducerDelay);
+        assertTrue (aBuffer.put (Integer.valueOf (i)));
+      }
+    }, aError);
+    for (int i = 0; i < nCount; i++)
+    {
+      if (nConsumerDelay > 0 && i % 1000 == 0)
+        _sleep (nConsumerDelay);
+      assertEquals (i, aBuffer.take ().intValue ());
+    }
+    aProducer.join ();
+    assertNull (aError.get ());
+  }
+
+  @Test
+  public void testOrdering () throws Exception
+  {
+    _transfer (100000, 0, 0);
+    // the consumer waits for the producer
+    _transfer (10000, 5, 0);
+    // the producer waits for the consumer
+    _transfer (10000, 0, 5);
+  }
+
+  @Test
+  public void testAbortReleasesConsumer () throws Exception
+  {
+    final SpscRingBuffer <Integer> aBuffer = new SpscRingBuffer<> (2);
+    final AtomicReference <Integer> aTaken = new AtomicReference<> (Integer.valueOf (0));
+    final AtomicReference <Throwable> aError = new AtomicReference<> ();
+    final Thread aConsumer = _start ( () -> aTaken.set (aBuffer.take ()), aError);
+    // long enough for the consumer to park
+    _sleep (50);
+    aBuffer.abort ();
+    aConsumer.join (10000);
+    assertFalse (aConsumer.isAlive ());
+    assertNull (aTaken.get ());
+    assertNull (aError.get ());
+    assertTrue (aBuffer.isAborted ());
+  }
+
+  @Test
+  public void testAbortReleasesProducer () throws Exception
+  {
+    final SpscRingBuffer <Integer> aBuffer = new SpscRingBuffer<> (2);
+    final AtomicReference <Boolean> aPut = new AtomicReference<> ();
+    final AtomicReference <Throwable> aError = new AtomicReference<> ();
+    final Thread aProducer = _start ( () -> {
+      for (int i = 0; i < 3; i++)
+        aPut.set (Boolean.valueOf (aBuffer.put (Integer.valueOf (i))));
+    }, aError);
+    // long enough for the producer to park on the full buffer
+    _sleep (50);
+    aBuffer.abort ();
+    aProducer.join (10000);
+    assertFalse (aProducer.isAlive ());
+    assertEquals (Boolean.FALSE, aPut.get ());
+    assertNull (aError.get ());
+
+    // nothing can be exchanged after an abort
+    assertFalse (aBuffer.put (Integer.valueOf (4)));
+    assertNull (aBuffer.take ());
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util.regex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.sf.joost.grammar.EvalException;
+
+/**
+ * Test class for {@link RegexAlternation}
+ *
+ * @author Philip Helger
+ */
+public class RegexAlternationTest
+{
+  private static final String [] REGEXES = { "a+",
+                                             "ab",
+                                             "a*",
+                                             "b|ba",
+                                             "(a)(b)?",
+                                             "(.)\\1",
+                                             "^b",
+                                             "c$",
+                                             "x*?",
+                                             "\\w+" };
+  private static final String [] FLAGS = { "", "i", "s", "m", "x" };
+
+  private static List <String> _scan (final RegexAlternation aAlternation, final String sText)
+  {
+    final List <String> ret = new ArrayList<> ();
+    final RegexAlternation.Scanner aScanner = aAlternation.scanner (sText);
+    int nIndex = 0;
+    while (nIndex < sText.length () && aScanner.find (nIndex))
+    {
+      final StringBuilder aSB = new StringBuilder ();
+      aSB.append (aScanner.getBranch ()).append ('@').append (aScanner.getStart ()).append ('-').append (aScanner.getEnd ());
+      for (final String sGroup : aScanner.getGroups ())
+        aSB.append (',').append (sGroup);
+      ret.add (aSB.toString ());
+      nIndex = aScanner.getEnd ();
+    }
+    return ret;
+  }
+
+  @Test
+  public void testLeftmostLongest () throws EvalException
+  {
+    final RegexAlternation aAlternation = new RegexAlternation (new String [] { "a", "ab", "abc?", "b" },
+                                                                new String [] { "", "", "", "" });
+    assertTrue (aAlternation.isCombined ());
+    final RegexAlternation.Scanner aScanner = aAlternation.scanner ("xabcab");
+    assertTrue (aScanner.find (0));
+    assertEquals (2, aScanner.getBranch ());
+    assertEquals (1, aScanner.getStart ());
+    assertEquals (4, aScanner.getEnd ());
+    // ties are resolved in favor of the first expression
+    assertTrue (aScanner.find (4));
+    assertEquals (1, aScanner.getBranch ());
+    assertFalse (aScanner.find (6));
+  }
+
+  @Test
+  public void testBackReferences () throws EvalException
+  {
+    final RegexAlternation aAlternation = new RegexAlternation (new String [] { "(x)(y)", "(.)\\1" },
+                                                                new String [] { "", "" });
+    assertTrue (aAlternation.isCombined ());
+    final RegexAlternation.Scanner aScanner = aAlternation.scanner ("xyzz");
+    assertTrue (aScanner.find (2));
+    assertEquals (1, aScanner.getBranch ());
+    assertArrayEquals (new String [] { "zz", "z" }, aScanner.getGroups ());
+  }
+
+  @Test
+  public void testSameAsSeparateSearch () throws EvalException
+  {
+    final Random aRandom = new Random (42);
+    for (int nRun = 0; nRun < 2000; nRun++)
+    {
+      final int nCount = 2 + aRandom.nextInt (3);
+      final String [] aRegexes = new String [nCount];
+      final String [] aFlags = new String [nCount];
+      for (int i = 0; i < nCount; i++)
+      {
+        aRegexes[i] = REGEXES[aRandom.nextInt (REGEXES.length)];
+        aFlags[i] = FLAGS[aRandom.nextInt (FLAGS.length)];
+      }
+      final StringBuilder aText = new StringBuilder ();
+      final int nLen = aRandom.nextInt (12);
+      for (int i = 0; i < nLen; i++)
+        aText.append ("aAbBc\nx ".charAt (aRandom.nextInt (8)));
+
+      final RegexAlternation aCombined = new RegexAlternation (aRegexes, aFlags);
+      assertTrue (aCombined.isCombined ());
+      assertEquals (String.join (" ", aRegexes) + " / " + String.join (" ", aFlags) + " on '" + aText + "'",
+                    _scan (new RegexAlternation (aRegexes, aFlags, false), aText.toString ()),
+                    _scan (aCombined, aText.toString ()));
+    }
+  }
+}